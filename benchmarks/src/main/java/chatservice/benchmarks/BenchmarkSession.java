@@ -0,0 +1,137 @@
+package chatservice.benchmarks;
+
+import chatservice.ClientSession;
+import chatservice.OutboundQueue;
+import chatservice.Payload;
+import chatservice.Room;
+
+import java.net.InetAddress;
+
+/**
+ * A client for the benchmarks that is not connected to anything.  Messages sent to it wait in a real outbound queue
+ * until the benchmark drains them, the way the writer of a client would.
+ *
+ */
+public class BenchmarkSession implements ClientSession {
+
+    /**
+     * the unique identifier of the client
+     */
+    private int clientID;
+
+    /**
+     * the messages waiting for the client
+     */
+    private OutboundQueue outbound;
+
+    /**
+     * the chat room the client is in
+     */
+    private volatile Room room = null;
+
+    /**
+     * Creates a client
+     *
+     * @param clientID  the unique identifier of the client
+     * @param queueSize the most messages that can be waiting for the client
+     */
+    public BenchmarkSession(int clientID, int queueSize){
+        this.clientID = clientID;
+        outbound = new OutboundQueue(queueSize);
+    }
+
+    /**
+     * Adds a message to the queue of the client
+     *
+     * @param message the message being sent
+     */
+    public void send(Payload message){
+
+        outbound.offer(message);
+    }
+
+    /**
+     * Stops queueing messages for the client, the waiting messages are thrown away
+     *
+     * @param reason why the client is disconnected
+     */
+    public void disconnect(String reason){
+
+        outbound.close();
+    }
+
+    /**
+     * Takes every waiting message off the queue and releases it, like a writer that keeps up
+     *
+     * @return the number of messages taken
+     */
+    public int drain(){
+        int count = 0;
+        Payload message;
+        while((message = outbound.poll()) != null){
+            message.release();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the unique identifier of the client
+     *
+     * @return the client ID
+     */
+    public int getClientID(){
+
+        return clientID;
+    }
+
+    /**
+     * Returns false, the benchmark clients pretend to be TCP/IP clients
+     *
+     * @return false
+     */
+    public boolean isProtocolUDP(){
+
+        return false;
+    }
+
+    /**
+     * Returns the loopback address
+     *
+     * @return the address of the client
+     */
+    public InetAddress getInetAddress(){
+
+        return InetAddress.getLoopbackAddress();
+    }
+
+    /**
+     * Returns the chat room the client is in
+     *
+     * @return the room, or null if the client is not in a room
+     */
+    public Room getRoom(){
+
+        return room;
+    }
+
+    /**
+     * Sets the chat room the client is in
+     *
+     * @param room the room, or null once the client has left
+     */
+    public void setRoom(Room room){
+
+        this.room = room;
+    }
+
+    /**
+     * Returns the queue of messages waiting for the client
+     *
+     * @return the outbound queue
+     */
+    public OutboundQueue getOutboundQueue(){
+
+        return outbound;
+    }
+}
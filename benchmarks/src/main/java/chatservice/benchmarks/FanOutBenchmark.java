@@ -0,0 +1,68 @@
+package chatservice.benchmarks;
+
+import chatservice.ClientRegistry;
+import chatservice.Payload;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures forwarding one message to every client, the work a Room hands to the client list of its members.  The
+ * message is encoded once, added to the outbound queue of every client and then taken off again by the benchmark,
+ * the way the writers of the clients would.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    /**
+     * the number of clients the message is sent to
+     */
+    @Param({"10", "100", "1000", "10000"})
+    public int recipients;
+
+    /**
+     * the clients connected to the pretend server
+     */
+    private ClientRegistry clients;
+
+    /**
+     * the same clients, so the benchmark can drain their queues
+     */
+    private BenchmarkSession[] sessions;
+
+    /**
+     * Connects the clients
+     */
+    @Setup
+    public void setUp(){
+        clients = new ClientRegistry();
+        sessions = new BenchmarkSession[recipients];
+        for(int i = 0; i < recipients; i++){
+            sessions[i] = new BenchmarkSession(clients.nextClientID(), 16);
+            clients.add(sessions[i]);
+        }
+    }
+
+    /**
+     * Encodes a message, sends it to every client and lets every client's writer take it
+     *
+     * @return the number of messages taken by the writers
+     */
+    @Benchmark
+    public int sendToAll(){
+        Payload payload = Payload.encode("(01:02:03) Client1: Hello everyone, is the meeting still at three?");
+        clients.sendToAll(payload);
+        payload.release();
+        int taken = 0;
+        for(BenchmarkSession session : sessions){
+            taken += session.drain();
+        }
+        return taken;
+    }
+}
@@ -0,0 +1,94 @@
+package chatservice.benchmarks;
+
+import chatservice.FrameProtocol;
+import chatservice.MessageFormatter;
+import chatservice.Payload;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old way of formatting a message from a client with the MessageFormatter.  The old way built a new
+ * Date, a new SimpleDateFormat and several strings for every message and then turned the result into a payload.  The
+ * formatter copies the received bytes straight into a pooled payload behind a cached timestamp and name.
+ *
+ * Run with -prof gc to see the bytes allocated for each message.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    /**
+     * the client ID the messages are formatted for
+     */
+    private static final int clientID = 42;
+
+    /**
+     * a typical chat message, as the bytes a client sent
+     */
+    private byte[] message = "Hello everyone, is the meeting still at three?".getBytes(Charset.defaultCharset());
+
+    /**
+     * the formatter being measured
+     */
+    private MessageFormatter formatter = new MessageFormatter();
+
+    /**
+     * the name of the client as bytes, each client keeps its own
+     */
+    private byte[] namePrefix = MessageFormatter.namePrefix(clientID);
+
+    /**
+     * Formats a message the way the server did before the MessageFormatter
+     *
+     * @return the length of the payload
+     */
+    @Benchmark
+    public int legacyFormat(){
+        Payload payload = Payload.encode(FrameProtocol.chat, clientID,
+                legacyFormat(clientID, new String(message, Charset.defaultCharset())));
+        int length = payload.length();
+        payload.release();
+        return length;
+    }
+
+    /**
+     * Formats a message with the MessageFormatter
+     *
+     * @return the length of the payload
+     */
+    @Benchmark
+    public int formatter(){
+        Payload payload = formatter.format(clientID, namePrefix, message, 0, message.length);
+        int length = payload.length();
+        payload.release();
+        return length;
+    }
+
+    /**
+     * The way ServerThread.formatMessage formatted messages before the MessageFormatter
+     *
+     * @param clientID  the unique identifier of the client that sent the message
+     * @param message   the message being formatted
+     * @return the formatted message
+     */
+    static String legacyFormat(int clientID, String message){
+        //create a timestamp
+        Date date = new Date();
+        SimpleDateFormat sdf = new SimpleDateFormat("hh:mm:ss");
+        String time = sdf.format(date);
+        String formattedTime = "(" + time + ") ";
+        //create string of user name
+        String name = "Client" + clientID + ": ";
+        //combine client number, timestamp, and message
+        return formattedTime + name + message;
+    }
+}
@@ -0,0 +1,286 @@
+package chatservice.benchmarks;
+
+import chatservice.DatagramBatch;
+import chatservice.DatagramFragment;
+import chatservice.FragmentReassembler;
+import chatservice.FrameProtocol;
+import chatservice.MessageDecoder;
+import chatservice.Payload;
+import chatservice.PayloadPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning bytes into messages and messages into bytes on the TCP/IP and UDP paths.  Each benchmark handles
+ * a burst of messages: splitting what a TCP/IP client sent into lines or frames, copying payloads into a write
+ * buffer as lines or frames, packing and unpacking a UDP batch, putting a long UDP message back together, and
+ * encoding a payload from the pool.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+
+    /**
+     * the number of messages in each burst
+     */
+    private static final int burst = 100;
+
+    /**
+     * the characters messages are turned into bytes with
+     */
+    private static final Charset charset = Charset.defaultCharset();
+
+    /**
+     * a typical chat message
+     */
+    private static final String message = "(01:02:03) Client1: Hello everyone, is the meeting still at three?";
+
+    /**
+     * a burst of messages as lines of text, the way a text client sends them
+     */
+    private ByteBuffer lines;
+
+    /**
+     * a burst of messages as frames, the way a framed client sends them
+     */
+    private ByteBuffer frames;
+
+    /**
+     * splits the lines, it is reused for every burst
+     */
+    private MessageDecoder lineDecoder;
+
+    /**
+     * splits the frames, it is reused for every burst
+     */
+    private MessageDecoder frameDecoder;
+
+    /**
+     * the number of messages the decoders have handed on
+     */
+    private long decoded = 0;
+
+    /**
+     * a burst of payloads to be written
+     */
+    private Payload[] payloads = new Payload[burst];
+
+    /**
+     * the buffer the payloads are written into, like the write buffer of an I/O thread
+     */
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    /**
+     * a UDP batch packet holding a burst of messages that fit
+     */
+    private byte[] batch;
+
+    /**
+     * the fragments of a long UDP message
+     */
+    private ByteBuffer[] fragments;
+
+    /**
+     * puts the long UDP message back together
+     */
+    private FragmentReassembler reassembler = new FragmentReassembler(PayloadPool.receiving());
+
+    /**
+     * Builds the bursts
+     */
+    @Setup
+    public void setUp(){
+        MessageDecoder.Listener counter = new MessageDecoder.Listener() {
+            public void prefaceReceived(int version){
+            }
+
+            public void messageReceived(byte type, byte[] bytes, int offset, int length){
+                decoded++;
+            }
+
+            public void invalidInput(String reason){
+                throw new IllegalStateException(reason);
+            }
+        };
+        byte[] bytes = message.getBytes(charset);
+
+        lines = ByteBuffer.allocateDirect(burst * (bytes.length + 1));
+        for(int i = 0; i < burst; i++){
+            lines.put(bytes).put((byte) '\n');
+        }
+        lineDecoder = new MessageDecoder(counter);
+
+        frames = ByteBuffer.allocateDirect(burst * (FrameProtocol.headerSize + bytes.length));
+        for(int i = 0; i < burst; i++){
+            FrameProtocol.putHeader(frames, FrameProtocol.chat, 1, bytes.length);
+            frames.put(bytes);
+        }
+        frameDecoder = new MessageDecoder(counter);
+        frameDecoder.decode(ByteBuffer.wrap(new byte[]{FrameProtocol.marker, 'C', 'H', FrameProtocol.version}));
+
+        for(int i = 0; i < burst; i++){
+            payloads[i] = Payload.encode(message);
+        }
+
+        ByteBuffer packet = ByteBuffer.allocate(1400);
+        DatagramBatch.putHeader(packet);
+        while(packet.remaining() >= DatagramBatch.entryHeaderSize + payloads[0].datagramLength()){
+            DatagramBatch.putEntry(packet, payloads[0]);
+        }
+        batch = new byte[packet.position()];
+        packet.flip().get(batch);
+
+        StringBuilder longMessage = new StringBuilder();
+        while(longMessage.length() < 8000){
+            longMessage.append(message);
+        }
+        byte[] longBytes = longMessage.toString().getBytes(charset);
+        int pieceSize = 1400 - DatagramFragment.headerSize;
+        fragments = new ByteBuffer[(longBytes.length + pieceSize - 1) / pieceSize];
+        for(int i = 0; i < fragments.length; i++){
+            int offset = i * pieceSize;
+            int length = Math.min(pieceSize, longBytes.length - offset);
+            ByteBuffer fragment = ByteBuffer.allocate(DatagramFragment.headerSize + length);
+            DatagramFragment.putHeader(fragment, 7, longBytes.length, offset);
+            fragment.put(longBytes, offset, length).flip();
+            fragments[i] = fragment;
+        }
+    }
+
+    /**
+     * Releases the payloads
+     */
+    @TearDown
+    public void tearDown(){
+        for(Payload payload : payloads){
+            payload.release();
+        }
+    }
+
+    /**
+     * Splits a burst of lines from a text client
+     *
+     * @return the number of messages handed on so far
+     */
+    @Benchmark
+    public long tcpDecodeLines(){
+        lines.clear();
+        lineDecoder.decode(lines);
+        return decoded;
+    }
+
+    /**
+     * Splits a burst of frames from a framed client
+     *
+     * @return the number of messages handed on so far
+     */
+    @Benchmark
+    public long tcpDecodeFrames(){
+        frames.clear();
+        frameDecoder.decode(frames);
+        return decoded;
+    }
+
+    /**
+     * Copies a burst of payloads into a write buffer as lines of text
+     *
+     * @return the number of bytes copied
+     */
+    @Benchmark
+    public int tcpEncodeLines(){
+
+        return encode(false);
+    }
+
+    /**
+     * Copies a burst of payloads into a write buffer as frames
+     *
+     * @return the number of bytes copied
+     */
+    @Benchmark
+    public int tcpEncodeFrames(){
+
+        return encode(true);
+    }
+
+    /**
+     * Packs as many messages as fit into a UDP batch packet
+     *
+     * @return the number of bytes packed
+     */
+    @Benchmark
+    public int udpEncodeBatch(){
+        writeBuffer.clear();
+        DatagramBatch.putHeader(writeBuffer);
+        for(Payload payload : payloads){
+            if(writeBuffer.position() + DatagramBatch.entryHeaderSize + payload.datagramLength() > 1400){
+                break;
+            }
+            DatagramBatch.putEntry(writeBuffer, payload);
+        }
+        return writeBuffer.position();
+    }
+
+    /**
+     * Splits a UDP batch packet into its messages, the way the client does
+     *
+     * @return the number of messages in the packet
+     */
+    @Benchmark
+    public int udpDecodeBatch(){
+
+        return DatagramBatch.unpack(batch, batch.length, charset).size();
+    }
+
+    /**
+     * Puts a long UDP message back together from its fragments
+     *
+     * @return the length of the message
+     */
+    @Benchmark
+    public int udpReassemble(){
+        for(ByteBuffer fragment : fragments){
+            if(reassembler.add(fragment)){
+                int length = reassembler.length();
+                reassembler.release();
+                return length;
+            }
+        }
+        throw new IllegalStateException("The message was not put back together.");
+    }
+
+    /**
+     * Encodes a message into a payload from the pool and releases it
+     *
+     * @return the length of the payload
+     */
+    @Benchmark
+    public int payloadEncode(){
+        Payload payload = Payload.encode(message);
+        int length = payload.length();
+        payload.release();
+        return length;
+    }
+
+    /**
+     * A helper method that copies the burst of payloads into the write buffer
+     *
+     * @param framed true to copy frames, false to copy lines of text
+     * @return the number of bytes copied
+     */
+    private int encode(boolean framed){
+        writeBuffer.clear();
+        for(Payload payload : payloads){
+            payload.copyTo(writeBuffer, framed);
+        }
+        return writeBuffer.position();
+    }
+}
@@ -0,0 +1,86 @@
+package chatservice.benchmarks;
+
+import chatservice.ClientRegistry;
+import chatservice.ClientSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the client list: a client connecting and disconnecting, walking the list when nothing has changed, and
+ * walking it right after a change, which has to copy the list once.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+
+    /**
+     * the number of clients already in the list
+     */
+    @Param({"100", "10000"})
+    public int size;
+
+    /**
+     * the client list being measured
+     */
+    private ClientRegistry clients;
+
+    /**
+     * the client that connects and disconnects
+     */
+    private BenchmarkSession churn;
+
+    /**
+     * Fills the list
+     */
+    @Setup
+    public void setUp(){
+        clients = new ClientRegistry();
+        for(int i = 0; i < size; i++){
+            clients.add(new BenchmarkSession(clients.nextClientID(), 1));
+        }
+        churn = new BenchmarkSession(clients.nextClientID(), 1);
+    }
+
+    /**
+     * Adds a client and removes it again
+     *
+     * @return true if the client was removed
+     */
+    @Benchmark
+    public boolean addRemove(){
+        clients.add(churn);
+        return clients.remove(churn);
+    }
+
+    /**
+     * Walks the list when it has not changed since the last walk
+     *
+     * @return the sum of the client IDs
+     */
+    @Benchmark
+    public long iterate(){
+        long sum = 0;
+        for(ClientSession client : clients.snapshot()){
+            sum += client.getClientID();
+        }
+        return sum;
+    }
+
+    /**
+     * Adds and removes a client and then walks the list, so every walk copies the list
+     *
+     * @return the sum of the client IDs
+     */
+    @Benchmark
+    public long iterateAfterChange(){
+        clients.add(churn);
+        clients.remove(churn);
+        return iterate();
+    }
+}
@@ -0,0 +1,94 @@
+package chatservice.benchmarks;
+
+import chatservice.Payload;
+import chatservice.Room;
+import chatservice.RoomRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures forwarding one message in a chat room when 1000 clients are spread over a number of rooms, the work
+ * MainServer.forward hands to the room, and moving a client from one room to another.  Each room keeps a history of
+ * 100 messages, like the server does by default.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomBenchmark {
+
+    /**
+     * the number of clients connected to the pretend server
+     */
+    private static final int clientCount = 1000;
+
+    /**
+     * the number of rooms the clients are spread over
+     */
+    @Param({"1", "10", "100", "500"})
+    public int roomCount;
+
+    /**
+     * the rooms of the pretend server
+     */
+    private RoomRegistry rooms;
+
+    /**
+     * the clients, so the benchmark can drain their queues
+     */
+    private BenchmarkSession[] sessions;
+
+    /**
+     * the next room the client that is moved goes to
+     */
+    private int nextRoom = 0;
+
+    /**
+     * Spreads the clients over the rooms
+     */
+    @Setup
+    public void setUp(){
+        rooms = new RoomRegistry(100, 64 * 1024, false);
+        sessions = new BenchmarkSession[clientCount];
+        for(int i = 0; i < clientCount; i++){
+            sessions[i] = new BenchmarkSession(i + 1, 1024);
+            rooms.join(sessions[i], "room" + (i % roomCount));
+        }
+    }
+
+    /**
+     * Encodes a message, forwards it in the room of the first client and lets every client's writer take it
+     *
+     * @return the number of messages taken by the writers
+     */
+    @Benchmark
+    public int send(){
+        Room room = sessions[0].getRoom();
+        Payload payload = Payload.encode("(01:02:03) Client1: Hello everyone, is the meeting still at three?");
+        room.send(payload);
+        payload.release();
+        int taken = 0;
+        for(int i = 0; i < clientCount; i += roomCount){
+            taken += sessions[i].drain();
+        }
+        return taken;
+    }
+
+    /**
+     * Moves the last client to the next room, it is sent the history of the room it joins
+     *
+     * @return the number of messages of history the client was sent
+     */
+    @Benchmark
+    public int move(){
+        BenchmarkSession session = sessions[clientCount - 1];
+        rooms.leave(session);
+        nextRoom = (nextRoom + 1) % roomCount;
+        rooms.join(session, "room" + nextRoom);
+        return session.drain();
+    }
+}
@@ -0,0 +1,209 @@
+package chatservice.benchmarks;
+
+import chatservice.MainServer;
+import chatservice.ServerConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+
+/**
+ * Compares running the client handlers on platform threads with running them on virtual threads.  The benchmark
+ * starts a server in the chosen mode and connects many TCP clients to it over loopback.  It first measures the cost
+ * of the idle connections (time to connect, live platform threads and heap used), and then the cost of active
+ * connections (a few clients send messages and every client reads all of them).
+ *
+ * Usage, with the chat and benchmark jars on the class path:
+ *   java chatservice.benchmarks.ThreadModeBenchmark all                           every mode at 1000 and 10000
+ *   java chatservice.benchmarks.ThreadModeBenchmark platform|virtual N [S] [M]    N connections, S senders, M each
+ *
+ * Every mode in "all" is run in its own JVM so the results do not affect each other.  10000 connections need about
+ * 20000 file descriptors, so raise the open file limit (ulimit -n) before running it.
+ *
+ */
+public class ThreadModeBenchmark {
+
+    /**
+     * the number of clients that send messages during the active part
+     */
+    private static final int defaultSenders = 10;
+
+    /**
+     * the number of messages each sender sends during the active part
+     */
+    private static final int defaultMessages = 20;
+
+    /**
+     * the longest time in milliseconds to wait for all of the messages to arrive
+     */
+    private static final long timeout = 120000;
+
+    /**
+     * the client channels connected to the server
+     */
+    private ArrayList<SocketChannel> channels = new ArrayList<>();
+
+    /**
+     * the selector used to read from all of the client channels
+     */
+    private Selector selector;
+
+    /**
+     * the buffer every client channel is read into
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    /**
+     * the number of lines read from the server so far
+     */
+    private long linesRead = 0;
+
+    /**
+     * Runs the benchmark
+     *
+     * @param args see the usage in the class comment
+     * @throws Exception if the benchmark could not be run
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length == 0 || args[0].equals("all")){
+            runAll();
+            return;
+        }
+        String mode = args[0];
+        int connections = Integer.parseInt(args[1]);
+        int senders = args.length > 2 ? Integer.parseInt(args[2]) : defaultSenders;
+        int messages = args.length > 3 ? Integer.parseInt(args[3]) : defaultMessages;
+        new ThreadModeBenchmark().run(mode, connections, Math.min(senders, connections), messages);
+        System.exit(0);
+    }
+
+    /**
+     * Runs every mode at 1000 and 10000 connections, each in a new JVM
+     *
+     * @throws Exception if a JVM could not be started
+     */
+    private static void runAll() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath = System.getProperty("java.class.path");
+        for(int connections : new int[]{1000, 10000}){
+            for(String mode : new String[]{"platform", "virtual"}){
+                Process process = new ProcessBuilder(java, "-cp", classPath, ThreadModeBenchmark.class.getName(),
+                        mode, Integer.toString(connections)).inheritIO().start();
+                process.waitFor();
+            }
+        }
+    }
+
+    /**
+     * Runs the idle and active parts of the benchmark for one mode
+     *
+     * @param mode          platform or virtual
+     * @param connections   the number of clients to connect
+     * @param senders       the number of clients that send messages
+     * @param messages      the number of messages each sender sends
+     * @throws Exception if the benchmark could not be run
+     */
+    private void run(String mode, int connections, int senders, int messages) throws Exception {
+        String[] options = mode.equals("virtual") ? new String[]{"-headless", "-virtualThreads"}
+                : new String[]{"-headless"};
+        MainServer server = new MainServer(ServerConfig.fromArgs(options));
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long heapBefore = usedHeap();
+        int threadsBefore = threads.getThreadCount();
+
+        //idle: connect every client and wait for every confirmation message
+        selector = Selector.open();
+        long start = System.nanoTime();
+        for(int i = 0; i < connections; i++){
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            channels.add(channel);
+        }
+        readLines(connections);
+        double connectMillis = (System.nanoTime() - start) / 1e6;
+        int idleThreads = threads.getThreadCount() - threadsBefore;
+        long idleHeap = usedHeap() - heapBefore;
+        System.out.printf("%-8s %6d idle:   connect %.0f ms, +%d platform threads, +%.1f MB heap%n",
+                mode, connections, connectMillis, idleThreads, idleHeap / (1024.0 * 1024.0));
+
+        //active: a few clients send messages that every client has to read
+        long expected = linesRead + (long) senders * messages * connections;
+        start = System.nanoTime();
+        for(int m = 0; m < messages; m++){
+            for(int s = 0; s < senders; s++){
+                write(channels.get(s), "message " + m + " from sender " + s + "\n");
+            }
+        }
+        readLines(expected);
+        double activeSeconds = (System.nanoTime() - start) / 1e9;
+        long delivered = (long) senders * messages * connections;
+        System.out.printf("%-8s %6d active: %d messages delivered in %.2f s, %.0f deliveries/s, +%d platform threads%n",
+                mode, connections, delivered, activeSeconds, delivered / activeSeconds,
+                threads.getThreadCount() - threadsBefore);
+
+        for(SocketChannel channel : channels){
+            channel.close();
+        }
+        server.closeSocket();
+    }
+
+    /**
+     * Reads from all of the client channels until the given number of lines has been read in total
+     *
+     * @param total the total number of lines to wait for
+     * @throws IOException if a channel could not be read
+     */
+    private void readLines(long total) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while(linesRead < total){
+            if(System.currentTimeMillis() > deadline){
+                throw new IOException("Timed out with " + linesRead + " of " + total + " lines read.");
+            }
+            selector.select(1000);
+            for(SelectionKey key : selector.selectedKeys()){
+                readBuffer.clear();
+                if(((SocketChannel) key.channel()).read(readBuffer) < 0){
+                    throw new IOException("The server closed a connection.");
+                }
+                readBuffer.flip();
+                while(readBuffer.hasRemaining()){
+                    if(readBuffer.get() == '\n'){
+                        linesRead++;
+                    }
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * Writes a whole message to a non-blocking client channel
+     *
+     * @param channel   the channel to write to
+     * @param message   the message being sent
+     * @throws IOException if the channel could not be written to
+     */
+    private void write(SocketChannel channel, String message) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(message.getBytes());
+        while(buf.hasRemaining()){
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * Returns the heap in use after asking for a garbage collection
+     *
+     * @return the bytes of heap in use
+     */
+    private static long usedHeap(){
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,107 @@
+package chatservice;
+
+import javax.swing.AbstractListModel;
+import java.util.List;
+
+/**
+ * The recent lines of the chat, shown by the list in the client GUI.  The lines are kept in a ring of fixed size, so
+ * once it is full each new line replaces the oldest one.  The list only asks the model for the lines it is showing, so
+ * adding lines costs the same however long the chat has been running.
+ *
+ * The model is only used on the event dispatch thread.
+ *
+ */
+public class ChatHistoryModel extends AbstractListModel<String> {
+
+    /**
+     * the version of the class, the model extends a serializable Swing class
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * the lines of the chat, used as a ring
+     */
+    private final String[] lines;
+
+    /**
+     * the index of the oldest line
+     */
+    private int head = 0;
+
+    /**
+     * the number of lines kept
+     */
+    private int count = 0;
+
+    /**
+     * Creates an empty history
+     *
+     * @param capacity the most lines that are kept
+     */
+    public ChatHistoryModel(int capacity){
+
+        lines = new String[capacity];
+    }
+
+    /**
+     * Adds lines to the end of the history, the oldest lines are dropped once it is full.  The list is told about
+     * the lines dropped and added with one event each.
+     *
+     * @param newLines the lines to add, oldest first
+     */
+    public void addAll(List<String> newLines){
+        int adding = newLines.size();
+        if(adding == 0){
+            return;
+        }
+        //only the newest lines of a batch bigger than the ring are kept
+        int skip = Math.max(0, adding - lines.length);
+        int added = adding - skip;
+        int dropped = Math.max(0, count + added - lines.length);
+        if(dropped > 0){
+            for(int i = 0; i < dropped; i++){
+                lines[(head + i) % lines.length] = null;
+            }
+            head = (head + dropped) % lines.length;
+            count -= dropped;
+            fireIntervalRemoved(this, 0, dropped - 1);
+        }
+        int first = count;
+        for(int i = skip; i < adding; i++){
+            lines[(head + count) % lines.length] = newLines.get(i);
+            count++;
+        }
+        fireIntervalAdded(this, first, count - 1);
+    }
+
+    /**
+     * Returns the number of lines kept
+     *
+     * @return the number of lines
+     */
+    public int getSize(){
+
+        return count;
+    }
+
+    /**
+     * Returns a line of the history
+     *
+     * @param index the index of the line, 0 is the oldest line kept
+     * @return the line
+     */
+    public String getElementAt(int index){
+
+        return lines[(head + index) % lines.length];
+    }
+
+    /**
+     * Returns the most lines that are kept
+     *
+     * @return the capacity of the history
+     */
+    public int getCapacity(){
+
+        return lines.length;
+    }
+}
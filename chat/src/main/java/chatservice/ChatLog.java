@@ -0,0 +1,244 @@
+package chatservice;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The durable log of the messages forwarded by the server.  Forwarding a message only adds it to the queue of this
+ * thread, the same kind of queue every client has, so the threads forwarding messages never wait for the disk.  This
+ * thread appends each message to the segment being written (see LogSegment), writes the segment to the disk every
+ * sync interval, and starts a new segment when a message does not fit in the current one.
+ *
+ * Every message is given a sequence number, counting on from the last message in the log when the server restarts,
+ * and is logged with the name of the chat room it was forwarded in.
+ * A message that arrives while the queue is full is not logged, and is counted as dropped by the queue.
+ *
+ */
+public class ChatLog extends Thread {
+
+    /**
+     * the most messages that can be waiting to be logged
+     */
+    private static final int queueSize = 64 * 1024;
+
+    /**
+     * the longest time the thread waits for a message, so it notices it is being closed
+     */
+    private static final long maxWait = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * the room name logged for a message that was sent to every client
+     */
+    private static final byte[] noRoom = new byte[0];
+
+    /**
+     * the directory the segments are kept in
+     */
+    private final Path dir;
+
+    /**
+     * the size of each segment in bytes
+     */
+    private final int segmentSize;
+
+    /**
+     * the time in nanoseconds between writing the segment to the disk
+     */
+    private final long syncInterval;
+
+    /**
+     * the messages waiting to be logged
+     */
+    private final OutboundQueue queue = new OutboundQueue(queueSize);
+
+    /**
+     * the event log of the server, errors are logged to it
+     */
+    private final ServerEvents events;
+
+    /**
+     * the segment being written, only used by this thread once it has started
+     */
+    private LogSegment segment;
+
+    /**
+     * the position in the segment the next record is written at
+     */
+    private int position;
+
+    /**
+     * the sequence number the next message is given
+     */
+    private volatile long nextSequence;
+
+    /**
+     * the time of the last message logged, the times logged never go down even if the clock does
+     */
+    private long lastTime = 0;
+
+    /**
+     * true if messages have been written since the segment was last written to the disk
+     */
+    private boolean dirty = false;
+
+    /**
+     * true once the log is closing, the thread stops once the queue is empty
+     */
+    private volatile boolean closing = false;
+
+    /**
+     * the number of messages too big for a segment, they are not logged
+     */
+    private volatile long tooBig = 0;
+
+    /**
+     * Opens the log in a directory, creating the directory if it is not there.  The segment that was being written
+     * when the server stopped is checked and logging carries on after its last whole message.  The thread is not
+     * started.
+     *
+     * @param dir           the directory the segments are kept in
+     * @param segmentSize   the size of each segment in bytes
+     * @param syncInterval  the time in milliseconds between writing the segment to the disk
+     * @param events        the event log of the server
+     * @throws IOException if the log could not be opened
+     */
+    public ChatLog(Path dir, int segmentSize, int syncInterval, ServerEvents events) throws IOException {
+        super("chat-log");
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncInterval = TimeUnit.MILLISECONDS.toNanos(syncInterval);
+        this.events = events;
+        Files.createDirectories(dir);
+        List<Long> bases = LogSegment.list(dir);
+        if(bases.isEmpty()){
+            segment = LogSegment.create(dir, 1, segmentSize);
+            position = 0;
+            nextSequence = 1;
+        }else{
+            segment = LogSegment.open(dir, bases.get(bases.size() - 1), true);
+            position = segment.recover();
+            nextSequence = segment.sequenceAt(position);
+        }
+        setDaemon(true);
+    }
+
+    /**
+     * Adds a message to the queue to be logged.  This can be called from any thread, it never waits.
+     *
+     * @param payload the message, the caller keeps its reference
+     * @return true if the message was queued, false if the queue was full
+     */
+    public boolean append(Payload payload){
+
+        return queue.offer(payload);
+    }
+
+    /**
+     * Logs the waiting messages until the log is closed, writing the segment to the disk every sync interval
+     */
+    public void run(){
+        long nextSync = System.nanoTime() + syncInterval;
+        try {
+            while(true){
+                long wait = Math.min(maxWait, nextSync - System.nanoTime());
+                Payload message = wait > 0 ? queue.poll(wait) : queue.poll();
+                if(message != null){
+                    write(message);
+                    message.release();
+                }
+                if(System.nanoTime() - nextSync >= 0){
+                    sync();
+                    nextSync = System.nanoTime() + syncInterval;
+                }
+                if(closing && queue.isEmpty()){
+                    sync();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            sync();
+        } catch (IOException e) {
+            events.log("Error: The chat log could not start a new segment in " + dir + ", messages are no longer logged.");
+            queue.close();
+        }
+    }
+
+    /**
+     * A helper method for run that appends one message to the segment, starting a new segment if it does not fit
+     *
+     * @param message the message
+     * @throws IOException if a new segment could not be created
+     */
+    private void write(Payload message) throws IOException {
+        byte[] room = message.getRoom() != null ? message.getRoom().getNameBytes() : noRoom;
+        int size = LogSegment.recordSize(room, message);
+        if(size > segmentSize){
+            tooBig++;
+            return;
+        }
+        if(position + size > segment.capacity()){
+            segment.force();
+            segment = LogSegment.create(dir, nextSequence, segmentSize);
+            position = 0;
+        }
+        lastTime = Math.max(lastTime, System.currentTimeMillis());
+        position = segment.write(position, nextSequence, lastTime, room, message);
+        nextSequence++;
+        dirty = true;
+    }
+
+    /**
+     * A helper method for run that writes the segment to the disk if anything was logged since the last time
+     */
+    private void sync(){
+        if(dirty){
+            segment.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Stops the log once the waiting messages are logged, and waits a moment for it to finish
+     */
+    public void close(){
+        closing = true;
+        try {
+            join(TimeUnit.NANOSECONDS.toMillis(syncInterval + maxWait) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last message logged
+     *
+     * @return the sequence number, 0 if the log is empty
+     */
+    public long getLastSequence(){
+
+        return nextSequence - 1;
+    }
+
+    /**
+     * Returns the directory the segments are kept in
+     *
+     * @return the directory of the log
+     */
+    public Path getDir(){
+
+        return dir;
+    }
+
+    /**
+     * Returns one line describing how many messages have been logged and dropped
+     *
+     * @return the log numbers as text
+     */
+    public String describe(){
+        return "Chat log in " + dir + ": " + getLastSequence() + " messages logged, " + queue.depth() + " waiting, "
+                + queue.getDropped() + " dropped, " + tooBig + " too big";
+    }
+}
@@ -0,0 +1,336 @@
+package chatservice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Reads the messages of the chat log, oldest first.  The reader can start at the beginning of the log, at a sequence
+ * number, at a time or at the end, and finds the place with the index of each segment instead of reading every
+ * message before it.  When it reaches the newest message, next returns null until more are logged, so a reader can
+ * follow the log while the server writes it, from the same process or another one.
+ *
+ * A reader is only used by one thread at a time.
+ *
+ */
+public class ChatLogReader implements AutoCloseable {
+
+    /**
+     * the characters used to turn messages into text, the same as the payloads use
+     */
+    private static final Charset charset = Charset.defaultCharset();
+
+    /**
+     * the time in milliseconds the command line reader waits before looking for more messages
+     */
+    private static final int followWait = 200;
+
+    /**
+     * A message read from the log
+     */
+    public static class Record {
+
+        /**
+         * the sequence number of the message
+         */
+        public final long sequence;
+
+        /**
+         * the time the message was logged, in milliseconds since the epoch
+         */
+        public final long time;
+
+        /**
+         * the name of the chat room the message was forwarded in, empty for a message sent to every client
+         */
+        public final String room;
+
+        /**
+         * the frame of the message, a read only view of the log
+         */
+        public final ByteBuffer frame;
+
+        Record(long sequence, long time, String room, ByteBuffer frame){
+            this.sequence = sequence;
+            this.time = time;
+            this.room = room;
+            this.frame = frame;
+        }
+
+        /**
+         * Returns the frame type of the message
+         *
+         * @return the frame type
+         */
+        public byte getType(){
+
+            return frame.get(FrameProtocol.lengthSize);
+        }
+
+        /**
+         * Returns the ID of the client that sent the message
+         *
+         * @return the client ID, 0 for the server
+         */
+        public int getSenderID(){
+
+            return frame.getInt(FrameProtocol.lengthSize + 1);
+        }
+
+        /**
+         * Returns the message as text
+         *
+         * @return the message
+         */
+        public String getMessage(){
+            byte[] bytes = new byte[frame.limit() - FrameProtocol.headerSize];
+            frame.get(FrameProtocol.headerSize, bytes);
+            return new String(bytes, charset);
+        }
+
+        /**
+         * Copies the message into a payload that can be forwarded to the clients.  The caller holds the only
+         * reference.
+         *
+         * @param pool the pool to take the buffer from
+         * @return the payload
+         */
+        public Payload toPayload(PayloadPool pool){
+            ByteBuffer buf = pool.acquire(frame.limit() + 1);
+            buf.put(0, frame, 0, frame.limit()).position(frame.limit());
+            buf.put((byte) '\n').flip();
+            return Payload.wrap(buf, pool);
+        }
+    }
+
+    /**
+     * the directory the segments are kept in
+     */
+    private final Path dir;
+
+    /**
+     * the first sequence number of each segment, read again when the reader reaches the end of the last one
+     */
+    private List<Long> bases;
+
+    /**
+     * the number of the segment being read in bases
+     */
+    private int current = -1;
+
+    /**
+     * the segment being read, or null if the log is empty
+     */
+    private LogSegment segment = null;
+
+    /**
+     * the position of the next record in the segment
+     */
+    private int position = 0;
+
+    /**
+     * the sequence number of the next record
+     */
+    private long sequence = 0;
+
+    /**
+     * Opens the log in a directory, the reader starts at the oldest message
+     *
+     * @param dir the directory the segments are kept in
+     * @throws IOException if the directory could not be read
+     */
+    public ChatLogReader(Path dir) throws IOException {
+        this.dir = dir;
+        bases = LogSegment.list(dir);
+        if(!bases.isEmpty()){
+            openSegment(0);
+        }
+    }
+
+    /**
+     * Moves the reader to the first message with a sequence number of at least the one given
+     *
+     * @param target the sequence number
+     * @throws IOException if a segment could not be read
+     */
+    public void seekSequence(long target) throws IOException {
+        bases = LogSegment.list(dir);
+        if(bases.isEmpty()){
+            return;
+        }
+        int found = 0;
+        while(found + 1 < bases.size() && bases.get(found + 1) <= target){
+            found++;
+        }
+        openSegment(found);
+        position = segment.findSequence(target);
+        sequence = segment.sequenceAt(position);
+    }
+
+    /**
+     * Moves the reader to the first message logged at or after a time
+     *
+     * @param time the time in milliseconds since the epoch
+     * @throws IOException if a segment could not be read
+     */
+    public void seekTime(long time) throws IOException {
+        bases = LogSegment.list(dir);
+        if(bases.isEmpty()){
+            return;
+        }
+        //the last segment whose first message is before the time holds the message, or the one after it does
+        int low = 0;
+        int high = bases.size() - 1;
+        while(low < high){
+            int middle = (low + high + 1) >>> 1;
+            openSegment(middle);
+            if(segment.recordAt(0, segment.getBase()) > 0 && segment.timeAt(0) < time){
+                low = middle;
+            }else{
+                high = middle - 1;
+            }
+        }
+        openSegment(low);
+        position = segment.findTime(time);
+        sequence = segment.sequenceAt(position);
+        if(segment.recordAt(position, sequence) < 0 && low + 1 < bases.size()){
+            openSegment(low + 1);
+        }
+    }
+
+    /**
+     * Moves the reader past the newest message, so next only returns messages logged from now on
+     *
+     * @throws IOException if a segment could not be read
+     */
+    public void seekEnd() throws IOException {
+        bases = LogSegment.list(dir);
+        if(bases.isEmpty()){
+            return;
+        }
+        openSegment(bases.size() - 1);
+        position = segment.findEnd();
+        sequence = segment.sequenceAt(position);
+    }
+
+    /**
+     * Reads the next message
+     *
+     * @return the message, or null if there are no more messages yet
+     * @throws IOException if a segment could not be read
+     */
+    public Record next() throws IOException {
+        if(segment == null){
+            bases = LogSegment.list(dir);
+            if(bases.isEmpty()){
+                return null;
+            }
+            openSegment(0);
+        }
+        int size = segment.recordAt(position, sequence);
+        if(size < 0){
+            //a new segment is only started when the last one is full, so look for one
+            if(current + 1 >= bases.size()){
+                bases = LogSegment.list(dir);
+            }
+            if(current + 1 >= bases.size() || bases.get(current + 1) != sequence){
+                return null;
+            }
+            openSegment(current + 1);
+            size = segment.recordAt(position, sequence);
+            if(size < 0){
+                return null;
+            }
+        }
+        Record record = new Record(sequence, segment.timeAt(position), segment.roomAt(position),
+                segment.frameAt(position));
+        position += size;
+        sequence++;
+        return record;
+    }
+
+    /**
+     * A helper method that maps a segment and moves the reader to its first message
+     *
+     * @param number the number of the segment in bases
+     * @throws IOException if the segment could not be mapped
+     */
+    private void openSegment(int number) throws IOException {
+        if(number != current || segment == null){
+            segment = LogSegment.open(dir, bases.get(number), false);
+            current = number;
+        }
+        position = 0;
+        sequence = segment.getBase();
+    }
+
+    /**
+     * Lets go of the segment being read.  The mapping is freed by the garbage collector.
+     */
+    public void close(){
+
+        segment = null;
+    }
+
+    /**
+     * Prints the messages of a chat log.
+     *   DIR                the directory of the log
+     *   -sequence N        start at the message with this sequence number
+     *   -time MILLIS       start at the first message logged at or after this time, in milliseconds since the epoch
+     *   -end               start after the newest message
+     *   -room NAME         only print the messages of one chat room
+     *   -follow            keep printing messages as they are logged
+     *
+     * @param args the directory of the log and the options
+     * @throws Exception if the log could not be read
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1){
+            System.err.println("Usage: ChatLogReader DIR [-sequence N | -time MILLIS | -end] [-room NAME] [-follow]");
+            return;
+        }
+        boolean follow = false;
+        String room = null;
+        try (ChatLogReader reader = new ChatLogReader(Paths.get(args[0]))) {
+            for(int i = 1; i < args.length; i++){
+                switch (args[i]) {
+                    case "-sequence":
+                        reader.seekSequence(Long.parseLong(args[++i]));
+                        break;
+                    case "-time":
+                        reader.seekTime(Long.parseLong(args[++i]));
+                        break;
+                    case "-end":
+                        reader.seekEnd();
+                        break;
+                    case "-room":
+                        room = args[++i];
+                        break;
+                    case "-follow":
+                        follow = true;
+                        break;
+                    default:
+                        System.err.println("Unknown option " + args[i] + " was ignored.");
+                        break;
+                }
+            }
+            while(true){
+                Record record = reader.next();
+                if(record != null){
+                    if(room == null || room.equals(record.room)){
+                        System.out.println(record.sequence + " " + Instant.ofEpochMilli(record.time) + " ["
+                                + record.room + "] " + record.getMessage());
+                    }
+                }else if(follow){
+                    Thread.sleep(followWait);
+                }else{
+                    return;
+                }
+            }
+        }
+    }
+}
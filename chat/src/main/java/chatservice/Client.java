@@ -0,0 +1,270 @@
+package chatservice;
+
+import java.io.*;
+import java.net.*;
+
+/**
+ *  The client will need to enter the server name and port to connect.  The client will also select whether to
+ *  communicate using TCP/IP or UDP.
+ *
+ *  The client has no loop of its own.  The connection waits for the server on its own thread and calls back when a
+ *  message arrives, so the client uses no CPU while it is idle.
+ *
+ */
+public class Client implements ClientConnection.Listener {
+
+    /**
+     * the name of the server the user inputed
+     */
+    private String serverName;
+
+    /**
+     * the connection to the server, or null before the user connects
+     */
+    private ClientConnection connectionToServer = null;
+
+    /**
+     * the launch options for the client
+     */
+    private ClientConfig config;
+
+    /**
+     * Initialize the communication choice
+     */
+    private String protocol = "Select One";
+
+    /**
+     * the object to access the GUI for the client to update the current chat messages
+     */
+    private ClientGUI clientGUI;
+
+    /**
+     * the client is currently connect
+     */
+    private volatile boolean connection = false;
+
+    /**
+     * Constructor to start the GUI with the default launch options, messages are received once the user connects
+     */
+    public Client(){
+
+        this(new ClientConfig());
+    }
+
+    /**
+     * Constructor to start the GUI, messages are received once the user connects
+     *
+     * @param config the launch options for the client
+     */
+    public Client(ClientConfig config){
+        this.config = config;
+        clientGUI = new ClientGUI(this);
+    }
+
+    /**
+     * This is called when the user submits the server information.  It connects the client to the server and starts
+     * waiting to receive messages.
+     */
+    public void connectToServer() {
+        //get the server name the user inputed
+        serverName = clientGUI.getServerTextField();
+        if(serverName.equals("")){
+            System.err.println("The user did not enter an IP address");
+            clientGUI.displayNewMessage("Error: Please enter a Server IP Address.");
+            return;
+        }
+        //get the port number the user inputed
+        int serverPort;
+        try {
+            serverPort = Integer.parseInt(clientGUI.getPortTextField());
+        } catch (NumberFormatException e) {
+            System.err.println("Error 1: The entered port number is not a valid integer");
+            clientGUI.displayNewMessage("Error: Invalid Server Port. Please reenter Server Port number");
+            return;
+        } catch (Exception e){
+            System.err.println("Error 2: The entered port number is not a valid integer");
+            clientGUI.displayNewMessage("Error: Invalid Server Port. Please reenter Server Port number.");
+            return;
+        }
+
+
+        //If making a TCP/IP connect do this
+        if(protocol.equals("TCP/IP")) {
+            try {
+                connectionToServer = new TCPClientConnection(InetAddress.getByName(serverName), serverPort, this,
+                        config);
+                //since the connection was created, disable the button to submit
+                clientGUI.disableConfirmButton();
+                connection = true;
+                connectionToServer.start();
+            } catch (UnknownHostException e) {
+                clientGUI.displayNewMessage("Error: Invalid server name or port number.");
+                System.err.println("Error getting InetAddress");
+            } catch (IOException e) {
+                    clientGUI.displayNewMessage("Error: Invalid server name or port number.");
+                    System.err.println("Error creating socketTCP");
+            } catch (Exception e){
+                clientGUI.displayNewMessage("Error: Invalid server name or port number.");
+                System.err.println("Error with the server IP or port number the user entered.");
+            }
+        }else {//UDP is selected
+            try {
+                //the server keeps talking to the client on the port it joined on, and shows it is there by forwarding
+                //the join message back
+                connectionToServer = new UDPClientConnection(serverName, serverPort, this, config);
+                connectionToServer.start();
+            } catch (IOException e) {
+                System.err.println("Error connecting to server via UDP");
+                clientGUI.displayNewMessage("Error: Invalid server name or port number. Please try reentering the information.  "
+                        + "If the program still does not work, please restart the program.");
+            } catch (Exception e){
+                clientGUI.displayNewMessage("Error: Invalid server name or port number. Please try reentering the information.  "
+                        + "If the program still does not work, please restart the program.");
+            }
+        }
+    }
+
+    /**
+     * Called by the connection once the server has answered the join.  A UDP client is only connected once the server
+     * has answered.
+     */
+    public void joined(){
+        if(connectionToServer instanceof UDPClientConnection){
+            try {
+                clientGUI.displayNewMessage("Receiving communication from server using IP address " +
+                        InetAddress.getLocalHost().getHostAddress() + " and Port "
+                        + ((UDPClientConnection) connectionToServer).getLocalPort() + ".");
+            } catch (UnknownHostException e) {
+                System.err.println("Error getting the local address.");
+            }
+            //since the connection was created, disable the button to submit
+            clientGUI.disableConfirmButton();
+            connection = true;
+        }
+    }
+
+    /**
+     * Called by the connection for every message the server sends
+     *
+     * @param message the message
+     */
+    public void messageReceived(String message){
+
+        clientGUI.displayNewMessage(message);
+    }
+
+    /**
+     * Called by the connection if the UDP server did not answer the join, the user can try again
+     */
+    public void joinTimedOut(){
+
+        clientGUI.displayNewMessage("Error: Invalid port number, please reenter valid information.");
+    }
+
+    /**
+     * Called by the connection if the connection to the server is lost
+     *
+     * @param timedOut true if nothing was heard from the UDP server for too long
+     */
+    public void connectionLost(boolean timedOut){
+        if(timedOut){
+            clientGUI.displayNewMessage("You have not received a message for an extended " +
+                    "period of time. The server may have shut down.  Your connection has been terminated. "
+                    + "Please restart the program to reconnect.");
+            connection = false;
+            return;
+        }
+        hault();
+    }
+
+    /**
+     * disconnect from the server, this is called when the user exits
+     */
+    public void disconnectFromServer(){
+        if(connection){
+            try {
+                //tell all other clients that this client is leaving, and remove it from the client chat list
+                connectionToServer.leave();
+                clientGUI.displayNewMessage("Ending Communications with server " + connectionToServer.getServerAddress());
+                connection = false;
+            }  catch (IOException e) {
+                System.err.println("Error sending " + protocol + " message to Server");
+            } catch (Exception e){
+                clientGUI.displayNewMessage("Error: There is an issue with your connection. Please restart the program.");
+            }
+        }
+    }
+
+    /**
+     * Send a message using TCP/IP or UDP protocol
+     */
+    public void sendMessage(){
+
+        String messageSending = clientGUI.getClientMessage();
+        clientGUI.setSendingField("");
+
+        if(connectionToServer == null){
+            clientGUI.displayNewMessage("Error: Please close this window and reconnect. +" +
+                    "There is an issue with your current connection.");
+            return;
+        }
+        try {
+            connectionToServer.send(messageSending);
+        } catch (IOException e) {
+            System.err.println("I/O error sending message. Please restart program.");
+            clientGUI.displayNewMessage("Error: There is an issue with your connection. Please restart the program.");
+        } catch (Exception e){
+            clientGUI.displayNewMessage("Error: There is an issue with your connection. Please restart the program.");
+        }
+    }
+
+    /**
+     * Get the current communication protocol being used
+     *
+     * @return the current communication protocol
+     */
+    public String getProtocol(){
+
+        return protocol;
+    }
+
+    /**
+     * Set the current communication protocol being used
+     *
+     * @param protocol the current communication protocol (UDP or TCP/IP)
+     */
+    public void setProtocol(String protocol){
+
+        this.protocol = protocol;
+    }
+
+    /**
+     * Closes the current socket. Is called when the client exits the window.
+     */
+    public void closeSocket(){
+        if(connectionToServer != null){
+            connectionToServer.close();
+        }
+    }
+
+    /**
+     * Stops the client from using the connection. This is called when the server crashes, the window stays open
+     * until the user closes it.
+     */
+    private void hault(){
+    	System.err.println("Error reading in from server. Server may have shut down.");
+        clientGUI.displayNewMessage("Error: The server has crashed or has been shut down.");
+        connection = false;
+        closeSocket();
+    }
+
+    /**
+     * Starts the client, the server is chosen in the GUI
+     *
+     * @param args the launch options, see ClientConfig
+     */
+    public static void main(String [] args) {
+
+        new Client(ClientConfig.fromArgs(args));
+    }
+}
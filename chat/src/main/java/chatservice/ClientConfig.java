@@ -0,0 +1,132 @@
+package chatservice;
+
+/**
+ * The launch options for the chat client.  The options are read from the command line arguments given to the client.
+ * Any option that is not given keeps its default value.
+ *
+ */
+public class ClientConfig {
+
+    /**
+     * true if small TCP/IP packets are sent straight away, false to let the socket hold them back to join them
+     */
+    private boolean tcpNoDelay = true;
+
+    /**
+     * the time in milliseconds the TCP/IP writer waits for more messages before it writes what it has, 0 to write
+     * as soon as nothing more is waiting
+     */
+    private int flushDelay = 0;
+
+    /**
+     * the most messages that can be waiting to be written to the TCP/IP server
+     */
+    private int sendQueueSize = 1024;
+
+    /**
+     * the seconds without sending anything before a heartbeat is sent to the server, 0 to never send heartbeats.  It
+     * is kept well under the idle timeout of the server.
+     */
+    private int heartbeatInterval = 30;
+
+    /**
+     * Reads the launch options from the command line arguments.
+     *   -nagle             let the TCP/IP socket hold back small packets to join them
+     *   -flushDelay MS     the time the TCP/IP writer waits for more messages before it writes
+     *   -sendQueueSize N   the most messages that can be waiting to be written to the TCP/IP server
+     *   -heartbeat S       the seconds without sending anything before a heartbeat is sent, 0 for never
+     *
+     * @param args the command line arguments
+     * @return the launch options
+     */
+    public static ClientConfig fromArgs(String[] args){
+        ClientConfig config = new ClientConfig();
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]) {
+                case "-nagle":
+                    config.tcpNoDelay = false;
+                    break;
+                case "-flushDelay":
+                    config.flushDelay = readInt(args, ++i, config.flushDelay, 0);
+                    break;
+                case "-sendQueueSize":
+                    config.sendQueueSize = readInt(args, ++i, config.sendQueueSize, 1);
+                    break;
+                case "-heartbeat":
+                    config.heartbeatInterval = readInt(args, ++i, config.heartbeatInterval, 0);
+                    break;
+                default:
+                    System.err.println("Unknown client option " + args[i] + " was ignored.");
+                    break;
+            }
+        }
+        return config;
+    }
+
+    /**
+     * A helper method for fromArgs to read a number that follows an option
+     *
+     * @param args          the command line arguments
+     * @param index         the index of the number
+     * @param defaultValue  the value to keep if the number is missing or not valid
+     * @param min           the smallest number allowed
+     * @return the number that was read or the default value
+     */
+    private static int readInt(String[] args, int index, int defaultValue, int min){
+        if(index >= args.length){
+            System.err.println("Missing number for client option " + args[index - 1] + ".");
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(args[index]);
+            if(value >= min){
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            //fall through to the error message below
+        }
+        System.err.println("Client option " + args[index - 1] + " needs a number of at least " + min + ", "
+                + args[index] + " was ignored.");
+        return defaultValue;
+    }
+
+    /**
+     * Returns true if small TCP/IP packets are sent straight away
+     *
+     * @return the TCP_NODELAY setting for the socket
+     */
+    public boolean isTcpNoDelay(){
+
+        return tcpNoDelay;
+    }
+
+    /**
+     * Returns the time the TCP/IP writer waits for more messages before it writes what it has
+     *
+     * @return the delay in milliseconds, 0 to write as soon as nothing more is waiting
+     */
+    public int getFlushDelay(){
+
+        return flushDelay;
+    }
+
+    /**
+     * Returns the most messages that can be waiting to be written to the TCP/IP server
+     *
+     * @return the size of the send queue
+     */
+    public int getSendQueueSize(){
+
+        return sendQueueSize;
+    }
+
+    /**
+     * Returns the seconds without sending anything before a heartbeat is sent to the server
+     *
+     * @return the heartbeat interval, 0 if no heartbeats are sent
+     */
+    public int getHeartbeatInterval(){
+
+        return heartbeatInterval;
+    }
+}
@@ -0,0 +1,133 @@
+package chatservice;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+
+/**
+ * The connection of the chat client to the server.  Each connection has one reader that waits for the server on its
+ * own thread, a virtual thread where Java has them.  The reader blocks while there is nothing to read, so an idle
+ * client uses no CPU, and everything the server sends is handed to the listener as it arrives.
+ *
+ */
+public abstract class ClientConnection {
+
+    /**
+     * Is told about everything that happens on the connection.  The methods are called on the reader's thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called once the server has answered the join
+         */
+        void joined();
+
+        /**
+         * Called for every message the server sends
+         *
+         * @param message the message
+         */
+        void messageReceived(String message);
+
+        /**
+         * Called if the server did not answer the join in time.  The connection has been closed.
+         */
+        void joinTimedOut();
+
+        /**
+         * Called if the connection to the server is lost.  It is not called after close.
+         *
+         * @param timedOut true if nothing was heard from the server for too long, false if the connection failed
+         */
+        void connectionLost(boolean timedOut);
+    }
+
+    /**
+     * the message sent when joining the chat
+     */
+    protected static final String joinMessage = "has joined the chat room.";
+
+    /**
+     * the message sent when leaving the chat
+     */
+    protected static final String leaveMessage = "has left the chat";
+
+    /**
+     * the message sent when the client has had nothing else to send for the heartbeat interval, so the server does
+     * not take it for gone.  The UDP server answers it with the same message.  It is the server's own, so the two
+     * cannot drift apart.
+     */
+    protected static final String heartbeat = MainServer.heartbeat;
+
+    /**
+     * the characters used to turn messages into bytes
+     */
+    protected static final Charset charset = Charset.defaultCharset();
+
+    /**
+     * runs the reader, and the writer if there is one, of every connection on its own thread
+     */
+    protected static final Executor threads = ClientExecutors.virtualThreads();
+
+    /**
+     * is told about everything that happens on the connection
+     */
+    protected Listener listener;
+
+    /**
+     * true once the connection has been closed on purpose
+     */
+    protected volatile boolean closed = false;
+
+    /**
+     * Creates a connection
+     *
+     * @param listener is told about everything that happens on the connection
+     */
+    protected ClientConnection(Listener listener){
+
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the reader of the connection
+     */
+    public void start(){
+
+        threads.execute(this::receive);
+    }
+
+    /**
+     * Waits for the server and hands what it sends to the listener, until the connection is closed or lost.  This
+     * runs on the reader's thread.
+     */
+    protected abstract void receive();
+
+    /**
+     * Sends a chat message to the server
+     *
+     * @param message the message being sent
+     * @throws IOException if the message could not be sent
+     */
+    public abstract void send(String message) throws IOException;
+
+    /**
+     * Tells the server this client is leaving the chat.  The connection is not closed, but losing it afterwards is
+     * expected and the listener is not told.
+     *
+     * @throws IOException if the leave message could not be sent
+     */
+    public abstract void leave() throws IOException;
+
+    /**
+     * Closes the connection, the reader stops without telling the listener
+     */
+    public abstract void close();
+
+    /**
+     * Returns the address of the server
+     *
+     * @return the IP address of the server as text
+     */
+    public abstract String getServerAddress();
+}
@@ -0,0 +1,52 @@
+package chatservice;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors that run the client handlers.  Each client handler blocks while it waits for its client, so
+ * every handler is given its own thread.  The thread can either be a platform thread, which is how the server has
+ * always worked, or a virtual thread which costs much less memory when there are many clients.
+ *
+ */
+public class ClientExecutors {
+
+    /**
+     * Returns an executor that runs every task on a new platform thread
+     *
+     * @return the executor
+     */
+    public static Executor platformThreads(){
+
+        return task -> new Thread(task).start();
+    }
+
+    /**
+     * Returns an executor that runs every task on a new virtual thread.  Virtual threads need Java 21 or newer, if
+     * they are not available the platform thread executor is returned instead.
+     *
+     * @return the executor
+     */
+    public static Executor virtualThreads(){
+        try {
+            //looked up by name so the server still builds and runs on older versions of Java
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads need Java 21 or newer, using platform threads instead.");
+            return platformThreads();
+        }
+    }
+
+    /**
+     * Returns the executor for the chosen kind of thread
+     *
+     * @param virtual true to use virtual threads, false to use platform threads
+     * @return the executor
+     */
+    public static Executor create(boolean virtual){
+
+        return virtual ? virtualThreads() : platformThreads();
+    }
+}
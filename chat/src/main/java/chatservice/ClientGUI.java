@@ -1,15 +1,39 @@
+package chatservice;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.net.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The GUI for the chat client.  It displays an area to enter the server information, select protocol, view chat
  * messages, and send a custom message.
  *
+ * Only the most recent chat messages are kept, in a list that only draws the lines being shown.  Messages can arrive
+ * from any thread, they wait until the next frame and are then added to the list together on the event dispatch
+ * thread.
+ *
  */
 public class ClientGUI{
 
+    /**
+     * the most chat messages kept in the chat display
+     */
+    private static final int historySize = 5000;
+
+    /**
+     * the time in milliseconds messages wait to be shown, about one frame, so they are added together
+     */
+    private static final int flushDelay = 16;
+
+    /**
+     * the narrowest width in pixels of the rows of the chat display
+     */
+    private static final int minRowWidth = 400;
+
 	/**
      *the text the client is sending
      */
@@ -28,7 +52,37 @@ public class ClientGUI{
     /**
      *The area where the chat messages will be displayed
      */
-    private JTextArea chatDisplayArea;
+    private JList<String> chatDisplayArea;
+
+    /**
+     * the recent chat messages shown in the chat display
+     */
+    private ChatHistoryModel chatHistory = new ChatHistoryModel(historySize);
+
+    /**
+     * the scroll pane around the chat display, used to keep showing the newest message
+     */
+    private JScrollPane scrollPaneChat;
+
+    /**
+     * the messages waiting to be added to the chat display, at most historySize of them are kept
+     */
+    private final ArrayDeque<String> pendingMessages = new ArrayDeque<>();
+
+    /**
+     * true while a flush of the waiting messages is scheduled
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    /**
+     * adds the waiting messages to the chat display on the event dispatch thread
+     */
+    private final Timer flushTimer = new Timer(flushDelay, e -> flushMessages());
+
+    /**
+     * the width in pixels of the widest message shown, every row of the list is made this wide
+     */
+    private int widestMessage = 0;
     
     /**
      * Drop down box to choose UDP or TCP
@@ -51,6 +105,7 @@ public class ClientGUI{
      */
     public ClientGUI(Client client){
         this.client = client;
+        flushTimer.setRepeats(false);
         displayGUI();
     }
 
@@ -209,12 +264,12 @@ public class ClientGUI{
      * @return the panel containing the chat messages
      */
     private JScrollPane createChatDisplayPanel(){
-        chatDisplayArea = new JTextArea();
-        JScrollPane scrollPaneChat = new JScrollPane(chatDisplayArea);
-        chatDisplayArea.setRows(15);
-        chatDisplayArea.setEditable(false);
-        chatDisplayArea.setLineWrap(true);
-        chatDisplayArea.setWrapStyleWord(true);
+        chatDisplayArea = new JList<>(chatHistory);
+        scrollPaneChat = new JScrollPane(chatDisplayArea);
+        chatDisplayArea.setVisibleRowCount(15);
+        //every row is the same size, so the list never measures the lines it is not showing
+        chatDisplayArea.setFixedCellHeight(chatDisplayArea.getFontMetrics(chatDisplayArea.getFont()).getHeight() + 2);
+        chatDisplayArea.setFixedCellWidth(minRowWidth);
 
         return scrollPaneChat;
     }
@@ -298,14 +353,54 @@ public class ClientGUI{
     }
 
     /**
-     *Appends a new message to the chat display are
+     *Appends a new message to the chat display are.  It can be called from any thread, the message is shown in the
+     * next frame.
      *
      * @param newText the new message being added to chat display
      */
     public void displayNewMessage(String newText){
-        chatDisplayArea.append(newText + "\n");
-        chatDisplayArea.scrollRectToVisible(chatDisplayArea.getBounds());
-        chatDisplayArea.setCaretPosition(chatDisplayArea.getText().length());
+        synchronized (pendingMessages) {
+            //messages that would be dropped from the display straight away are not kept
+            if(pendingMessages.size() == historySize){
+                pendingMessages.pollFirst();
+            }
+            pendingMessages.addLast(newText);
+        }
+        if(flushScheduled.compareAndSet(false, true)){
+            flushTimer.restart();
+        }
+    }
+
+    /**
+     * A helper method for displayNewMessage that adds every waiting message to the chat display.  It runs on the event
+     * dispatch thread.  The newest message is scrolled to only if the user has not scrolled up to read older ones.
+     */
+    private void flushMessages(){
+        flushScheduled.set(false);
+        ArrayList<String> messages;
+        synchronized (pendingMessages) {
+            messages = new ArrayList<>(pendingMessages);
+            pendingMessages.clear();
+        }
+        if(messages.isEmpty()){
+            return;
+        }
+        JScrollBar bar = scrollPaneChat.getVerticalScrollBar();
+        int rowHeight = chatDisplayArea.getFixedCellHeight();
+        boolean atBottom = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - rowHeight;
+        FontMetrics metrics = chatDisplayArea.getFontMetrics(chatDisplayArea.getFont());
+        int widest = widestMessage;
+        for(String message : messages){
+            widest = Math.max(widest, metrics.stringWidth(message));
+        }
+        if(widest > widestMessage){
+            widestMessage = widest;
+            chatDisplayArea.setFixedCellWidth(Math.max(minRowWidth, widest + 10));
+        }
+        chatHistory.addAll(messages);
+        if(atBottom){
+            chatDisplayArea.ensureIndexIsVisible(chatHistory.getSize() - 1);
+        }
     }
 
     /**
@@ -0,0 +1,176 @@
+package chatservice;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The list of clients connected to the server.  Clients are kept in a concurrent hash table keyed by their client ID,
+ * so adding, removing and finding a client takes constant time and can be done from any thread.  Messages are
+ * forwarded to a snapshot array of the clients, which is only rebuilt after the list has changed, so forwarding a
+ * message never takes a lock and never sees the list change while it is being walked.
+ *
+ */
+public class ClientRegistry {
+
+    /**
+     * the clients connected to the server, keyed by client ID
+     */
+    private final ConcurrentHashMap<Integer, ClientSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * the next client ID to be given out
+     */
+    private final AtomicInteger nextClientID = new AtomicInteger(1);
+
+    /**
+     * counts the changes to the client list, a snapshot is out of date when its version is older than this
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * the number of UDP clients in the list
+     */
+    private final AtomicInteger udpCount = new AtomicInteger();
+
+    /**
+     * the last snapshot of the clients that was built
+     */
+    private volatile Snapshot snapshot = new Snapshot(0, new ClientSession[0]);
+
+    /**
+     * The clients in the list at one version of the list
+     */
+    private static final class Snapshot {
+
+        /**
+         * the version of the list this snapshot was built from
+         */
+        final long version;
+
+        /**
+         * the clients in the list
+         */
+        final ClientSession[] clients;
+
+        Snapshot(long version, ClientSession[] clients){
+            this.version = version;
+            this.clients = clients;
+        }
+    }
+
+    /**
+     * Returns a new unique client ID
+     *
+     * @return the client ID
+     */
+    public int nextClientID(){
+
+        return nextClientID.getAndIncrement();
+    }
+
+    /**
+     * Adds a client to the list
+     *
+     * @param client the client being added
+     * @return true if the client was added, false if a client with the same ID was already in the list
+     */
+    public boolean add(ClientSession client){
+        if(sessions.putIfAbsent(client.getClientID(), client) != null){
+            return false;
+        }
+        if(client.isProtocolUDP()){
+            udpCount.incrementAndGet();
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Removes a client from the list
+     *
+     * @param client the client being removed
+     * @return true if the client was removed, false if it was not in the list
+     */
+    public boolean remove(ClientSession client){
+        if(!sessions.remove(client.getClientID(), client)){
+            return false;
+        }
+        if(client.isProtocolUDP()){
+            udpCount.decrementAndGet();
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Finds a client by its client ID
+     *
+     * @param clientID the ID of the client
+     * @return the client, or null if no client has that ID
+     */
+    public ClientSession get(int clientID){
+
+        return sessions.get(clientID);
+    }
+
+    /**
+     * Returns the clients currently in the list.  The array must not be changed, it is shared by every caller until
+     * the list changes.
+     *
+     * @return the clients in the list
+     */
+    public ClientSession[] snapshot(){
+        Snapshot current = snapshot;
+        long latest = version.get();
+        if(current.version != latest){
+            //the version is read before the clients, so a client added while copying makes the next call copy again
+            current = new Snapshot(latest, sessions.values().toArray(new ClientSession[0]));
+            snapshot = current;
+        }
+        return current.clients;
+    }
+
+    /**
+     * Sends a message to every client in the list.  The snapshot does not change while it is being walked, even
+     * if clients connect or disconnect.  Sending only adds the message to each client's queue, so a slow client does
+     * not hold up the others.
+     *
+     * @param payload the message being sent, the caller keeps its reference
+     */
+    public void sendToAll(Payload payload){
+        for(ClientSession client : snapshot()){
+            client.send(payload);
+        }
+    }
+
+    /**
+     * Returns the number of clients in the list
+     *
+     * @return the number of clients
+     */
+    public int size(){
+
+        return sessions.size();
+    }
+
+    /**
+     * Returns the number of UDP clients in the list
+     *
+     * @return the number of UDP clients
+     */
+    public int udpCount(){
+
+        return udpCount.get();
+    }
+
+    /**
+     * Returns the number of TCP/IP clients in the list
+     *
+     * @return the number of TCP/IP clients
+     */
+    public int tcpCount(){
+
+        return sessions.size() - udpCount.get();
+    }
+}
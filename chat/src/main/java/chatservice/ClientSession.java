@@ -0,0 +1,103 @@
+package chatservice;
+
+import java.net.InetAddress;
+
+/**
+ * A client connected to the chat server.  Every kind of client, TCP/IP or UDP, handled by a thread or by the selector
+ * based server, is kept in the client list as a ClientSession so messages can be forwarded to all of them the same way.
+ *
+ */
+public interface ClientSession {
+
+    /**
+     * Returns the unique identifier of the client
+     *
+     * @return the client ID
+     */
+    int getClientID();
+
+    /**
+     * Returns true if the client protocol is UDP and false if it is TCP/IP
+     *
+     * @return true if the client protocol is UDP and false if it is TCP/IP
+     */
+    boolean isProtocolUDP();
+
+    /**
+     * Returns the address of the client
+     *
+     * @return the address of the client
+     */
+    InetAddress getInetAddress();
+
+    /**
+     * Sends a message to the client.  This can be called from any thread.  The message is only added to the
+     * client's outbound queue, it is written later by the writer of the client.  The queue takes its own reference
+     * to the message, the caller still has to release the reference it holds.
+     *
+     * @param message the message being sent
+     */
+    void send(Payload message);
+
+    /**
+     * Sends a message from the history of a room the client is joining.  The history is sent in a burst, so clients
+     * with an outbound queue do not hold it to their slow consumer policy.
+     *
+     * @param message the message from the history
+     */
+    default void sendHistory(Payload message){
+
+        send(message);
+    }
+
+    /**
+     * Sends a text message to just this client
+     *
+     * @param message the message being sent
+     */
+    default void send(String message){
+        Payload payload = Payload.encode(message);
+        send(payload);
+        payload.release();
+    }
+
+    /**
+     * Disconnects the client, for example when it has fallen too far behind.  This can be called from any thread and
+     * never waits for the client.  The client is removed from the client list and its waiting messages are thrown
+     * away.
+     *
+     * @param reason why the client is disconnected, logged by the server
+     */
+    void disconnect(String reason);
+
+    /**
+     * Called by the outbound queue when it throws away the oldest waiting message to make room for a new one, before
+     * the queue releases it.  This is called with the lock of the queue held.
+     *
+     * @param message the message thrown away
+     */
+    default void evicted(Payload message){
+        //most clients keep no count of what is waiting
+    }
+
+    /**
+     * Returns the chat room the client is in, its messages are forwarded to the clients in the same room
+     *
+     * @return the room, or null if the client is not in a room
+     */
+    Room getRoom();
+
+    /**
+     * Sets the chat room the client is in, this is only called by the room list
+     *
+     * @param room the room, or null once the client has left
+     */
+    void setRoom(Room room);
+
+    /**
+     * Returns the queue of messages waiting to be written to the client
+     *
+     * @return the outbound queue of the client
+     */
+    OutboundQueue getOutboundQueue();
+}
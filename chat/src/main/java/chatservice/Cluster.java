@@ -0,0 +1,629 @@
+package chatservice;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Links this server to the other servers of a cluster, so clients connected to different servers can chat with each
+ * other.  Every server keeps a peer link to each of the others (see PeerLink), which it only writes to, and reads the
+ * links the others keep to it (see PeerReader).
+ *
+ * Each room is owned by one server, picked by a consistent hash ring of the servers (see HashRing).  The owner puts
+ * the messages of the room in order, keeps its history and forwards them.  A server with clients in a room it does
+ * not own follows the room at the owner: the owner adds a member standing for that server to the room (see
+ * PeerSession) and relays every message of the room to it once, and the server forwards it to its own clients.  A
+ * message from a client is submitted to the owner of its room and only comes back to the server of the client with
+ * the other messages of the room, so every server forwards the messages of a room in the same order, and a message
+ * only crosses the links to the servers following its room instead of every link.
+ *
+ * A server is on the ring once this server has linked to it and it has linked back, so every owner can be reached
+ * and can answer.  When a server joins or leaves the ring only the rooms on its part of the ring move, about 1/N of
+ * them.  A server that loses a room hands its history to the new owner unless the new owner follows the room and
+ * has the history already, and the servers following a room follow it at the new owner.  If an owner stops, the
+ * servers following its rooms keep their own copy of the history and follow the rooms at the next owner.  While the
+ * servers do not agree on the ring, a message submitted to a server that no longer owns its room is passed on once
+ * and then forwarded wherever it lands, so for that moment the messages of a room may be put in a different order.
+ *
+ * Each frame on a link is tagged with the node ID of the server it came from and a sequence number.  A server keeps
+ * the last sequence number it took from each of the others and drops anything that is not newer, so a frame written
+ * again after a link connected again is never handled twice.  The sequence numbers count again from 1 when a server
+ * restarts, which the others see from the start time the server sends first on each link.
+ *
+ * This thread accepts the links of the other servers.
+ *
+ */
+public class Cluster extends Thread {
+
+    /**
+     * the node ID of this server
+     */
+    private final int nodeID;
+
+    /**
+     * the time this server started, in milliseconds since the epoch, sent to the other servers on each link
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * the socket the other servers connect to
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * the links to the other servers
+     */
+    private final List<PeerLink> links = new ArrayList<>();
+
+    /**
+     * the links to the other servers keyed by node ID, a link is added the first time the other server answers it
+     */
+    private final ConcurrentHashMap<Integer, PeerLink> linksByNode = new ConcurrentHashMap<>();
+
+    /**
+     * the server messages are forwarded in
+     */
+    private final MainServer mainServer;
+
+    /**
+     * the chat rooms of the server
+     */
+    private final RoomRegistry rooms;
+
+    /**
+     * the event log of the server, links starting and failing are logged to it
+     */
+    private final ServerEvents events;
+
+    /**
+     * the pool the frames are taken from
+     */
+    private final PayloadPool pool = PayloadPool.shared();
+
+    /**
+     * the sequence number of the last frame sent, guarded by the links
+     */
+    private long sequence = 0;
+
+    /**
+     * what was last taken from each of the other servers, keyed by node ID
+     */
+    private final ConcurrentHashMap<Integer, Origin> origins = new ConcurrentHashMap<>();
+
+    /**
+     * the ring deciding which server owns each room, a new ring is made whenever the servers on it change
+     */
+    private volatile HashRing ring;
+
+    /**
+     * the node ID of the server each room is followed at, keyed by room name, guarded by itself.  Changes to the ring
+     * are made under the same lock, so a room is never followed at an owner it no longer has.
+     */
+    private final Map<String, Integer> following = new HashMap<>();
+
+    /**
+     * the servers this server is linked to, guarded by following
+     */
+    private final Set<Integer> linked = new HashSet<>();
+
+    /**
+     * the number of links each of the other servers keeps to this server, guarded by following
+     */
+    private final Map<Integer, Integer> heard = new HashMap<>();
+
+    /**
+     * the members standing for the other servers in the rooms this server owns, keyed by node ID and room name,
+     * guarded by itself
+     */
+    private final Map<String, PeerSession> followers = new HashMap<>();
+
+    /**
+     * the number of messages submitted to the owners of their rooms
+     */
+    private final LongAdder submitted = new LongAdder();
+
+    /**
+     * the number of messages relayed to the servers following their rooms
+     */
+    private final LongAdder relayed = new LongAdder();
+
+    /**
+     * the number of frames taken from the other servers
+     */
+    private final LongAdder received = new LongAdder();
+
+    /**
+     * the number of frames from the other servers that were dropped because they had been seen or came from this
+     * server
+     */
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * The last frame taken from one of the other servers
+     */
+    private static final class Origin {
+
+        /**
+         * the time the server started, the sequence numbers start again when it changes
+         */
+        long startTime;
+
+        /**
+         * the sequence number of the last frame taken
+         */
+        long last;
+    }
+
+    /**
+     * Opens the port the other servers connect to and makes a link to each of them.  Nothing is started, and every
+     * room is owned by this server until the others are linked.
+     *
+     * @param config        the launch options, with the cluster port, node ID and peers
+     * @param mainServer    the server messages are forwarded in
+     * @param events        the event log of the server
+     * @throws IOException if the cluster port could not be opened
+     */
+    public Cluster(ServerConfig config, MainServer mainServer, ServerEvents events) throws IOException {
+        super("cluster-listener");
+        this.nodeID = config.getNodeID();
+        this.mainServer = mainServer;
+        this.rooms = mainServer.getRooms();
+        this.events = events;
+        this.ring = new HashRing(List.of(nodeID));
+        serverSocket = new ServerSocket(config.getClusterPort());
+        for(InetSocketAddress peer : config.getPeers()){
+            links.add(new PeerLink(peer, this, events));
+        }
+        setDaemon(true);
+    }
+
+    /**
+     * Starts the links to the other servers and then accepts the links of the other servers until the server stops
+     */
+    public void run(){
+        for(PeerLink link : links){
+            link.start();
+        }
+        while(true){
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if(!serverSocket.isClosed()){
+                    events.log("Error: The cluster port stopped accepting servers.");
+                }
+                return;
+            }
+            new PeerReader(socket, this, events).start();
+        }
+    }
+
+    /**
+     * Submits a message from a client of this server to the server owning its room, which forwards it here again
+     * with the other messages of the room.  This never waits for a link.
+     *
+     * @param payload the message with its room set, the caller keeps its reference
+     * @return true if the message was submitted, false if this server owns the room and forwards the message itself
+     */
+    public boolean route(Payload payload){
+        Room room = payload.getRoom();
+        int owner = ring.owner(room.getName());
+        return owner != nodeID && sendTo(owner, FrameProtocol.submit, room.getNameBytes(), payload, -1);
+    }
+
+    /**
+     * Starts or stops following a room at its owner, after a client of this server joined or left it or the owner
+     * changed.  A room is followed while this server has clients in it and does not own it, and the owner is asked for
+     * the history if there is none here.  When the owner changes, the old owner is not told: it drops the servers
+     * following the room once it sees the new ring itself, so it still has the room to hand over then.
+     *
+     * @param name the name of the room
+     */
+    public void updateInterest(String name){
+        synchronized(following){
+            Room room = rooms.get(name);
+            int owner = ring.owner(name);
+            int wanted = room != null && owner != nodeID && room.localSize() > 0 ? owner : 0;
+            int current = following.getOrDefault(name, 0);
+            if(wanted == current){
+                return;
+            }
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if(current != 0){
+                following.remove(name);
+                if(wanted == 0 && owner == current){
+                    sendTo(current, FrameProtocol.unsubscribe, nameBytes, null, -1);
+                }
+            }
+            if(wanted != 0
+                    && sendTo(wanted, FrameProtocol.subscribe, nameBytes, null, room.isHistoryEmpty() ? 1 : 0)){
+                following.put(name, wanted);
+            }
+        }
+    }
+
+    /**
+     * Sends a room frame to another server.  The frame is made once in a pooled buffer, and it is given its sequence
+     * number and queued on the link under one lock, so every link has its frames in order.  This never waits.
+     *
+     * @param link      the link to the other server
+     * @param type      the type of the frame
+     * @param room      the bytes of the name of the room
+     * @param message   the message carried after the room name, or null if there is none
+     * @param flag      a byte carried after the room name, or -1 if there is none
+     */
+    void send(PeerLink link, byte type, byte[] room, Payload message, int flag){
+        int messageLength = message != null ? message.length(true) : 0;
+        int bodyLength = 8 + 1 + room.length + messageLength + (flag >= 0 ? 1 : 0);
+        ByteBuffer buf = pool.acquire(FrameProtocol.headerSize + bodyLength + 1);
+        FrameProtocol.putHeader(buf, type, nodeID, bodyLength);
+        buf.position(buf.position() + 8);
+        buf.put((byte) room.length).put(room);
+        if(message != null){
+            message.copyFrameTo(buf, 0, messageLength);
+        }
+        if(flag >= 0){
+            buf.put((byte) flag);
+        }
+        buf.put((byte) '\n').flip();
+        Payload frame = Payload.wrap(buf, pool);
+        synchronized(links){
+            buf.putLong(FrameProtocol.headerSize, ++sequence);
+            link.send(frame);
+        }
+        frame.release();
+        if(type == FrameProtocol.relay){
+            relayed.increment();
+        }else if(type == FrameProtocol.submit || type == FrameProtocol.forward){
+            submitted.increment();
+        }
+    }
+
+    /**
+     * A helper method that sends a room frame to another server by its node ID
+     *
+     * @param node      the node ID of the other server
+     * @param type      the type of the frame
+     * @param room      the bytes of the name of the room
+     * @param message   the message carried after the room name, or null if there is none
+     * @param flag      a byte carried after the room name, or -1 if there is none
+     * @return true if the frame was queued, false if this server has no link to the other server
+     */
+    private boolean sendTo(int node, byte type, byte[] room, Payload message, int flag){
+        PeerLink link = linksByNode.get(node);
+        if(link == null){
+            return false;
+        }
+        send(link, type, room, message, flag);
+        return true;
+    }
+
+    /**
+     * Handles a room frame from another server, unless it was already taken or came from this server.  This is
+     * called by the readers of the links.
+     *
+     * @param origin            the node ID of the server the frame came from
+     * @param originStartTime   the time that server started
+     * @param type              the type of the frame
+     * @param body              the body of the frame
+     */
+    void receive(int origin, long originStartTime, byte type, byte[] body){
+        if(body.length < 9 || body.length < 9 + (body[8] & 0xff)){
+            //too short to hold a room name
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(body);
+        long number = in.getLong();
+        if(origin == nodeID || !isNew(origin, originStartTime, number)){
+            duplicates.increment();
+            return;
+        }
+        received.increment();
+        int roomLength = in.get() & 0xff;
+        byte[] nameBytes = Arrays.copyOfRange(body, 9, 9 + roomLength);
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+        int offset = 9 + roomLength;
+        int length = body.length - offset;
+        if(!RoomRegistry.isValidName(name)){
+            return;
+        }
+        if(type == FrameProtocol.subscribe){
+            follow(origin, name, nameBytes, length > 0 && body[offset] == 1);
+            return;
+        }
+        if(type == FrameProtocol.unsubscribe){
+            unfollow(origin, name);
+            return;
+        }
+        if(length < FrameProtocol.headerSize){
+            //too short to hold a frame
+            return;
+        }
+        ByteBuffer buf = pool.acquire(length + 1);
+        buf.put(body, offset, length).put((byte) '\n').flip();
+        Payload payload = Payload.wrap(buf, pool);
+        switch (type) {
+            case FrameProtocol.relay:
+            case FrameProtocol.backlog:
+                Room room = rooms.get(name);
+                if(room != null){
+                    //the history is not logged again, it was logged when it was first forwarded
+                    mainServer.deliver(room, payload, type == FrameProtocol.relay);
+                }
+                break;
+            case FrameProtocol.submit:
+                int owner = ring.owner(name);
+                if(owner != nodeID && owner != origin
+                        && sendTo(owner, FrameProtocol.forward, nameBytes, payload, -1)){
+                    //the ring changed and the sender has not seen it yet
+                    break;
+                }
+                mainServer.deliver(rooms.restore(name), payload, true);
+                break;
+            case FrameProtocol.forward:
+                mainServer.deliver(rooms.restore(name), payload, true);
+                break;
+            case FrameProtocol.handoff:
+                rooms.restore(name).restore(payload);
+                break;
+            default:
+                break;
+        }
+        payload.release();
+    }
+
+    /**
+     * A helper method for receive that adds the member standing for another server to a room, or sends it the
+     * history again if it is already in the room
+     *
+     * @param origin        the node ID of the other server
+     * @param name          the name of the room
+     * @param nameBytes     the bytes of the name of the room
+     * @param sendHistory   true if the other server wants the history of the room
+     */
+    private void follow(int origin, String name, byte[] nameBytes, boolean sendHistory){
+        PeerLink link = linksByNode.get(origin);
+        if(link == null){
+            events.log("Error: Cluster peer " + origin + " followed room " + name + " before it was linked to.");
+            return;
+        }
+        synchronized(followers){
+            PeerSession session = followers.get(origin + ":" + name);
+            if(session == null){
+                session = new PeerSession(this, link, origin, nameBytes);
+                followers.put(origin + ":" + name, session);
+                rooms.join(session, name, sendHistory);
+            }else if(sendHistory && session.getRoom() != null){
+                //the other server restarted and lost the history
+                session.getRoom().forEachInHistory(session::send);
+            }
+        }
+    }
+
+    /**
+     * A helper method for receive that takes the member standing for another server out of a room
+     *
+     * @param origin    the node ID of the other server
+     * @param name      the name of the room
+     */
+    private void unfollow(int origin, String name){
+        synchronized(followers){
+            PeerSession session = followers.remove(origin + ":" + name);
+            if(session != null){
+                rooms.leave(session);
+            }
+        }
+    }
+
+    /**
+     * A helper method for receive that records the sequence number of a frame from another server
+     *
+     * @param origin            the node ID of the server the frame came from
+     * @param originStartTime   the time that server started
+     * @param number            the sequence number of the frame
+     * @return true if the frame is newer than the last one taken from that server
+     */
+    private boolean isNew(int origin, long originStartTime, long number){
+        Origin last = origins.computeIfAbsent(origin, key -> new Origin());
+        synchronized(last){
+            if(originStartTime > last.startTime){
+                //the server restarted and counts from 1 again
+                last.startTime = originStartTime;
+                last.last = 0;
+            }else if(originStartTime < last.startTime){
+                return false;
+            }
+            if(number <= last.last){
+                return false;
+            }
+            last.last = number;
+            return true;
+        }
+    }
+
+    /**
+     * Called by a link when the other server answered it, the other server can now be sent frames
+     *
+     * @param node  the node ID of the other server
+     * @param link  the link
+     */
+    void linkUp(int node, PeerLink link){
+        if(node == nodeID){
+            events.log("Error: A cluster peer has the same node ID " + node + " as this server.");
+            return;
+        }
+        linksByNode.put(node, link);
+        synchronized(following){
+            linked.add(node);
+            refresh();
+        }
+    }
+
+    /**
+     * Called by a link when its connection failed.  The link keeps what is sent to it until it connects again.
+     *
+     * @param node the node ID of the other server
+     */
+    void linkDown(int node){
+        synchronized(following){
+            linked.remove(node);
+            refresh();
+        }
+    }
+
+    /**
+     * Called by a reader when another server linked to this server
+     *
+     * @param node the node ID of the other server
+     */
+    void peerUp(int node){
+        synchronized(following){
+            heard.merge(node, 1, Integer::sum);
+            refresh();
+        }
+    }
+
+    /**
+     * Called by a reader when the link of another server to this server ended
+     *
+     * @param node the node ID of the other server
+     */
+    void peerDown(int node){
+        synchronized(following){
+            heard.merge(node, -1, Integer::sum);
+            refresh();
+        }
+    }
+
+    /**
+     * A helper method that makes the ring again from the servers linked both ways and, if the servers changed, moves
+     * the rooms whose owner changed.  The lock on following is held.
+     */
+    private void refresh(){
+        List<Integer> nodes = new ArrayList<>();
+        nodes.add(nodeID);
+        for(int node : linked){
+            if(heard.getOrDefault(node, 0) > 0){
+                nodes.add(node);
+            }
+        }
+        HashRing last = ring;
+        HashRing next = new HashRing(nodes);
+        if(next.hasSameNodes(last)){
+            return;
+        }
+        ring = next;
+        List<Room> all = rooms.list();
+        int moved = 0;
+        for(Room room : all){
+            int before = last.owner(room.getName());
+            int after = next.owner(room.getName());
+            if(before == after){
+                continue;
+            }
+            moved++;
+            if(before == nodeID){
+                handOff(room, after);
+            }
+            updateInterest(room.getName());
+        }
+        events.log("The cluster ring is now nodes " + next + ", " + moved + " of " + all.size() + " rooms moved.");
+    }
+
+    /**
+     * A helper method for refresh that hands a room this server no longer owns to its new owner.  The history is
+     * sent unless the new owner follows the room and has it already, and the other servers stop following the room
+     * here, they follow it at the new owner once they see the new ring.
+     *
+     * @param room  the room
+     * @param owner the node ID of the new owner
+     */
+    private void handOff(Room room, int owner){
+        String suffix = ":" + room.getName();
+        synchronized(followers){
+            if(!followers.containsKey(owner + suffix)){
+                room.forEachInHistory(
+                        payload -> sendTo(owner, FrameProtocol.handoff, room.getNameBytes(), payload, -1));
+            }
+            Iterator<Map.Entry<String, PeerSession>> entries = followers.entrySet().iterator();
+            while(entries.hasNext()){
+                Map.Entry<String, PeerSession> entry = entries.next();
+                if(entry.getKey().endsWith(suffix)){
+                    rooms.leave(entry.getValue());
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the node ID of this server
+     *
+     * @return the node ID
+     */
+    public int getNodeID(){
+
+        return nodeID;
+    }
+
+    /**
+     * Returns the time this server started, sent to the other servers on each link
+     *
+     * @return the start time in milliseconds since the epoch
+     */
+    public long getStartTime(){
+
+        return startTime;
+    }
+
+    /**
+     * Returns one line for the cluster and one for each link describing how many messages went through it
+     *
+     * @return the cluster numbers as text
+     */
+    public String describe(){
+        int followed;
+        synchronized(following){
+            followed = following.size();
+        }
+        int followerCount;
+        synchronized(followers){
+            followerCount = followers.size();
+        }
+        StringBuilder text = new StringBuilder("Cluster node " + nodeID + " on port " + serverSocket.getLocalPort()
+                + ", ring " + ring + ": " + submitted.sum() + " submitted, " + relayed.sum() + " relayed, "
+                + received.sum() + " received, " + duplicates.sum() + " duplicates dropped, " + followed
+                + " rooms followed elsewhere, " + followerCount + " followers here");
+        for(PeerLink link : links){
+            text.append("\n  ").append(link.describe());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Stops accepting links and closes the links to the other servers
+     */
+    public void close(){
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the cluster port");
+        }
+        for(PeerLink link : links){
+            link.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package chatservice;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The format of a UDP packet that carries more than one chat message.  When the server batches UDP messages it packs
+ * the messages waiting for a client into one packet, starting with a two byte header and then each message as a two
+ * byte length followed by the bytes of the message.  A chat message never starts with a zero byte, so a client can
+ * tell a batch from a packet holding a single message.
+ *
+ */
+public class DatagramBatch {
+
+    /**
+     * the first byte of a batch packet
+     */
+    public static final byte marker = 0;
+
+    /**
+     * the second byte of a batch packet, the version of the batch format.  It tells a batch from a fragment (see
+     * DatagramFragment).
+     */
+    public static final byte version = 1;
+
+    /**
+     * the number of bytes of the batch header
+     */
+    public static final int headerSize = 2;
+
+    /**
+     * the number of bytes in front of each message in a batch
+     */
+    public static final int entryHeaderSize = 2;
+
+    /**
+     * the longest message that can be put in a batch
+     */
+    public static final int maxEntrySize = 0xFFFF;
+
+    /**
+     * Writes the batch header to the position of a buffer
+     *
+     * @param dst the buffer the batch is being built in
+     */
+    public static void putHeader(ByteBuffer dst){
+
+        dst.put(marker).put(version);
+    }
+
+    /**
+     * Adds a message to the batch being built in a buffer
+     *
+     * @param dst       the buffer the batch is being built in
+     * @param message   the message being added, it must be no longer than maxEntrySize
+     */
+    public static void putEntry(ByteBuffer dst, Payload message){
+        dst.putShort((short) message.datagramLength());
+        message.copyDatagramTo(dst);
+    }
+
+    /**
+     * Returns true if the bytes of a packet are a batch
+     *
+     * @param data      the bytes of the packet
+     * @param length    the number of bytes in the packet
+     * @return true if the packet is a batch of messages
+     */
+    public static boolean isBatch(byte[] data, int length){
+
+        return length >= headerSize && data[0] == marker && data[1] == version;
+    }
+
+    /**
+     * Splits a packet into the messages it holds.  A packet that is not a batch holds a single message.
+     *
+     * @param data      the bytes of the packet
+     * @param length    the number of bytes in the packet
+     * @param charset   the characters used to turn the bytes into messages
+     * @return the messages in the packet
+     */
+    public static List<String> unpack(byte[] data, int length, Charset charset){
+        List<String> messages = new ArrayList<>();
+        if(!isBatch(data, length)){
+            messages.add(new String(data, 0, length, charset));
+            return messages;
+        }
+        int index = headerSize;
+        while(index + entryHeaderSize <= length){
+            int size = ((data[index] & 0xFF) << 8) | (data[index + 1] & 0xFF);
+            index += entryHeaderSize;
+            //a cut off message is shown with what arrived of it
+            size = Math.min(size, length - index);
+            messages.add(new String(data, index, size, charset));
+            index += size;
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,94 @@
+package chatservice;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The format of a UDP packet that carries one piece of a message too long for a single packet.  A fragment starts
+ * with a zero byte and the fragment kind, then the ID of the message, the length of the whole message and where in
+ * the message this piece goes, each as four bytes, and then the bytes of the piece.  A chat message never starts with
+ * a zero byte, and the second byte tells a fragment from a batch (see DatagramBatch).
+ *
+ * The pieces of a message can arrive in any order.  They are put back together by a FragmentReassembler.
+ *
+ */
+public class DatagramFragment {
+
+    /**
+     * the first byte of a fragment
+     */
+    public static final byte marker = 0;
+
+    /**
+     * the second byte of a fragment
+     */
+    public static final byte kind = 2;
+
+    /**
+     * the number of bytes in front of the piece of the message
+     */
+    public static final int headerSize = 14;
+
+    /**
+     * the longest message that is put back together, longer ones are thrown away
+     */
+    public static final int maxMessageSize = FrameProtocol.maxFrameSize;
+
+    /**
+     * Writes the header of a fragment to the position of a buffer
+     *
+     * @param dst           the buffer the fragment is being built in
+     * @param messageID     the ID of the message the piece belongs to
+     * @param totalLength   the number of bytes of the whole message
+     * @param offset        the index in the message of the first byte of the piece
+     */
+    public static void putHeader(ByteBuffer dst, int messageID, int totalLength, int offset){
+        dst.put(marker).put(kind);
+        dst.putInt(messageID);
+        dst.putInt(totalLength);
+        dst.putInt(offset);
+    }
+
+    /**
+     * Returns true if a packet is a fragment
+     *
+     * @param packet the bytes of the packet, from index 0 to the limit
+     * @return true if the packet is a piece of a longer message
+     */
+    public static boolean isFragment(ByteBuffer packet){
+
+        return packet.limit() >= headerSize && packet.get(0) == marker && packet.get(1) == kind;
+    }
+
+    /**
+     * Returns the ID of the message a fragment belongs to
+     *
+     * @param packet the bytes of the fragment
+     * @return the message ID
+     */
+    public static int messageID(ByteBuffer packet){
+
+        return packet.getInt(2);
+    }
+
+    /**
+     * Returns the length of the whole message a fragment belongs to
+     *
+     * @param packet the bytes of the fragment
+     * @return the number of bytes of the whole message
+     */
+    public static int totalLength(ByteBuffer packet){
+
+        return packet.getInt(6);
+    }
+
+    /**
+     * Returns where in the message the piece of a fragment goes
+     *
+     * @param packet the bytes of the fragment
+     * @return the index in the message of the first byte of the piece
+     */
+    public static int offset(ByteBuffer packet){
+
+        return packet.getInt(10);
+    }
+}
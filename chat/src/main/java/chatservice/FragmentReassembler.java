@@ -0,0 +1,355 @@
+package chatservice;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Puts the fragments of long messages from one sender back together.  Each piece is copied to its place in a buffer
+ * taken from a pool, and the message is finished once all of its bytes have arrived.  Only one message is put
+ * together at a time: UDP does not resend lost packets, so a piece of a new message means the rest of the old one is
+ * never coming and the old one is thrown away.
+ *
+ * UDP can deliver a packet twice, so the reassembler keeps the ranges of the message that have arrived and only
+ * counts the bytes of a fragment that were not there yet.  A message is only finished once every byte of it has
+ * arrived, a buffer from the pool is never zeroed and a missing piece would hold the bytes of an older message.
+ *
+ * The buffer of a message only grows as far as its pieces reach, doubling each time, so a sender that only ever sends
+ * the first piece of a long message does not hold a buffer for all of it.  A reassembler given a budget takes the
+ * bytes of its buffer from the budget, and a message whose buffer would go over the budget is thrown away.
+ *
+ * Anyone can send a fragment that is not valid, so a reassembler of the server counts them in the server metrics
+ * instead of logging each one.
+ *
+ * A reassembler is only used by the thread that receives the sender's packets.
+ *
+ */
+public class FragmentReassembler {
+
+    /**
+     * The most bytes the buffers of a group of reassemblers can hold at once.  A budget can take its bytes from a
+     * bigger budget too, so the reassemblers of one host can have a budget of their own within the budget of every
+     * host.  A budget is only used by the thread that receives the packets.
+     */
+    public static class Budget {
+
+        /**
+         * the most bytes the buffers can hold
+         */
+        private final long maxBytes;
+
+        /**
+         * the budget the bytes are also taken from, or null if there is none
+         */
+        private final Budget parent;
+
+        /**
+         * the bytes the buffers hold now
+         */
+        private long used = 0;
+
+        /**
+         * the number of reassemblers taking their bytes from the budget
+         */
+        private int users = 0;
+
+        /**
+         * Creates a budget with nothing taken from it
+         *
+         * @param maxBytes  the most bytes the buffers can hold
+         * @param parent    the budget the bytes are also taken from, or null if there is none
+         */
+        public Budget(long maxBytes, Budget parent){
+            this.maxBytes = maxBytes;
+            this.parent = parent;
+        }
+
+        /**
+         * Takes bytes from the budget, and from the budget above it
+         *
+         * @param bytes the number of bytes
+         * @return true if the bytes were taken, false if either budget does not have them
+         */
+        boolean reserve(long bytes){
+            if(used + bytes > maxBytes || (parent != null && !parent.reserve(bytes))){
+                return false;
+            }
+            used += bytes;
+            return true;
+        }
+
+        /**
+         * Gives bytes back to the budget, and to the budget above it
+         *
+         * @param bytes the number of bytes
+         */
+        void free(long bytes){
+            used -= bytes;
+            if(parent != null){
+                parent.free(bytes);
+            }
+        }
+
+        /**
+         * Returns the bytes the buffers hold now
+         *
+         * @return the number of bytes taken from the budget
+         */
+        public long getUsed(){
+
+            return used;
+        }
+
+        /**
+         * Returns the number of reassemblers taking their bytes from the budget
+         *
+         * @return the number of reassemblers
+         */
+        public int getUsers(){
+
+            return users;
+        }
+    }
+
+    /**
+     * the pool the buffers for the messages are taken from
+     */
+    private PayloadPool pool;
+
+    /**
+     * the budget the bytes of the buffer are taken from, or null if the buffer is not limited
+     */
+    private Budget budget;
+
+    /**
+     * the numbers of the server the fragments thrown away are counted in, or null if they are not counted
+     */
+    private ServerMetrics metrics;
+
+    /**
+     * the buffer the message being put together is copied into, null when there is none
+     */
+    private ByteBuffer buffer = null;
+
+    /**
+     * true while a message is being put together, the buffer is only created once its first piece arrives
+     */
+    private boolean started = false;
+
+    /**
+     * the ID of the message being put together
+     */
+    private int messageID;
+
+    /**
+     * the number of bytes of the message being put together
+     */
+    private int totalLength;
+
+    /**
+     * the number of bytes of the message that have arrived, each byte counted once
+     */
+    private int received;
+
+    /**
+     * the ranges of the message that have arrived, the start of each range mapped to its end.  Ranges that touch are
+     * joined, so pieces arriving in order keep one range.
+     */
+    private TreeMap<Integer, Integer> ranges = new TreeMap<>();
+
+    /**
+     * the time the last fragment arrived, in the units of System.nanoTime
+     */
+    private long lastAdded = System.nanoTime();
+
+    /**
+     * Creates a reassembler with nothing put together yet, whose buffers are not limited
+     *
+     * @param pool the pool to take the buffers for the messages from, it must hold heap buffers so each message
+     *             starts at index 0 of its array
+     */
+    public FragmentReassembler(PayloadPool pool){
+
+        this(pool, null, null);
+    }
+
+    /**
+     * Creates a reassembler with nothing put together yet.  It counts as a user of the budget until close is called.
+     *
+     * @param pool      the pool to take the buffers for the messages from, it must hold heap buffers so each message
+     *                  starts at index 0 of its array
+     * @param budget    the budget the bytes of the buffers are taken from, or null to not limit them
+     * @param metrics   the numbers of the server the fragments thrown away are counted in, or null to not count them
+     */
+    public FragmentReassembler(PayloadPool pool, Budget budget, ServerMetrics metrics){
+        this.pool = pool;
+        this.budget = budget;
+        this.metrics = metrics;
+        if(budget != null){
+            budget.users++;
+        }
+    }
+
+    /**
+     * Adds a fragment to the message it belongs to.  If the buffer of the message would go over the budget, the
+     * message is thrown away.
+     *
+     * @param packet the bytes of the fragment, from index 0 to the limit
+     * @return true if the message is finished and can be taken
+     */
+    public boolean add(ByteBuffer packet){
+        int id = DatagramFragment.messageID(packet);
+        int total = DatagramFragment.totalLength(packet);
+        int offset = DatagramFragment.offset(packet);
+        int length = packet.limit() - DatagramFragment.headerSize;
+        if(total <= 0 || total > DatagramFragment.maxMessageSize || offset < 0 || offset > total - length){
+            if(metrics != null){
+                metrics.invalidFragment();
+            }
+            return false;
+        }
+        if(!started || id != messageID || total != totalLength){
+            //start a new message, anything left of the old one is not coming
+            release();
+            started = true;
+            messageID = id;
+            totalLength = total;
+            received = 0;
+        }
+        lastAdded = System.nanoTime();
+        if(!reach(offset + length)){
+            if(metrics != null){
+                metrics.reassemblyDropped();
+            }
+            release();
+            return false;
+        }
+        buffer.put(offset, packet, DatagramFragment.headerSize, length);
+        received += cover(offset, offset + length);
+        return received == totalLength;
+    }
+
+    /**
+     * A helper method for add that grows the buffer of the message until it reaches an index.  The buffer at least
+     * doubles each time it grows, and it never grows past the length of the message.  The bytes that have arrived
+     * are copied to the bigger buffer.
+     *
+     * @param end the index after the last byte the buffer has to hold
+     * @return true if the buffer holds the index, false if growing it would go over the budget
+     */
+    private boolean reach(int end){
+        int capacity = buffer != null ? buffer.capacity() : 0;
+        if(capacity >= end){
+            return true;
+        }
+        ByteBuffer bigger = pool.acquire(Math.min(totalLength, Math.max(end, capacity * 2)));
+        if(budget != null && !budget.reserve(bigger.capacity() - capacity)){
+            pool.release(bigger);
+            return false;
+        }
+        if(buffer != null){
+            if(!ranges.isEmpty()){
+                bigger.put(0, buffer, 0, ranges.lastEntry().getValue());
+            }
+            pool.release(buffer);
+        }
+        buffer = bigger;
+        return true;
+    }
+
+    /**
+     * A helper method for add that adds a range to the ranges that have arrived
+     *
+     * @param start the index of the first byte of the range
+     * @param end   the index after the last byte of the range
+     * @return the number of bytes of the range that had not arrived before
+     */
+    private int cover(int start, int end){
+        int added = end - start;
+        Map.Entry<Integer, Integer> range = ranges.floorEntry(start);
+        if(range == null || range.getValue() < start){
+            range = ranges.ceilingEntry(start);
+        }
+        //join every range that overlaps or touches the new one, taking off the bytes they already hold
+        while(range != null && range.getKey() <= end){
+            added -= Math.max(0, Math.min(range.getValue(), end) - Math.max(range.getKey(), start));
+            start = Math.min(start, range.getKey());
+            end = Math.max(end, range.getValue());
+            ranges.remove(range.getKey());
+            range = ranges.ceilingEntry(start);
+        }
+        ranges.put(start, end);
+        return added;
+    }
+
+    /**
+     * Returns the time the last fragment arrived
+     *
+     * @return the time, in the units of System.nanoTime
+     */
+    public long getLastAdded(){
+
+        return lastAdded;
+    }
+
+    /**
+     * Returns the finished message and gives its buffer back to the pool
+     *
+     * @param charset the characters used to turn the bytes into the message
+     * @return the message
+     */
+    public String take(Charset charset){
+        String message = new String(buffer.array(), 0, totalLength, charset);
+        release();
+        return message;
+    }
+
+    /**
+     * Returns the array holding the finished message, which starts at index 0.  The array is only valid until
+     * release is called.
+     *
+     * @return the array of the message buffer
+     */
+    public byte[] array(){
+
+        return buffer.array();
+    }
+
+    /**
+     * Returns the number of bytes of the finished message
+     *
+     * @return the length of the message
+     */
+    public int length(){
+
+        return totalLength;
+    }
+
+    /**
+     * Throws away the message being put together and gives its buffer back to the pool
+     */
+    public void release(){
+        if(buffer != null){
+            if(budget != null){
+                budget.free(buffer.capacity());
+            }
+            pool.release(buffer);
+            buffer = null;
+        }
+        started = false;
+        ranges.clear();
+    }
+
+    /**
+     * Throws away the message being put together and stops counting as a user of the budget.  The reassembler is not
+     * used afterwards.
+     */
+    public void close(){
+        release();
+        if(budget != null){
+            budget.users--;
+            budget = null;
+        }
+    }
+}
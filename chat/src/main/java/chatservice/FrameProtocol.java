@@ -0,0 +1,266 @@
+package chatservice;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The framed protocol TCP/IP clients can use instead of lines of text.  A client asks for it by sending the preface
+ * as soon as it connects: a zero byte, the letters "CH" and the highest protocol version it speaks.  The server
+ * answers with an ack frame, and from then on both sides send frames.  A line of text never starts with a zero byte,
+ * so clients that do not send the preface keep talking in lines of text.
+ *
+ * A frame is a four byte length, then a type byte, the four byte ID of the client that sent the message and the bytes
+ * of the message.  The length counts everything after itself.  Frames are never longer than maxFrameSize, so the
+ * first byte of a frame is always zero and a client can tell frames from the lines of text the server sent before
+ * the ack.
+ *
+ */
+public class FrameProtocol {
+
+    /**
+     * the first byte of the preface and of every frame
+     */
+    public static final byte marker = 0;
+
+    /**
+     * the highest protocol version the server speaks
+     */
+    public static final byte version = 1;
+
+    /**
+     * the number of bytes of the preface
+     */
+    public static final int prefaceSize = 4;
+
+    /**
+     * the number of bytes of the length in front of each frame
+     */
+    public static final int lengthSize = 4;
+
+    /**
+     * the number of bytes in front of the message in each frame, the length, type and client ID
+     */
+    public static final int headerSize = lengthSize + 1 + 4;
+
+    /**
+     * the longest frame, counting the bytes after the length
+     */
+    public static final int maxFrameSize = 1024 * 1024;
+
+    /**
+     * a chat message
+     */
+    public static final byte chat = 1;
+
+    /**
+     * a client joining, the message is forwarded like a chat message
+     */
+    public static final byte join = 2;
+
+    /**
+     * a client leaving, the message is forwarded and then the client is disconnected
+     */
+    public static final byte leave = 3;
+
+    /**
+     * the server's answer to the preface, the client ID is the ID the server gave the client and the message is the
+     * protocol version that will be used
+     */
+    public static final byte ack = 4;
+
+    /**
+     * a message from the server itself rather than from a client
+     */
+    public static final byte control = 5;
+
+    /**
+     * a server of the cluster introducing itself on a peer link, the client ID is the node ID of the server and the
+     * message is the time the server started, in milliseconds since the epoch.  The server that accepts the link
+     * answers with its own peer frame.
+     */
+    public static final byte peer = 6;
+
+    /**
+     * a message the server owning its room sends to a server with clients in the room, to be forwarded to them.  The
+     * client ID of this and the other room frames is the node ID of the server that sent it.  The message is the
+     * sequence number the server gave the frame, the name of the room after one byte holding the length of the name,
+     * and then what the type of frame carries, here the frame of the message.
+     */
+    public static final byte relay = 7;
+
+    /**
+     * the answer to the room frames on a peer link, the message is the sequence number of the last one taken
+     */
+    public static final byte relayAck = 8;
+
+    /**
+     * a message from a client, sent to the server owning its room to be put in order and forwarded
+     */
+    public static final byte submit = 9;
+
+    /**
+     * a message from a client that a server passed on because it does not own the room, the server that gets it
+     * forwards it whether it owns the room or not
+     */
+    public static final byte forward = 10;
+
+    /**
+     * a message from the history of a room, sent to a server that has just started following the room
+     */
+    public static final byte backlog = 11;
+
+    /**
+     * a message from the history of a room, sent by the server that owned the room to its new owner
+     */
+    public static final byte handoff = 12;
+
+    /**
+     * a server asking the owner of a room for its messages, because a client of the server is in the room.  After
+     * the room name is one byte, 1 if the server wants the history of the room.
+     */
+    public static final byte subscribe = 13;
+
+    /**
+     * a server telling the owner of a room it no longer has clients in the room
+     */
+    public static final byte unsubscribe = 14;
+
+    /**
+     * a client showing it is still there when it has had nothing else to send for a while, it is not forwarded
+     */
+    public static final byte heartbeat = 15;
+
+    /**
+     * One frame read from a stream
+     */
+    public static class Frame {
+
+        /**
+         * the type of the frame
+         */
+        public final byte type;
+
+        /**
+         * the ID of the client that sent the message
+         */
+        public final int senderID;
+
+        /**
+         * the bytes of the message
+         */
+        public final byte[] body;
+
+        /**
+         * Creates a frame that was read
+         *
+         * @param type      the type of the frame
+         * @param senderID  the ID of the client that sent the message
+         * @param body      the bytes of the message
+         */
+        public Frame(byte type, int senderID, byte[] body){
+            this.type = type;
+            this.senderID = senderID;
+            this.body = body;
+        }
+
+        /**
+         * Returns the message of the frame as text
+         *
+         * @param charset the characters used to turn the bytes into text
+         * @return the message
+         */
+        public String message(Charset charset){
+
+            return new String(body, charset);
+        }
+    }
+
+    /**
+     * Writes the preface that asks the server for the framed protocol
+     *
+     * @param out the stream to the server
+     * @throws IOException if the preface could not be written
+     */
+    public static void writePreface(OutputStream out) throws IOException {
+        out.write(new byte[]{marker, 'C', 'H', version});
+        out.flush();
+    }
+
+    /**
+     * Returns the protocol version a preface asks for
+     *
+     * @param preface   the bytes of the preface
+     * @param offset    the index of the first byte of the preface
+     * @return the version, or -1 if the bytes are not a preface
+     */
+    public static int readPreface(byte[] preface, int offset){
+        if(preface[offset] != marker || preface[offset + 1] != 'C' || preface[offset + 2] != 'H'){
+            return -1;
+        }
+        return preface[offset + 3];
+    }
+
+    /**
+     * Returns true if the length of a frame is allowed
+     *
+     * @param length the length read from the front of a frame
+     * @return true if the frame is not too short or too long
+     */
+    public static boolean isValidLength(int length){
+
+        return length >= headerSize - lengthSize && length <= maxFrameSize;
+    }
+
+    /**
+     * Writes the header of a frame to the position of a buffer
+     *
+     * @param dst           the buffer the frame is being built in
+     * @param type          the type of the frame
+     * @param senderID      the ID of the client that sent the message
+     * @param bodyLength    the number of bytes of the message that will follow
+     */
+    public static void putHeader(ByteBuffer dst, byte type, int senderID, int bodyLength){
+        dst.putInt(headerSize - lengthSize + bodyLength);
+        dst.put(type);
+        dst.putInt(senderID);
+    }
+
+    /**
+     * Writes a whole frame to a stream, the stream is not flushed
+     *
+     * @param out       the stream to write to
+     * @param type      the type of the frame
+     * @param senderID  the ID of the client that sent the message
+     * @param body      the bytes of the message
+     * @throws IOException if the frame could not be written
+     */
+    public static void writeFrame(DataOutputStream out, byte type, int senderID, byte[] body) throws IOException {
+        out.writeInt(headerSize - lengthSize + body.length);
+        out.writeByte(type);
+        out.writeInt(senderID);
+        out.write(body);
+    }
+
+    /**
+     * Reads a whole frame from a stream, waiting until it has all arrived
+     *
+     * @param in the stream to read from
+     * @return the frame
+     * @throws IOException if the stream ended or the frame is not valid
+     */
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(!isValidLength(length)){
+            throw new IOException("Frame length " + length + " is not valid.");
+        }
+        byte type = in.readByte();
+        int senderID = in.readInt();
+        byte[] body = new byte[length - (headerSize - lengthSize)];
+        in.readFully(body);
+        return new Frame(type, senderID, body);
+    }
+}
@@ -0,0 +1,150 @@
+package chatservice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The consistent hash ring that decides which server of the cluster owns each chat room.  Every server is put on the
+ * ring at virtualNodes points worked out from its node ID, and a room belongs to the server at the first point at or
+ * after the hash of the room name, going round.  When a server is added it takes over only the rooms just before its
+ * own points, and when one is removed only its rooms move, so about 1/N of the rooms move either way.  The points are
+ * spread by hashing, so every server gets about the same share.
+ *
+ * The hashes only depend on the node IDs and the room names, so every server with the same list of nodes works out
+ * the same owners.  A ring never changes, a new one is made when the list of nodes changes.
+ *
+ */
+public final class HashRing {
+
+    /**
+     * the number of points each server is put on the ring at, more points share the rooms out more evenly
+     */
+    private static final int virtualNodes = 128;
+
+    /**
+     * the points on the ring, in order
+     */
+    private final long[] points;
+
+    /**
+     * the node ID of the server at each point
+     */
+    private final int[] owners;
+
+    /**
+     * the node IDs on the ring, in order
+     */
+    private final int[] nodes;
+
+    /**
+     * Makes the ring for a list of servers
+     *
+     * @param nodeIDs the node IDs of the servers, at least one
+     */
+    public HashRing(Collection<Integer> nodeIDs){
+        nodes = nodeIDs.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+        long[] keyed = new long[nodes.length * virtualNodes];
+        int[] byPoint = new int[keyed.length];
+        //sort the points and carry their owners along
+        Integer[] order = new Integer[keyed.length];
+        for(int n = 0; n < nodes.length; n++){
+            for(int v = 0; v < virtualNodes; v++){
+                int i = n * virtualNodes + v;
+                keyed[i] = mix(((long) nodes[n] << 32) | v);
+                byPoint[i] = nodes[n];
+                order[i] = i;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(keyed[a], keyed[b]));
+        points = new long[keyed.length];
+        owners = new int[keyed.length];
+        for(int i = 0; i < order.length; i++){
+            points[i] = keyed[order[i]];
+            owners[i] = byPoint[order[i]];
+        }
+    }
+
+    /**
+     * Returns the node ID of the server owning a room
+     *
+     * @param room the name of the room
+     * @return the node ID of the owner
+     */
+    public int owner(String room){
+        long hash = hash(room);
+        int found = Arrays.binarySearch(points, hash);
+        int index = found >= 0 ? found : -found - 1;
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * Returns true if a server is on the ring
+     *
+     * @param nodeID the node ID of the server
+     * @return true if the server owns part of the ring
+     */
+    public boolean contains(int nodeID){
+
+        return Arrays.binarySearch(nodes, nodeID) >= 0;
+    }
+
+    /**
+     * Returns true if another ring has the same servers on it, and so gives every room the same owner
+     *
+     * @param other the other ring
+     * @return true if the node IDs are the same
+     */
+    public boolean hasSameNodes(HashRing other){
+
+        return Arrays.equals(nodes, other.nodes);
+    }
+
+    /**
+     * Returns the number of servers on the ring
+     *
+     * @return the number of servers
+     */
+    public int size(){
+
+        return nodes.length;
+    }
+
+    /**
+     * Returns the node IDs of the servers on the ring, as text
+     *
+     * @return the node IDs
+     */
+    public String toString(){
+
+        return Arrays.toString(nodes);
+    }
+
+    /**
+     * A helper method that hashes a room name.  The name is hashed as UTF-8 bytes with 64 bit FNV-1a and then mixed,
+     * so it is the same on every server.
+     *
+     * @param room the name of the room
+     * @return the hash
+     */
+    static long hash(String room){
+        long hash = 0xcbf29ce484222325L;
+        for(byte b : room.getBytes(StandardCharsets.UTF_8)){
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * A helper method that spreads the bits of a number over the whole long, the finalizer of SplitMix64
+     *
+     * @param value the number
+     * @return the mixed number
+     */
+    private static long mix(long value){
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,189 @@
+package chatservice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Disconnects the clients nothing has arrived from for the idle timeout, such as a UDP client that crashed without
+ * asking to be removed.  Clients that have nothing to say send heartbeats, so only clients that are gone are reaped.
+ * Clients from before heartbeats never send them, so the reaper is only started when an idle timeout is given.
+ *
+ * The reaper is one thread that keeps the idle timers of every client in a hashed timing wheel.  The wheel is a ring
+ * of slots, one for each tick of the reaper, and a timer is kept in the slot of the tick it runs out at.  Once a
+ * second the reaper moves to the next slot and looks only at the timers in it: a timer that has run out disconnects
+ * its client, and a timer that was marked since it was put there is moved to the slot of its new deadline.  Each
+ * timer is looked at about once every idle timeout however busy its client is, so a tick costs a few steps for each
+ * timer in its slot and nothing for the rest, and there is no thread or scheduled task for each client.
+ *
+ * The wheel is only used by the reaper thread.  New timers are handed to it through a queue, and cancelled timers
+ * are thrown away when the reaper finds them.
+ *
+ */
+public class IdleReaper extends Thread {
+
+    /**
+     * the length of one tick in milliseconds
+     */
+    private static final int tickMillis = 1000;
+
+    /**
+     * the number of slots in the wheel, a power of two so a tick is turned into a slot with a mask.  A timer further
+     * away than one turn of the wheel is looked at again after each turn.
+     */
+    private static final int wheelSize = 512;
+
+    /**
+     * the mask that turns a tick into the index of its slot
+     */
+    private static final int wheelMask = wheelSize - 1;
+
+    /**
+     * the slots of the wheel, each holding the timers that run out at its ticks
+     */
+    private final List<ArrayDeque<IdleTimer>> wheel = new ArrayList<>(wheelSize);
+
+    /**
+     * the new timers waiting to be put in the wheel by the reaper thread
+     */
+    private final ConcurrentLinkedQueue<IdleTimer> added = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the number of ticks without a message or heartbeat before a client is disconnected, 0 to never disconnect
+     */
+    private final long timeoutTicks;
+
+    /**
+     * the numbers of the server the reaped clients are counted in
+     */
+    private final ServerMetrics metrics;
+
+    /**
+     * the number of ticks since the reaper started, written by the reaper thread only
+     */
+    private volatile long tick = 0;
+
+    /**
+     * Creates the reaper, it is started by the main server
+     *
+     * @param idleTimeout   the seconds without a message or heartbeat before a client is disconnected, 0 to never
+     * @param metrics       the numbers of the server the reaped clients are counted in
+     */
+    public IdleReaper(int idleTimeout, ServerMetrics metrics){
+        super("idle-reaper");
+        timeoutTicks = idleTimeout * 1000L / tickMillis;
+        this.metrics = metrics;
+        for(int i = 0; i < wheelSize; i++){
+            wheel.add(new ArrayDeque<>());
+        }
+        setDaemon(true);
+    }
+
+    /**
+     * Creates the idle timer of a new client.  This can be called from any thread.
+     *
+     * @param client the client disconnected once its timer runs out
+     * @return the timer the client marks for everything that arrives from it
+     */
+    public IdleTimer watch(ClientSession client){
+        IdleTimer timer = new IdleTimer(this, client);
+        if(isEnabled()){
+            added.add(timer);
+        }
+        return timer;
+    }
+
+    /**
+     * Returns true if idle clients are disconnected at all
+     *
+     * @return true if there is an idle timeout
+     */
+    public boolean isEnabled(){
+
+        return timeoutTicks > 0;
+    }
+
+    /**
+     * Returns the number of ticks since the reaper started, the time the idle timers are marked with
+     *
+     * @return the current tick
+     */
+    long currentTick(){
+
+        return tick;
+    }
+
+    /**
+     * Moves to the next slot once every tick and reaps the timers in it.  A tick that was missed because the thread
+     * was held up is caught up on straight away.
+     */
+    public void run(){
+        if(!isEnabled()){
+            return;
+        }
+        long start = System.nanoTime();
+        long tickNanos = tickMillis * 1_000_000L;
+        while(true){
+            try {
+                Thread.sleep(tickMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = (System.nanoTime() - start) / tickNanos;
+            while(tick < now){
+                tick++;
+                addTimers();
+                reap(tick);
+            }
+        }
+    }
+
+    /**
+     * A helper method for run that puts the new timers in the slots of their deadlines
+     */
+    private void addTimers(){
+        IdleTimer timer;
+        while((timer = added.poll()) != null){
+            if(!timer.isCancelled()){
+                schedule(timer, Math.max(timer.getLastActive() + timeoutTicks, tick));
+            }
+        }
+    }
+
+    /**
+     * A helper method for run that looks at every timer in the slot of a tick.  Only the timers that were in the slot
+     * when the tick began are looked at, a timer moved back into the same slot waits for the next turn.
+     *
+     * @param now the tick that began
+     */
+    private void reap(long now){
+        ArrayDeque<IdleTimer> slot = wheel.get((int) (now & wheelMask));
+        for(int i = slot.size(); i > 0; i--){
+            IdleTimer timer = slot.poll();
+            if(timer.isCancelled()){
+                continue;
+            }
+            long deadline = timer.getLastActive() + timeoutTicks;
+            if(deadline > now){
+                schedule(timer, deadline);
+                continue;
+            }
+            timer.cancel();
+            metrics.idleReaped(timer.client.isProtocolUDP() ? ServerMetrics.udp : ServerMetrics.tcp);
+            timer.client.disconnect("Nothing arrived from you for " + timeoutTicks * tickMillis / 1000
+                    + " seconds.");
+        }
+    }
+
+    /**
+     * A helper method that puts a timer in the slot of a tick
+     *
+     * @param timer     the timer
+     * @param deadline  the tick the timer runs out at
+     */
+    private void schedule(IdleTimer timer, long deadline){
+
+        wheel.get((int) (deadline & wheelMask)).add(timer);
+    }
+}
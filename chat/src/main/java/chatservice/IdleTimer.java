@@ -0,0 +1,82 @@
+package chatservice;
+
+/**
+ * The idle timer of one client of the server.  The thread reading the client marks the timer every time something
+ * arrives from the client, and the idle reaper disconnects the client once nothing has arrived for the idle timeout.
+ * Marking the timer only copies the tick of the reaper, the timer is not moved in the wheel until the reaper finds
+ * it there, so a busy client costs the reaper nothing between its visits.
+ *
+ */
+public class IdleTimer {
+
+    /**
+     * the reaper the timer belongs to, its tick is the time the timer is marked with
+     */
+    private final IdleReaper reaper;
+
+    /**
+     * the client disconnected once the timer runs out
+     */
+    final ClientSession client;
+
+    /**
+     * the tick of the reaper when something last arrived from the client
+     */
+    private volatile long lastActive;
+
+    /**
+     * true once the client is gone, the reaper throws the timer away the next time it finds it
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates a timer marked with the tick now
+     *
+     * @param reaper the reaper the timer belongs to
+     * @param client the client disconnected once the timer runs out
+     */
+    IdleTimer(IdleReaper reaper, ClientSession client){
+        this.reaper = reaper;
+        this.client = client;
+        lastActive = reaper.currentTick();
+    }
+
+    /**
+     * Marks the client as active now.  This is called for every message or heartbeat from the client, and only
+     * writes the timer when the tick has changed.
+     */
+    public void touch(){
+        long tick = reaper.currentTick();
+        if(lastActive != tick){
+            lastActive = tick;
+        }
+    }
+
+    /**
+     * Stops the timer once the client is gone
+     */
+    public void cancel(){
+
+        cancelled = true;
+    }
+
+    /**
+     * Returns the tick of the reaper when something last arrived from the client
+     *
+     * @return the tick
+     */
+    long getLastActive(){
+
+        return lastActive;
+    }
+
+    /**
+     * Returns true once the client is gone
+     *
+     * @return true if the timer was cancelled
+     */
+    boolean isCancelled(){
+
+        return cancelled;
+    }
+}
@@ -0,0 +1,189 @@
+package chatservice;
+
+import java.util.Arrays;
+
+/**
+ * Counts how many times each latency was seen, so percentiles can be read back without keeping every value.  Values
+ * under 64 are counted exactly, larger values are counted in buckets that split every power of two into 64 pieces, so
+ * a percentile is never more than about 1.6% off.  Every value up to Long.MAX_VALUE fits in a fixed array of counts,
+ * recording never allocates.
+ *
+ * A histogram is only used by one thread at a time.  Histograms filled by different threads are added together once
+ * they are done.
+ *
+ */
+public class LatencyHistogram {
+
+    /**
+     * the number of bits of each value that are kept, the rest are rounded away
+     */
+    private static final int subBucketBits = 6;
+
+    /**
+     * the number of buckets each power of two is split into
+     */
+    private static final int subBucketCount = 1 << subBucketBits;
+
+    /**
+     * the number of buckets needed for every positive long
+     */
+    private static final int bucketCount = (64 - subBucketBits) * subBucketCount;
+
+    /**
+     * the number of values that fell in each bucket
+     */
+    private long[] counts = new long[bucketCount];
+
+    /**
+     * the number of values recorded
+     */
+    private long totalCount = 0;
+
+    /**
+     * the sum of the values recorded, used for the mean
+     */
+    private long sum = 0;
+
+    /**
+     * the smallest value recorded
+     */
+    private long min = Long.MAX_VALUE;
+
+    /**
+     * the largest value recorded
+     */
+    private long max = 0;
+
+    /**
+     * Counts one value.  A negative value is counted as 0.
+     *
+     * @param value the value seen, for example a latency in nanoseconds
+     */
+    public void record(long value){
+        if(value < 0){
+            value = 0;
+        }
+        counts[bucketOf(value)]++;
+        totalCount++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds every value counted by another histogram to this one
+     *
+     * @param other the histogram to add, it is not changed
+     */
+    public void add(LatencyHistogram other){
+        for(int i = 0; i < bucketCount; i++){
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Forgets every value that was counted
+     */
+    public void reset(){
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * Returns the value that the given percent of the values are at or below
+     *
+     * @param percentile the percent of values, from 0 to 100
+     * @return the highest value of the bucket holding the percentile, or 0 if nothing was counted
+     */
+    public long valueAtPercentile(double percentile){
+        if(totalCount == 0){
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for(int i = 0; i < bucketCount; i++){
+            seen += counts[i];
+            if(seen >= wanted){
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the number of values counted
+     *
+     * @return the count
+     */
+    public long getCount(){
+
+        return totalCount;
+    }
+
+    /**
+     * Returns the mean of the values counted
+     *
+     * @return the mean, or 0 if nothing was counted
+     */
+    public double getMean(){
+
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    /**
+     * Returns the smallest value counted
+     *
+     * @return the smallest value, or 0 if nothing was counted
+     */
+    public long getMin(){
+
+        return totalCount == 0 ? 0 : min;
+    }
+
+    /**
+     * Returns the largest value counted
+     *
+     * @return the largest value, or 0 if nothing was counted
+     */
+    public long getMax(){
+
+        return max;
+    }
+
+    /**
+     * A helper method that finds the bucket a value is counted in
+     *
+     * @param value the value, not negative
+     * @return the index of the bucket
+     */
+    private static int bucketOf(long value){
+        if(value < subBucketCount){
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketBits;
+        int subBucket = (int) (value >>> shift) - subBucketCount;
+        return (shift + 1) * subBucketCount + subBucket;
+    }
+
+    /**
+     * A helper method that finds the highest value counted in a bucket
+     *
+     * @param bucket the index of the bucket
+     * @return the highest value that falls in the bucket
+     */
+    private static long highestValueOf(int bucket){
+        if(bucket < subBucketCount){
+            return bucket;
+        }
+        int shift = bucket / subBucketCount - 1;
+        long subBucket = bucket % subBucketCount + subBucketCount;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,667 @@
+package chatservice;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+/**
+ * One simulated chatter of the load generator.  It joins the server the same way the client program does, sends a
+ * message whenever it is due, reads every message the server forwards to it and leaves with the usual leave message.
+ * A client has no thread of its own, everything it does is done by the load worker it belongs to.
+ *
+ * Every message a client sends carries the time it was meant to be sent, so whoever receives it can tell how long it
+ * took to be delivered.  The time it was meant to be sent is used rather than the time it was sent, so a worker that
+ * falls behind shows up in the latency instead of hiding it.
+ *
+ */
+public class LoadClient implements MessageDecoder.Listener {
+
+    /**
+     * the kind of a TCP/IP client that sends lines of text
+     */
+    public static final int tcpText = 0;
+
+    /**
+     * the kind of a TCP/IP client that uses the framed protocol
+     */
+    public static final int tcpFramed = 1;
+
+    /**
+     * the kind of a UDP client
+     */
+    public static final int udp = 2;
+
+    /**
+     * the names of the kinds of client, used in the report
+     */
+    public static final String[] kindNames = {"TCP text", "TCP framed", "UDP"};
+
+    /**
+     * the characters used to turn messages into bytes, the same as the client program uses
+     */
+    private static final Charset charset = Charset.defaultCharset();
+
+    /**
+     * the bytes put in front of the send time of every message, they are looked for in the messages received
+     */
+    public static final byte[] tag = "#lg ".getBytes(charset);
+
+    /**
+     * the message sent when joining the chat
+     */
+    private static final byte[] joinMessage = "has joined the chat room.".getBytes(charset);
+
+    /**
+     * the message sent when leaving the chat
+     */
+    private static final byte[] leaveMessage = "has left the chat".getBytes(charset);
+
+    /**
+     * the message that asks the server to remove a text or UDP client from the client list, the one the server looks
+     * for
+     */
+    private static final byte[] removeMe = MainServer.removeMe.getBytes(charset);
+
+    /**
+     * the client is waiting for its turn to connect
+     */
+    private static final int waiting = 0;
+
+    /**
+     * the client is connecting or waiting for the server to answer its join
+     */
+    private static final int joining = 1;
+
+    /**
+     * the client has joined and is sending messages
+     */
+    private static final int joined = 2;
+
+    /**
+     * the client has left, failed to join or lost its connection
+     */
+    private static final int closed = 3;
+
+    /**
+     * the worker that does everything for this client
+     */
+    private LoadWorker worker;
+
+    /**
+     * the kind of client this is
+     */
+    private int kind;
+
+    /**
+     * the address of the server
+     */
+    private InetSocketAddress server;
+
+    /**
+     * where the client is in joining and leaving the server
+     */
+    private int state = waiting;
+
+    /**
+     * the time the next thing the client does is due, in the units of System.nanoTime
+     */
+    private long due;
+
+    /**
+     * the time the client joined, in the units of System.nanoTime
+     */
+    private long joinedAt = Long.MAX_VALUE;
+
+    /**
+     * true if the client's connection failed after it joined
+     */
+    private boolean disconnected = false;
+
+    /**
+     * the socket of a TCP/IP client
+     */
+    private SocketChannel socketTCP = null;
+
+    /**
+     * the socket of a UDP client, it is connected to the server so it only hears from the server
+     */
+    private DatagramChannel socketUDP = null;
+
+    /**
+     * the key of the socket with the worker's selector
+     */
+    private SelectionKey key = null;
+
+    /**
+     * splits what a TCP/IP client reads into messages
+     */
+    private MessageDecoder decoder = null;
+
+    /**
+     * the part of what a TCP/IP client wrote that the socket did not take, only created when the socket is full
+     */
+    private ByteBuffer unwritten = null;
+
+    /**
+     * puts the fragments of long messages for a UDP client back together, only created when a fragment arrives
+     */
+    private FragmentReassembler reassembler = null;
+
+    /**
+     * the ID given to the next long UDP message that is split into fragments
+     */
+    private int nextMessageID = 0;
+
+    /**
+     * Creates a client that connects once it is due
+     *
+     * @param worker        the worker that does everything for this client
+     * @param kind          tcpText, tcpFramed or udp
+     * @param server        the address of the server
+     * @param connectAt     the time to connect, in the units of System.nanoTime
+     */
+    public LoadClient(LoadWorker worker, int kind, InetSocketAddress server, long connectAt){
+        this.worker = worker;
+        this.kind = kind;
+        this.server = server;
+        due = connectAt;
+    }
+
+    /**
+     * Does whatever the client is due to do: connect, give up on a join the server never answered, or send the next
+     * message.  This is only called by the worker thread.
+     *
+     * @param now the current time, in the units of System.nanoTime
+     * @return true if the client has something more to do later, at the time returned by getDue
+     */
+    public boolean runDue(long now){
+        switch (state) {
+            case waiting:
+                //a client that joins straight away is scheduled again by joined
+                due = now + worker.getJoinTimeout();
+                connect();
+                return state == joining;
+            case joining:
+                System.err.println(kindNames[kind] + " client was not answered by the server in time.");
+                close();
+                return false;
+            case joined:
+                //send every message that is due, stamped with the time it was meant to be sent
+                while(due <= now && due < worker.getStopSendingAt() && state == joined){
+                    sendChat(due);
+                    due += worker.getSendInterval();
+                }
+                return state == joined && due < worker.getStopSendingAt();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * A helper method for runDue that opens the socket and sends the join message
+     */
+    private void connect(){
+        try {
+            if(kind == udp){
+                socketUDP = DatagramChannel.open();
+                socketUDP.connect(server);
+                socketUDP.configureBlocking(false);
+                key = worker.register(socketUDP, SelectionKey.OP_READ, this);
+                state = joining;
+                //the server shows it is there by forwarding the join message back
+                sendUDP(joinMessage, 0, joinMessage.length);
+            }else{
+                socketTCP = SocketChannel.open();
+                socketTCP.configureBlocking(false);
+                socketTCP.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                decoder = new MessageDecoder(this, true);
+                state = joining;
+                if(socketTCP.connect(server)){
+                    key = worker.register(socketTCP, SelectionKey.OP_READ, this);
+                    connected();
+                }else{
+                    key = worker.register(socketTCP, SelectionKey.OP_CONNECT, this);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error connecting " + kindNames[kind] + " client: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Finishes connecting a TCP/IP client once the selector says the connection is ready.  This is only called by
+     * the worker thread.
+     */
+    public void finishConnect(){
+        try {
+            if(socketTCP.finishConnect()){
+                key.interestOps(SelectionKey.OP_READ);
+                connected();
+            }
+        } catch (IOException e) {
+            System.err.println("Error connecting " + kindNames[kind] + " client: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * A helper method that joins the chat once a TCP/IP client is connected.  A text client has joined once its join
+     * line is sent, a framed client asks for the framed protocol and has joined once the server answers with an ack.
+     *
+     * @throws IOException if the join could not be sent
+     */
+    private void connected() throws IOException {
+        ByteBuffer out = worker.getSendBuffer();
+        if(kind == tcpFramed){
+            out.put(FrameProtocol.marker).put((byte) 'C').put((byte) 'H').put(FrameProtocol.version);
+            putFrame(out, FrameProtocol.join, joinMessage, joinMessage.length);
+            writeTCP(out);
+        }else{
+            out.put(joinMessage).put((byte) '\n');
+            writeTCP(out);
+            joined();
+        }
+    }
+
+    /**
+     * A helper method that starts sending messages once the client has joined.  The first message is sent at a random
+     * point of the first interval so the clients of a worker do not all send at once.
+     */
+    private void joined(){
+        if(state != joining){
+            return;
+        }
+        state = joined;
+        long now = System.nanoTime();
+        joinedAt = now;
+        //the time the join is given up on is still in the worker's queue
+        worker.unschedule(this);
+        due = now + (long) (Math.random() * worker.getSendInterval());
+        worker.schedule(this);
+    }
+
+    /**
+     * A helper method for runDue that sends one chat message
+     *
+     * @param sendTime the time the message was meant to be sent, it is written into the message
+     */
+    private void sendChat(long sendTime){
+        byte[] message = worker.buildMessage(sendTime);
+        int length = worker.getMessageLength();
+        try {
+            boolean sent;
+            if(kind == udp){
+                sent = sendUDP(message, 0, length);
+            }else{
+                ByteBuffer out = worker.getSendBuffer();
+                if(kind == tcpFramed){
+                    putFrame(out, FrameProtocol.chat, message, length);
+                }else{
+                    out.put(message, 0, length).put((byte) '\n');
+                }
+                sent = writeTCP(out);
+            }
+            worker.messageSent(kind, sendTime, sent);
+        } catch (IOException e) {
+            lostConnection(e);
+        }
+    }
+
+    /**
+     * Sends the leave message, and closes the client.  This is only called by the worker thread.
+     */
+    public void leave(){
+        try {
+            if(state == joined){
+                if(kind == udp){
+                    //the leave message has to be sent before the server forgets the client
+                    sendUDP(leaveMessage, 0, leaveMessage.length);
+                    sendUDP(removeMe, 0, removeMe.length);
+                }else if(kind == tcpFramed){
+                    ByteBuffer out = worker.getSendBuffer();
+                    putFrame(out, FrameProtocol.leave, leaveMessage, leaveMessage.length);
+                    writeTCP(out);
+                }else{
+                    ByteBuffer out = worker.getSendBuffer();
+                    out.put(leaveMessage).put((byte) '\n').put(removeMe).put((byte) '\n');
+                    writeTCP(out);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error sending leave message: " + e.getMessage());
+        }
+        close();
+    }
+
+    /**
+     * A helper method that adds a frame to the buffer being sent
+     *
+     * @param out       the buffer being sent
+     * @param type      the type of the frame
+     * @param body      the array holding the message
+     * @param length    the number of bytes of the message, starting at index 0
+     */
+    private static void putFrame(ByteBuffer out, byte type, byte[] body, int length){
+        //the server knows which client it is reading, so the client ID is left as 0
+        FrameProtocol.putHeader(out, type, 0, length);
+        out.put(body, 0, length);
+    }
+
+    /**
+     * A helper method that writes bytes to a TCP/IP client's socket.  Whatever the socket does not take is kept and
+     * written once the selector says there is room.  A message that would not fit behind what is already being kept is
+     * not sent.
+     *
+     * @param out the buffer holding the bytes, from 0 to its position.  It is cleared.
+     * @return true if the bytes were written or kept, false if they were dropped
+     * @throws IOException if the socket could not be written
+     */
+    private boolean writeTCP(ByteBuffer out) throws IOException {
+        out.flip();
+        try {
+            if(unwritten != null && unwritten.position() > 0){
+                if(unwritten.remaining() < out.remaining()){
+                    return false;
+                }
+                unwritten.put(out);
+                return true;
+            }
+            socketTCP.write(out);
+            if(out.hasRemaining()){
+                if(unwritten == null){
+                    unwritten = ByteBuffer.allocate(worker.getUnwrittenSize());
+                }
+                unwritten.put(out);
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+            return true;
+        } finally {
+            out.clear();
+        }
+    }
+
+    /**
+     * Writes the bytes a TCP/IP client kept once the selector says the socket has room.  This is only called by the
+     * worker thread.
+     */
+    public void flush(){
+        try {
+            unwritten.flip();
+            socketTCP.write(unwritten);
+            unwritten.compact();
+            if(unwritten.position() == 0){
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            lostConnection(e);
+        }
+    }
+
+    /**
+     * A helper method that sends one message to the server over UDP.  A message longer than the packet size is split
+     * into fragments like the client program does.
+     *
+     * @param message   the array holding the message
+     * @param offset    the index of the first byte of the message
+     * @param length    the number of bytes of the message
+     * @return true if every packet was sent, false if the socket had no room for one
+     * @throws IOException if a packet could not be sent
+     */
+    private boolean sendUDP(byte[] message, int offset, int length) throws IOException {
+        int packetSize = worker.getPacketSize();
+        if(length <= packetSize){
+            return socketUDP.write(ByteBuffer.wrap(message, offset, length)) > 0;
+        }
+        ByteBuffer fragment = worker.getSendBuffer();
+        int messageID = nextMessageID++;
+        int pieceSize = packetSize - DatagramFragment.headerSize;
+        boolean sent = true;
+        for(int start = 0; start < length; start += pieceSize){
+            int pieceLength = Math.min(pieceSize, length - start);
+            fragment.clear();
+            DatagramFragment.putHeader(fragment, messageID, length, start);
+            fragment.put(message, offset + start, pieceLength);
+            fragment.flip();
+            sent &= socketUDP.write(fragment) > 0;
+        }
+        fragment.clear();
+        return sent;
+    }
+
+    /**
+     * Reads whatever the server sent.  This is only called by the worker thread.
+     *
+     * @param buf the worker's buffer to read into, it is reused for every read
+     */
+    public void read(ByteBuffer buf){
+        try {
+            if(kind == udp){
+                readUDP(buf);
+                return;
+            }
+            while(state != closed){
+                buf.clear();
+                int count = socketTCP.read(buf);
+                if(count < 0){
+                    lostConnection(null);
+                    return;
+                }
+                if(count == 0){
+                    return;
+                }
+                buf.flip();
+                decoder.decode(buf);
+            }
+        } catch (IOException e) {
+            lostConnection(e);
+        }
+    }
+
+    /**
+     * A helper method for read that handles every packet waiting for a UDP client.  A packet may hold one message, a
+     * batch of messages or a fragment of a long message.
+     *
+     * @param buf the worker's buffer to read into, big enough for the largest UDP packet
+     * @throws IOException if the socket could not be read
+     */
+    private void readUDP(ByteBuffer buf) throws IOException {
+        while(state != closed){
+            buf.clear();
+            if(socketUDP.read(buf) <= 0){
+                return;
+            }
+            buf.flip();
+            //any packet from the server shows the join arrived
+            joined();
+            if(DatagramFragment.isFragment(buf)){
+                if(reassembler == null){
+                    reassembler = new FragmentReassembler(PayloadPool.receiving());
+                }
+                if(reassembler.add(buf)){
+                    received(reassembler.array(), 0, reassembler.length());
+                    reassembler.release();
+                }
+                continue;
+            }
+            byte[] data = buf.array();
+            int length = buf.limit();
+            if(!DatagramBatch.isBatch(data, length)){
+                received(data, 0, length);
+                continue;
+            }
+            int index = DatagramBatch.headerSize;
+            while(index + DatagramBatch.entryHeaderSize <= length){
+                int size = ((data[index] & 0xFF) << 8) | (data[index + 1] & 0xFF);
+                index += DatagramBatch.entryHeaderSize;
+                size = Math.min(size, length - index);
+                received(data, index, size);
+                index += size;
+            }
+        }
+    }
+
+    /**
+     * Called by the decoder, the server never asks a client for the framed protocol
+     *
+     * @param version the version the server asked for
+     */
+    public void prefaceReceived(int version){
+
+    }
+
+    /**
+     * Called by the decoder for every message the server sent to a TCP/IP client.  The ack frame shows a framed
+     * client has joined.
+     *
+     * @param type      the frame type of the message, lines of text are chat messages
+     * @param message   the array holding the bytes of the message
+     * @param offset    the index of the first byte of the message
+     * @param length    the number of bytes of the message
+     */
+    public void messageReceived(byte type, byte[] message, int offset, int length){
+        if(type == FrameProtocol.ack){
+            joined();
+            return;
+        }
+        received(message, offset, length);
+    }
+
+    /**
+     * Called by the decoder when the server sends something that is not valid
+     *
+     * @param reason what was wrong
+     */
+    public void invalidInput(String reason){
+        System.err.println(kindNames[kind] + " client: " + reason);
+        close();
+    }
+
+    /**
+     * A helper method that handles one message from the server.  Only the messages sent by the load generator carry
+     * a send time, everything else is ignored.
+     *
+     * @param message   the array holding the bytes of the message
+     * @param offset    the index of the first byte of the message
+     * @param length    the number of bytes of the message
+     */
+    private void received(byte[] message, int offset, int length){
+        long sendTime = readSendTime(message, offset, length);
+        if(sendTime != -1){
+            worker.messageReceived(kind, joinedAt, sendTime);
+        }
+    }
+
+    /**
+     * Finds the send time in a message sent by the load generator, which the server has put the time and the name of
+     * the sender in front of
+     *
+     * @param message   the array holding the bytes of the message
+     * @param offset    the index of the first byte of the message
+     * @param length    the number of bytes of the message
+     * @return the send time, or -1 if the message has none
+     */
+    public static long readSendTime(byte[] message, int offset, int length){
+        int end = offset + length;
+        int last = end - tag.length;
+        search:
+        for(int i = offset; i <= last; i++){
+            for(int j = 0; j < tag.length; j++){
+                if(message[i + j] != tag[j]){
+                    continue search;
+                }
+            }
+            long time = 0;
+            int digits = 0;
+            for(int k = i + tag.length; k < end && message[k] >= '0' && message[k] <= '9'; k++){
+                time = time * 10 + (message[k] - '0');
+                digits++;
+            }
+            return digits == 0 ? -1 : time;
+        }
+        return -1;
+    }
+
+    /**
+     * A helper method that closes a client whose connection failed
+     *
+     * @param e what went wrong, or null if the server closed the connection
+     */
+    private void lostConnection(IOException e){
+        if(state == closed){
+            return;
+        }
+        System.err.println(kindNames[kind] + " client lost its connection to the server"
+                + (e == null ? "." : ": " + e.getMessage()));
+        disconnected = state == joined;
+        close();
+    }
+
+    /**
+     * Closes the client's socket
+     */
+    public void close(){
+        state = closed;
+        if(key != null){
+            key.cancel();
+        }
+        try {
+            SelectableChannel channel = kind == udp ? socketUDP : socketTCP;
+            if(channel != null){
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing " + kindNames[kind] + " client.");
+        }
+        if(reassembler != null){
+            reassembler.release();
+            reassembler = null;
+        }
+    }
+
+    /**
+     * Returns the time the next thing the client does is due
+     *
+     * @return the time, in the units of System.nanoTime
+     */
+    public long getDue(){
+
+        return due;
+    }
+
+    /**
+     * Returns the kind of client this is
+     *
+     * @return tcpText, tcpFramed or udp
+     */
+    public int getKind(){
+
+        return kind;
+    }
+
+    /**
+     * Returns the time the client joined the chat
+     *
+     * @return the time, in the units of System.nanoTime, or Long.MAX_VALUE if it never joined
+     */
+    public long getJoinedAt(){
+
+        return joinedAt;
+    }
+
+    /**
+     * Returns true if the client's connection failed after it joined
+     *
+     * @return true if the client was disconnected
+     */
+    public boolean isDisconnected(){
+
+        return disconnected;
+    }
+}
@@ -0,0 +1,342 @@
+package chatservice;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * A load generator for the chat server that needs no window.  It connects a number of simulated TCP/IP and UDP
+ * clients to a running server over the same protocols the client program uses, has each of them send chat messages
+ * at a steady rate, and reports how long the server took to deliver the messages to every client, how many messages
+ * were delivered each second and how many were lost, for each kind of client.
+ *
+ * The clients connect one after another over the ramp up time and start sending as soon as they have joined.  Once
+ * every client has had time to join, the messages sent for the measured time are counted, and the clients that had
+ * joined by then are expected to receive every one of them.  After the clients stop sending they wait a little for the
+ * last messages to arrive, then leave the chat.
+ *
+ */
+public class LoadGenerator {
+
+    /**
+     * the time after the ramp up before messages start being counted, in milliseconds
+     */
+    private static final int settleTime = 1000;
+
+    /**
+     * the time the clients wait for the last messages after they stop sending, in milliseconds
+     */
+    private static final int drainTime = 2000;
+
+    /**
+     * the time a client waits for the server to answer its join, in milliseconds
+     */
+    private static final int joinTimeout = 5000;
+
+    /**
+     * the percentiles of the latency that are reported
+     */
+    private static final double[] percentiles = {50, 90, 99, 99.9};
+
+    /**
+     * the address of the server
+     */
+    private InetSocketAddress server;
+
+    /**
+     * the number of TCP/IP clients
+     */
+    private int tcpClients = 100;
+
+    /**
+     * the number of UDP clients
+     */
+    private int udpClients = 100;
+
+    /**
+     * true if the TCP/IP clients send lines of text instead of using the framed protocol
+     */
+    private boolean textTCP = false;
+
+    /**
+     * the number of messages each client sends every second
+     */
+    private int rate = 1;
+
+    /**
+     * the number of bytes in each chat message
+     */
+    private int messageSize = 64;
+
+    /**
+     * the time the clients take to connect, in seconds
+     */
+    private int rampTime = 5;
+
+    /**
+     * the time messages are counted for, in seconds
+     */
+    private int duration = 30;
+
+    /**
+     * the number of threads that run the clients
+     */
+    private int workers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * the most bytes sent in one UDP packet, longer messages are split into fragments
+     */
+    private int packetSize = 1400;
+
+    /**
+     * Reads the options of a run from the command line arguments.  The server name and port come first.
+     *   -tcp N             the number of TCP/IP clients
+     *   -udp N             the number of UDP clients
+     *   -text              the TCP/IP clients send lines of text instead of using the framed protocol
+     *   -rate N            the number of messages each client sends every second
+     *   -size N            the number of bytes in each chat message
+     *   -ramp S            the time the clients take to connect
+     *   -duration S        the time messages are counted for
+     *   -workers N         the number of threads that run the clients
+     *   -udpPacketSize N   the most bytes sent in one UDP packet
+     *
+     * @param args the command line arguments
+     * @return the load generator, or null if the server was not given
+     */
+    public static LoadGenerator fromArgs(String[] args){
+        if(args.length < 2){
+            System.err.println("Usage: LoadGenerator server port [-tcp N] [-udp N] [-text] [-rate N] [-size N] "
+                    + "[-ramp S] [-duration S] [-workers N] [-udpPacketSize N]");
+            return null;
+        }
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.server = new InetSocketAddress(InetAddress.getByName(args[0]), Integer.parseInt(args[1]));
+        } catch (UnknownHostException e) {
+            System.err.println("Error: Invalid server name " + args[0] + ".");
+            return null;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: Invalid server port " + args[1] + ".");
+            return null;
+        }
+        for(int i = 2; i < args.length; i++){
+            switch (args[i]) {
+                case "-tcp":
+                    generator.tcpClients = readInt(args, ++i, generator.tcpClients, 0);
+                    break;
+                case "-udp":
+                    generator.udpClients = readInt(args, ++i, generator.udpClients, 0);
+                    break;
+                case "-text":
+                    generator.textTCP = true;
+                    break;
+                case "-rate":
+                    generator.rate = readInt(args, ++i, generator.rate, 1);
+                    break;
+                case "-size":
+                    generator.messageSize = readInt(args, ++i, generator.messageSize, LoadWorker.minMessageSize);
+                    break;
+                case "-ramp":
+                    generator.rampTime = readInt(args, ++i, generator.rampTime, 0);
+                    break;
+                case "-duration":
+                    generator.duration = readInt(args, ++i, generator.duration, 1);
+                    break;
+                case "-workers":
+                    generator.workers = readInt(args, ++i, generator.workers, 1);
+                    break;
+                case "-udpPacketSize":
+                    generator.packetSize = readInt(args, ++i, generator.packetSize, DatagramFragment.headerSize + 1);
+                    break;
+                default:
+                    System.err.println("Unknown load generator option " + args[i] + " was ignored.");
+                    break;
+            }
+        }
+        return generator;
+    }
+
+    /**
+     * A helper method for fromArgs to read a number that follows an option
+     *
+     * @param args          the command line arguments
+     * @param index         the index of the number
+     * @param defaultValue  the value to keep if the number is missing or not valid
+     * @param min           the smallest number allowed
+     * @return the number that was read or the default value
+     */
+    private static int readInt(String[] args, int index, int defaultValue, int min){
+        if(index >= args.length){
+            System.err.println("Missing number for load generator option " + args[index - 1] + ".");
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(args[index]);
+            if(value >= min){
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            //fall through to the error message below
+        }
+        System.err.println("Load generator option " + args[index - 1] + " needs a number of at least " + min + ", "
+                + args[index] + " was ignored.");
+        return defaultValue;
+    }
+
+    /**
+     * Runs the clients against the server and prints the report
+     *
+     * @throws IOException if a selector could not be opened
+     * @throws InterruptedException if the thread is interrupted while the clients run
+     */
+    public void run() throws IOException, InterruptedException {
+        int total = tcpClients + udpClients;
+        if(total == 0){
+            System.err.println("There are no clients to run.");
+            return;
+        }
+        long origin = System.nanoTime();
+        long rampNanos = rampTime * 1_000_000_000L;
+        long measureFrom = origin + rampNanos + settleTime * 1_000_000L;
+        long stopSendingAt = measureFrom + duration * 1_000_000_000L;
+
+        LoadWorker[] threads = new LoadWorker[workers];
+        for(int i = 0; i < workers; i++){
+            threads[i] = new LoadWorker(i, origin, messageSize, 1_000_000_000L / rate,
+                    joinTimeout * 1_000_000L, measureFrom, stopSendingAt, packetSize);
+        }
+        //mix the kinds of client so both protocols ramp up together
+        ArrayList<Integer> kinds = new ArrayList<>();
+        for(int i = 0; i < total; i++){
+            kinds.add(i < tcpClients ? (textTCP ? LoadClient.tcpText : LoadClient.tcpFramed) : LoadClient.udp);
+        }
+        Collections.shuffle(kinds, new Random(total));
+        for(int i = 0; i < total; i++){
+            LoadWorker worker = threads[i % workers];
+            worker.addClient(new LoadClient(worker, kinds.get(i), server, origin + rampNanos * i / total));
+        }
+
+        System.out.println("Connecting " + total + " clients to " + server + " over " + rampTime + " s, then counting "
+                + "messages for " + duration + " s.");
+        for(LoadWorker worker : threads){
+            worker.start();
+        }
+        sleepUntil(stopSendingAt + drainTime * 1_000_000L);
+        for(LoadWorker worker : threads){
+            worker.leave();
+        }
+        for(LoadWorker worker : threads){
+            worker.join();
+        }
+        System.out.println(report(threads, measureFrom));
+    }
+
+    /**
+     * A helper method for run that waits until a time
+     *
+     * @param time the time, in the units of System.nanoTime
+     * @throws InterruptedException if the thread is interrupted while it waits
+     */
+    private static void sleepUntil(long time) throws InterruptedException {
+        long left;
+        while((left = time - System.nanoTime()) > 0){
+            Thread.sleep(Math.max(1, left / 1_000_000));
+        }
+    }
+
+    /**
+     * A helper method for run that adds up what every worker counted
+     *
+     * @param threads       the workers, they have finished
+     * @param measureFrom   the time messages started being counted
+     * @return the report
+     */
+    private String report(LoadWorker[] threads, long measureFrom){
+        int kindCount = LoadClient.kindNames.length;
+        int[] clients = new int[kindCount];
+        int[] joined = new int[kindCount];
+        int[] lost = new int[kindCount];
+        long[] sent = new long[kindCount];
+        long[] notSent = new long[kindCount];
+        long[] received = new long[kindCount];
+        LatencyHistogram[] latency = new LatencyHistogram[kindCount];
+        for(int kind = 0; kind < kindCount; kind++){
+            latency[kind] = new LatencyHistogram();
+        }
+        for(LoadWorker worker : threads){
+            for(LoadClient client : worker.getClients()){
+                clients[client.getKind()]++;
+                if(client.getJoinedAt() <= measureFrom){
+                    joined[client.getKind()]++;
+                }
+                if(client.isDisconnected()){
+                    lost[client.getKind()]++;
+                }
+            }
+            for(int kind = 0; kind < kindCount; kind++){
+                sent[kind] += worker.getSent(kind);
+                notSent[kind] += worker.getNotSent(kind);
+                received[kind] += worker.getReceived(kind);
+                latency[kind].add(worker.getLatency(kind));
+            }
+        }
+        long totalSent = 0;
+        for(int kind = 0; kind < kindCount; kind++){
+            totalSent += sent[kind];
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%nSending      %8s %8s %8s %10s %10s %10s%n",
+                "clients", "joined", "lost", "sent", "not sent", "msg/s"));
+        for(int kind = 0; kind < kindCount; kind++){
+            if(clients[kind] > 0){
+                report.append(String.format("%-12s %8d %8d %8d %10d %10d %10.1f%n", LoadClient.kindNames[kind],
+                        clients[kind], joined[kind], lost[kind], sent[kind], notSent[kind],
+                        (double) sent[kind] / duration));
+            }
+        }
+        report.append(String.format("%nDelivery     %10s %10s %7s %10s", "received", "expected", "loss", "msg/s"));
+        for(double percentile : percentiles){
+            report.append(String.format(" %8s", "p" + (percentile == (int) percentile ? "" + (int) percentile
+                    : "" + percentile)));
+        }
+        report.append(String.format(" %8s  (latency in ms)%n", "max"));
+        for(int kind = 0; kind < kindCount; kind++){
+            if(clients[kind] == 0){
+                continue;
+            }
+            long expected = totalSent * joined[kind];
+            double loss = expected == 0 ? 0 : 100.0 * Math.max(0, expected - received[kind]) / expected;
+            report.append(String.format("%-12s %10d %10d %6.2f%% %10.1f", LoadClient.kindNames[kind],
+                    received[kind], expected, loss, (double) received[kind] / duration));
+            for(double percentile : percentiles){
+                report.append(String.format(" %8.2f", latency[kind].valueAtPercentile(percentile) / 1e6));
+            }
+            report.append(String.format(" %8.2f%n", latency[kind].getMax() / 1e6));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Runs the load generator against a server that is already running
+     *
+     * @param args  server_name server_port [options]
+     */
+    public static void main(String[] args){
+        LoadGenerator generator = fromArgs(args);
+        if(generator == null){
+            return;
+        }
+        try {
+            generator.run();
+        } catch (IOException e) {
+            System.err.println("Error starting the load generator: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.err.println("The load generator was interrupted.");
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package chatservice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * One of the threads of the load generator.  It waits on a selector for all of the simulated clients it was given,
+ * and wakes up whenever one of them is due to connect or send.  The clients are kept in a queue ordered by the time
+ * they are next due, so a worker with thousands of clients only looks at the ones that have something to do.
+ *
+ * A worker counts what its own clients sent and received.  The counts are read once the worker has finished.
+ *
+ */
+public class LoadWorker extends Thread {
+
+    /**
+     * the size of the buffer the clients are read into, big enough for the largest UDP packet
+     */
+    private static final int readBufferSize = 65507;
+
+    /**
+     * the number of digits of the send time written into each message, it is counted from the start of the run
+     */
+    private static final int timeDigits = 16;
+
+    /**
+     * the shortest message that still holds the send time
+     */
+    public static final int minMessageSize = LoadClient.tag.length + timeDigits + 1;
+
+    /**
+     * the selector this thread waits on for all of its clients
+     */
+    private Selector selector;
+
+    /**
+     * the clients of this thread
+     */
+    private ArrayList<LoadClient> clients = new ArrayList<>();
+
+    /**
+     * the clients that have something to do, ordered by the time it is due
+     */
+    private PriorityQueue<LoadClient> due = new PriorityQueue<>(Comparator.comparingLong(LoadClient::getDue));
+
+    /**
+     * the buffer every client of this thread is read into, it is reused for every read
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocate(readBufferSize);
+
+    /**
+     * the buffer every message of this thread is built in before it is sent, it is reused for every message
+     */
+    private ByteBuffer sendBuffer;
+
+    /**
+     * the chat message every client of this thread sends, only the send time in it changes
+     */
+    private byte[] message;
+
+    /**
+     * the time the run started, the send times in the messages are counted from it
+     */
+    private long origin;
+
+    /**
+     * the time between the messages of one client, in nanoseconds
+     */
+    private long sendInterval;
+
+    /**
+     * the time a client waits for the server to answer its join, in nanoseconds
+     */
+    private long joinTimeout;
+
+    /**
+     * the time messages start being counted, in the units of System.nanoTime
+     */
+    private long measureFrom;
+
+    /**
+     * the time the clients stop sending, in the units of System.nanoTime
+     */
+    private long stopSendingAt;
+
+    /**
+     * the most bytes sent in one UDP packet
+     */
+    private int packetSize;
+
+    /**
+     * true once the clients have been asked to leave
+     */
+    private volatile boolean leaving = false;
+
+    /**
+     * the number of counted messages sent by each kind of client
+     */
+    private long[] sent = new long[LoadClient.kindNames.length];
+
+    /**
+     * the number of counted messages each kind of client could not send because its socket was full
+     */
+    private long[] notSent = new long[LoadClient.kindNames.length];
+
+    /**
+     * the number of counted messages received by each kind of client
+     */
+    private long[] received = new long[LoadClient.kindNames.length];
+
+    /**
+     * the time each kind of client took to receive the counted messages
+     */
+    private LatencyHistogram[] latency = new LatencyHistogram[LoadClient.kindNames.length];
+
+    /**
+     * The constructor opens the selector for this thread and builds the message its clients send
+     *
+     * @param number            the number of this thread, used to name the thread
+     * @param origin            the time the run started
+     * @param messageSize       the number of bytes in each chat message, at least minMessageSize
+     * @param sendInterval      the time between the messages of one client, in nanoseconds
+     * @param joinTimeout       the time a client waits for the server to answer its join, in nanoseconds
+     * @param measureFrom       the time messages start being counted
+     * @param stopSendingAt     the time the clients stop sending
+     * @param packetSize        the most bytes sent in one UDP packet
+     * @throws IOException if the selector could not be opened
+     */
+    public LoadWorker(int number, long origin, int messageSize, long sendInterval, long joinTimeout,
+                      long measureFrom, long stopSendingAt, int packetSize) throws IOException {
+        super("load-" + number);
+        this.origin = origin;
+        this.sendInterval = sendInterval;
+        this.joinTimeout = joinTimeout;
+        this.measureFrom = measureFrom;
+        this.stopSendingAt = stopSendingAt;
+        this.packetSize = packetSize;
+        selector = Selector.open();
+        message = new byte[messageSize];
+        Arrays.fill(message, (byte) 'x');
+        System.arraycopy(LoadClient.tag, 0, message, 0, LoadClient.tag.length);
+        message[minMessageSize - 1] = ' ';
+        sendBuffer = ByteBuffer.allocate(Math.max(packetSize, messageSize + FrameProtocol.headerSize + 256));
+        for(int i = 0; i < latency.length; i++){
+            latency[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Gives a client to this thread.  This is only called before the thread is started.
+     *
+     * @param client the client, it has not connected yet
+     */
+    public void addClient(LoadClient client){
+        clients.add(client);
+        due.add(client);
+    }
+
+    /**
+     * Runs every client until they are asked to leave, then sends every client's leave message and closes the
+     * selector
+     */
+    public void run(){
+        try {
+            while(!leaving){
+                long now = System.nanoTime();
+                LoadClient next;
+                while((next = due.peek()) != null && next.getDue() <= now){
+                    due.poll();
+                    if(next.runDue(now)){
+                        due.add(next);
+                    }
+                }
+                if(next == null){
+                    selector.select();
+                }else{
+                    long waitMillis = (next.getDue() - System.nanoTime() + 999_999) / 1_000_000;
+                    if(waitMillis > 0){
+                        selector.select(waitMillis);
+                    }else{
+                        selector.selectNow();
+                    }
+                }
+                handleReadyKeys();
+            }
+        } catch (IOException e) {
+            System.err.println("Error waiting on the selector of the load generator.");
+        }
+        for(LoadClient client : clients){
+            client.leave();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the selector of the load generator.");
+        }
+    }
+
+    /**
+     * A helper method for run that connects, reads or writes every client the selector found ready
+     */
+    private void handleReadyKeys(){
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while(keys.hasNext()){
+            SelectionKey key = keys.next();
+            keys.remove();
+            LoadClient client = (LoadClient) key.attachment();
+            if(!key.isValid()){
+                continue;
+            }
+            if(key.isConnectable()){
+                client.finishConnect();
+                continue;
+            }
+            if(key.isReadable()){
+                client.read(readBuffer);
+            }
+            if(key.isValid() && key.isWritable()){
+                client.flush();
+            }
+        }
+    }
+
+    /**
+     * Asks every client of this thread to leave.  The thread ends once they have.
+     */
+    public void leave(){
+        leaving = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Registers the socket of a client with the selector of this thread
+     *
+     * @param channel   the socket, it is not blocking
+     * @param ops       the things to wait for
+     * @param client    the client the socket belongs to
+     * @return the key of the socket
+     * @throws IOException if the socket could not be registered
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, LoadClient client) throws IOException {
+
+        return channel.register(selector, ops, client);
+    }
+
+    /**
+     * Puts a client in the queue of clients that have something to do.  This is only called by this thread.
+     *
+     * @param client the client, its due time must not change while it is in the queue
+     */
+    public void schedule(LoadClient client){
+
+        due.add(client);
+    }
+
+    /**
+     * Takes a client out of the queue of clients that have something to do, so its due time can be changed.  This is
+     * only called by this thread.
+     *
+     * @param client the client
+     */
+    public void unschedule(LoadClient client){
+
+        due.remove(client);
+    }
+
+    /**
+     * Writes a send time into the message the clients of this thread send
+     *
+     * @param sendTime the time the message was meant to be sent, in the units of System.nanoTime
+     * @return the array holding the message, from index 0 to getMessageLength
+     */
+    public byte[] buildMessage(long sendTime){
+        long time = sendTime - origin;
+        for(int i = minMessageSize - 2; i >= LoadClient.tag.length; i--){
+            message[i] = (byte) ('0' + time % 10);
+            time /= 10;
+        }
+        return message;
+    }
+
+    /**
+     * Counts a message a client sent, if it was sent while messages are being counted
+     *
+     * @param kind      the kind of client that sent it
+     * @param sendTime  the time the message was meant to be sent
+     * @param wasSent   false if the socket had no room for the message
+     */
+    public void messageSent(int kind, long sendTime, boolean wasSent){
+        if(sendTime < measureFrom){
+            return;
+        }
+        if(wasSent){
+            sent[kind]++;
+        }else{
+            notSent[kind]++;
+        }
+    }
+
+    /**
+     * Counts a message a client received, if it was sent while messages are being counted and the client had joined
+     * by then
+     *
+     * @param kind      the kind of client that received it
+     * @param joinedAt  the time the client joined
+     * @param sendTime  the send time read from the message, counted from the start of the run
+     */
+    public void messageReceived(int kind, long joinedAt, long sendTime){
+        sendTime += origin;
+        if(sendTime < measureFrom || joinedAt > measureFrom){
+            return;
+        }
+        received[kind]++;
+        latency[kind].record(System.nanoTime() - sendTime);
+    }
+
+    /**
+     * Returns the clients of this thread
+     *
+     * @return the clients
+     */
+    public ArrayList<LoadClient> getClients(){
+
+        return clients;
+    }
+
+    /**
+     * Returns the number of counted messages sent by a kind of client
+     *
+     * @param kind the kind of client
+     * @return the number of messages
+     */
+    public long getSent(int kind){
+
+        return sent[kind];
+    }
+
+    /**
+     * Returns the number of counted messages a kind of client could not send because its socket was full
+     *
+     * @param kind the kind of client
+     * @return the number of messages
+     */
+    public long getNotSent(int kind){
+
+        return notSent[kind];
+    }
+
+    /**
+     * Returns the number of counted messages received by a kind of client
+     *
+     * @param kind the kind of client
+     * @return the number of messages
+     */
+    public long getReceived(int kind){
+
+        return received[kind];
+    }
+
+    /**
+     * Returns the time a kind of client took to receive the counted messages
+     *
+     * @param kind the kind of client
+     * @return the latencies, in nanoseconds
+     */
+    public LatencyHistogram getLatency(int kind){
+
+        return latency[kind];
+    }
+
+    /**
+     * Returns the buffer messages are built in before they are sent, it is empty
+     *
+     * @return the send buffer
+     */
+    public ByteBuffer getSendBuffer(){
+
+        return sendBuffer;
+    }
+
+    /**
+     * Returns the size of the buffer a TCP/IP client keeps what its socket did not take in
+     *
+     * @return the size in bytes
+     */
+    public int getUnwrittenSize(){
+
+        return sendBuffer.capacity() * 4;
+    }
+
+    /**
+     * Returns the number of bytes in the chat message
+     *
+     * @return the message length
+     */
+    public int getMessageLength(){
+
+        return message.length;
+    }
+
+    /**
+     * Returns the time between the messages of one client
+     *
+     * @return the interval, in nanoseconds
+     */
+    public long getSendInterval(){
+
+        return sendInterval;
+    }
+
+    /**
+     * Returns the time a client waits for the server to answer its join
+     *
+     * @return the timeout, in nanoseconds
+     */
+    public long getJoinTimeout(){
+
+        return joinTimeout;
+    }
+
+    /**
+     * Returns the time the clients stop sending
+     *
+     * @return the time, in the units of System.nanoTime
+     */
+    public long getStopSendingAt(){
+
+        return stopSendingAt;
+    }
+
+    /**
+     * Returns the most bytes sent in one UDP packet
+     *
+     * @return the packet size
+     */
+    public int getPacketSize(){
+
+        return packetSize;
+    }
+}
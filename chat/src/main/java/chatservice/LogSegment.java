@@ -0,0 +1,573 @@
+package chatservice;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * One file of the chat log, and the index that goes with it.  Both files are memory mapped at their full size when
+ * the segment is created, so appending a message is only a copy into memory and reading one is only a look at it.
+ * The segment is named after the sequence number of its first message, so the files sort in the order they were
+ * written.
+ *
+ * Each record in the data file is the length of its body, a checksum, the sequence number, the time the message was
+ * logged in milliseconds and the body, padded to a multiple of 8 bytes.  The body is the name of the chat room the
+ * message was forwarded in, after one byte holding the length of the name, and then the frame of the message.  The length is written last,
+ * with release ordering, so a reader that sees the length also sees the rest of the record.  The file is full of
+ * zeros past the last record, and a zero length or a checksum that does not match is where the records end.
+ *
+ * The index holds the sequence number, time and position of every indexInterval-th record, so a reader can find a
+ * message by sequence number or time with a binary search and a short scan.  The sequence number of an entry is
+ * written last, the same way as the length of a record.
+ *
+ */
+public class LogSegment {
+
+    /**
+     * the number of bytes in front of the body of each record
+     */
+    public static final int recordHeaderSize = 24;
+
+    /**
+     * the longest room name a record can hold, the length of the name is one byte
+     */
+    public static final int maxRoomLength = 255;
+
+    /**
+     * every record starts at a multiple of this, so the length can be read and written as one aligned int
+     */
+    private static final int alignment = 8;
+
+    /**
+     * one record in this many is put in the index
+     */
+    public static final int indexInterval = 64;
+
+    /**
+     * the number of bytes of each index entry
+     */
+    private static final int indexEntrySize = 24;
+
+    /**
+     * the size of the pieces checked for leftover bytes past the last record
+     */
+    private static final int pageSize = 4096;
+
+    /**
+     * the ending of the data files
+     */
+    private static final String dataSuffix = ".log";
+
+    /**
+     * the ending of the index files
+     */
+    private static final String indexSuffix = ".idx";
+
+    /**
+     * reads and writes the length of a record with acquire and release ordering
+     */
+    private static final VarHandle lengthHandle = MethodHandles.byteBufferViewVarHandle(int[].class,
+            ByteOrder.BIG_ENDIAN);
+
+    /**
+     * reads and writes the sequence number of an index entry with acquire and release ordering, it is written last
+     */
+    private static final VarHandle entryHandle = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.BIG_ENDIAN);
+
+    /**
+     * the sequence number of the first record
+     */
+    private final long base;
+
+    /**
+     * the records, mapped from the data file
+     */
+    private final MappedByteBuffer data;
+
+    /**
+     * the index entries, mapped from the index file
+     */
+    private final MappedByteBuffer index;
+
+    /**
+     * works out the checksum of each record, only used by the thread using the segment
+     */
+    private final CRC32C crc = new CRC32C();
+
+    /**
+     * Maps the files of a segment
+     *
+     * @param base  the sequence number of the first record
+     * @param data  the mapped data file
+     * @param index the mapped index file
+     */
+    private LogSegment(long base, MappedByteBuffer data, MappedByteBuffer index){
+        this.base = base;
+        this.data = data;
+        this.index = index;
+    }
+
+    /**
+     * Creates the files of a new segment and maps them.  The data file is only given its name once it has its full
+     * size, so a reader never maps a file that is still growing.
+     *
+     * @param dir   the directory of the log
+     * @param base  the sequence number of the first record
+     * @param size  the size of the data file in bytes
+     * @return the new segment
+     * @throws IOException if the files could not be created
+     */
+    public static LogSegment create(Path dir, long base, int size) throws IOException {
+        Path temp = dir.resolve(name(base) + dataSuffix + ".tmp");
+        MappedByteBuffer index = map(dir.resolve(name(base) + indexSuffix), indexSize(size), true);
+        MappedByteBuffer data = map(temp, size, true);
+        Files.move(temp, dataPath(dir, base), StandardCopyOption.ATOMIC_MOVE);
+        return new LogSegment(base, data, index);
+    }
+
+    /**
+     * Maps the files of a segment that already exists
+     *
+     * @param dir       the directory of the log
+     * @param base      the sequence number of the first record
+     * @param writable  true to map the files for writing, false to only read them
+     * @return the segment
+     * @throws IOException if the files could not be mapped
+     */
+    public static LogSegment open(Path dir, long base, boolean writable) throws IOException {
+        Path dataPath = dataPath(dir, base);
+        int size = (int) Files.size(dataPath);
+        MappedByteBuffer data = map(dataPath, size, writable);
+        MappedByteBuffer index = map(dir.resolve(name(base) + indexSuffix), indexSize(size), writable);
+        return new LogSegment(base, data, index);
+    }
+
+    /**
+     * Returns the sequence number of the first record of each segment in a directory, oldest first
+     *
+     * @param dir the directory of the log
+     * @return the first sequence number of each segment
+     * @throws IOException if the directory could not be read
+     */
+    public static List<Long> list(Path dir) throws IOException {
+        ArrayList<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + dataSuffix)) {
+            for(Path file : files){
+                String name = file.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - dataSuffix.length())));
+                } catch (NumberFormatException e) {
+                    //not a segment of the log
+                }
+            }
+        }
+        Collections.sort(bases);
+        return bases;
+    }
+
+    /**
+     * Returns the number of bytes a record takes
+     *
+     * @param bodyLength the length of the body, the room name with its length and the frame of the message
+     * @return the size of the record, padded to the alignment
+     */
+    public static int recordSize(int bodyLength){
+
+        return (recordHeaderSize + bodyLength + alignment - 1) & -alignment;
+    }
+
+    /**
+     * Returns the number of bytes the record of a message takes
+     *
+     * @param room      the name of the room as bytes, at most maxRoomLength of them
+     * @param payload   the message
+     * @return the size of the record, padded to the alignment
+     */
+    public static int recordSize(byte[] room, Payload payload){
+
+        return recordSize(1 + room.length + payload.length(true));
+    }
+
+    /**
+     * Writes a record.  This is only called by the log thread.
+     *
+     * @param position  the position of the record, it must be on the alignment
+     * @param sequence  the sequence number of the message
+     * @param time      the time the message was logged, in milliseconds since the epoch
+     * @param room      the name of the room the message was forwarded in as bytes, at most maxRoomLength of them
+     * @param payload   the message
+     * @return the position of the next record
+     */
+    public int write(int position, long sequence, long time, byte[] room, Payload payload){
+        int frameLength = payload.length(true);
+        int length = 1 + room.length + frameLength;
+        data.putLong(position + 8, sequence);
+        data.putLong(position + 16, time);
+        data.put(position + recordHeaderSize, (byte) room.length);
+        data.put(position + recordHeaderSize + 1, room);
+        data.position(position + recordHeaderSize + 1 + room.length);
+        payload.copyFrameTo(data, 0, frameLength);
+        data.putInt(position + 4, checksum(position, length));
+        lengthHandle.setRelease(data, position, length);
+        if((sequence - base) % indexInterval == 0){
+            putIndex((int) ((sequence - base) / indexInterval), sequence, time, position);
+        }
+        return position + recordSize(length);
+    }
+
+    /**
+     * Returns the size of the record at a position, if there is a whole record there with the expected sequence
+     * number
+     *
+     * @param position  the position of the record
+     * @param sequence  the sequence number the record should have
+     * @return the size of the record, or -1 if the records end here
+     */
+    public int recordAt(int position, long sequence){
+        if(position + recordHeaderSize > data.capacity()){
+            return -1;
+        }
+        int length = (int) lengthHandle.getAcquire(data, position);
+        if(length <= 0 || length > data.capacity() - position - recordHeaderSize
+                || data.getLong(position + 8) != sequence || data.getInt(position + 4) != checksum(position, length)){
+            return -1;
+        }
+        return recordSize(length);
+    }
+
+    /**
+     * A helper method that works out the checksum of the sequence number, time and body of a record
+     *
+     * @param position  the position of the record
+     * @param length    the length of the body
+     * @return the checksum
+     */
+    private int checksum(int position, int length){
+        crc.reset();
+        crc.update(data.slice(position + 8, recordHeaderSize - 8 + length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the time of the record at a position, which must have been checked with recordAt
+     *
+     * @param position the position of the record
+     * @return the time in milliseconds since the epoch
+     */
+    public long timeAt(int position){
+
+        return data.getLong(position + 16);
+    }
+
+    /**
+     * Returns a read only view of the frame of the record at a position, which must have been checked with recordAt
+     *
+     * @param position the position of the record
+     * @return the frame, without a copy
+     */
+    public ByteBuffer frameAt(int position){
+        int roomLength = data.get(position + recordHeaderSize) & 0xff;
+        int length = data.getInt(position) - 1 - roomLength;
+        return data.slice(position + recordHeaderSize + 1 + roomLength, length).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the name of the chat room of the record at a position, which must have been checked with recordAt
+     *
+     * @param position the position of the record
+     * @return the room name, empty for a message that was sent to every client
+     */
+    public String roomAt(int position){
+        int roomLength = data.get(position + recordHeaderSize) & 0xff;
+        byte[] room = new byte[roomLength];
+        data.get(position + recordHeaderSize + 1, room);
+        return new String(room, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds the first record with a sequence number of at least the one given
+     *
+     * @param sequence the sequence number to look for
+     * @return the position of the record, or of the end of the records if there is none
+     */
+    public int findSequence(long sequence){
+        int slot = lastIndexAtMost(sequence, 0);
+        return scan(slot, (position, seq) -> seq >= sequence);
+    }
+
+    /**
+     * Finds the first record logged at or after a time
+     *
+     * @param time the time in milliseconds since the epoch
+     * @return the position of the record, or of the end of the records if there is none
+     */
+    public int findTime(long time){
+        //the times of the records never go down, so the index is searched for the last entry before the time
+        int slot = lastIndexAtMost(time - 1, 8);
+        return scan(slot, (position, seq) -> timeAt(position) >= time);
+    }
+
+    /**
+     * Finds the end of the records, where the next record is written
+     *
+     * @return the position after the last record
+     */
+    public int findEnd(){
+
+        return scan(indexCount() - 1, (position, seq) -> false);
+    }
+
+    /**
+     * Returns the sequence number of the record at a position found by one of the find methods, or the sequence
+     * number the next record will have if the position is the end of the records
+     *
+     * @param position the position of the record
+     * @return the sequence number
+     */
+    public long sequenceAt(int position){
+        int slot = indexCount() - 1;
+        while(slot > 0 && index.getInt(slot * indexEntrySize + 16) > position){
+            slot--;
+        }
+        int at = slot >= 0 ? index.getInt(slot * indexEntrySize + 16) : 0;
+        long sequence = slot >= 0 ? index.getLong(slot * indexEntrySize) : base;
+        while(at < position){
+            at += recordAt(at, sequence);
+            sequence++;
+        }
+        return sequence;
+    }
+
+    /**
+     * Decides whether a scan stops at a record
+     */
+    private interface Stop {
+
+        /**
+         * Returns true if the scan stops at a record
+         *
+         * @param position  the position of the record
+         * @param sequence  the sequence number of the record
+         * @return true to stop here
+         */
+        boolean at(int position, long sequence);
+    }
+
+    /**
+     * A helper method that walks the records from an index entry until one is found or the records end
+     *
+     * @param slot the index entry to start at, or -1 to start at the first record
+     * @param stop decides whether the scan stops at a record
+     * @return the position of the record the scan stopped at, or the end of the records
+     */
+    private int scan(int slot, Stop stop){
+        int position = slot >= 0 ? index.getInt(slot * indexEntrySize + 16) : 0;
+        long sequence = slot >= 0 ? index.getLong(slot * indexEntrySize) : base;
+        while(true){
+            int size = recordAt(position, sequence);
+            if(size < 0 || stop.at(position, sequence)){
+                return position;
+            }
+            position += size;
+            sequence++;
+        }
+    }
+
+    /**
+     * A helper method that finds the last index entry whose sequence number or time is at most a value
+     *
+     * @param value     the value to look for
+     * @param field     the offset in the entry of the value, 0 for the sequence number or 8 for the time
+     * @return the index entry, or -1 if the first entry is already past the value
+     */
+    private int lastIndexAtMost(long value, int field){
+        int low = 0;
+        int high = indexCount() - 1;
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            if(index.getLong(middle * indexEntrySize + field) <= value){
+                low = middle + 1;
+            }else{
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * A helper method that returns the number of entries in the index.  The entries are filled in order, so the
+     * first empty one is found with a binary search.
+     *
+     * @return the number of index entries
+     */
+    private int indexCount(){
+        int low = 0;
+        int high = index.capacity() / indexEntrySize - 1;
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            if((long) entryHandle.getAcquire(index, middle * indexEntrySize) != 0){
+                low = middle + 1;
+            }else{
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * A helper method that writes an index entry
+     *
+     * @param slot      the number of the entry
+     * @param sequence  the sequence number of the record
+     * @param time      the time of the record
+     * @param position  the position of the record
+     */
+    private void putIndex(int slot, long sequence, long time, int position){
+        int at = slot * indexEntrySize;
+        if(at + indexEntrySize > index.capacity()){
+            return;
+        }
+        index.putLong(at + 8, time);
+        index.putInt(at + 16, position);
+        entryHandle.setRelease(index, at, sequence);
+    }
+
+    /**
+     * Finds where the records of a segment that was being written end, after the server stopped.  A record that was
+     * not finished, and anything past it, is wiped along with its index entries, so the next record can be written
+     * there.  Index entries that were lost are put back.  This is only called on the segment being written.
+     *
+     * @return the position after the last whole record
+     */
+    public int recover(){
+        int slot = indexCount() - 1;
+        //an index entry may point at a record that was never finished
+        while(slot >= 0 && recordAt(index.getInt(slot * indexEntrySize + 16),
+                index.getLong(slot * indexEntrySize)) < 0){
+            slot--;
+        }
+        int position = slot >= 0 ? index.getInt(slot * indexEntrySize + 16) : 0;
+        long sequence = slot >= 0 ? index.getLong(slot * indexEntrySize) : base;
+        int size;
+        while((size = recordAt(position, sequence)) > 0){
+            if((sequence - base) % indexInterval == 0){
+                putIndex((int) ((sequence - base) / indexInterval), sequence, timeAt(position), position);
+            }
+            position += size;
+            sequence++;
+        }
+        //wipe the index entries and the bytes past the last whole record
+        for(int at = (int) ((sequence - base + indexInterval - 1) / indexInterval) * indexEntrySize;
+                at + indexEntrySize <= index.capacity() && index.getLong(at) != 0; at += indexEntrySize){
+            index.putLong(at, 0);
+        }
+        int from = position;
+        while(from < data.capacity()){
+            int to = Math.min(data.capacity(), (from / pageSize + 1) * pageSize);
+            boolean clean = true;
+            for(int i = from; i < to; i++){
+                if(data.get(i) != 0){
+                    data.put(i, (byte) 0);
+                    clean = false;
+                }
+            }
+            if(clean){
+                break;
+            }
+            from = to;
+        }
+        return position;
+    }
+
+    /**
+     * Writes the changes to the segment to the disk
+     */
+    public void force(){
+        data.force();
+        index.force();
+    }
+
+    /**
+     * Returns the sequence number of the first record
+     *
+     * @return the first sequence number
+     */
+    public long getBase(){
+
+        return base;
+    }
+
+    /**
+     * Returns the size of the data file
+     *
+     * @return the size in bytes
+     */
+    public int capacity(){
+
+        return data.capacity();
+    }
+
+    /**
+     * A helper method that returns the name of the files of a segment, without their ending
+     *
+     * @param base the sequence number of the first record
+     * @return the name
+     */
+    private static String name(long base){
+
+        return String.format("%020d", base);
+    }
+
+    /**
+     * A helper method that returns the path of the data file of a segment
+     *
+     * @param dir   the directory of the log
+     * @param base  the sequence number of the first record
+     * @return the path
+     */
+    private static Path dataPath(Path dir, long base){
+
+        return dir.resolve(name(base) + dataSuffix);
+    }
+
+    /**
+     * A helper method that returns the size of the index for a data file, with room for an entry for the most
+     * records that fit
+     *
+     * @param dataSize the size of the data file
+     * @return the size of the index file
+     */
+    private static int indexSize(int dataSize){
+
+        return (dataSize / (recordSize(1 + FrameProtocol.headerSize) * indexInterval) + 1) * indexEntrySize;
+    }
+
+    /**
+     * A helper method that maps a file, the file is made as big as the size if it is smaller
+     *
+     * @param path      the file
+     * @param size      the number of bytes to map
+     * @param writable  true to map the file for writing
+     * @return the mapped file
+     * @throws IOException if the file could not be mapped
+     */
+    private static MappedByteBuffer map(Path path, int size, boolean writable) throws IOException {
+        OpenOption[] options = writable
+                ? new OpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE}
+                : new OpenOption[]{StandardOpenOption.READ};
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            return channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+}
@@ -0,0 +1,686 @@
+package chatservice;
+
+import java.awt.GraphicsEnvironment;
+import java.io.*;
+import java.net.*;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * This class is run to start the chat server, which is a multi-threaded web server.
+ * The class starts the UDP and TCP/IP server.  This class handles keeping track of all of the UDP and TCP clients.  It
+ * keeps a client list which is all of the currently connected clients, and the list of chat rooms they are in. It
+ * also handles forwarding client messages to all of the clients in the same room.
+ *
+ * A client starts in the lobby.  It moves to another room by sending "/join ROOM", and back to the lobby by sending
+ * "/leave".  The rooms it leaves and joins are told with a message from the client.
+ *
+ */
+public class MainServer {
+
+    /**
+     * the GUI for the server, or null when the server runs headless
+     */
+    private ServerGUI serverGUI = null;
+
+    /**
+     * the event log the network threads report clients connecting and errors to
+     */
+    private ServerEvents events;
+
+    /**
+     * the numbers of the server, counted by the network threads and shown through JMX
+     */
+    private ServerMetrics metrics;
+
+    /**
+     * what the queues of the clients do once a client falls too far behind, by protocol
+     */
+    private final SlowConsumerPolicy[] slowPolicies = new SlowConsumerPolicy[2];
+
+    /**
+     * how fast the clients can send messages, by protocol
+     */
+    private final RateLimit[] rateLimits = new RateLimit[2];
+
+    /**
+     * disconnects the clients nothing has arrived from for the idle timeout
+     */
+    private IdleReaper reaper;
+
+    /**
+     * the list of TCP and UDP clients connected to the server, keyed by client ID
+     */
+    private ClientRegistry clients = new ClientRegistry();
+
+    /**
+     * the chat rooms, each with the clients in it and the last messages forwarded in it
+     */
+    private RoomRegistry rooms;
+
+    /**
+     * the durable log every message forwarded is appended to, or null if the messages are not logged
+     */
+    private ChatLog log = null;
+
+    /**
+     * the links to the other servers of the cluster, or null if the server is not in a cluster
+     */
+    private Cluster cluster = null;
+
+    /**
+     * the special message sent when the disconnect button is hit by the client to to remove a client from the client
+     */
+    protected static String removeMe = "Please remove me from the client list (*%$(#&%(*&$#";
+
+    /**
+     * the bytes of the special disconnect message, so messages can be checked without turning them into text
+     */
+    private static final byte[] removeMeBytes = removeMe.getBytes();
+
+    /**
+     * the special message a client sends to show it is still there when it has had nothing else to send, a UDP
+     * client is answered with the same message
+     */
+    protected static String heartbeat = "Heartbeat from a client that is still here (*%$(#&%(*&$#";
+
+    /**
+     * the bytes of the special heartbeat message, so messages can be checked without turning them into text
+     */
+    private static final byte[] heartbeatBytes = heartbeat.getBytes();
+
+    /**
+     * the command a client sends to move to another room
+     */
+    private static final String joinCommand = "/join";
+
+    /**
+     * the command a client sends to go back to the lobby
+     */
+    private static final String leaveCommand = "/leave";
+
+    /**
+     * the number of TCP clients that can be waiting to be accepted, the default of 50 makes clients retry their
+     * connection when many of them connect at once
+     */
+    private static final int acceptBacklog = 1024;
+
+    /**
+     * create a TCP socket for server for clients to connect to
+     */
+    private ServerSocket serverSocket = null;
+
+    /**
+     * the launch options for the server
+     */
+    private ServerConfig config;
+
+    /**
+     * runs the handler of each client on its own platform or virtual thread
+     */
+    private Executor clientExecutor;
+
+    /**
+     * turns the messages from clients into the payloads forwarded to every client
+     */
+    private MessageFormatter formatter = new MessageFormatter();
+
+    /**
+     * the thread that receives from the UDP clients
+     */
+    private UDPServer udpThread = null;
+
+    /**
+     *Constructor starts the GUI and starts the TCP and UDP servers with the default launch options
+     */
+    public MainServer(){
+
+        this(new ServerConfig());
+    }
+
+    /**
+     *Constructor starts the GUI and starts the TCP and UDP servers.  A headless server prints its events to the
+     * console instead of showing them in the GUI.
+     *
+     * @param config the launch options for the server
+     */
+    public MainServer(ServerConfig config){
+        this.config = config;
+        clientExecutor = ClientExecutors.create(config.isVirtualThreads());
+        events = new ServerEvents(config.getEventLogSize());
+        metrics = new ServerMetrics(clients, events, config.getMetricsInterval());
+        slowPolicies[ServerMetrics.tcp] = new SlowConsumerPolicy(config.getTcpSlowPolicy(), config.getSlowThreshold(),
+                metrics, ServerMetrics.tcp);
+        slowPolicies[ServerMetrics.udp] = new SlowConsumerPolicy(config.getUdpSlowPolicy(), config.getSlowThreshold(),
+                metrics, ServerMetrics.udp);
+        rateLimits[ServerMetrics.tcp] = new RateLimit(config.getTcpMessageRate(), config.getTcpByteRate(),
+                metrics, ServerMetrics.tcp);
+        rateLimits[ServerMetrics.udp] = new RateLimit(config.getUdpMessageRate(), config.getUdpByteRate(),
+                metrics, ServerMetrics.udp);
+        reaper = new IdleReaper(config.getIdleTimeout(), metrics);
+        rooms = new RoomRegistry(config.getHistorySize(), config.getHistoryBytes(), config.isHistoryOffHeap());
+        if(config.getLogDir() != null){
+            openLog(Paths.get(config.getLogDir()));
+        }
+        boolean a = true;
+        while (a){
+            a = false;
+            try {
+                //get local IP address
+                String ip = InetAddress.getLocalHost().getHostAddress();
+                ServerSocketChannel serverChannel = null;
+                if(config.isNioTCP()){
+                    //the selector based server accepts clients through a channel
+                    serverChannel = ServerSocketChannel.open();
+                    serverChannel.bind(new InetSocketAddress(0), acceptBacklog);
+                    serverSocket = serverChannel.socket();
+                }else{
+                    serverSocket = new ServerSocket(0, acceptBacklog);
+                }
+                //get the port number for the server
+                int port = serverSocket.getLocalPort();
+                //create the one UDP socket every UDP client talks to
+                DatagramChannel datagramChannel = DatagramChannel.open();
+                datagramChannel.bind(new InetSocketAddress(port));
+
+                //start the GUI for the server, or print the events when there is no GUI
+                if(config.isHeadless() || GraphicsEnvironment.isHeadless()){
+                    events.addListener(ServerEvents.printer(System.out));
+                    events.log("Server is running headless at " + ip + " on port " + port + ".");
+                    Runtime.getRuntime().addShutdownHook(new Thread(this::closeSocket));
+                }else{
+                    serverGUI = new ServerGUI(ip, port, this);
+                    events.addListener(serverGUI);
+                }
+                events.start();
+                metrics.register(port);
+                metrics.start();
+                reaper.start();
+
+                //Start server for TCP server socket
+                if(config.isNioTCP()){
+                    TCPSelectorServer tcpThread = new TCPSelectorServer(serverChannel, this, events,
+                            config.getIoThreads());
+                    tcpThread.start();
+                }else{
+                    TCPServer tcpThread = new TCPServer(serverSocket, this, events);
+                    tcpThread.start();
+                }
+                //Start thread for UDP server socket
+                udpThread = new UDPServer(datagramChannel, this, events);
+                udpThread.start();
+                if(config.getClusterPort() > 0){
+                    openCluster();
+                }
+
+            } catch (IOException e) {
+                System.err.println("Could not create sockets.");
+            } catch (Exception e) {
+                events.log("Error: There is an issue with your connection. Please restart the program.");
+            }
+        }
+    }
+
+    /**
+     * Handles a message from a client.  A room command is carried out, and anything else is formatted and forwarded
+     * to the clients in the room of the client.  The bytes are copied as they were received.  Every protocol hands its
+     * messages in here, so a message too long to be forwarded in a frame is turned away here, and the client is told.
+     *
+     * @param sender        the client that sent the message
+     * @param namePrefix    the name of the client, from MessageFormatter.namePrefix
+     * @param message       the array holding the bytes of the message
+     * @param offset        the index of the first byte of the message
+     * @param length        the number of bytes of the message
+     */
+    public void receive(ClientSession sender, byte[] namePrefix, byte[] message, int offset, int length){
+        if(length > MessageFormatter.maxMessageLength){
+            sender.send("Your message of " + length + " bytes was not sent, messages can be at most "
+                    + MessageFormatter.maxMessageLength + " bytes.");
+            return;
+        }
+        //only a message starting with '/' is turned into text to look for a command
+        if(length > 0 && message[offset] == '/' && command(sender, namePrefix, new String(message, offset, length))){
+            return;
+        }
+        Payload payload = formatter.format(sender.getClientID(), namePrefix, message, offset, length);
+        forward(sender, payload);
+        payload.release();
+    }
+
+    /**
+     * Forwards a formatted message to the clients in the room of the client that sent it.  The caller keeps its
+     * reference to the payload and releases it afterwards.  In a cluster, a message in a room another server owns is
+     * submitted to that server and comes back with the other messages of the room.
+     *
+     * @param sender    the client that sent the message
+     * @param payload   the message that is being sent
+     */
+    public void forward(ClientSession sender, Payload payload){
+        Room room = sender.getRoom();
+        if(room == null){
+            //the client has already been removed
+            return;
+        }
+        payload.setRoom(room);
+        if(cluster != null && cluster.route(payload)){
+            return;
+        }
+        deliver(room, payload, true);
+    }
+
+    /**
+     * Forwards a message to the clients in a room here, which in a cluster includes the other servers following the
+     * room if this server owns it.  The message is added to the history of the room, and the time taken to hand the
+     * message to every client in the room is recorded in the metrics.
+     *
+     * @param room      the room the message is forwarded in
+     * @param payload   the message, the caller keeps its reference
+     * @param logged    true to append the message to the chat log, false if it was logged before
+     */
+    public void deliver(Room room, Payload payload, boolean logged){
+        payload.setRoom(room);
+        long start = System.nanoTime();
+        room.send(payload);
+        metrics.fanOut(System.nanoTime() - start);
+        if(logged && log != null){
+            log.append(payload);
+        }
+    }
+
+    /**
+     * A helper method for receive that carries out a room command
+     *
+     * @param client        the client that sent the command
+     * @param namePrefix    the name of the client
+     * @param text          the message, which starts with '/'
+     * @return true if the message was a command, false if it is forwarded like any other message
+     */
+    private boolean command(ClientSession client, byte[] namePrefix, String text){
+        String[] words = text.trim().split("\\s+");
+        switch (words[0]) {
+            case joinCommand:
+                if(words.length != 2){
+                    client.send("Type " + joinCommand + " ROOM to move to another room.");
+                }else{
+                    moveTo(client, namePrefix, words[1]);
+                }
+                return true;
+            case leaveCommand:
+                moveTo(client, namePrefix, RoomRegistry.lobby);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * A helper method for command that moves a client to another room.  The room it leaves is told before it goes,
+     * and the room it joins after it has been sent the history of the room.
+     *
+     * @param client        the client moving
+     * @param namePrefix    the name of the client
+     * @param name          the name of the room to move to
+     */
+    private void moveTo(ClientSession client, byte[] namePrefix, String name){
+        Room current = client.getRoom();
+        if(current == null){
+            return;
+        }
+        if(!RoomRegistry.isValidName(name)){
+            client.send("A room name is 1 to " + RoomRegistry.maxNameLength + " letters, digits, - or _.");
+            return;
+        }
+        if(current.getName().equals(name)){
+            client.send("You are already in room " + name + ".");
+            return;
+        }
+        announce(client, namePrefix, "has left room " + current.getName() + ".");
+        rooms.leave(client);
+        updateInterest(current.getName());
+        client.send("You are now in room " + name + ".");
+        rooms.join(client, name);
+        updateInterest(name);
+        if(clients.get(client.getClientID()) != client){
+            //the client was removed while it was moving
+            rooms.leave(client);
+            updateInterest(name);
+            return;
+        }
+        announce(client, namePrefix, "has joined room " + name + ".");
+    }
+
+    /**
+     * A helper method that tells the cluster a client of this server joined or left a room, so the server follows
+     * the room at its owner while it has clients in it
+     *
+     * @param name the name of the room
+     */
+    private void updateInterest(String name){
+        if(cluster != null){
+            cluster.updateInterest(name);
+        }
+    }
+
+    /**
+     * A helper method for moveTo that forwards a message from a client to its room
+     *
+     * @param client        the client
+     * @param namePrefix    the name of the client
+     * @param message       the message
+     */
+    private void announce(ClientSession client, byte[] namePrefix, String message){
+        Payload payload = formatter.format(client.getClientID(), namePrefix, message);
+        forward(client, payload);
+        payload.release();
+    }
+
+    /**
+     * A helper method for the constructor that opens the chat log and puts the history back from its newest messages,
+     * each into the history of the room it was forwarded in.  The index of the log finds the first of them, so only
+     * historySize messages are read.  If the log cannot be opened the server runs without it.
+     *
+     * @param dir the directory of the log
+     */
+    private void openLog(Path dir){
+        try {
+            long start = System.nanoTime();
+            log = new ChatLog(dir, config.getLogSegmentSize(), config.getLogSyncInterval(), events);
+            int restored = 0;
+            if(config.getHistorySize() > 0 && log.getLastSequence() > 0){
+                try (ChatLogReader reader = new ChatLogReader(dir)) {
+                    reader.seekSequence(log.getLastSequence() - config.getHistorySize() + 1);
+                    ChatLogReader.Record record;
+                    while((record = reader.next()) != null){
+                        if(!RoomRegistry.isValidName(record.room)){
+                            //a message that was sent to every client is in no history
+                            continue;
+                        }
+                        Payload payload = record.toPayload(PayloadPool.shared());
+                        rooms.restore(record.room).restore(payload);
+                        payload.release();
+                        restored++;
+                    }
+                }
+            }
+            log.start();
+            events.log("Logging messages to " + dir + " after message " + log.getLastSequence() + ", " + restored
+                    + " messages of history restored in " + (System.nanoTime() - start) / 1000000 + " ms.");
+        } catch (IOException e) {
+            log = null;
+            events.log("Error: The chat log in " + dir + " could not be opened, messages are not logged.");
+        }
+    }
+
+    /**
+     * A helper method for the constructor that opens the cluster port and starts the links to the other servers.  If
+     * the port cannot be opened the server runs on its own.
+     */
+    private void openCluster(){
+        try {
+            cluster = new Cluster(config, this, events);
+            cluster.start();
+            events.log("Cluster node " + cluster.getNodeID() + " is listening on port " + config.getClusterPort()
+                    + " with " + config.getPeers().size() + " peers.");
+        } catch (IOException e) {
+            cluster = null;
+            events.log("Error: The cluster port " + config.getClusterPort() + " could not be opened, the server runs"
+                    + " on its own.");
+        }
+    }
+
+    /**
+     * Returns one line for each client describing its outbound queue, the clients furthest behind are listed first
+     *
+     * @return the queue numbers of every client as text
+     */
+    public String getQueueStats(){
+        ClientSession[] snapshot = clients.snapshot().clone();
+        Arrays.sort(snapshot, Comparator.comparingInt(
+                (ClientSession client) -> client.getOutboundQueue().depth()).reversed());
+        StringBuilder stats = new StringBuilder("Outbound queues of " + snapshot.length + " clients:");
+        for(ClientSession client : snapshot){
+            stats.append("\n  Client").append(client.getClientID())
+                    .append(client.isProtocolUDP() ? " (UDP): " : " (TCP/IP): ")
+                    .append(client.getOutboundQueue().describe());
+        }
+        stats.append("\n").append(rooms.describe());
+        if(udpThread != null){
+            stats.append("\n").append(udpThread.getSender().describe());
+        }
+        if(log != null){
+            stats.append("\n").append(log.describe());
+        }
+        if(cluster != null){
+            stats.append("\n").append(cluster.describe());
+        }
+        return stats.toString();
+    }
+
+    /**
+     * Returns the client ID which is a unique number
+     *
+     * @return the client ID number
+     */
+    public int getClientID(){
+
+        return clients.nextClientID();
+    }
+
+    /**
+     * Returns true if the bytes of a message are the special disconnect message
+     *
+     * @param message   the array holding the bytes of the message
+     * @param offset    the index of the first byte of the message
+     * @param length    the number of bytes of the message
+     * @return true if the client asked to be disconnected
+     */
+    public static boolean isRemoveMe(byte[] message, int offset, int length){
+
+        return Arrays.equals(message, offset, offset + length, removeMeBytes, 0, removeMeBytes.length);
+    }
+
+    /**
+     * Returns true if the bytes of a message are the special heartbeat message
+     *
+     * @param message   the array holding the bytes of the message
+     * @param offset    the index of the first byte of the message
+     * @param length    the number of bytes of the message
+     * @return true if the client only showed it is still there
+     */
+    public static boolean isHeartbeat(byte[] message, int offset, int length){
+
+        return Arrays.equals(message, offset, offset + length, heartbeatBytes, 0, heartbeatBytes.length);
+    }
+
+    /**
+     * Returns the special heartbeat message
+     *
+     * @return the heartbeat message
+     */
+    public static String getHeartbeat(){
+
+        return heartbeat;
+    }
+
+    /**
+     * Returns the formatter that turns the messages from clients into payloads
+     *
+     * @return the message formatter
+     */
+    public MessageFormatter getFormatter(){
+
+        return formatter;
+    }
+
+    /**
+     * Returns the event log of the server
+     *
+     * @return the event log
+     */
+    public ServerEvents getEvents(){
+
+        return events;
+    }
+
+    /**
+     * Returns the numbers of the server
+     *
+     * @return the server metrics
+     */
+    public ServerMetrics getMetrics(){
+
+        return metrics;
+    }
+
+    /**
+     * Returns what the queues of the clients of a protocol do once a client falls too far behind
+     *
+     * @param protocol ServerMetrics.tcp or ServerMetrics.udp
+     * @return the slow consumer policy of the protocol
+     */
+    public SlowConsumerPolicy getSlowConsumerPolicy(int protocol){
+
+        return slowPolicies[protocol];
+    }
+
+    /**
+     * Returns how fast the clients of a protocol can send messages
+     *
+     * @param protocol ServerMetrics.tcp or ServerMetrics.udp
+     * @return the rate limit of the protocol
+     */
+    public RateLimit getRateLimit(int protocol){
+
+        return rateLimits[protocol];
+    }
+
+    /**
+     * Returns the reaper that disconnects idle clients, every client gets its idle timer from it
+     *
+     * @return the idle reaper
+     */
+    public IdleReaper getIdleReaper(){
+
+        return reaper;
+    }
+
+    /**
+     * Returns the launch options for the server
+     *
+     * @return the launch options
+     */
+    public ServerConfig getConfig(){
+
+        return config;
+    }
+
+    /**
+     * Returns the executor that runs the handler of each client
+     *
+     * @return the executor for the client handlers
+     */
+    public Executor getClientExecutor(){
+
+        return clientExecutor;
+    }
+
+    /**
+     * Returns the port the server is listening on for TCP and UDP clients
+     *
+     * @return the port number, or -1 if the server socket was not created
+     */
+    public int getPort(){
+
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    /**
+     * Returns the list of clients connected to the server
+     *
+     * @return the client list
+     */
+    public ClientRegistry getClients(){
+
+        return clients;
+    }
+
+    /**
+     * Returns the chat rooms of the server
+     *
+     * @return the room list
+     */
+    public RoomRegistry getRooms(){
+
+        return rooms;
+    }
+
+    /**
+     * remove a client from the client list and from its room
+     *
+     * @param client the client being removed from the list
+     */
+    public void removeClient(ClientSession client){
+        Room room = client.getRoom();
+        clients.remove(client);
+        rooms.leave(client);
+        if(room != null){
+            updateInterest(room.getName());
+        }
+    }
+
+    /**
+     * add a client to the client list and to the lobby.  The client is sent the history of the lobby first, so it sees
+     * what was said before it joined.
+     *
+     * @param client the client being added
+     */
+    public void addClient(ClientSession client){
+        //the client ID is the key, so a client that has already been added is not added again
+        if(clients.add(client)){
+            rooms.join(client, RoomRegistry.lobby);
+            updateInterest(RoomRegistry.lobby);
+            if(clients.get(client.getClientID()) != client){
+                //the client was removed while it was joining the lobby
+                rooms.leave(client);
+                updateInterest(RoomRegistry.lobby);
+                return;
+            }
+            //Display new client on server text window
+            String protocol = client.isProtocolUDP() ? "UDP" : "TCP/IP";
+            events.log(client.getInetAddress() + " is connected using " + protocol + ".");
+        }
+    }
+
+    /**
+     * Closes the current socket. Is called when the client exits the window.
+     */
+    public void closeSocket(){
+        metrics.unregister();
+        if(cluster != null){
+            cluster.close();
+        }
+        if(log != null){
+            log.close();
+        }
+        try {
+            if(serverSocket != null)
+                serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("The server crashed while trying to exit");
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Calls the constructor to create a new instance of the main server
+     *
+     * @param args the launch options, see ServerConfig
+     */
+    public static void main(String []args){
+        new MainServer(ServerConfig.fromArgs(args));
+    }
+}
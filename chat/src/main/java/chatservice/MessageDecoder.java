@@ -0,0 +1,311 @@
+package chatservice;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits the bytes read from a TCP/IP client into messages.  The first byte the client sends decides how it talks to
+ * the server: a client that starts with the preface of the framed protocol sends frames, any other client sends
+ * lines of text.  Every finished message is handed to the listener, and the unfinished part is kept until the rest
+ * of it is read.
+ *
+ * Lines of text are handed on as chat messages, except the special disconnect message which is handed on as a leave
+ * message with nothing in it, and the special heartbeat message which is handed on as an empty heartbeat.
+ *
+ * A decoder can also split the bytes a client reads from the server.  The server sends lines of text until it
+ * answers the preface with an ack frame, and frames after that, so a line starting with the frame marker switches the
+ * decoder to frames.
+ *
+ */
+public class MessageDecoder {
+
+    /**
+     * Is told about everything the client sends
+     */
+    public interface Listener {
+
+        /**
+         * Called when the client asks for the framed protocol.  Every message after this is a frame.
+         *
+         * @param version the highest protocol version the client speaks
+         */
+        void prefaceReceived(int version);
+
+        /**
+         * Called for every finished message.  The bytes are only valid until this method returns.
+         *
+         * @param type      the frame type of the message, lines of text are chat messages
+         * @param message   the array holding the bytes of the message
+         * @param offset    the index of the first byte of the message
+         * @param length    the number of bytes of the message
+         */
+        void messageReceived(byte type, byte[] message, int offset, int length);
+
+        /**
+         * Called when the client sends something that is not valid.  Nothing more is decoded afterwards.
+         *
+         * @param reason what was wrong
+         */
+        void invalidInput(String reason);
+    }
+
+    /**
+     * the starting size of the buffers that hold an unfinished line or frame
+     */
+    private static final int startSize = 256;
+
+    /**
+     * the longest line that is kept, anything longer is passed on in pieces of this size.  Buffers grown for longer
+     * frames are not kept.
+     */
+    static final int maxLineSize = 64 * 1024;
+
+    /**
+     * is told about every message
+     */
+    private Listener listener;
+
+    /**
+     * the bytes of the line that has been read so far, the buffer is reused for every line
+     */
+    private ByteBuffer lineBuffer = null;
+
+    /**
+     * the bytes of the preface or frame that has been read so far, only created for framed clients
+     */
+    private ByteBuffer frameBuffer = null;
+
+    /**
+     * true once the first byte from the client has shown whether it uses the framed protocol
+     */
+    private boolean negotiated = false;
+
+    /**
+     * true if the client uses the framed protocol
+     */
+    private boolean framed = false;
+
+    /**
+     * true once nothing more is decoded
+     */
+    private boolean stopped = false;
+
+    /**
+     * true if the bytes are read from the server instead of from a client
+     */
+    private boolean fromServer;
+
+    /**
+     * Creates a decoder for a client that has not sent anything yet
+     *
+     * @param listener is told about every message
+     */
+    public MessageDecoder(Listener listener){
+
+        this(listener, false);
+    }
+
+    /**
+     * Creates a decoder
+     *
+     * @param listener      is told about every message
+     * @param fromServer    true to split the bytes a client reads from the server, which never sends a preface
+     */
+    public MessageDecoder(Listener listener, boolean fromServer){
+        this.listener = listener;
+        this.fromServer = fromServer;
+        negotiated = fromServer;
+    }
+
+    /**
+     * Splits the bytes that were read into messages
+     *
+     * @param data the bytes that were read from the client, from the position to the limit
+     */
+    public void decode(ByteBuffer data){
+        if(!negotiated && data.hasRemaining()){
+            //only the first byte tells a preface from a line, the rest of a split preface follows in later reads
+            boolean prefaceStarted = frameBuffer != null && frameBuffer.position() > 0;
+            if(!prefaceStarted && data.get(data.position()) != FrameProtocol.marker){
+                negotiated = true;
+            }else if(!readPreface(data)){
+                return;
+            }
+        }
+        if(!framed){
+            decodeLines(data);
+        }
+        //the server switches to frames part way through what was read
+        if(framed){
+            decodeFrames(data);
+        }
+    }
+
+    /**
+     * Stops decoding, it is called when the client is closed
+     */
+    public void stop(){
+
+        stopped = true;
+    }
+
+    /**
+     * Returns true if the client uses the framed protocol
+     *
+     * @return true once the client has sent the preface
+     */
+    public boolean isFramed(){
+
+        return framed;
+    }
+
+    /**
+     * A helper method for decode that reads the preface of a client asking for the framed protocol
+     *
+     * @param data the bytes that were read from the client
+     * @return true once the whole preface has been read and accepted
+     */
+    private boolean readPreface(ByteBuffer data){
+        if(!fillFrame(data, FrameProtocol.prefaceSize)){
+            return false;
+        }
+        int version = FrameProtocol.readPreface(frameBuffer.array(), 0);
+        frameBuffer.clear();
+        if(version < 1){
+            stopped = true;
+            listener.invalidInput("TCP client sent a preface that is not valid.");
+            return false;
+        }
+        negotiated = true;
+        framed = true;
+        listener.prefaceReceived(version);
+        return !stopped;
+    }
+
+    /**
+     * A helper method for decode that splits the bytes that were read into lines
+     *
+     * @param data the bytes that were read from the client
+     */
+    private void decodeLines(ByteBuffer data){
+        if(lineBuffer == null){
+            lineBuffer = ByteBuffer.allocate(startSize);
+        }
+        while(data.hasRemaining() && !stopped){
+            if(fromServer && lineBuffer.position() == 0 && data.get(data.position()) == FrameProtocol.marker){
+                framed = true;
+                return;
+            }
+            byte b = data.get();
+            if(b == '\n'){
+                endLine();
+            }else{
+                if(!lineBuffer.hasRemaining()){
+                    growLineBuffer();
+                }
+                lineBuffer.put(b);
+            }
+        }
+    }
+
+    /**
+     * A helper method for decodeLines that makes room for a longer line.  If the line is already as long as allowed,
+     * the part that was read is handled as its own line.
+     */
+    private void growLineBuffer(){
+        if(lineBuffer.capacity() >= maxLineSize){
+            endLine();
+            return;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.min(lineBuffer.capacity() * 2, maxLineSize));
+        lineBuffer.flip();
+        bigger.put(lineBuffer);
+        lineBuffer = bigger;
+    }
+
+    /**
+     * A helper method for decodeLines that hands on a finished line
+     */
+    private void endLine(){
+        int length = lineBuffer.position();
+        //drop the carriage return of a windows line ending like readLine does
+        if(length > 0 && lineBuffer.get(length - 1) == '\r'){
+            length--;
+        }
+        if(!fromServer && MainServer.isRemoveMe(lineBuffer.array(), 0, length)){
+            listener.messageReceived(FrameProtocol.leave, lineBuffer.array(), 0, 0);
+        }else if(!fromServer && MainServer.isHeartbeat(lineBuffer.array(), 0, length)){
+            listener.messageReceived(FrameProtocol.heartbeat, lineBuffer.array(), 0, 0);
+        }else{
+            listener.messageReceived(FrameProtocol.chat, lineBuffer.array(), 0, length);
+        }
+        lineBuffer.clear();
+    }
+
+    /**
+     * A helper method for decode that splits the bytes that were read into frames.  The length at the front of each
+     * frame says how many bytes to copy, so the bytes are never searched.
+     *
+     * @param data the bytes that were read from the client
+     */
+    private void decodeFrames(ByteBuffer data){
+        while(data.hasRemaining() && !stopped){
+            if(!fillFrame(data, FrameProtocol.lengthSize)){
+                return;
+            }
+            int length = frameBuffer.getInt(0);
+            if(!FrameProtocol.isValidLength(length)){
+                stopped = true;
+                listener.invalidInput("TCP client sent a frame with a length of " + length + ".");
+                return;
+            }
+            if(!fillFrame(data, FrameProtocol.lengthSize + length)){
+                return;
+            }
+            endFrame();
+        }
+    }
+
+    /**
+     * A helper method that copies bytes that were read into the frame buffer until it holds the given number of
+     * bytes
+     *
+     * @param data      the bytes that were read from the client
+     * @param needed    the number of bytes the frame buffer should hold
+     * @return true if the frame buffer holds all of the bytes needed, false if more have to be read
+     */
+    private boolean fillFrame(ByteBuffer data, int needed){
+        if(frameBuffer == null){
+            frameBuffer = ByteBuffer.allocate(Math.max(startSize, needed));
+        }else if(frameBuffer.capacity() < needed){
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, frameBuffer.capacity() * 2));
+            frameBuffer.flip();
+            bigger.put(frameBuffer);
+            frameBuffer = bigger;
+        }
+        //the length of a frame read in an earlier call is already in the buffer
+        if(frameBuffer.position() >= needed){
+            return true;
+        }
+        int count = Math.min(needed - frameBuffer.position(), data.remaining());
+        frameBuffer.put(frameBuffer.position(), data, data.position(), count);
+        frameBuffer.position(frameBuffer.position() + count);
+        data.position(data.position() + count);
+        return frameBuffer.position() == needed;
+    }
+
+    /**
+     * A helper method for decodeFrames that hands on a finished frame.  The client ID in the frame is not handed on,
+     * the server knows which client it is reading.
+     */
+    private void endFrame(){
+        byte type = frameBuffer.get(FrameProtocol.lengthSize);
+        int bodyLength = frameBuffer.position() - FrameProtocol.headerSize;
+        listener.messageReceived(type, frameBuffer.array(), FrameProtocol.headerSize, bodyLength);
+        //a buffer grown for a very long frame is not kept
+        if(frameBuffer.capacity() > maxLineSize){
+            frameBuffer = null;
+        }else{
+            frameBuffer.clear();
+        }
+    }
+}
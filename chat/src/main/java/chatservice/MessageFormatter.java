@@ -0,0 +1,186 @@
+package chatservice;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Turns a message from a client into the payload forwarded to every client, in the form
+ * "(hh:mm:ss) ClientN: message".  The timestamp is only formatted once a second and kept as bytes, each client keeps
+ * its "ClientN: " name as bytes, and the message bytes are copied as they were received, so the payload is written
+ * straight into a pooled buffer without building any strings.
+ *
+ * A formatter can be used by any number of threads at once.
+ *
+ */
+public class MessageFormatter {
+
+    /**
+     * the characters used to turn the timestamp and names into bytes, the same as the payloads use
+     */
+    private static final Charset charset = Charset.defaultCharset();
+
+    /**
+     * formats the time of day the same way the server always has
+     */
+    private static final DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("hh:mm:ss");
+
+    /**
+     * the most bytes the timestamp and name put in front of a message, for the longest client ID
+     */
+    public static final int maxPrefixSize = "(hh:mm:ss) ".getBytes(charset).length
+            + namePrefix(Integer.MIN_VALUE).length;
+
+    /**
+     * the most bytes of a message from a client that are forwarded.  A longer message would make a frame longer than
+     * FrameProtocol.maxFrameSize once the timestamp and name are put in front of it, and in a cluster once it is
+     * carried in a room frame, which puts its own header, sequence number, room name and flag around the frame.  A
+     * longer message is not forwarded at all.
+     */
+    public static final int maxMessageLength = FrameProtocol.maxFrameSize - (FrameProtocol.headerSize
+            - FrameProtocol.lengthSize) - 8 - 1 - RoomRegistry.maxNameLength - 1 - FrameProtocol.headerSize
+            - maxPrefixSize;
+
+    /**
+     * The timestamp of one second, as the bytes put in front of every message sent during it
+     */
+    private static class TimePrefix {
+
+        /**
+         * the second since the epoch the timestamp is for
+         */
+        final long second;
+
+        /**
+         * the bytes of "(hh:mm:ss) "
+         */
+        final byte[] bytes;
+
+        /**
+         * Formats the timestamp of a second
+         *
+         * @param second the second since the epoch
+         */
+        TimePrefix(long second){
+            this.second = second;
+            String time = timeFormat.format(Instant.ofEpochSecond(second).atZone(ZoneId.systemDefault()));
+            bytes = ("(" + time + ") ").getBytes(charset);
+        }
+    }
+
+    /**
+     * the pool the payload buffers are taken from
+     */
+    private final PayloadPool pool;
+
+    /**
+     * the timestamp of the second the last message was formatted in
+     */
+    private volatile TimePrefix timePrefix = new TimePrefix(System.currentTimeMillis() / 1000);
+
+    /**
+     * Creates a formatter that uses the shared pool
+     */
+    public MessageFormatter(){
+
+        this(PayloadPool.shared());
+    }
+
+    /**
+     * Creates a formatter
+     *
+     * @param pool the pool to take the payload buffers from
+     */
+    public MessageFormatter(PayloadPool pool){
+
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the name of a client as the bytes put in front of its messages.  A client works this out once and
+     * keeps it.
+     *
+     * @param clientID the unique identifier of the client
+     * @return the bytes of "ClientN: "
+     */
+    public static byte[] namePrefix(int clientID){
+
+        return ("Client" + clientID + ": ").getBytes(charset);
+    }
+
+    /**
+     * Formats a message that was received as bytes
+     *
+     * @param senderID      the unique identifier of the client that sent the message
+     * @param namePrefix    the name of the client, from namePrefix
+     * @param message       the array holding the bytes of the message
+     * @param offset        the index of the first byte of the message
+     * @param length        the number of bytes of the message
+     * @return the payload, the caller holds the only reference
+     */
+    public Payload format(int senderID, byte[] namePrefix, byte[] message, int offset, int length){
+        ByteBuffer buf = begin(senderID, namePrefix, length);
+        buf.put(message, offset, length);
+        return finish(buf);
+    }
+
+    /**
+     * Formats a message that was received as text
+     *
+     * @param senderID      the unique identifier of the client that sent the message
+     * @param namePrefix    the name of the client, from namePrefix
+     * @param message       the message
+     * @return the payload, the caller holds the only reference
+     */
+    public Payload format(int senderID, byte[] namePrefix, String message){
+        byte[] bytes = message.getBytes(charset);
+        return format(senderID, namePrefix, bytes, 0, bytes.length);
+    }
+
+    /**
+     * A helper method for format that takes a buffer from the pool and writes the frame header, timestamp and name
+     * into it
+     *
+     * @param senderID      the unique identifier of the client that sent the message
+     * @param namePrefix    the name of the client
+     * @param length        the number of bytes of the message that will follow
+     * @return the buffer, positioned where the message goes
+     */
+    private ByteBuffer begin(int senderID, byte[] namePrefix, int length){
+        byte[] time = timePrefix();
+        int bodyLength = time.length + namePrefix.length + length;
+        ByteBuffer buf = pool.acquire(FrameProtocol.headerSize + bodyLength + 1);
+        FrameProtocol.putHeader(buf, FrameProtocol.chat, senderID, bodyLength);
+        buf.put(time).put(namePrefix);
+        return buf;
+    }
+
+    /**
+     * A helper method for format that ends the message with its newline and wraps the buffer in a payload
+     *
+     * @param buf the buffer holding the frame header and the formatted message
+     * @return the payload
+     */
+    private Payload finish(ByteBuffer buf){
+        buf.put((byte) '\n').flip();
+        return Payload.wrap(buf, pool);
+    }
+
+    /**
+     * A helper method that returns the timestamp of the current second, formatting it if the second has changed
+     *
+     * @return the bytes of "(hh:mm:ss) "
+     */
+    private byte[] timePrefix(){
+        long second = System.currentTimeMillis() / 1000;
+        TimePrefix prefix = timePrefix;
+        if(prefix.second != second){
+            //any thread may format the new second, they all get the same bytes
+            prefix = new TimePrefix(second);
+            timePrefix = prefix;
+        }
+        return prefix.bytes;
+    }
+}
@@ -0,0 +1,292 @@
+package chatservice;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The last messages forwarded to the clients, so a client that joins is sent what was said before it came.  The
+ * frames of the messages are copied into one buffer that is allocated when the server starts, on the heap or off it,
+ * and used as a ring.  The oldest messages are dropped when either the most messages or the most bytes are kept, so
+ * the history never takes more memory however long the server runs.  A message too long for the whole buffer is not
+ * kept.
+ *
+ * Every message is given a sequence number.  Adding a message and taking the list of clients it is sent to are done
+ * under the same lock as adding a joining client to the list, so a joining client is sent each message once: in its
+ * backlog if the message came before it joined, or live if it came after.  The backlog is copied out of the ring with
+ * one bulk copy and turned into payloads after the lock is released, so a joining client holds up the messages being
+ * forwarded for no longer than that copy takes.
+ *
+ */
+public class MessageHistory {
+
+    /**
+     * the frames of the messages kept, used as a ring
+     */
+    private final ByteBuffer ring;
+
+    /**
+     * the offset in the ring stream of each message kept, indexed by its sequence number modulo the most messages
+     */
+    private final long[] starts;
+
+    /**
+     * the length of the frame of each message kept, indexed like starts
+     */
+    private final int[] lengths;
+
+    /**
+     * the sequence number the next message is given
+     */
+    private long next = 0;
+
+    /**
+     * the sequence number of the oldest message kept
+     */
+    private long oldest = 0;
+
+    /**
+     * the offset in the ring stream the next message is copied to.  The ring stream counts every byte ever added, the
+     * place in the ring is this offset modulo the size of the ring.
+     */
+    private long end = 0;
+
+    /**
+     * the lock guarding the ring
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * the pool the payloads of the backlog are taken from
+     */
+    private final PayloadPool pool;
+
+    /**
+     * The messages copied out of the ring for one client
+     */
+    private static final class Backlog {
+
+        /**
+         * the frames of the messages, one after the other
+         */
+        final ByteBuffer frames;
+
+        /**
+         * the length of each frame
+         */
+        final int[] lengths;
+
+        /**
+         * the sequence number of the last message copied, or of the message before the range if none were
+         */
+        final long last;
+
+        Backlog(ByteBuffer frames, int[] lengths, long last){
+            this.frames = frames;
+            this.lengths = lengths;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Creates an empty history that takes its payloads from the shared pool
+     *
+     * @param maxMessages   the most messages kept
+     * @param maxBytes      the size of the ring in bytes
+     * @param offHeap       true to allocate the ring outside the Java heap
+     */
+    public MessageHistory(int maxMessages, int maxBytes, boolean offHeap){
+
+        this(maxMessages, maxBytes, offHeap, PayloadPool.shared());
+    }
+
+    /**
+     * Creates an empty history
+     *
+     * @param maxMessages   the most messages kept
+     * @param maxBytes      the size of the ring in bytes
+     * @param offHeap       true to allocate the ring outside the Java heap
+     * @param pool          the pool the payloads of the backlog are taken from
+     */
+    public MessageHistory(int maxMessages, int maxBytes, boolean offHeap, PayloadPool pool){
+        ring = offHeap ? ByteBuffer.allocateDirect(maxBytes) : ByteBuffer.allocate(maxBytes);
+        starts = new long[maxMessages];
+        lengths = new int[maxMessages];
+        this.pool = pool;
+    }
+
+    /**
+     * Adds a message to the history and returns the clients it should be sent to.  Both are done under the lock, so
+     * a client joining at the same time is either sent the message in its backlog or is in the list returned.
+     *
+     * @param payload   the message being forwarded, the caller keeps its reference
+     * @param clients   the list of clients
+     * @return the clients to send the message to, the array must not be changed
+     */
+    public ClientSession[] add(Payload payload, ClientRegistry clients){
+        lock.lock();
+        try {
+            append(payload);
+            return clients.snapshot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a message to the history without forwarding it, it is used to put back the history from the chat log
+     * when the server starts
+     *
+     * @param payload the message, the caller keeps its reference
+     */
+    public void add(Payload payload){
+        lock.lock();
+        try {
+            append(payload);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the backlog to a client that is joining and adds it to the list of clients.  The backlog is sent before
+     * the client is in the list, so it is written before any live message.  The few messages added while the backlog
+     * was being sent are sent under the lock, together with adding the client to the list.
+     *
+     * @param client    the client joining
+     * @param clients   the list of clients
+     * @return true if the client was added, false if a client with the same ID was already in the list
+     */
+    public boolean join(ClientSession client, ClientRegistry clients){
+        Backlog backlog;
+        lock.lock();
+        try {
+            backlog = copy(oldest);
+        } finally {
+            lock.unlock();
+        }
+        send(client::sendHistory, backlog);
+
+        lock.lock();
+        try {
+            if(!clients.add(client)){
+                return false;
+            }
+            send(client::sendHistory, copy(backlog.last + 1));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands every message kept to an action, oldest first.  The messages are copied out of the ring under the lock
+     * and handed over after it is released.
+     *
+     * @param action what is done with each message, it must take its own reference to keep the payload
+     */
+    public void forEach(Consumer<Payload> action){
+        Backlog backlog;
+        lock.lock();
+        try {
+            backlog = copy(oldest);
+        } finally {
+            lock.unlock();
+        }
+        send(action, backlog);
+    }
+
+    /**
+     * A helper method for add that copies the frame of a message into the ring, dropping the oldest messages to make
+     * room.  The lock must be held.
+     *
+     * @param payload the message being added
+     */
+    private void append(Payload payload){
+        int length = payload.length(true);
+        if(length > ring.capacity()){
+            return;
+        }
+        while(oldest < next && (next - oldest == starts.length
+                || end + length - starts[(int) (oldest % starts.length)] > ring.capacity())){
+            oldest++;
+        }
+        int index = (int) (next % starts.length);
+        starts[index] = end;
+        lengths[index] = length;
+        //the frame may wrap around the end of the ring
+        int position = (int) (end % ring.capacity());
+        int first = Math.min(length, ring.capacity() - position);
+        ring.position(position);
+        payload.copyFrameTo(ring, 0, first);
+        if(first < length){
+            ring.position(0);
+            payload.copyFrameTo(ring, first, length - first);
+        }
+        end += length;
+        next++;
+    }
+
+    /**
+     * A helper method that copies the messages from a sequence number to the newest out of the ring.  The lock must be
+     * held.
+     *
+     * @param from the sequence number of the first message to copy
+     * @return the messages copied
+     */
+    private Backlog copy(long from){
+        from = Math.max(from, oldest);
+        if(from >= next){
+            return new Backlog(null, new int[0], from - 1);
+        }
+        int count = (int) (next - from);
+        int[] frameLengths = new int[count];
+        for(int i = 0; i < count; i++){
+            frameLengths[i] = lengths[(int) ((from + i) % starts.length)];
+        }
+        long start = starts[(int) (from % starts.length)];
+        int total = (int) (end - start);
+        ByteBuffer frames = ByteBuffer.allocate(total);
+        //one copy, or two if the messages wrap around the end of the ring
+        int position = (int) (start % ring.capacity());
+        int first = Math.min(total, ring.capacity() - position);
+        frames.put(0, ring, position, first);
+        if(first < total){
+            frames.put(first, ring, 0, total - first);
+        }
+        return new Backlog(frames, frameLengths, next - 1);
+    }
+
+    /**
+     * A helper method that turns the messages copied out of the ring into payloads and sends them to a client
+     *
+     * @param client    sends a message to the client
+     * @param backlog   the messages copied
+     */
+    private void send(Consumer<Payload> client, Backlog backlog){
+        int offset = 0;
+        for(int length : backlog.lengths){
+            ByteBuffer buf = pool.acquire(length + 1);
+            buf.put(0, backlog.frames, offset, length).position(length);
+            buf.put((byte) '\n').flip();
+            Payload payload = Payload.wrap(buf, pool);
+            client.accept(payload);
+            payload.release();
+            offset += length;
+        }
+    }
+
+    /**
+     * Returns the number of messages kept
+     *
+     * @return the number of messages
+     */
+    public int size(){
+        lock.lock();
+        try {
+            return (int) (next - oldest);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package chatservice;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The messages waiting to be written to one client.  Forwarding a message to a client only adds it to the client's
+ * queue, and the writer of that client takes it off the queue and writes it.  A client that is slow to read only
+ * fills up its own queue instead of holding up the thread forwarding the message.  The queue has a fixed size, a
+ * message that does not fit is dropped.  The queue of a client of the server can be given a slow consumer policy,
+ * which picks what happens once a threshold of waiting messages is passed: the new message is dropped, the oldest
+ * one is dropped, or the client is disconnected.  The history a client is sent when it joins a room is added with
+ * offerHistory and does not count towards the threshold, so a client is not taken for slow while it is sent the
+ * burst of its own backlog.
+ *
+ * The queue holds a reference to every payload in it.  A payload taken off the queue must be released by the writer
+ * once it has been written, and payloads thrown away by the queue are released by the queue.
+ *
+ * The queue also keeps the numbers that show how far behind its client is.
+ *
+ */
+public class OutboundQueue {
+
+    /**
+     * the messages waiting to be written, used as a ring
+     */
+    private final Payload[] messages;
+
+    /**
+     * the index of the oldest message
+     */
+    private int head = 0;
+
+    /**
+     * the number of messages waiting
+     */
+    private int count = 0;
+
+    /**
+     * true once the client is gone and no more messages are taken
+     */
+    private boolean closed = false;
+
+    /**
+     * the lock guarding the ring
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * signalled when a message is added or the queue is closed
+     */
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * what is done once too many messages are waiting, or null to drop new messages once the queue is full
+     */
+    private final SlowConsumerPolicy policy;
+
+    /**
+     * the client told when a message is thrown away or it has to be disconnected, or null if there is none
+     */
+    private final ClientSession client;
+
+    /**
+     * the most messages that can be waiting before the policy is applied
+     */
+    private final int threshold;
+
+    /**
+     * true once the client is being disconnected by the policy, guarded by the lock
+     */
+    private boolean disconnecting = false;
+
+    /**
+     * the number of history messages still waiting, they are at the front of the queue and do not count towards the
+     * threshold.  It is guarded by the lock.
+     */
+    private int history = 0;
+
+    /**
+     * the most messages that have been waiting at once
+     */
+    private volatile int maxDepth = 0;
+
+    /**
+     * the number of messages added to the queue
+     */
+    private volatile long enqueued = 0;
+
+    /**
+     * the number of messages taken off the queue by the writer
+     */
+    private volatile long dequeued = 0;
+
+    /**
+     * the number of messages dropped because the queue was full
+     */
+    private volatile long dropped = 0;
+
+    /**
+     * the number of waiting messages thrown away to make room for newer ones
+     */
+    private volatile long evicted = 0;
+
+    /**
+     * Creates an empty queue that drops new messages once it is full
+     *
+     * @param capacity the most messages that can be waiting at once
+     */
+    public OutboundQueue(int capacity){
+
+        this(capacity, null, null);
+    }
+
+    /**
+     * Creates an empty queue for a client of the server
+     *
+     * @param capacity  the most messages that can be waiting at once
+     * @param policy    what is done once too many messages are waiting, or null to drop new messages once full
+     * @param client    the client the messages are for, told when a message is thrown away or it is disconnected
+     */
+    public OutboundQueue(int capacity, SlowConsumerPolicy policy, ClientSession client){
+        messages = new Payload[capacity];
+        this.policy = policy;
+        this.client = client;
+        threshold = policy != null ? policy.thresholdFor(capacity) : capacity;
+    }
+
+    /**
+     * Adds a message to the end of the queue without waiting.  The message is dropped if the queue is closed.  If
+     * the threshold of waiting messages is reached, the policy of the queue is applied: the message is dropped, the
+     * oldest message is thrown away to make room for it, or the client is disconnected.  The queue keeps a reference
+     * to the message only if it was added.
+     *
+     * @param message the message being sent
+     * @return true if the message was added, false if it was dropped
+     */
+    public boolean offer(Payload message){
+        boolean disconnect = false;
+        lock.lock();
+        try {
+            if(closed){
+                return false;
+            }
+            if(count - history >= threshold || count == messages.length){
+                int action = policy != null ? policy.getAction() : SlowConsumerPolicy.dropNewest;
+                if(count - history < threshold && action == SlowConsumerPolicy.disconnect){
+                    //the queue is only full of history, the client has not fallen behind yet
+                    action = SlowConsumerPolicy.dropNewest;
+                }
+                if(action != SlowConsumerPolicy.dropOldest){
+                    dropped++;
+                    if(action == SlowConsumerPolicy.dropNewest){
+                        policy(action);
+                        return false;
+                    }
+                    //the client is disconnected once, outside the lock
+                    disconnect = !disconnecting;
+                    disconnecting = true;
+                    return false;
+                }
+                Payload oldest = messages[head];
+                messages[head] = null;
+                head = (head + 1) % messages.length;
+                count--;
+                if(history > 0){
+                    history--;
+                }
+                evicted++;
+                policy(action);
+                if(client != null){
+                    client.evicted(oldest);
+                }
+                oldest.release();
+            }
+            messages[(head + count) % messages.length] = message.retain();
+            count++;
+            enqueued++;
+            if(count > maxDepth){
+                maxDepth = count;
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+            if(disconnect){
+                policy(SlowConsumerPolicy.disconnect);
+                if(client != null){
+                    client.disconnect("More than " + threshold + " messages were waiting to be sent to you.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a message from the history of a room to the end of the queue without waiting.  History messages are sent
+     * in a burst when the client joins, so they are not held to the threshold of the policy and only dropped if the
+     * queue is full or closed.  The queue keeps a reference to the message only if it was added.
+     *
+     * @param message the message from the history
+     * @return true if the message was added, false if it was dropped
+     */
+    public boolean offerHistory(Payload message){
+        lock.lock();
+        try {
+            if(closed){
+                return false;
+            }
+            if(count == messages.length){
+                dropped++;
+                return false;
+            }
+            messages[(head + count) % messages.length] = message.retain();
+            count++;
+            history++;
+            enqueued++;
+            if(count > maxDepth){
+                maxDepth = count;
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A helper method for offer that counts an action of the policy
+     *
+     * @param action the action taken
+     */
+    private void policy(int action){
+        if(policy != null){
+            policy.taken(action);
+        }
+    }
+
+    /**
+     * Takes the oldest message off the queue, waiting for one if the queue is empty
+     *
+     * @return the message, or null once the queue is closed
+     * @throws InterruptedException if the writer is interrupted while waiting
+     */
+    public Payload take() throws InterruptedException {
+        lock.lock();
+        try {
+            while(count == 0 && !closed){
+                notEmpty.await();
+            }
+            return closed ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the oldest message off the queue without waiting
+     *
+     * @return the message, or null if the queue is empty or closed
+     */
+    public Payload poll(){
+        lock.lock();
+        try {
+            return (count == 0 || closed) ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the oldest message off the queue, waiting up to the given time for one if the queue is empty
+     *
+     * @param timeout the longest time to wait, in nanoseconds
+     * @return the message, or null if none was added in time or the queue is closed
+     * @throws InterruptedException if the writer is interrupted while waiting
+     */
+    public Payload poll(long timeout) throws InterruptedException {
+        lock.lock();
+        try {
+            long left = timeout;
+            while(count == 0 && !closed && left > 0){
+                left = notEmpty.awaitNanos(left);
+            }
+            return (count == 0 || closed) ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A helper method to take the oldest message off the ring.  The lock must be held.
+     *
+     * @return the oldest message
+     */
+    private Payload removeFirst(){
+        Payload message = messages[head];
+        messages[head] = null;
+        head = (head + 1) % messages.length;
+        count--;
+        if(history > 0){
+            history--;
+        }
+        dequeued++;
+        return message;
+    }
+
+    /**
+     * Closes the queue.  The waiting messages are released and a writer waiting in take is woken up.
+     */
+    public void close(){
+        lock.lock();
+        try {
+            closed = true;
+            for(int i = 0; i < count; i++){
+                int index = (head + i) % messages.length;
+                messages[index].release();
+                messages[index] = null;
+            }
+            count = 0;
+            history = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if there are no messages waiting
+     *
+     * @return true if the queue is empty
+     */
+    public boolean isEmpty(){
+
+        return depth() == 0;
+    }
+
+    /**
+     * Returns the number of messages waiting
+     *
+     * @return the number of messages waiting
+     */
+    public int depth(){
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the most messages that can be waiting at once
+     *
+     * @return the capacity of the queue
+     */
+    public int capacity(){
+
+        return messages.length;
+    }
+
+    /**
+     * Returns the most messages that have been waiting at once
+     *
+     * @return the highest depth of the queue
+     */
+    public int getMaxDepth(){
+
+        return maxDepth;
+    }
+
+    /**
+     * Returns the number of messages added to the queue
+     *
+     * @return the number of messages added
+     */
+    public long getEnqueued(){
+
+        return enqueued;
+    }
+
+    /**
+     * Returns the number of messages taken off the queue to be written
+     *
+     * @return the number of messages taken
+     */
+    public long getDequeued(){
+
+        return dequeued;
+    }
+
+    /**
+     * Returns the number of messages dropped because the queue was full
+     *
+     * @return the number of messages dropped
+     */
+    public long getDropped(){
+
+        return dropped;
+    }
+
+    /**
+     * Returns the number of waiting messages thrown away to make room for newer ones
+     *
+     * @return the number of messages thrown away
+     */
+    public long getEvicted(){
+
+        return evicted;
+    }
+
+    /**
+     * Returns one line describing how far behind the client of this queue is
+     *
+     * @return the queue numbers as text
+     */
+    public String describe(){
+
+        return "queued " + depth() + "/" + capacity() + ", max " + maxDepth + ", sent " + dequeued
+                + ", dropped " + dropped + (evicted > 0 ? ", evicted " + evicted : "");
+    }
+}
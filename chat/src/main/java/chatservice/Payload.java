@@ -0,0 +1,279 @@
+package chatservice;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A message that is being forwarded to the clients.  The message is turned into bytes once, with the frame header in
+ * front of it and the newline that ends it for TCP/IP clients behind it, and every client is sent the same bytes.
+ * Text clients are sent the message and newline, framed clients the header and message, and UDP clients only the
+ * message.  The bytes are never changed after they are written, so any number of writers can copy them at once.
+ *
+ * The bytes are held in a pooled direct buffer.  Every client queue holding the message keeps a reference to it, and
+ * the buffer goes back to the pool when the last reference is released.
+ *
+ */
+public final class Payload {
+
+    /**
+     * the characters used to turn messages into bytes, the same as the PrintWriter the server used before
+     */
+    private static final Charset charset = Charset.defaultCharset();
+
+    /**
+     * the frame header, the message and its newline, from index 0 to the limit
+     */
+    private final ByteBuffer data;
+
+    /**
+     * the pool the buffer goes back to
+     */
+    private final PayloadPool pool;
+
+    /**
+     * the number of references still held
+     */
+    private volatile int refs = 1;
+
+    /**
+     * the chat room the message is forwarded in, or null for a message to every client.  It is set before the
+     * payload is handed to other threads and not changed after.
+     */
+    private Room room = null;
+
+    /**
+     * updates the reference count in place, so a payload is one object instead of two
+     */
+    private static final AtomicIntegerFieldUpdater<Payload> refsUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(Payload.class, "refs");
+
+    /**
+     * Creates a payload around bytes that have already been written
+     *
+     * @param data  the flipped buffer holding the frame header, the message and its newline
+     * @param pool  the pool the buffer goes back to
+     */
+    private Payload(ByteBuffer data, PayloadPool pool){
+        this.data = data;
+        this.pool = pool;
+    }
+
+    /**
+     * Turns a message from the server itself into a payload using the shared pool.  The caller holds the only
+     * reference and must release it once the message has been handed to every client.
+     *
+     * @param message the message being sent
+     * @return the payload
+     */
+    public static Payload encode(String message){
+
+        return encode(FrameProtocol.control, 0, message, PayloadPool.shared());
+    }
+
+    /**
+     * Turns a message from a client into a payload using the shared pool.  The caller holds the only reference and
+     * must release it once the message has been handed to every client.
+     *
+     * @param type      the frame type framed clients are sent
+     * @param senderID  the ID of the client that sent the message, 0 for the server
+     * @param message   the message being sent
+     * @return the payload
+     */
+    public static Payload encode(byte type, int senderID, String message){
+
+        return encode(type, senderID, message, PayloadPool.shared());
+    }
+
+    /**
+     * Turns a message into a payload.  The caller holds the only reference and must release it once the message has
+     * been handed to every client.
+     *
+     * @param type      the frame type framed clients are sent
+     * @param senderID  the ID of the client that sent the message, 0 for the server
+     * @param message   the message being sent
+     * @param pool      the pool to take the buffer from
+     * @return the payload
+     */
+    public static Payload encode(byte type, int senderID, String message, PayloadPool pool){
+        byte[] bytes = message.getBytes(charset);
+        ByteBuffer buf = pool.acquire(FrameProtocol.headerSize + bytes.length + 1);
+        FrameProtocol.putHeader(buf, type, senderID, bytes.length);
+        buf.put(bytes).put((byte) '\n').flip();
+        return new Payload(buf, pool);
+    }
+
+    /**
+     * Wraps a buffer that has already been written in a payload.  The caller holds the only reference and must
+     * release it once the message has been handed to every client.
+     *
+     * @param data  the flipped buffer taken from the pool, holding the frame header, the message and its newline
+     * @param pool  the pool the buffer goes back to
+     * @return the payload
+     */
+    static Payload wrap(ByteBuffer data, PayloadPool pool){
+
+        return new Payload(data, pool);
+    }
+
+    /**
+     * Adds a reference to the payload, it is called for every client queue the payload is added to
+     *
+     * @return this payload
+     */
+    public Payload retain(){
+        if(refsUpdater.getAndIncrement(this) <= 0){
+            throw new IllegalStateException("The payload was already released.");
+        }
+        return this;
+    }
+
+    /**
+     * Releases a reference to the payload.  The buffer goes back to the pool when the last reference is released.
+     */
+    public void release(){
+        int left = refsUpdater.decrementAndGet(this);
+        if(left == 0){
+            pool.release(data);
+        }else if(left < 0){
+            throw new IllegalStateException("The payload was released too many times.");
+        }
+    }
+
+    /**
+     * Returns the frame type of the message.  The writer of a TCP/IP client switches to frames once it reaches the
+     * ack, so every message queued before the ack is written as a line of text.
+     *
+     * @return the type framed clients are sent
+     */
+    public byte type(){
+
+        return data.get(FrameProtocol.lengthSize);
+    }
+
+    /**
+     * Returns the number of bytes sent to a text TCP/IP client, which includes the newline
+     *
+     * @return the length of the message and its newline
+     */
+    public int length(){
+
+        return data.limit() - FrameProtocol.headerSize;
+    }
+
+    /**
+     * Returns the number of bytes sent to a TCP/IP client
+     *
+     * @param framed true if the client uses the framed protocol
+     * @return the length of the frame, or of the message and its newline
+     */
+    public int length(boolean framed){
+
+        return framed ? data.limit() - 1 : length();
+    }
+
+    /**
+     * Returns the number of bytes sent to a UDP client, which does not include the newline
+     *
+     * @return the length of the message
+     */
+    public int datagramLength(){
+
+        return data.limit() - FrameProtocol.headerSize - 1;
+    }
+
+    /**
+     * Copies the message and its newline to the position of a buffer and moves the position past it
+     *
+     * @param dst the buffer to copy to, it must have room for length() bytes
+     */
+    public void copyTo(ByteBuffer dst){
+
+        copyTo(dst, false);
+    }
+
+    /**
+     * Copies the bytes a TCP/IP client is sent to the position of a buffer and moves the position past them
+     *
+     * @param dst       the buffer to copy to, it must have room for length(framed) bytes
+     * @param framed    true to copy the frame, false to copy the message and its newline
+     */
+    public void copyTo(ByteBuffer dst, boolean framed){
+        int length = length(framed);
+        dst.put(dst.position(), data, framed ? 0 : FrameProtocol.headerSize, length);
+        dst.position(dst.position() + length);
+    }
+
+    /**
+     * Copies the message without its newline to the position of a buffer and moves the position past it
+     *
+     * @param dst the buffer to copy to, it must have room for datagramLength() bytes
+     */
+    public void copyDatagramTo(ByteBuffer dst){
+        int length = datagramLength();
+        dst.put(dst.position(), data, FrameProtocol.headerSize, length);
+        dst.position(dst.position() + length);
+    }
+
+    /**
+     * Copies part of the message to the position of a buffer and moves the position past it.  It is used to split a
+     * message too long for one UDP packet.
+     *
+     * @param dst       the buffer to copy to, it must have room for length bytes
+     * @param offset    the index in the message of the first byte to copy
+     * @param length    the number of bytes to copy
+     */
+    public void copyDatagramTo(ByteBuffer dst, int offset, int length){
+        dst.put(dst.position(), data, FrameProtocol.headerSize + offset, length);
+        dst.position(dst.position() + length);
+    }
+
+    /**
+     * Copies part of the frame to the position of a buffer and moves the position past it.  It is used to copy a
+     * frame into the message history, where it may wrap around the end of the ring.
+     *
+     * @param dst       the buffer to copy to, it must have room for length bytes
+     * @param offset    the index in the frame of the first byte to copy
+     * @param length    the number of bytes to copy
+     */
+    public void copyFrameTo(ByteBuffer dst, int offset, int length){
+        dst.put(dst.position(), data, offset, length);
+        dst.position(dst.position() + length);
+    }
+
+    /**
+     * Returns a new read only view of the bytes a TCP/IP client is sent.  It is used for messages too big to copy.
+     *
+     * @param framed true for a view of the frame, false for a view of the message and its newline
+     * @return the view of the bytes
+     */
+    public ByteBuffer view(boolean framed){
+        ByteBuffer view = data.asReadOnlyBuffer();
+        if(framed){
+            view.limit(view.limit() - 1);
+        }else{
+            view.position(FrameProtocol.headerSize);
+        }
+        return view;
+    }
+
+    /**
+     * Returns the chat room the message is forwarded in
+     *
+     * @return the room, or null for a message to every client
+     */
+    public Room getRoom(){
+
+        return room;
+    }
+
+    /**
+     * Sets the chat room the message is forwarded in.  This is only called before the payload is forwarded.
+     *
+     * @param room the room
+     */
+    public void setRoom(Room room){
+
+        this.room = room;
+    }
+}
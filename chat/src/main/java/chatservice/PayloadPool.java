@@ -0,0 +1,147 @@
+package chatservice;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pool of buffers for the messages forwarded to the clients.  Buffers are kept in size classes that are powers of
+ * two, so a message is given the smallest pooled buffer it fits in.  When the last client has been sent a message its
+ * buffer goes back to the pool, so forwarding messages does not keep allocating new buffers.  Messages larger than the
+ * biggest size class get a buffer of their own that is not pooled.
+ *
+ * The shared pool holds direct buffers that are written to the sockets.  The receiving pool holds heap buffers that
+ * long UDP messages are put back together in before they are turned into text.
+ *
+ */
+public class PayloadPool {
+
+    /**
+     * the size of the smallest size class, as a power of two
+     */
+    private static final int minShift = 8;
+
+    /**
+     * the size of the biggest size class, as a power of two
+     */
+    private static final int maxShift = 16;
+
+    /**
+     * the most free buffers kept in each size class
+     */
+    private static final int maxFreePerClass = 256;
+
+    /**
+     * the pool used by the server
+     */
+    private static final PayloadPool shared = new PayloadPool(true);
+
+    /**
+     * the pool used for messages being received
+     */
+    private static final PayloadPool receiving = new PayloadPool(false);
+
+    /**
+     * true if the pool holds direct buffers, false for heap buffers
+     */
+    private final boolean direct;
+
+    /**
+     * the free buffers of each size class
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayBlockingQueue<ByteBuffer>[] free = new ArrayBlockingQueue[maxShift - minShift + 1];
+
+    /**
+     * Creates an empty pool of direct buffers
+     */
+    public PayloadPool(){
+
+        this(true);
+    }
+
+    /**
+     * Creates an empty pool
+     *
+     * @param direct true for a pool of direct buffers, false for heap buffers
+     */
+    public PayloadPool(boolean direct){
+        this.direct = direct;
+        for(int i = 0; i < free.length; i++){
+            free[i] = new ArrayBlockingQueue<>(maxFreePerClass);
+        }
+    }
+
+    /**
+     * Returns the pool used by the server
+     *
+     * @return the shared pool
+     */
+    public static PayloadPool shared(){
+
+        return shared;
+    }
+
+    /**
+     * Returns the pool of heap buffers used for messages being received
+     *
+     * @return the receiving pool
+     */
+    public static PayloadPool receiving(){
+
+        return receiving;
+    }
+
+    /**
+     * Returns an empty buffer that can hold at least the given number of bytes
+     *
+     * @param size the number of bytes needed
+     * @return the cleared buffer
+     */
+    public ByteBuffer acquire(int size){
+        int sizeClass = sizeClass(size);
+        if(sizeClass < 0){
+            return allocate(size);
+        }
+        ByteBuffer buf = free[sizeClass].poll();
+        if(buf == null){
+            buf = allocate(1 << (sizeClass + minShift));
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Gives a buffer back to the pool.  Buffers that are not the size of a size class, or that do not fit in a full
+     * size class, are left to the garbage collector.
+     *
+     * @param buf the buffer that is no longer used
+     */
+    public void release(ByteBuffer buf){
+        int sizeClass = sizeClass(buf.capacity());
+        if(sizeClass >= 0 && buf.capacity() == 1 << (sizeClass + minShift)){
+            free[sizeClass].offer(buf);
+        }
+    }
+
+    /**
+     * A helper method that creates a new buffer of the kind this pool holds
+     *
+     * @param capacity the size of the buffer
+     * @return the new buffer
+     */
+    private ByteBuffer allocate(int capacity){
+
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * A helper method that returns the size class a number of bytes fits in
+     *
+     * @param size the number of bytes
+     * @return the index of the size class, or -1 if the size is bigger than every size class
+     */
+    private static int sizeClass(int size){
+        int shift = Math.max(minShift, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+        return shift > maxShift ? -1 : shift - minShift;
+    }
+}
@@ -0,0 +1,351 @@
+package chatservice;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The link from this server to another server of the cluster.  The link is one TCP/IP connection that this thread
+ * keeps open, connecting again with a growing wait whenever it fails.  Relaying a message only adds it to the queue of
+ * the link, the same kind of queue every client has, and this thread writes everything waiting in one go.  Messages
+ * relayed while the other server is down wait in the queue until it is back, or are dropped and counted once the
+ * queue is full.
+ *
+ * Each connection starts with the preface of the framed protocol and a peer frame telling the other server who this
+ * server is, and the other server answers with its own peer frame, which tells the cluster the other server can be
+ * sent frames.  After that this thread sends room frames, and the other server answers with the sequence number of
+ * the last one it took.  A frame is kept after it is written until it is answered, and the frames not answered are written
+ * again first when the link connects again, so a message written just before the connection failed is not lost.  The
+ * other server drops any frame it already took.
+ *
+ */
+public class PeerLink extends Thread {
+
+    /**
+     * the most messages that can be waiting for the other server, and the most kept until they are answered
+     */
+    private static final int queueSize = 64 * 1024;
+
+    /**
+     * the size of the buffer the waiting messages are copied into before they are written
+     */
+    private static final int writeBufferSize = 64 * 1024;
+
+    /**
+     * the time in milliseconds waited before connecting again the first time a connection fails
+     */
+    private static final int minRetryWait = 100;
+
+    /**
+     * the longest time in milliseconds waited before connecting again
+     */
+    private static final int maxRetryWait = 5000;
+
+    /**
+     * the number of bytes of the answer frame, the header and a sequence number
+     */
+    private static final int ackSize = FrameProtocol.headerSize + 8;
+
+    /**
+     * the cluster port of the other server, looked up each time it is connected to
+     */
+    private final InetSocketAddress peer;
+
+    /**
+     * the cluster this server is in, told when the other server answers and when the connection fails
+     */
+    private final Cluster cluster;
+
+    /**
+     * the event log of the server, the link starting and failing is logged to it
+     */
+    private final ServerEvents events;
+
+    /**
+     * the node ID of the other server, 0 until it first answered
+     */
+    private volatile int peerID = 0;
+
+    /**
+     * the room frames waiting to be written
+     */
+    private final OutboundQueue queue = new OutboundQueue(queueSize);
+
+    /**
+     * the room frames written but not answered yet, oldest first, only used by this thread
+     */
+    private final ArrayDeque<Payload> unacked = new ArrayDeque<>();
+
+    /**
+     * the sequence number of the last frame the other server answered
+     */
+    private volatile long acked = 0;
+
+    /**
+     * the connection to the other server, or null while it is not connected
+     */
+    private volatile SocketChannel channel = null;
+
+    /**
+     * true once the link is closing
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * the number of times the link has connected
+     */
+    private volatile int connections = 0;
+
+    /**
+     * the number of frames written again after the link connected again
+     */
+    private volatile long resent = 0;
+
+    /**
+     * the number of frames dropped before they were answered because too many were waiting for an answer
+     */
+    private volatile long unackedDropped = 0;
+
+    /**
+     * Creates a link to another server of the cluster, the thread is not started
+     *
+     * @param peer      the cluster port of the other server
+     * @param cluster   the cluster this server is in
+     * @param events    the event log of the server
+     */
+    public PeerLink(InetSocketAddress peer, Cluster cluster, ServerEvents events){
+        super("peer-link-" + peer.getHostString() + ":" + peer.getPort());
+        this.peer = peer;
+        this.cluster = cluster;
+        this.events = events;
+        setDaemon(true);
+    }
+
+    /**
+     * Adds a room frame to the queue of the link.  This can be called from any thread and never waits.
+     *
+     * @param frame the room frame, the caller keeps its reference
+     */
+    public void send(Payload frame){
+
+        queue.offer(frame);
+    }
+
+    /**
+     * Returns the queue of frames waiting to be written
+     *
+     * @return the queue of the link
+     */
+    public OutboundQueue getOutboundQueue(){
+
+        return queue;
+    }
+
+    /**
+     * Connects to the other server and writes the waiting frames, connecting again whenever the connection fails,
+     * until the link is closed
+     */
+    public void run(){
+        ByteBuffer writeBuffer = ByteBuffer.allocateDirect(writeBufferSize);
+        int retryWait = minRetryWait;
+        while(!closed){
+            try (SocketChannel open = SocketChannel.open(
+                    new InetSocketAddress(peer.getHostString(), peer.getPort()))) {
+                open.socket().setTcpNoDelay(true);
+                channel = open;
+                connections++;
+                retryWait = minRetryWait;
+                events.log("Linked to cluster peer " + peer.getHostString() + ":" + peer.getPort() + ".");
+                Thread ackReader = new Thread(() -> readAcks(open), getName() + "-acks");
+                ackReader.setDaemon(true);
+                ackReader.start();
+                writeBuffer.clear();
+                writeBuffer.put(new byte[]{FrameProtocol.marker, 'C', 'H', FrameProtocol.version});
+                FrameProtocol.putHeader(writeBuffer, FrameProtocol.peer, cluster.getNodeID(), 8);
+                writeBuffer.putLong(cluster.getStartTime());
+                resend(open, writeBuffer);
+                writeFrames(open, writeBuffer);
+            } catch (IOException e) {
+                if(channel != null && !closed){
+                    events.log("Error: The link to cluster peer " + peer.getHostString() + ":" + peer.getPort()
+                            + " failed, connecting again.");
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            channel = null;
+            if(closed){
+                return;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(retryWait);
+            } catch (InterruptedException e) {
+                return;
+            }
+            retryWait = Math.min(maxRetryWait, retryWait * 2);
+        }
+    }
+
+    /**
+     * A helper method for run that writes the frames that were not answered on the last connection again, after the
+     * peer frame already in the write buffer
+     *
+     * @param open          the connection
+     * @param writeBuffer   the buffer the frames are copied into
+     * @throws IOException if the connection failed
+     */
+    private void resend(SocketChannel open, ByteBuffer writeBuffer) throws IOException {
+        trimAcked();
+        for(Payload frame : unacked){
+            copy(open, writeBuffer, frame);
+            resent++;
+        }
+        writeFully(open, writeBuffer);
+    }
+
+    /**
+     * A helper method for run that writes the waiting frames until the connection fails or the link is closed.  All
+     * the frames that are waiting are copied into the write buffer and written together, and kept until they are
+     * answered.
+     *
+     * @param open          the connection
+     * @param writeBuffer   the buffer the frames are copied into
+     * @throws IOException if the connection failed
+     * @throws InterruptedException if the server is shutting down
+     */
+    private void writeFrames(SocketChannel open, ByteBuffer writeBuffer) throws IOException, InterruptedException {
+        Payload frame;
+        while((frame = queue.take()) != null){
+            trimAcked();
+            do {
+                if(unacked.size() == queueSize){
+                    unacked.poll().release();
+                    unackedDropped++;
+                }
+                //the queue's reference moves to the frames waiting for an answer
+                unacked.add(frame);
+                copy(open, writeBuffer, frame);
+            } while((frame = queue.poll()) != null);
+            writeFully(open, writeBuffer);
+        }
+    }
+
+    /**
+     * A helper method that copies a frame into the write buffer, writing the buffer first if the frame does not fit
+     *
+     * @param open          the connection
+     * @param writeBuffer   the buffer the frames are copied into
+     * @param frame         the frame
+     * @throws IOException if the connection failed
+     */
+    private void copy(SocketChannel open, ByteBuffer writeBuffer, Payload frame) throws IOException {
+        if(frame.length(true) > writeBuffer.remaining()){
+            writeFully(open, writeBuffer);
+        }
+        if(frame.length(true) > writeBuffer.capacity()){
+            //too big for the write buffer, so write it straight from the shared bytes
+            ByteBuffer view = frame.view(true);
+            while(view.hasRemaining()){
+                open.write(view);
+            }
+        }else{
+            frame.copyTo(writeBuffer, true);
+        }
+    }
+
+    /**
+     * A helper method that lets go of the frames the other server has answered
+     */
+    private void trimAcked(){
+        long last = acked;
+        while(!unacked.isEmpty() && unacked.peek().view(true).getLong(FrameProtocol.headerSize) <= last){
+            unacked.poll().release();
+        }
+    }
+
+    /**
+     * A helper method that writes everything in the write buffer
+     *
+     * @param open          the connection
+     * @param writeBuffer   the buffer holding the bytes to write, it is cleared afterwards
+     * @throws IOException if the connection failed
+     */
+    private void writeFully(SocketChannel open, ByteBuffer writeBuffer) throws IOException {
+        writeBuffer.flip();
+        while(writeBuffer.hasRemaining()){
+            open.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Reads the answers of the other server on its own thread until the connection ends.  The first answer is the
+     * peer frame of the other server, and the cluster is told the link is up then and down again when the connection
+     * ends.  The connection is closed when the other server closes it, so the writer finds out the next time it
+     * writes instead of writing into a connection nobody reads.
+     *
+     * @param open the connection
+     */
+    private void readAcks(SocketChannel open){
+        ByteBuffer ack = ByteBuffer.allocate(ackSize);
+        boolean up = false;
+        try {
+            while(true){
+                ack.clear();
+                while(ack.hasRemaining()){
+                    if(open.read(ack) < 0){
+                        throw new IOException("The peer closed the link.");
+                    }
+                }
+                byte type = ack.get(FrameProtocol.lengthSize);
+                if(type == FrameProtocol.relayAck){
+                    acked = Math.max(acked, ack.getLong(FrameProtocol.headerSize));
+                }else if(type == FrameProtocol.peer && !up){
+                    peerID = ack.getInt(FrameProtocol.lengthSize + 1);
+                    up = true;
+                    cluster.linkUp(peerID, this);
+                }
+            }
+        } catch (IOException e) {
+            try {
+                open.close();
+            } catch (IOException closing) {
+                System.err.println("Error closing the link to a cluster peer");
+            }
+        }
+        if(up){
+            cluster.linkDown(peerID);
+        }
+    }
+
+    /**
+     * Returns one line describing the link
+     *
+     * @return the link numbers as text
+     */
+    public String describe(){
+        return "Peer " + peer.getHostString() + ":" + peer.getPort() + (peerID != 0 ? " node " + peerID : "")
+                + (channel != null ? " connected" : " not connected") + ", " + connections + " connections, "
+                + resent + " resent, " + unackedDropped + " dropped unanswered: " + queue.describe();
+    }
+
+    /**
+     * Closes the link, the frames still waiting are dropped
+     */
+    public void close(){
+        closed = true;
+        queue.close();
+        SocketChannel open = channel;
+        if(open != null){
+            try {
+                open.close();
+            } catch (IOException e) {
+                System.err.println("Error closing the link to a cluster peer");
+            }
+        }
+        interrupt();
+    }
+}
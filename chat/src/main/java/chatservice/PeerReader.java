@@ -0,0 +1,95 @@
+package chatservice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the link another server of the cluster keeps to this server.  The link starts with the preface of the framed
+ * protocol and a peer frame saying which server it comes from, which is answered with the peer frame of this server,
+ * and then carries room frames, which are handed to the cluster.  Once every frame that has arrived is handled, the
+ * other server is answered with the sequence number of the last one, so it can let go of them.  The thread stops when
+ * the other server closes the link.
+ *
+ */
+public class PeerReader extends Thread {
+
+    /**
+     * the connection from the other server
+     */
+    private final Socket socket;
+
+    /**
+     * the cluster the room frames are handed to
+     */
+    private final Cluster cluster;
+
+    /**
+     * the event log of the server, the link starting and ending is logged to it
+     */
+    private final ServerEvents events;
+
+    /**
+     * Creates a reader for a link that was accepted, the thread is not started
+     *
+     * @param socket    the connection from the other server
+     * @param cluster   the cluster the room frames are handed to
+     * @param events    the event log of the server
+     */
+    public PeerReader(Socket socket, Cluster cluster, ServerEvents events){
+        super("peer-reader-" + socket.getInetAddress().getHostAddress() + ":" + socket.getPort());
+        this.socket = socket;
+        this.cluster = cluster;
+        this.events = events;
+        setDaemon(true);
+    }
+
+    /**
+     * Reads the peer frame and then the room frames until the link is closed
+     */
+    public void run(){
+        int origin = 0;
+        try (Socket open = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(open.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(open.getOutputStream()));
+            byte[] preface = new byte[FrameProtocol.prefaceSize];
+            in.readFully(preface);
+            FrameProtocol.Frame hello = FrameProtocol.readFrame(in);
+            if(FrameProtocol.readPreface(preface, 0) < 1 || hello.type != FrameProtocol.peer
+                    || hello.body.length != 8){
+                events.log("Error: " + open.getInetAddress() + " connected to the cluster port but is not a server.");
+                return;
+            }
+            origin = hello.senderID;
+            cluster.peerUp(origin);
+            long startTime = ByteBuffer.wrap(hello.body).getLong();
+            FrameProtocol.writeFrame(out, FrameProtocol.peer, cluster.getNodeID(),
+                    ByteBuffer.allocate(8).putLong(cluster.getStartTime()).array());
+            out.flush();
+            events.log("Cluster peer " + origin + " linked from " + open.getInetAddress().getHostAddress() + ".");
+            while(true){
+                FrameProtocol.Frame frame = FrameProtocol.readFrame(in);
+                if(frame.type >= FrameProtocol.relay && frame.type != FrameProtocol.relayAck
+                        && frame.body.length >= 8){
+                    cluster.receive(origin, startTime, frame.type, frame.body);
+                    long last = ByteBuffer.wrap(frame.body).getLong();
+                    //answer once the frames that arrived together are handled, not after every one
+                    if(in.available() == 0){
+                        FrameProtocol.writeFrame(out, FrameProtocol.relayAck, cluster.getNodeID(),
+                                ByteBuffer.allocate(8).putLong(last).array());
+                        out.flush();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if(origin != 0){
+                events.log("Cluster peer " + origin + " closed its link.");
+                cluster.peerDown(origin);
+            }
+        }
+    }
+}
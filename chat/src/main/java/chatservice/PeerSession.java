@@ -0,0 +1,146 @@
+package chatservice;
+
+import java.net.InetAddress;
+
+/**
+ * Another server of the cluster following a room this server owns.  The owner adds one of these to the room for each
+ * server with clients in the room, so a message forwarded in the room is handed to it like to any client, and it
+ * relays the message over the link to that server instead of queueing it for a connection of its own.  The messages
+ * of the history sent to it when it joins have no room set, and are sent as backlog frames so the other server does
+ * not log them again.
+ *
+ * It is only in a room, never in the client list, so it is not sent messages for every client and not listed with
+ * the queues of the clients.
+ *
+ */
+public class PeerSession implements ClientSession {
+
+    /**
+     * the cluster the messages are relayed through
+     */
+    private final Cluster cluster;
+
+    /**
+     * the link to the other server
+     */
+    private final PeerLink link;
+
+    /**
+     * the node ID of the other server
+     */
+    private final int nodeID;
+
+    /**
+     * the bytes of the name of the room the other server follows
+     */
+    private final byte[] roomName;
+
+    /**
+     * the chat room the other server follows here
+     */
+    private volatile Room room = null;
+
+    /**
+     * Creates the member standing for another server in a room, it is not in the room yet
+     *
+     * @param cluster   the cluster the messages are relayed through
+     * @param link      the link to the other server
+     * @param nodeID    the node ID of the other server
+     * @param roomName  the bytes of the name of the room
+     */
+    public PeerSession(Cluster cluster, PeerLink link, int nodeID, byte[] roomName){
+        this.cluster = cluster;
+        this.link = link;
+        this.nodeID = nodeID;
+        this.roomName = roomName;
+    }
+
+    /**
+     * Relays a message to the other server.  This never waits, the message is only queued on the link.
+     *
+     * @param message the message being sent
+     */
+    public void send(Payload message){
+        byte type = message.getRoom() != null ? FrameProtocol.relay : FrameProtocol.backlog;
+        cluster.send(link, type, roomName, message, -1);
+    }
+
+    /**
+     * Does nothing, the link to the other server has its own queue and is closed by the cluster when it fails
+     *
+     * @param reason why the member would be disconnected
+     */
+    public void disconnect(String reason){
+    }
+
+    /**
+     * Returns the node ID of the other server
+     *
+     * @return the node ID
+     */
+    public int getNodeID(){
+
+        return nodeID;
+    }
+
+    /**
+     * Returns the identifier of the member in its room, the node ID of the other server made negative so it is never
+     * the same as the ID of a client
+     *
+     * @return the member ID
+     */
+    public int getClientID(){
+
+        return -nodeID;
+    }
+
+    /**
+     * The link to the other server is TCP/IP
+     *
+     * @return false
+     */
+    public boolean isProtocolUDP(){
+
+        return false;
+    }
+
+    /**
+     * The other server is known by its node ID, not by an address
+     *
+     * @return null
+     */
+    public InetAddress getInetAddress(){
+
+        return null;
+    }
+
+    /**
+     * Returns the room the other server follows here
+     *
+     * @return the room, or null once the other server stopped following it
+     */
+    public Room getRoom(){
+
+        return room;
+    }
+
+    /**
+     * Sets the room the other server follows here, this is only called by the room list
+     *
+     * @param room the room, or null once it has left
+     */
+    public void setRoom(Room room){
+
+        this.room = room;
+    }
+
+    /**
+     * Returns the queue of the link to the other server, shared by every room it follows
+     *
+     * @return the queue of the link
+     */
+    public OutboundQueue getOutboundQueue(){
+
+        return link.getOutboundQueue();
+    }
+}
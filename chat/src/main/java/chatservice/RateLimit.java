@@ -0,0 +1,105 @@
+package chatservice;
+
+/**
+ * How fast the clients of one protocol can send messages to the server.  Every message a client sends is formatted
+ * and forwarded to every client in its room, so one client sending as fast as the network allows would make the
+ * server do the work of many.  Each client gets its own token bucket from the limit, and a message is checked
+ * against it before it is formatted or forwarded:
+ *
+ *   throttled  a TCP/IP client with its own reader thread is not read until it has the tokens, so the client is
+ *              slowed down by its socket filling up and no message is lost
+ *   dropped    a message from a TCP/IP client of the event loop or a UDP client is dropped, the I/O thread reads
+ *              many clients and cannot wait for one
+ *
+ * One limit is made for each protocol from the launch options.  Every message throttled or dropped is counted in
+ * the server metrics.
+ *
+ */
+public class RateLimit {
+
+    /**
+     * the most messages a client can send each second, 0 if they are not limited
+     */
+    private final int messageRate;
+
+    /**
+     * the most bytes a client can send each second, 0 if they are not limited
+     */
+    private final int byteRate;
+
+    /**
+     * the numbers of the server the throttled and dropped messages are counted in, or null if they are not counted
+     */
+    private final ServerMetrics metrics;
+
+    /**
+     * the protocol the messages are counted under, ServerMetrics.tcp or ServerMetrics.udp
+     */
+    private final int protocol;
+
+    /**
+     * Creates a limit
+     *
+     * @param messageRate   the most messages a client can send each second, 0 to not limit them
+     * @param byteRate      the most bytes a client can send each second, 0 to not limit them
+     * @param metrics       the numbers of the server the messages are counted in, or null to not count them
+     * @param protocol      the protocol the messages are counted under, ServerMetrics.tcp or ServerMetrics.udp
+     */
+    public RateLimit(int messageRate, int byteRate, ServerMetrics metrics, int protocol){
+        this.messageRate = messageRate;
+        this.byteRate = byteRate;
+        this.metrics = metrics;
+        this.protocol = protocol;
+    }
+
+    /**
+     * Returns true if the clients are limited at all
+     *
+     * @return true if there is a message or byte rate
+     */
+    public boolean isLimited(){
+
+        return messageRate > 0 || byteRate > 0;
+    }
+
+    /**
+     * Creates the token bucket of a new client
+     *
+     * @return the full bucket, or null if the clients are not limited
+     */
+    public TokenBucket newBucket(){
+
+        return isLimited() ? new TokenBucket(messageRate, byteRate, System.nanoTime()) : null;
+    }
+
+    /**
+     * Counts a message that had to wait for its tokens
+     */
+    public void throttled(){
+        if(metrics != null){
+            metrics.throttled(protocol);
+        }
+    }
+
+    /**
+     * Counts a message that was dropped because there were not enough tokens
+     */
+    public void dropped(){
+        if(metrics != null){
+            metrics.rateLimitDropped(protocol);
+        }
+    }
+
+    /**
+     * Returns the limit as text
+     *
+     * @return the rates, or that the clients are not limited
+     */
+    public String toString(){
+        if(!isLimited()){
+            return "not limited";
+        }
+        return (messageRate > 0 ? messageRate + " messages/s" : "any messages/s") + ", "
+                + (byteRate > 0 ? byteRate + " bytes/s" : "any bytes/s");
+    }
+}
@@ -0,0 +1,207 @@
+package chatservice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * A chat room.  A message from a client is only forwarded to the clients in the same room, so the work of forwarding
+ * a message grows with the size of its room instead of with every client on the server.  The members are kept in a
+ * client list of their own, which forwards to a snapshot array, so a client joining or leaving never holds up a
+ * message that is already being forwarded.  Each room keeps its own history, sent to a client when it joins.
+ *
+ * A room is closed by the room list once its last member leaves, and a client that finds a closed room looks the
+ * room up again.
+ *
+ * In a cluster, the server owning the room also has a member for each other server following the room (see
+ * PeerSession), so the messages forwarded in the room are relayed to those servers like to any other client.
+ *
+ */
+public class Room {
+
+    /**
+     * the name of the room
+     */
+    private final String name;
+
+    /**
+     * the bytes of the name, written to the chat log with every message
+     */
+    private final byte[] nameBytes;
+
+    /**
+     * the clients in the room
+     */
+    private final ClientRegistry members = new ClientRegistry();
+
+    /**
+     * the last messages forwarded in the room, or null if no history is kept
+     */
+    private final MessageHistory history;
+
+    /**
+     * true once the room has been taken out of the room list, guarded by the room
+     */
+    private boolean closed = false;
+
+    /**
+     * the number of members that stand for other servers of the cluster, changed under the lock of the room
+     */
+    private volatile int remoteMembers = 0;
+
+    /**
+     * held while a message is forwarded in a room other servers follow, so they are sent the messages in order
+     */
+    private final Object ordering = new Object();
+
+    /**
+     * Creates an empty room
+     *
+     * @param name      the name of the room
+     * @param history   the history of the room, or null to keep none
+     */
+    public Room(String name, MessageHistory history){
+        this.name = name;
+        this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        this.history = history;
+    }
+
+    /**
+     * Forwards a message to every client in the room and adds it to the history.  This never waits for a client
+     * joining or leaving.  Messages sent at the same time may reach two clients in a different order, except in a
+     * room other servers follow, where they are forwarded one at a time so every server gets them in the order of the
+     * history.
+     *
+     * @param payload the message, the caller keeps its reference
+     */
+    public void send(Payload payload){
+        if(remoteMembers > 0){
+            synchronized(ordering){
+                fanOut(payload);
+            }
+        }else{
+            fanOut(payload);
+        }
+    }
+
+    /**
+     * A helper method for send that adds a message to the history and hands it to every client in the room
+     *
+     * @param payload the message, the caller keeps its reference
+     */
+    private void fanOut(Payload payload){
+        if(history != null){
+            for(ClientSession client : history.add(payload, members)){
+                client.send(payload);
+            }
+        }else{
+            members.sendToAll(payload);
+        }
+    }
+
+    /**
+     * Adds a client to the room, sending it the history first if it wants it
+     *
+     * @param client        the client joining
+     * @param sendHistory   true to send the client the history
+     * @return true if the client is in the room, false if the room is closed
+     */
+    synchronized boolean join(ClientSession client, boolean sendHistory){
+        if(closed){
+            return false;
+        }
+        boolean added = history != null && sendHistory ? history.join(client, members) : members.add(client);
+        if(added && client instanceof PeerSession){
+            remoteMembers++;
+        }
+        return true;
+    }
+
+    /**
+     * Takes a client out of the room, and closes the room if it is left empty and may be closed
+     *
+     * @param client            the client leaving
+     * @param closeWhenEmpty    true if the room is closed once it is empty
+     * @return true if the room is closed
+     */
+    synchronized boolean leave(ClientSession client, boolean closeWhenEmpty){
+        if(members.remove(client) && client instanceof PeerSession){
+            remoteMembers--;
+        }
+        if(closeWhenEmpty && members.size() == 0){
+            closed = true;
+        }
+        return closed;
+    }
+
+    /**
+     * Adds a message to the history without forwarding it, it is used to put back the history from the chat log
+     *
+     * @param payload the message, the caller keeps its reference
+     */
+    public void restore(Payload payload){
+        if(history != null){
+            history.add(payload);
+        }
+    }
+
+    /**
+     * Hands every message in the history to an action, oldest first
+     *
+     * @param action what is done with each message, it must take its own reference to keep the payload
+     */
+    public void forEachInHistory(Consumer<Payload> action){
+        if(history != null){
+            history.forEach(action);
+        }
+    }
+
+    /**
+     * Returns true if the room has no history, either because none is kept or nothing was said yet
+     *
+     * @return true if the history is empty
+     */
+    public boolean isHistoryEmpty(){
+
+        return history == null || history.size() == 0;
+    }
+
+    /**
+     * Returns the number of clients of this server in the room, leaving out the members that stand for other servers
+     *
+     * @return the number of local clients
+     */
+    public synchronized int localSize(){
+
+        return members.size() - remoteMembers;
+    }
+
+    /**
+     * Returns the name of the room
+     *
+     * @return the room name
+     */
+    public String getName(){
+
+        return name;
+    }
+
+    /**
+     * Returns the bytes of the name of the room
+     *
+     * @return the name as bytes, the array must not be changed
+     */
+    public byte[] getNameBytes(){
+
+        return nameBytes;
+    }
+
+    /**
+     * Returns the number of clients in the room
+     *
+     * @return the number of members
+     */
+    public int size(){
+
+        return members.size();
+    }
+}
@@ -0,0 +1,199 @@
+package chatservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The chat rooms of the server, keyed by name.  Every client is in one room at a time, starting in the lobby.  A
+ * room is made the first time a client joins it and is dropped, with its history, when its last client leaves, so
+ * the server holds at most one room for each client plus the lobby.  The lobby is never dropped.
+ *
+ * Finding a room is one lookup in a concurrent hash table, and joining or leaving a room only locks that room, so
+ * clients moving between rooms do not hold up each other or the messages being forwarded in other rooms.
+ *
+ */
+public class RoomRegistry {
+
+    /**
+     * the name of the room every client starts in
+     */
+    public static final String lobby = "lobby";
+
+    /**
+     * the longest name a room can have
+     */
+    public static final int maxNameLength = 32;
+
+    /**
+     * the rooms, keyed by name
+     */
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * the most messages kept in the history of each room, 0 to keep no history
+     */
+    private final int historySize;
+
+    /**
+     * the size in bytes of the ring the history of each room is kept in
+     */
+    private final int historyBytes;
+
+    /**
+     * true if the history rings are allocated outside the Java heap
+     */
+    private final boolean historyOffHeap;
+
+    /**
+     * Creates the room list with an empty lobby
+     *
+     * @param historySize       the most messages kept in the history of each room, 0 to keep no history
+     * @param historyBytes      the size in bytes of the ring the history of each room is kept in
+     * @param historyOffHeap    true to allocate the history rings outside the Java heap
+     */
+    public RoomRegistry(int historySize, int historyBytes, boolean historyOffHeap){
+        this.historySize = historySize;
+        this.historyBytes = historyBytes;
+        this.historyOffHeap = historyOffHeap;
+        rooms.put(lobby, create(lobby));
+    }
+
+    /**
+     * Returns true if a name can be used for a room: 1 to maxNameLength letters, digits, '-' or '_'
+     *
+     * @param name the name
+     * @return true if the name is allowed
+     */
+    public static boolean isValidName(String name){
+        if(name.isEmpty() || name.length() > maxNameLength){
+            return false;
+        }
+        for(int i = 0; i < name.length(); i++){
+            char c = name.charAt(i);
+            if(!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_')){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a client to a room, making the room if it is not there, and sends the client the history of the room.  The
+     * client must have left the room it was in.
+     *
+     * @param client    the client joining
+     * @param name      the name of the room
+     * @return the room the client is now in
+     */
+    public Room join(ClientSession client, String name){
+
+        return join(client, name, true);
+    }
+
+    /**
+     * Adds a client to a room, making the room if it is not there.  The client must have left the room it was in.
+     *
+     * @param client        the client joining
+     * @param name          the name of the room
+     * @param sendHistory   true to send the client the history of the room
+     * @return the room the client is now in
+     */
+    public Room join(ClientSession client, String name, boolean sendHistory){
+        while(true){
+            Room room = rooms.computeIfAbsent(name, this::create);
+            //the room may have been closed by its last client leaving after it was looked up
+            if(room.join(client, sendHistory)){
+                client.setRoom(room);
+                return room;
+            }
+        }
+    }
+
+    /**
+     * Takes a client out of the room it is in.  The room is dropped if it is now empty, unless it is the lobby.
+     *
+     * @param client the client leaving
+     */
+    public void leave(ClientSession client){
+        Room room = client.getRoom();
+        if(room == null){
+            return;
+        }
+        client.setRoom(null);
+        if(room.leave(client, !room.getName().equals(lobby))){
+            rooms.remove(room.getName(), room);
+        }
+    }
+
+    /**
+     * Returns the room with a name, making it if it is not there.  It is used to put back the history of the rooms
+     * from the chat log, the room stays until a client joins it and leaves.
+     *
+     * @param name the name of the room
+     * @return the room
+     */
+    public Room restore(String name){
+
+        return rooms.computeIfAbsent(name, this::create);
+    }
+
+    /**
+     * Finds a room by its name
+     *
+     * @param name the name of the room
+     * @return the room, or null if there is no room with that name
+     */
+    public Room get(String name){
+
+        return rooms.get(name);
+    }
+
+    /**
+     * Returns the rooms there are now
+     *
+     * @return a copy of the list of rooms
+     */
+    public List<Room> list(){
+
+        return new ArrayList<>(rooms.values());
+    }
+
+    /**
+     * Returns the number of rooms
+     *
+     * @return the number of rooms, including the lobby
+     */
+    public int size(){
+
+        return rooms.size();
+    }
+
+    /**
+     * Returns one line describing the rooms
+     *
+     * @return the number of rooms and the biggest of them as text
+     */
+    public String describe(){
+        Room biggest = rooms.get(lobby);
+        for(Room room : rooms.values()){
+            if(room.size() > biggest.size()){
+                biggest = room;
+            }
+        }
+        return "Rooms: " + rooms.size() + ", the biggest is " + biggest.getName() + " with " + biggest.size()
+                + " clients";
+    }
+
+    /**
+     * A helper method that makes an empty room with its own history
+     *
+     * @param name the name of the room
+     * @return the room
+     */
+    private Room create(String name){
+        MessageHistory history = historySize > 0
+                ? new MessageHistory(historySize, historyBytes, historyOffHeap) : null;
+        return new Room(name, history);
+    }
+}
@@ -0,0 +1,532 @@
+package chatservice;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A TCP client that is handled by the selector based TCP server.  It keeps the decoder holding the part of a line or
+ * frame that has been read but not finished yet, and the messages that are waiting to be written to the client.
+ * Reading and writing are only done by the I/O thread the client belongs to; other threads only add messages to be
+ * written.
+ *
+ * The first byte the client sends decides how it talks to the server: a client that starts with the preface of the
+ * framed protocol sends and is sent frames, any other client sends and is sent lines of text.
+ *
+ */
+public class SelectorConnection implements ClientSession, MessageDecoder.Listener {
+
+    /**
+     * the channel this client is connected through
+     */
+    private SocketChannel channel;
+
+    /**
+     * the key of this client with the selector of its I/O thread
+     */
+    private SelectionKey key;
+
+    /**
+     * the I/O thread this client belongs to
+     */
+    private SelectorWorker worker;
+
+    /**
+     * object to access the main server class
+     */
+    private MainServer mainServer;
+
+    /**
+     * the numbers of the server, the messages and bytes written to the client are counted in it
+     */
+    private ServerMetrics metrics;
+
+    /**
+     * the unique identifier for the client
+     */
+    private int clientID;
+
+    /**
+     * the name of the client as the bytes put in front of its messages
+     */
+    private byte[] namePrefix;
+
+    /**
+     * splits the bytes read from the client into messages
+     */
+    private MessageDecoder decoder = new MessageDecoder(this);
+
+    /**
+     * true once the ack to the preface of a framed client has been reached by flush, every message before it is
+     * written as a line of text and every message from it on as a frame
+     */
+    private volatile boolean framed = false;
+
+    /**
+     * the messages waiting to be written to the client
+     */
+    private OutboundQueue outbound;
+
+    /**
+     * the chat room the client is in
+     */
+    private volatile Room room = null;
+
+    /**
+     * a message taken off the queue that did not fit in the last write, it is written next
+     */
+    private Payload carry = null;
+
+    /**
+     * the bytes the client did not take in the last write, they are written before anything else.  It is only
+     * created for clients that fall behind.
+     */
+    private ByteBuffer leftover = null;
+
+    /**
+     * a message too big for the write buffer that the client did not take all of, it is written straight from its
+     * shared bytes.  The reference is kept until the whole message has been written, so its bytes are not reused.
+     */
+    private Payload pending = null;
+
+    /**
+     * the bytes of the pending message that are still to be written
+     */
+    private ByteBuffer pendingView = null;
+
+    /**
+     * true while the I/O thread has been asked to write the waiting messages
+     */
+    private AtomicBoolean writeScheduled = new AtomicBoolean(false);
+
+    /**
+     * true once the client has been closed
+     */
+    private AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * how fast the clients can send messages, the dropped messages are counted in it
+     */
+    private RateLimit rateLimit;
+
+    /**
+     * the tokens the client has to send messages with, only used by the I/O thread, or null if it is not limited
+     */
+    private TokenBucket bucket;
+
+    /**
+     * marked every time something arrives from the client, the client is disconnected once it runs out
+     */
+    private IdleTimer idle;
+
+    /**
+     * why the client is being disconnected, set by any thread and acted on by the I/O thread, or null
+     */
+    private volatile String disconnectReason = null;
+
+    /**
+     * The constructor adds the new client to the client list and sends it the confirmation message
+     *
+     * @param channel       the channel the client is connected through
+     * @param key           the key of the client with the selector
+     * @param worker        the I/O thread the client belongs to
+     * @param mainServer    the object to access the server
+     */
+    public SelectorConnection(SocketChannel channel, SelectionKey key, SelectorWorker worker, MainServer mainServer){
+        this.channel = channel;
+        this.key = key;
+        this.worker = worker;
+        this.mainServer = mainServer;
+        metrics = mainServer.getMetrics();
+        //create the queue of messages waiting to be sent
+        outbound = new OutboundQueue(mainServer.getConfig().getQueueSize(),
+                mainServer.getSlowConsumerPolicy(ServerMetrics.tcp), this);
+        rateLimit = mainServer.getRateLimit(ServerMetrics.tcp);
+        bucket = rateLimit.newBucket();
+        idle = mainServer.getIdleReaper().watch(this);
+        //get the clientID
+        clientID = mainServer.getClientID();
+        namePrefix = MessageFormatter.namePrefix(clientID);
+        //send a confirmation message, it comes before the history the client is sent when it is added
+        Socket socket = channel.socket();
+        send("Receiving communication from server using IP address " +
+                socket.getInetAddress().getHostAddress() + " and Port " + socket.getLocalPort() + ".");
+        //Add new client to client list
+        mainServer.addClient(this);
+    }
+
+    /**
+     * Handles the bytes that were read.  They are split into lines or frames by the decoder, every finished one is
+     * handled and the unfinished part is kept until the rest of it is read.
+     *
+     * @param data the bytes that were read from the client
+     */
+    public void consume(ByteBuffer data){
+
+        decoder.decode(data);
+    }
+
+    /**
+     * Switches the client to the framed protocol and answers its preface with an ack frame.  This is called by the
+     * decoder.
+     *
+     * @param version the highest protocol version the client speaks
+     */
+    public void prefaceReceived(int version){
+        Payload ack = Payload.encode(FrameProtocol.ack, clientID,
+                Integer.toString(Math.min(version, FrameProtocol.version)));
+        send(ack);
+        ack.release();
+    }
+
+    /**
+     * Handles a finished message.  Chat and join messages are forwarded to the clients in the room, and a leave
+     * message is forwarded before the client is removed.  This is called by the decoder.
+     *
+     * @param type      the frame type of the message
+     * @param message   the array holding the bytes of the message
+     * @param offset    the index of the first byte of the message
+     * @param length    the number of bytes of the message
+     */
+    public void messageReceived(byte type, byte[] message, int offset, int length){
+        idle.touch();
+        switch (type) {
+            case FrameProtocol.chat:
+            case FrameProtocol.join:
+                forward(message, offset, length);
+                break;
+            case FrameProtocol.leave:
+                if(length > 0){
+                    forward(message, offset, length);
+                }
+                close();
+                break;
+            case FrameProtocol.heartbeat:
+                //the client only showed it is still there
+                break;
+            default:
+                //acks and control frames are only sent by the server
+                break;
+        }
+    }
+
+    /**
+     * Disconnects a client that sent something that is not valid, the reason is logged to the event log of the
+     * server.  This is called by the decoder.
+     *
+     * @param reason what was wrong
+     */
+    public void invalidInput(String reason){
+        mainServer.getEvents().log(getInetAddress().getHostAddress() + " was disconnected: " + reason);
+        close();
+    }
+
+    /**
+     * A helper method that hands a message from the client to the server, which formats it and forwards it to the
+     * clients in the room of the client, or carries it out if it is a room command.  The bytes are copied as they
+     * were read.  A message sent faster than the rate limit of the client is dropped, the I/O thread cannot wait for
+     * one client.
+     *
+     * @param message   the array holding the bytes of the message
+     * @param offset    the index of the first byte of the message
+     * @param length    the number of bytes of the message
+     */
+    private void forward(byte[] message, int offset, int length){
+        if(bucket != null && bucket.acquire(length, System.nanoTime()) > 0){
+            rateLimit.dropped();
+            return;
+        }
+        metrics.messageReceived(ServerMetrics.tcp);
+        mainServer.receive(this, namePrefix, message, offset, length);
+    }
+
+    /**
+     * Adds a message to the messages waiting to be written to the client.  This can be called from any thread, the
+     * message is written by the I/O thread of the client.
+     *
+     * @param message the message being sent
+     */
+    public void send(Payload message){
+        if(outbound.offer(message) && writeScheduled.compareAndSet(false, true)){
+            worker.requestWrite(this);
+        }
+    }
+
+    /**
+     * Adds a message from the history of a room to the messages waiting to be written, it is not held to the slow
+     * consumer policy
+     *
+     * @param message the message from the history
+     */
+    public void sendHistory(Payload message){
+        if(outbound.offerHistory(message) && writeScheduled.compareAndSet(false, true)){
+            worker.requestWrite(this);
+        }
+    }
+
+    /**
+     * Disconnects the client.  This can be called from any thread, the I/O thread of the client is asked to close it.
+     *
+     * @param reason why the client is disconnected
+     */
+    public void disconnect(String reason){
+        disconnectReason = reason;
+        worker.requestWrite(this);
+    }
+
+    /**
+     * Starts watching for the client to be ready to be written to, or closes the client if it is being disconnected.
+     * This is only called by the I/O thread.
+     */
+    public void enableWrite(){
+        String reason = disconnectReason;
+        if(reason != null){
+            sayGoodbye(reason);
+            return;
+        }
+        if(key.isValid()){
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Writes as many of the waiting messages as the client will take, as frames or as lines of text.  The messages
+     * are copied into the write buffer of the I/O thread and written together.  The messages and bytes written are
+     * counted in the metrics.  This is only called by the I/O thread.
+     *
+     * @throws IOException if the client could not be written to
+     */
+    public void flush() throws IOException {
+        int messages = 0;
+        long bytes = 0;
+        try {
+            //finish the bytes the client did not take last time
+            if(leftover != null && leftover.position() > 0){
+                leftover.flip();
+                bytes += channel.write(leftover);
+                boolean finished = !leftover.hasRemaining();
+                leftover.compact();
+                if(!finished){
+                    return;
+                }
+            }
+            if(pendingView != null){
+                bytes += channel.write(pendingView);
+                if(pendingView.hasRemaining()){
+                    return;
+                }
+                releasePending();
+            }
+
+            ByteBuffer writeBuffer = worker.getWriteBuffer();
+            while(true){
+                writeBuffer.clear();
+                Payload message;
+                while((message = nextMessage()) != null){
+                    if(!framed && message.type() == FrameProtocol.ack){
+                        framed = true;
+                    }
+                    messages++;
+                    if(message.length(framed) > writeBuffer.remaining()){
+                        if(writeBuffer.position() > 0){
+                            //write what has been copied so far, this message goes next
+                            carry = message;
+                            messages--;
+                            break;
+                        }
+                        //too big for the write buffer, so write it straight from the shared bytes
+                        ByteBuffer view = message.view(framed);
+                        bytes += channel.write(view);
+                        if(view.hasRemaining()){
+                            //the message keeps its reference until the rest of it is written
+                            pending = message;
+                            pendingView = view;
+                            return;
+                        }
+                        message.release();
+                        continue;
+                    }
+                    message.copyTo(writeBuffer, framed);
+                    message.release();
+                }
+                if(writeBuffer.position() == 0){
+                    break;
+                }
+                writeBuffer.flip();
+                bytes += channel.write(writeBuffer);
+                if(writeBuffer.hasRemaining()){
+                    //the client is not taking any more right now, try again when it is ready
+                    keepLeftover(writeBuffer);
+                    return;
+                }
+            }
+        } finally {
+            metrics.sent(ServerMetrics.tcp, messages, bytes);
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        writeScheduled.set(false);
+        //a message may have been added after the queue was found empty
+        if(!outbound.isEmpty() && writeScheduled.compareAndSet(false, true)){
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * A helper method for enableWrite that closes a client being disconnected.  The reason is written to the client
+     * if it will take it right away, so a client that stopped reading does not hold up the I/O thread.
+     *
+     * @param reason why the client is disconnected
+     */
+    private void sayGoodbye(String reason){
+        if(closed.get()){
+            return;
+        }
+        mainServer.getEvents().log(getInetAddress().getHostAddress() + " was disconnected: " + reason);
+        //a partly written message would garble the reason
+        if(carry == null && pending == null && (leftover == null || leftover.position() == 0)){
+            Payload goodbye = Payload.encode(reason);
+            try {
+                channel.write(goodbye.view(framed));
+            } catch (IOException e) {
+                //the client is being closed anyway
+            }
+            goodbye.release();
+        }
+        close();
+    }
+
+    /**
+     * A helper method for flush that returns the next message to write
+     *
+     * @return the message that did not fit last time, or the next message in the queue
+     */
+    private Payload nextMessage(){
+        Payload message = carry;
+        if(message != null){
+            carry = null;
+            return message;
+        }
+        return outbound.poll();
+    }
+
+    /**
+     * A helper method that releases the pending message once it has been written or the client is closed
+     */
+    private void releasePending(){
+        pending.release();
+        pending = null;
+        pendingView = null;
+    }
+
+    /**
+     * A helper method for flush that keeps the bytes the client did not take, so the shared write buffer can be
+     * used by other clients
+     *
+     * @param unwritten the buffer holding the bytes that were not written
+     */
+    private void keepLeftover(ByteBuffer unwritten){
+        if(leftover == null || leftover.capacity() < unwritten.remaining()){
+            leftover = ByteBuffer.allocate(unwritten.remaining());
+        }
+        leftover.put(unwritten);
+    }
+
+    /**
+     * Removes the client from the client list and closes its channel.  Calling this more than once does nothing.
+     */
+    public void close(){
+        if(!closed.compareAndSet(false, true)){
+            return;
+        }
+        decoder.stop();
+        idle.cancel();
+        mainServer.removeClient(this);
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing TCP client channel");
+        }
+        outbound.close();
+        if(carry != null){
+            carry.release();
+            carry = null;
+        }
+        if(pending != null){
+            releasePending();
+        }
+    }
+
+    /**
+     * Returns the chat room the client is in
+     *
+     * @return the room, or null if the client is not in a room
+     */
+    public Room getRoom(){
+
+        return room;
+    }
+
+    /**
+     * Sets the chat room the client is in
+     *
+     * @param room the room, or null once the client has left
+     */
+    public void setRoom(Room room){
+
+        this.room = room;
+    }
+
+    /**
+     * Returns the queue of messages waiting to be written to the client
+     *
+     * @return the outbound queue of the client
+     */
+    public OutboundQueue getOutboundQueue(){
+
+        return outbound;
+    }
+
+    /**
+     * Returns the channel the client is connected through
+     *
+     * @return the channel
+     */
+    public SocketChannel getChannel(){
+
+        return channel;
+    }
+
+    /**
+     * Returns false, the selector based server only handles TCP/IP clients
+     *
+     * @return false
+     */
+    public boolean isProtocolUDP(){
+
+        return false;
+    }
+
+    /**
+     * Returns the address of the client
+     *
+     * @return the address of the client
+     */
+    public InetAddress getInetAddress(){
+
+        return channel.socket().getInetAddress();
+    }
+
+    /**
+     * Returns the unique identifier of the client
+     *
+     * @return the client ID
+     */
+    public int getClientID(){
+
+        return clientID;
+    }
+}
@@ -0,0 +1,196 @@
+package chatservice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One of the I/O threads of the selector based TCP server.  It waits on a selector for all of the TCP clients it was
+ * given, reads whatever each client sent into one reused buffer and writes out the messages that are waiting to be
+ * sent to each client.
+ *
+ */
+public class SelectorWorker extends Thread {
+
+    /**
+     * the size of the buffer the clients are read into
+     */
+    private static final int readBufferSize = 16 * 1024;
+
+    /**
+     * the size of the buffer the waiting messages of a client are copied into to be written
+     */
+    private static final int writeBufferSize = 16 * 1024;
+
+    /**
+     * The object to access the main server
+     */
+    private MainServer mainServer;
+
+    /**
+     * the event log of the server, errors are logged to it
+     */
+    private ServerEvents events;
+
+    /**
+     * the selector this thread waits on for all of its clients
+     */
+    private Selector selector;
+
+    /**
+     * the buffer every client of this thread is read into, it is reused for every read
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+
+    /**
+     * the buffer the waiting messages of every client of this thread are copied into, it is reused for every write
+     */
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(writeBufferSize);
+
+    /**
+     * the new client channels waiting to be registered with the selector
+     */
+    private ConcurrentLinkedQueue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the clients that have messages waiting to be written
+     */
+    private ConcurrentLinkedQueue<SelectorConnection> writeRequests = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The constructor opens the selector for this I/O thread
+     *
+     * @param mainServer    Object to access the main server
+     * @param events        The event log of the server
+     * @param number        The number of this I/O thread, used to name the thread
+     * @throws IOException if the selector could not be opened
+     */
+    public SelectorWorker(MainServer mainServer, ServerEvents events, int number) throws IOException {
+        super("tcp-io-" + number);
+        this.mainServer = mainServer;
+        this.events = events;
+        selector = Selector.open();
+        setDaemon(true);
+    }
+
+    /**
+     * Gives a newly accepted client to this I/O thread.  The channel is registered by this thread the next time it
+     * wakes up.
+     *
+     * @param channel the channel of the new client
+     */
+    public void addChannel(SocketChannel channel){
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks this I/O thread to start writing the messages waiting for a client
+     *
+     * @param connection the client with messages waiting
+     */
+    public void requestWrite(SelectorConnection connection){
+        writeRequests.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the buffer the waiting messages of a client are copied into to be written.  It is only used by this
+     * I/O thread, by one client at a time.
+     *
+     * @return the write buffer of this thread
+     */
+    public ByteBuffer getWriteBuffer(){
+
+        return writeBuffer;
+    }
+
+    /**
+     * Waits for the clients of this thread to be ready to read or write, and handles them.  This method never
+     * returns unless the selector stops working.
+     */
+    public void run(){
+        while(true){
+            try {
+                selector.select();
+            } catch (IOException e) {
+                events.log("Error: There is an issue with the socket connection. Please restart the program.");
+                return;
+            }
+            registerNewChannels();
+            enableWrites();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()){
+                SelectionKey key = keys.next();
+                keys.remove();
+                SelectorConnection connection = (SelectorConnection) key.attachment();
+                try {
+                    if(key.isValid() && key.isReadable()){
+                        read(connection);
+                    }
+                    if(key.isValid() && key.isWritable()){
+                        connection.flush();
+                    }
+                } catch (IOException e) {
+                    //the client went away without saying goodbye
+                    connection.close();
+                } catch (Exception e){
+                    events.log("Error: There is an issue with your connection. Please restart the program.");
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A helper method for run that reads everything a client has sent and passes it on to be split into lines
+     *
+     * @param connection the client to read from
+     * @throws IOException if the client could not be read
+     */
+    private void read(SelectorConnection connection) throws IOException {
+        readBuffer.clear();
+        int count = connection.getChannel().read(readBuffer);
+        if(count < 0){
+            connection.close();
+            return;
+        }
+        mainServer.getMetrics().bytesReceived(ServerMetrics.tcp, count);
+        readBuffer.flip();
+        connection.consume(readBuffer);
+    }
+
+    /**
+     * A helper method for run that registers the clients that were given to this thread
+     */
+    private void registerNewChannels(){
+        SocketChannel channel;
+        while((channel = newChannels.poll()) != null){
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new SelectorConnection(channel, key, this, mainServer));
+            } catch (IOException e) {
+                System.err.println("Error registering TCP client with the selector");
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    //the channel is being thrown away
+                }
+            }
+        }
+    }
+
+    /**
+     * A helper method for run that starts watching for clients that have messages waiting to be written
+     */
+    private void enableWrites(){
+        SelectorConnection connection;
+        while((connection = writeRequests.poll()) != null){
+            connection.enableWrite();
+        }
+    }
+}
@@ -0,0 +1,632 @@
+package chatservice;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The launch options for the chat server.  The options are read from the command line arguments given to the main
+ * server.  Any option that is not given keeps its default value.
+ *
+ */
+public class ServerConfig {
+
+    /**
+     * true if TCP clients are handled by the selector based event loop instead of a thread per client
+     */
+    private boolean nioTCP = false;
+
+    /**
+     * true if the client handlers run on virtual threads instead of platform threads
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * the number of I/O threads the selector based event loop uses for TCP clients
+     */
+    private int ioThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * the most messages that can be waiting to be written to one client
+     */
+    private int queueSize = 1024;
+
+    /**
+     * what is done when too many messages are waiting for a TCP/IP client, an action of SlowConsumerPolicy
+     */
+    private int tcpSlowPolicy = SlowConsumerPolicy.dropNewest;
+
+    /**
+     * what is done when too many messages are waiting for a UDP client, an action of SlowConsumerPolicy
+     */
+    private int udpSlowPolicy = SlowConsumerPolicy.dropNewest;
+
+    /**
+     * the most messages that can be waiting for a client before the slow consumer policy is applied, 0 for the
+     * queue size
+     */
+    private int slowThreshold = 0;
+
+    /**
+     * the most messages a TCP/IP client can send each second, 0 if they are not limited
+     */
+    private int tcpMessageRate = 0;
+
+    /**
+     * the most bytes a TCP/IP client can send each second, 0 if they are not limited
+     */
+    private int tcpByteRate = 0;
+
+    /**
+     * the most messages a UDP client can send each second, 0 if they are not limited
+     */
+    private int udpMessageRate = 0;
+
+    /**
+     * the most bytes a UDP client can send each second, 0 if they are not limited
+     */
+    private int udpByteRate = 0;
+
+    /**
+     * the seconds without a message or heartbeat from a client before it is disconnected, 0 to never disconnect
+     */
+    private int idleTimeout = 0;
+
+    /**
+     * true if the messages waiting for a UDP client are packed into as few packets as possible
+     */
+    private boolean udpBatch = false;
+
+    /**
+     * the most bytes put in one UDP packet, kept under the usual network packet size.  Longer messages are split.
+     */
+    private int udpPacketSize = 1400;
+
+    /**
+     * the time in milliseconds the messages for a UDP client are held for more to arrive when batching
+     */
+    private int udpBatchDelay = 5;
+
+    /**
+     * true if the server runs without the GUI and prints its events to the console
+     */
+    private boolean headless = false;
+
+    /**
+     * the most events that can be waiting in the event log, more are dropped
+     */
+    private int eventLogSize = 1024;
+
+    /**
+     * the number of seconds between logging the server metrics, 0 to never log them
+     */
+    private int metricsInterval = 0;
+
+    /**
+     * the most messages kept in the history of each room and sent to a client that joins it, 0 to keep no history
+     */
+    private int historySize = 100;
+
+    /**
+     * the size in bytes of the ring the history of each room is kept in
+     */
+    private int historyBytes = 64 * 1024;
+
+    /**
+     * true if the ring the history is kept in is allocated outside the Java heap
+     */
+    private boolean historyOffHeap = false;
+
+    /**
+     * the directory the chat log is kept in, or null if the messages are not logged
+     */
+    private String logDir = null;
+
+    /**
+     * the size in megabytes of each segment of the chat log
+     */
+    private int logSegmentSize = 64;
+
+    /**
+     * the time in milliseconds between writing the chat log to the disk
+     */
+    private int logSyncInterval = 1000;
+
+    /**
+     * the port the other servers of the cluster connect to, 0 if the server is not in a cluster
+     */
+    private int clusterPort = 0;
+
+    /**
+     * the number that tells this server apart from the other servers of the cluster, 0 to use the cluster port
+     */
+    private int nodeID = 0;
+
+    /**
+     * the cluster ports of the other servers of the cluster
+     */
+    private List<InetSocketAddress> peers = new ArrayList<>();
+
+    /**
+     * Reads the launch options from the command line arguments.
+     *   -nio               handle TCP clients with the selector based event loop
+     *   -ioThreads N       the number of I/O threads for the event loop
+     *   -virtualThreads    run each client handler on a virtual thread
+     *   -queueSize N       the most messages that can be waiting to be written to one client
+     *   -tcpSlowPolicy P   what is done when too many messages wait for a TCP/IP client: dropNewest, dropOldest
+     *                      or disconnect
+     *   -udpSlowPolicy P   the same for a UDP client
+     *   -slowThreshold N   the most messages that can wait for a client before the policy is applied
+     *   -tcpMessageRate N  the most messages a TCP/IP client can send each second
+     *   -tcpByteRate N     the most bytes a TCP/IP client can send each second
+     *   -udpMessageRate N  the most messages a UDP client can send each second
+     *   -udpByteRate N     the most bytes a UDP client can send each second
+     *   -idleTimeout S     the seconds without a message or heartbeat before a client is disconnected, 0 for never
+     *   -udpBatch          pack the messages waiting for a UDP client into as few packets as possible
+     *   -udpPacketSize N   the most bytes put in one UDP packet, longer messages are split into fragments
+     *   -udpBatchDelay MS  the time the messages for a UDP client are held for more to arrive
+     *   -headless          run without the GUI and print the events to the console
+     *   -eventLogSize N    the most events that can be waiting in the event log
+     *   -metricsInterval S log the server metrics every S seconds
+     *   -historySize N     the most messages sent to a client that joins a room, 0 to keep no history
+     *   -historyBytes N    the size in bytes of the ring the history of each room is kept in
+     *   -historyOffHeap    keep the history outside the Java heap
+     *   -logDir DIR        log every message forwarded to segment files in this directory
+     *   -logSegmentSize MB the size of each segment of the chat log
+     *   -logSyncInterval MS the time between writing the chat log to the disk
+     *   -clusterPort N     join a cluster of servers, the other servers connect to this port
+     *   -nodeID N          the number of this server in the cluster, the cluster port if it is not given
+     *   -peers LIST        the other servers of the cluster, as host:port of their cluster ports split by commas
+     *
+     * @param args the command line arguments
+     * @return the launch options
+     */
+    public static ServerConfig fromArgs(String[] args){
+        ServerConfig config = new ServerConfig();
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]) {
+                case "-nio":
+                    config.nioTCP = true;
+                    break;
+                case "-ioThreads":
+                    config.ioThreads = readPositiveInt(args, ++i, config.ioThreads);
+                    break;
+                case "-virtualThreads":
+                    config.virtualThreads = true;
+                    break;
+                case "-queueSize":
+                    config.queueSize = readPositiveInt(args, ++i, config.queueSize);
+                    break;
+                case "-tcpSlowPolicy":
+                    config.tcpSlowPolicy = readPolicy(args, ++i, config.tcpSlowPolicy);
+                    break;
+                case "-udpSlowPolicy":
+                    config.udpSlowPolicy = readPolicy(args, ++i, config.udpSlowPolicy);
+                    break;
+                case "-slowThreshold":
+                    config.slowThreshold = readPositiveInt(args, ++i, config.slowThreshold);
+                    break;
+                case "-tcpMessageRate":
+                    config.tcpMessageRate = readPositiveInt(args, ++i, config.tcpMessageRate);
+                    break;
+                case "-tcpByteRate":
+                    config.tcpByteRate = readPositiveInt(args, ++i, config.tcpByteRate);
+                    break;
+                case "-udpMessageRate":
+                    config.udpMessageRate = readPositiveInt(args, ++i, config.udpMessageRate);
+                    break;
+                case "-udpByteRate":
+                    config.udpByteRate = readPositiveInt(args, ++i, config.udpByteRate);
+                    break;
+                case "-idleTimeout":
+                    config.idleTimeout = readInt(args, ++i, config.idleTimeout, 0);
+                    break;
+                case "-udpBatch":
+                    config.udpBatch = true;
+                    break;
+                case "-udpPacketSize":
+                    config.udpPacketSize = readPositiveInt(args, ++i, config.udpPacketSize);
+                    break;
+                case "-udpBatchDelay":
+                    config.udpBatchDelay = readPositiveInt(args, ++i, config.udpBatchDelay);
+                    break;
+                case "-headless":
+                    config.headless = true;
+                    break;
+                case "-eventLogSize":
+                    config.eventLogSize = readPositiveInt(args, ++i, config.eventLogSize);
+                    break;
+                case "-metricsInterval":
+                    config.metricsInterval = readPositiveInt(args, ++i, config.metricsInterval);
+                    break;
+                case "-historySize":
+                    config.historySize = readInt(args, ++i, config.historySize, 0);
+                    break;
+                case "-historyBytes":
+                    config.historyBytes = readPositiveInt(args, ++i, config.historyBytes);
+                    break;
+                case "-historyOffHeap":
+                    config.historyOffHeap = true;
+                    break;
+                case "-logDir":
+                    if(i + 1 < args.length){
+                        config.logDir = args[++i];
+                    }else{
+                        System.err.println("Missing directory for server option -logDir.");
+                    }
+                    break;
+                case "-logSegmentSize":
+                    config.logSegmentSize = Math.min(1024, readPositiveInt(args, ++i, config.logSegmentSize));
+                    break;
+                case "-logSyncInterval":
+                    config.logSyncInterval = readPositiveInt(args, ++i, config.logSyncInterval);
+                    break;
+                case "-clusterPort":
+                    config.clusterPort = Math.min(65535, readPositiveInt(args, ++i, config.clusterPort));
+                    break;
+                case "-nodeID":
+                    config.nodeID = readPositiveInt(args, ++i, config.nodeID);
+                    break;
+                case "-peers":
+                    if(i + 1 < args.length){
+                        config.peers = readPeers(args[++i]);
+                    }else{
+                        System.err.println("Missing list for server option -peers.");
+                    }
+                    break;
+                default:
+                    System.err.println("Unknown server option " + args[i] + " was ignored.");
+                    break;
+            }
+        }
+        return config;
+    }
+
+    /**
+     * A helper method for fromArgs to read the addresses of the other servers of the cluster.  The host names are
+     * looked up each time a server is connected to, so a server that moves is found again.
+     *
+     * @param list the addresses as host:port split by commas
+     * @return the addresses that could be read
+     */
+    private static List<InetSocketAddress> readPeers(String list){
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for(String peer : list.split(",")){
+            int colon = peer.lastIndexOf(':');
+            try {
+                peers.add(InetSocketAddress.createUnresolved(peer.substring(0, colon),
+                        Integer.parseInt(peer.substring(colon + 1))));
+            } catch (RuntimeException e) {
+                System.err.println("Peer " + peer + " is not host:port and was ignored.");
+            }
+        }
+        return peers;
+    }
+
+    /**
+     * A helper method for fromArgs to read the name of a slow consumer action that follows an option
+     *
+     * @param args          the command line arguments
+     * @param index         the index of the name
+     * @param defaultValue  the action to keep if the name is missing or not known
+     * @return the action that was read or the default value
+     */
+    private static int readPolicy(String[] args, int index, int defaultValue){
+        int action = index < args.length ? SlowConsumerPolicy.parse(args[index]) : -1;
+        if(action < 0){
+            System.err.println("Server option " + args[index - 1] + " takes dropNewest, dropOldest or disconnect.");
+            return defaultValue;
+        }
+        return action;
+    }
+
+    /**
+     * A helper method for fromArgs to read a positive number that follows an option
+     *
+     * @param args          the command line arguments
+     * @param index         the index of the number
+     * @param defaultValue  the value to keep if the number is missing or not valid
+     * @return the number that was read or the default value
+     */
+    private static int readPositiveInt(String[] args, int index, int defaultValue){
+
+        return readInt(args, index, defaultValue, 1);
+    }
+
+    /**
+     * A helper method for fromArgs to read a number that follows an option
+     *
+     * @param args          the command line arguments
+     * @param index         the index of the number
+     * @param defaultValue  the value to keep if the number is missing or not valid
+     * @param min           the smallest number allowed
+     * @return the number that was read or the default value
+     */
+    private static int readInt(String[] args, int index, int defaultValue, int min){
+        if(index >= args.length){
+            System.err.println("Missing number for server option " + args[index - 1] + ".");
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(args[index]);
+            if(value >= min){
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            //fall through to the error message below
+        }
+        System.err.println("Server option " + args[index - 1] + " needs a number of at least " + min + ", "
+                + args[index] + " was ignored.");
+        return defaultValue;
+    }
+
+    /**
+     * Returns true if TCP clients are handled by the selector based event loop
+     *
+     * @return true if TCP clients are handled by the selector based event loop
+     */
+    public boolean isNioTCP(){
+
+        return nioTCP;
+    }
+
+    /**
+     * Returns true if the client handlers run on virtual threads
+     *
+     * @return true if the client handlers run on virtual threads
+     */
+    public boolean isVirtualThreads(){
+
+        return virtualThreads;
+    }
+
+    /**
+     * Returns the number of I/O threads the selector based event loop uses
+     *
+     * @return the number of I/O threads
+     */
+    public int getIoThreads(){
+
+        return ioThreads;
+    }
+
+    /**
+     * Returns the most messages that can be waiting to be written to one client
+     *
+     * @return the size of each client's outbound queue
+     */
+    public int getQueueSize(){
+
+        return queueSize;
+    }
+
+    /**
+     * Returns what is done when too many messages are waiting for a TCP/IP client
+     *
+     * @return an action of SlowConsumerPolicy
+     */
+    public int getTcpSlowPolicy(){
+
+        return tcpSlowPolicy;
+    }
+
+    /**
+     * Returns what is done when too many messages are waiting for a UDP client
+     *
+     * @return an action of SlowConsumerPolicy
+     */
+    public int getUdpSlowPolicy(){
+
+        return udpSlowPolicy;
+    }
+
+    /**
+     * Returns the most messages that can be waiting for a client before the slow consumer policy is applied
+     *
+     * @return the threshold, 0 for the queue size
+     */
+    public int getSlowThreshold(){
+
+        return slowThreshold;
+    }
+
+    /**
+     * Returns the most messages a TCP/IP client can send each second
+     *
+     * @return the rate, 0 if the messages are not limited
+     */
+    public int getTcpMessageRate(){
+
+        return tcpMessageRate;
+    }
+
+    /**
+     * Returns the most bytes a TCP/IP client can send each second
+     *
+     * @return the rate, 0 if the bytes are not limited
+     */
+    public int getTcpByteRate(){
+
+        return tcpByteRate;
+    }
+
+    /**
+     * Returns the most messages a UDP client can send each second
+     *
+     * @return the rate, 0 if the messages are not limited
+     */
+    public int getUdpMessageRate(){
+
+        return udpMessageRate;
+    }
+
+    /**
+     * Returns the most bytes a UDP client can send each second
+     *
+     * @return the rate, 0 if the bytes are not limited
+     */
+    public int getUdpByteRate(){
+
+        return udpByteRate;
+    }
+
+    /**
+     * Returns the seconds without a message or heartbeat from a client before it is disconnected
+     *
+     * @return the idle timeout, 0 if idle clients are never disconnected
+     */
+    public int getIdleTimeout(){
+
+        return idleTimeout;
+    }
+
+    /**
+     * Returns true if the messages waiting for a UDP client are packed into as few packets as possible
+     *
+     * @return true if UDP batching is turned on
+     */
+    public boolean isUdpBatch(){
+
+        return udpBatch;
+    }
+
+    /**
+     * Returns the most bytes put in one UDP packet
+     *
+     * @return the UDP packet size
+     */
+    public int getUdpPacketSize(){
+
+        return udpPacketSize;
+    }
+
+    /**
+     * Returns the time in milliseconds the messages for a UDP client are held for more to arrive
+     *
+     * @return the UDP batch delay
+     */
+    public int getUdpBatchDelay(){
+
+        return udpBatchDelay;
+    }
+
+    /**
+     * Returns true if the server runs without the GUI
+     *
+     * @return true if the server is headless
+     */
+    public boolean isHeadless(){
+
+        return headless;
+    }
+
+    /**
+     * Returns the most events that can be waiting in the event log
+     *
+     * @return the size of the event log
+     */
+    public int getEventLogSize(){
+
+        return eventLogSize;
+    }
+
+    /**
+     * Returns the number of seconds between logging the server metrics
+     *
+     * @return the interval in seconds, 0 if the metrics are never logged
+     */
+    public int getMetricsInterval(){
+
+        return metricsInterval;
+    }
+
+    /**
+     * Returns the most messages kept in the history of each room and sent to a client that joins it
+     *
+     * @return the size of the history, 0 if no history is kept
+     */
+    public int getHistorySize(){
+
+        return historySize;
+    }
+
+    /**
+     * Returns the size of the ring the history of each room is kept in
+     *
+     * @return the size in bytes
+     */
+    public int getHistoryBytes(){
+
+        return historyBytes;
+    }
+
+    /**
+     * Returns true if the ring the history is kept in is allocated outside the Java heap
+     *
+     * @return true if the history is kept off the heap
+     */
+    public boolean isHistoryOffHeap(){
+
+        return historyOffHeap;
+    }
+
+    /**
+     * Returns the directory the chat log is kept in
+     *
+     * @return the directory, or null if the messages are not logged
+     */
+    public String getLogDir(){
+
+        return logDir;
+    }
+
+    /**
+     * Returns the size of each segment of the chat log
+     *
+     * @return the size in bytes
+     */
+    public int getLogSegmentSize(){
+
+        return logSegmentSize * 1024 * 1024;
+    }
+
+    /**
+     * Returns the time between writing the chat log to the disk
+     *
+     * @return the time in milliseconds
+     */
+    public int getLogSyncInterval(){
+
+        return logSyncInterval;
+    }
+
+    /**
+     * Returns the port the other servers of the cluster connect to
+     *
+     * @return the cluster port, 0 if the server is not in a cluster
+     */
+    public int getClusterPort(){
+
+        return clusterPort;
+    }
+
+    /**
+     * Returns the number that tells this server apart from the other servers of the cluster
+     *
+     * @return the node ID
+     */
+    public int getNodeID(){
+
+        return nodeID > 0 ? nodeID : clusterPort;
+    }
+
+    /**
+     * Returns the cluster ports of the other servers of the cluster
+     *
+     * @return the addresses of the other servers, not looked up yet
+     */
+    public List<InetSocketAddress> getPeers(){
+
+        return peers;
+    }
+}
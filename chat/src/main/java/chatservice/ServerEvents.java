@@ -0,0 +1,212 @@
+package chatservice;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The event log of the server.  The network threads log what happens, like a client connecting or an error, and this
+ * thread hands the events on to the listeners, like the server GUI or the console.  Logging an event only adds it to
+ * a ring of fixed size, so a network thread never waits for a listener.  An event that does not fit is dropped, and
+ * the listeners are told how many were dropped.
+ *
+ * The events waiting in the ring are handed on together, so a listener can show many events at once.
+ *
+ */
+public class ServerEvents extends Thread {
+
+    /**
+     * Is handed the events of the server
+     */
+    public interface Listener {
+
+        /**
+         * Called on the event thread with the events logged since the last call, oldest first
+         *
+         * @param events the events, the list is not used again after this returns
+         */
+        void eventsLogged(List<String> events);
+    }
+
+    /**
+     * the events waiting to be handed on, used as a ring
+     */
+    private final String[] events;
+
+    /**
+     * the index of the oldest event
+     */
+    private int head = 0;
+
+    /**
+     * the number of events waiting
+     */
+    private int count = 0;
+
+    /**
+     * true once no more events are taken
+     */
+    private boolean closed = false;
+
+    /**
+     * the lock guarding the ring
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * signalled when an event is added or the log is closed
+     */
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * the number of events dropped because the ring was full
+     */
+    private volatile long dropped = 0;
+
+    /**
+     * the number of dropped events the listeners have been told about, only used by this thread
+     */
+    private long droppedReported = 0;
+
+    /**
+     * the listeners the events are handed to
+     */
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates an empty event log, the thread is not started
+     *
+     * @param capacity the most events that can be waiting at once
+     */
+    public ServerEvents(int capacity){
+        super("server-events");
+        events = new String[capacity];
+        setDaemon(true);
+    }
+
+    /**
+     * Adds an event to the log without waiting.  The event is dropped if the log is full or closed.  This can be
+     * called from any thread.
+     *
+     * @param event the text of the event
+     */
+    public void log(String event){
+        lock.lock();
+        try {
+            if(closed){
+                return;
+            }
+            if(count == events.length){
+                dropped++;
+                return;
+            }
+            events[(head + count) % events.length] = event;
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a listener that is handed every event logged from now on
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener listener){
+
+        listeners.add(listener);
+    }
+
+    /**
+     * Hands the events on to the listeners as they are logged, until the log is closed
+     */
+    public void run(){
+        List<String> batch;
+        try {
+            while((batch = takeAll()) != null){
+                long droppedNow = dropped;
+                if(droppedNow != droppedReported){
+                    batch.add((droppedNow - droppedReported) + " events were dropped because the event log was full.");
+                    droppedReported = droppedNow;
+                }
+                for(Listener listener : listeners){
+                    try {
+                        listener.eventsLogged(batch);
+                    } catch (RuntimeException e) {
+                        System.err.println("Error handing events to a listener: " + e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            //the server is shutting down
+        }
+    }
+
+    /**
+     * A helper method for run that takes every waiting event off the ring, waiting for one if the ring is empty
+     *
+     * @return the events, or null once the log is closed and empty
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private List<String> takeAll() throws InterruptedException {
+        lock.lock();
+        try {
+            while(count == 0 && !closed){
+                notEmpty.await();
+            }
+            if(count == 0){
+                return null;
+            }
+            List<String> batch = new ArrayList<>(count + 1);
+            for(; count > 0; count--){
+                batch.add(events[head]);
+                events[head] = null;
+                head = (head + 1) % events.length;
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the log.  The events already waiting are still handed on, then the thread ends.
+     */
+    public void close(){
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of events dropped because the log was full
+     *
+     * @return the number of events dropped
+     */
+    public long getDropped(){
+
+        return dropped;
+    }
+
+    /**
+     * Returns a listener that prints every event on its own line
+     *
+     * @param out the stream to print to
+     * @return the listener
+     */
+    public static Listener printer(PrintStream out){
+        return events -> {
+            for(String event : events){
+                out.println(event);
+            }
+        };
+    }
+}
@@ -1,18 +1,28 @@
+package chatservice;
+
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.List;
 
 /**
  * The GUI for the chat server.  It displays the server IP, server Port, and a list of the clients that are connected
- * to the server.
+ * to the server.  The GUI is one of the listeners of the server's event log, the events are added to the text area
+ * on the event dispatch thread, and only the latest lines are kept.
  *
  */
-public class ServerGUI {
+public class ServerGUI implements ServerEvents.Listener {
+
+    /**
+     * the most lines kept in the text area, the oldest lines are removed
+     */
+    private static final int maxLines = 1000;
 
     /**
      * Text area to display connected clients
      */
-    private static JTextArea clientListDisplay;
+    private JTextArea clientListDisplay;
 
     /**
      * Access to the main server in order to close the socket and I/O streams when the server is closed
@@ -66,12 +76,45 @@ public class ServerGUI {
                 System.exit(0);
             }
         });
+        //Create a button to show how far behind each client is
+        JButton queueButton = new JButton("Show Client Queues");
+        queueButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                displayText(server.getQueueStats());
+            }
+        });
+
+        //Create a button to show the numbers of the server
+        JButton metricsButton = new JButton("Show Metrics");
+        metricsButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                displayText(server.getMetrics().dump());
+            }
+        });
+        JPanel buttons = new JPanel(new GridLayout(1, 2));
+        buttons.add(queueButton);
+        buttons.add(metricsButton);
+
         //add everything to the frame
         frame.add(serverInfo,BorderLayout.NORTH);
         frame.add(scrollPaneClientList, BorderLayout.CENTER);
+        frame.add(buttons, BorderLayout.SOUTH);
         frame.setVisible(true);
     }
 
+    /**
+     * Displays the events of the server, it is called on the event thread of the server
+     *
+     * @param events the events logged since the last call
+     */
+    public void eventsLogged(List<String> events){
+        StringBuilder text = new StringBuilder();
+        for(String event : events){
+            text.append(event).append('\n');
+        }
+        SwingUtilities.invokeLater(() -> append(text.toString()));
+    }
+
     /**
      * Displays the client information for each new client that connects
      * to the server on the server GUI.
@@ -80,6 +123,25 @@ public class ServerGUI {
      */
     public void displayText(String newText){
 
-        clientListDisplay.append(newText + "\n");
+        SwingUtilities.invokeLater(() -> append(newText + "\n"));
+    }
+
+    /**
+     * A helper method that adds text to the text area and removes the oldest lines past the most kept.  It is only
+     * called on the event dispatch thread.
+     *
+     * @param text the text to add, ending with a line break
+     */
+    private void append(String text){
+        clientListDisplay.append(text);
+        //the text ends with a line break, so the last line is always empty
+        int extra = clientListDisplay.getLineCount() - 1 - maxLines;
+        if(extra > 0){
+            try {
+                clientListDisplay.replaceRange("", 0, clientListDisplay.getLineEndOffset(extra - 1));
+            } catch (BadLocationException e) {
+                clientListDisplay.setText("");
+            }
+        }
     }
 }
@@ -0,0 +1,751 @@
+package chatservice;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The numbers of the server: the messages and bytes received from and sent to the clients of each protocol, the time
+ * taken to hand each message to every client, and the number of clients connected.  They are shown through JMX and
+ * as text.
+ *
+ * The network threads count into LongAdders, which every thread adds to without waiting for the others.  The
+ * fan-out latencies are recorded in a few histograms, each thread uses the one its thread ID picks, so threads
+ * seldom wait for the same lock.  The writers count the messages and bytes of a whole write at once.  This thread
+ * wakes up once a second to work out the messages per second, and to log the numbers if the launch options ask
+ * for it.
+ *
+ * The bytes are the bytes read from and written to the sockets, so they include the framing of each protocol.  The
+ * messages out are the messages actually written to each client, a message forwarded to 100 clients counts 100 times.
+ *
+ */
+public class ServerMetrics extends Thread implements ServerMetricsMBean {
+
+    /**
+     * the index of the TCP/IP numbers
+     */
+    public static final int tcp = 0;
+
+    /**
+     * the index of the UDP numbers
+     */
+    public static final int udp = 1;
+
+    /**
+     * the names of the protocols, by index
+     */
+    private static final String[] protocolNames = {"TCP/IP", "UDP"};
+
+    /**
+     * the number of messages received from the clients of each protocol
+     */
+    private final LongAdder[] messagesIn = {new LongAdder(), new LongAdder()};
+
+    /**
+     * the number of bytes received from the clients of each protocol
+     */
+    private final LongAdder[] bytesIn = {new LongAdder(), new LongAdder()};
+
+    /**
+     * the number of messages sent to the clients of each protocol
+     */
+    private final LongAdder[] messagesOut = {new LongAdder(), new LongAdder()};
+
+    /**
+     * the number of bytes sent to the clients of each protocol
+     */
+    private final LongAdder[] bytesOut = {new LongAdder(), new LongAdder()};
+
+    /**
+     * the number of times each slow consumer action was taken for the clients of each protocol, by protocol and then
+     * by action
+     */
+    private final LongAdder[][] slowConsumerActions = {
+            {new LongAdder(), new LongAdder(), new LongAdder()},
+            {new LongAdder(), new LongAdder(), new LongAdder()}};
+
+    /**
+     * the number of messages that waited for the rate limit of their client, by protocol
+     */
+    private final LongAdder[] throttled = {new LongAdder(), new LongAdder()};
+
+    /**
+     * the number of messages dropped by the rate limit of their client, by protocol
+     */
+    private final LongAdder[] rateLimitDrops = {new LongAdder(), new LongAdder()};
+
+    /**
+     * the number of clients disconnected because nothing arrived from them for the idle timeout, by protocol
+     */
+    private final LongAdder[] idleReaped = {new LongAdder(), new LongAdder()};
+
+    /**
+     * the number of UDP fragments thrown away because they were not valid
+     */
+    private final LongAdder invalidFragments = new LongAdder();
+
+    /**
+     * the number of UDP fragments thrown away because the reassembly budgets or reassemblers were used up
+     */
+    private final LongAdder reassemblyDrops = new LongAdder();
+
+    /**
+     * the histograms the fan-out latencies are recorded in, in nanoseconds.  Each is guarded by its own lock.
+     */
+    private final LatencyHistogram[] fanOutStripes;
+
+    /**
+     * the number of fan-out histograms less one, used to pick one from a thread ID
+     */
+    private final int stripeMask;
+
+    /**
+     * the messages received from each protocol in the last second
+     */
+    private volatile long[] messagesInRate = new long[2];
+
+    /**
+     * the messages sent to each protocol in the last second
+     */
+    private volatile long[] messagesOutRate = new long[2];
+
+    /**
+     * the clients whose sessions are counted
+     */
+    private final ClientRegistry clients;
+
+    /**
+     * the event log the numbers are logged to
+     */
+    private final ServerEvents events;
+
+    /**
+     * the number of seconds between logging the numbers, 0 to never log them
+     */
+    private final int logInterval;
+
+    /**
+     * the time the server started, in the units of System.nanoTime
+     */
+    private final long startTime = System.nanoTime();
+
+    /**
+     * the name the numbers are shown under through JMX, or null if they are not shown
+     */
+    private ObjectName name = null;
+
+    /**
+     * Creates the metrics of a server, the thread is not started
+     *
+     * @param clients       the clients whose sessions are counted
+     * @param events        the event log the numbers are logged to
+     * @param logInterval   the number of seconds between logging the numbers, 0 to never log them
+     */
+    public ServerMetrics(ClientRegistry clients, ServerEvents events, int logInterval){
+        super("server-metrics");
+        this.clients = clients;
+        this.events = events;
+        this.logInterval = logInterval;
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) * 2;
+        fanOutStripes = new LatencyHistogram[stripes];
+        for(int i = 0; i < stripes; i++){
+            fanOutStripes[i] = new LatencyHistogram();
+        }
+        stripeMask = stripes - 1;
+        setDaemon(true);
+    }
+
+    /**
+     * Counts a message received from a client
+     *
+     * @param protocol tcp or udp
+     */
+    public void messageReceived(int protocol){
+
+        messagesIn[protocol].increment();
+    }
+
+    /**
+     * Counts the bytes read from a client
+     *
+     * @param protocol  tcp or udp
+     * @param bytes     the number of bytes read
+     */
+    public void bytesReceived(int protocol, long bytes){
+
+        bytesIn[protocol].add(bytes);
+    }
+
+    /**
+     * Counts the messages and bytes of one write to a client
+     *
+     * @param protocol  tcp or udp
+     * @param messages  the number of messages written
+     * @param bytes     the number of bytes written
+     */
+    public void sent(int protocol, int messages, long bytes){
+        if(messages > 0){
+            messagesOut[protocol].add(messages);
+        }
+        bytesOut[protocol].add(bytes);
+    }
+
+    /**
+     * Counts an action taken because too many messages were waiting for a client
+     *
+     * @param protocol  tcp or udp
+     * @param action    the action, SlowConsumerPolicy.dropNewest, dropOldest or disconnect
+     */
+    public void slowConsumer(int protocol, int action){
+
+        slowConsumerActions[protocol][action].increment();
+    }
+
+    /**
+     * Counts a message that waited for the rate limit of its client
+     *
+     * @param protocol tcp or udp
+     */
+    public void throttled(int protocol){
+
+        throttled[protocol].increment();
+    }
+
+    /**
+     * Counts a message dropped by the rate limit of its client
+     *
+     * @param protocol tcp or udp
+     */
+    public void rateLimitDropped(int protocol){
+
+        rateLimitDrops[protocol].increment();
+    }
+
+    /**
+     * Counts a client disconnected because nothing arrived from it for the idle timeout
+     *
+     * @param protocol tcp or udp
+     */
+    public void idleReaped(int protocol){
+
+        idleReaped[protocol].increment();
+    }
+
+    /**
+     * Counts a UDP fragment thrown away because it was not valid.  Anyone can send one, so it is only counted and
+     * never logged.
+     */
+    public void invalidFragment(){
+
+        invalidFragments.increment();
+    }
+
+    /**
+     * Counts a UDP fragment thrown away because the reassembly budgets or reassemblers were used up
+     */
+    public void reassemblyDropped(){
+
+        reassemblyDrops.increment();
+    }
+
+    /**
+     * Records the time taken to hand one message to every client
+     *
+     * @param nanos the time in nanoseconds
+     */
+    public void fanOut(long nanos){
+        LatencyHistogram stripe = fanOutStripes[(int) Thread.currentThread().getId() & stripeMask];
+        synchronized (stripe) {
+            stripe.record(nanos);
+        }
+    }
+
+    /**
+     * Shows the numbers through JMX under chatservice:type=ServerMetrics.  The port is added to the name, so every
+     * server in the JVM can be told apart.  A failure is logged, the server runs on without JMX.
+     *
+     * @param port the port of the server
+     */
+    public void register(int port){
+        try {
+            ObjectName objectName = new ObjectName("chatservice:type=ServerMetrics,port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            name = objectName;
+        } catch (JMException e) {
+            events.log("Error: The server metrics could not be shown through JMX.");
+        }
+    }
+
+    /**
+     * Stops showing the numbers through JMX
+     */
+    public void unregister(){
+        if(name == null){
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            //the numbers are no longer shown either way
+        }
+        name = null;
+    }
+
+    /**
+     * Works out the messages per second once a second, and logs the numbers every log interval
+     */
+    public void run(){
+        long[] lastIn = new long[2];
+        long[] lastOut = new long[2];
+        long seconds = 0;
+        while(!isInterrupted()){
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long[] inRate = new long[2];
+            long[] outRate = new long[2];
+            for(int protocol = tcp; protocol <= udp; protocol++){
+                long in = messagesIn[protocol].sum();
+                long out = messagesOut[protocol].sum();
+                inRate[protocol] = in - lastIn[protocol];
+                outRate[protocol] = out - lastOut[protocol];
+                lastIn[protocol] = in;
+                lastOut[protocol] = out;
+            }
+            messagesInRate = inRate;
+            messagesOutRate = outRate;
+            seconds++;
+            if(logInterval > 0 && seconds % logInterval == 0){
+                events.log(dump());
+            }
+        }
+    }
+
+    /**
+     * Returns the fan-out latencies recorded by every thread added together
+     *
+     * @return a new histogram of the fan-out latencies in nanoseconds
+     */
+    public LatencyHistogram getFanOutLatency(){
+        LatencyHistogram total = new LatencyHistogram();
+        for(LatencyHistogram stripe : fanOutStripes){
+            synchronized (stripe) {
+                total.add(stripe);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Forgets the fan-out latencies recorded so far, the counters are kept
+     */
+    public void resetFanOutLatency(){
+        for(LatencyHistogram stripe : fanOutStripes){
+            synchronized (stripe) {
+                stripe.reset();
+            }
+        }
+    }
+
+    /**
+     * Returns every number as text, one line for each protocol
+     *
+     * @return the snapshot of the numbers as text
+     */
+    public String dump(){
+        long[] inRate = messagesInRate;
+        long[] outRate = messagesOutRate;
+        StringBuilder text = new StringBuilder("Server metrics after " + getUptimeSeconds() + " s:");
+        text.append("\n  Sessions: ").append(clients.tcpCount()).append(" TCP/IP, ")
+                .append(clients.udpCount()).append(" UDP");
+        for(int protocol = tcp; protocol <= udp; protocol++){
+            text.append("\n  ").append(protocolNames[protocol]).append(" in: ")
+                    .append(messagesIn[protocol].sum()).append(" messages (").append(inRate[protocol])
+                    .append("/s), ").append(bytesIn[protocol].sum()).append(" bytes");
+            text.append("\n  ").append(protocolNames[protocol]).append(" out: ")
+                    .append(messagesOut[protocol].sum()).append(" messages (").append(outRate[protocol])
+                    .append("/s), ").append(bytesOut[protocol].sum()).append(" bytes");
+        }
+        for(int protocol = tcp; protocol <= udp; protocol++){
+            LongAdder[] actions = slowConsumerActions[protocol];
+            text.append("\n  ").append(protocolNames[protocol]).append(" slow clients: ")
+                    .append(actions[SlowConsumerPolicy.dropNewest].sum()).append(" new messages dropped, ")
+                    .append(actions[SlowConsumerPolicy.dropOldest].sum()).append(" old messages dropped, ")
+                    .append(actions[SlowConsumerPolicy.disconnect].sum()).append(" disconnected");
+        }
+        for(int protocol = tcp; protocol <= udp; protocol++){
+            text.append("\n  ").append(protocolNames[protocol]).append(" rate limit: ")
+                    .append(throttled[protocol].sum()).append(" messages throttled, ")
+                    .append(rateLimitDrops[protocol].sum()).append(" dropped");
+        }
+        text.append("\n  Idle clients disconnected: ").append(idleReaped[tcp].sum()).append(" TCP/IP, ")
+                .append(idleReaped[udp].sum()).append(" UDP");
+        text.append("\n  UDP fragments thrown away: ").append(invalidFragments.sum()).append(" not valid, ")
+                .append(reassemblyDrops.sum()).append(" over the reassembly budget");
+        LatencyHistogram fanOut = getFanOutLatency();
+        text.append("\n  Fan-out: ").append(fanOut.getCount()).append(" messages");
+        if(fanOut.getCount() > 0){
+            text.append(String.format(", mean %.1f us, p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                    fanOut.getMean() / 1000, micros(fanOut.valueAtPercentile(50)),
+                    micros(fanOut.valueAtPercentile(99)), micros(fanOut.valueAtPercentile(99.9)),
+                    micros(fanOut.getMax())));
+        }
+        return text.toString();
+    }
+
+    /**
+     * A helper method that turns nanoseconds into microseconds
+     *
+     * @param nanos the time in nanoseconds
+     * @return the time in microseconds
+     */
+    private static double micros(long nanos){
+
+        return nanos / 1000.0;
+    }
+
+    /**
+     * Returns the number of seconds since the server started
+     *
+     * @return the uptime in seconds
+     */
+    public long getUptimeSeconds(){
+
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Returns the number of TCP/IP clients connected
+     *
+     * @return the number of TCP/IP sessions
+     */
+    public int getActiveTcpSessions(){
+
+        return clients.tcpCount();
+    }
+
+    /**
+     * Returns the number of UDP clients connected
+     *
+     * @return the number of UDP sessions
+     */
+    public int getActiveUdpSessions(){
+
+        return clients.udpCount();
+    }
+
+    /**
+     * Returns the number of messages received from TCP/IP clients
+     *
+     * @return the number of messages
+     */
+    public long getTcpMessagesIn(){
+
+        return messagesIn[tcp].sum();
+    }
+
+    /**
+     * Returns the number of messages received from UDP clients
+     *
+     * @return the number of messages
+     */
+    public long getUdpMessagesIn(){
+
+        return messagesIn[udp].sum();
+    }
+
+    /**
+     * Returns the number of messages written to TCP/IP clients
+     *
+     * @return the number of messages
+     */
+    public long getTcpMessagesOut(){
+
+        return messagesOut[tcp].sum();
+    }
+
+    /**
+     * Returns the number of messages sent to UDP clients
+     *
+     * @return the number of messages
+     */
+    public long getUdpMessagesOut(){
+
+        return messagesOut[udp].sum();
+    }
+
+    /**
+     * Returns the number of messages received from TCP/IP clients in the last second
+     *
+     * @return the messages per second
+     */
+    public long getTcpMessagesInPerSecond(){
+
+        return messagesInRate[tcp];
+    }
+
+    /**
+     * Returns the number of messages received from UDP clients in the last second
+     *
+     * @return the messages per second
+     */
+    public long getUdpMessagesInPerSecond(){
+
+        return messagesInRate[udp];
+    }
+
+    /**
+     * Returns the number of messages written to TCP/IP clients in the last second
+     *
+     * @return the messages per second
+     */
+    public long getTcpMessagesOutPerSecond(){
+
+        return messagesOutRate[tcp];
+    }
+
+    /**
+     * Returns the number of messages sent to UDP clients in the last second
+     *
+     * @return the messages per second
+     */
+    public long getUdpMessagesOutPerSecond(){
+
+        return messagesOutRate[udp];
+    }
+
+    /**
+     * Returns the number of bytes read from TCP/IP clients
+     *
+     * @return the number of bytes
+     */
+    public long getTcpBytesIn(){
+
+        return bytesIn[tcp].sum();
+    }
+
+    /**
+     * Returns the number of bytes received from UDP clients
+     *
+     * @return the number of bytes
+     */
+    public long getUdpBytesIn(){
+
+        return bytesIn[udp].sum();
+    }
+
+    /**
+     * Returns the number of bytes written to TCP/IP clients
+     *
+     * @return the number of bytes
+     */
+    public long getTcpBytesOut(){
+
+        return bytesOut[tcp].sum();
+    }
+
+    /**
+     * Returns the number of bytes sent to UDP clients
+     *
+     * @return the number of bytes
+     */
+    public long getUdpBytesOut(){
+
+        return bytesOut[udp].sum();
+    }
+
+    /**
+     * Returns the number of messages not sent to slow TCP/IP clients, new ones dropped and old ones thrown away
+     *
+     * @return the number of messages dropped
+     */
+    public long getTcpSlowConsumerDrops(){
+
+        return slowDrops(tcp);
+    }
+
+    /**
+     * Returns the number of messages not sent to slow UDP clients, new ones dropped and old ones thrown away
+     *
+     * @return the number of messages dropped
+     */
+    public long getUdpSlowConsumerDrops(){
+
+        return slowDrops(udp);
+    }
+
+    /**
+     * Returns the number of TCP/IP clients disconnected for falling too far behind
+     *
+     * @return the number of clients disconnected
+     */
+    public long getTcpSlowConsumerDisconnects(){
+
+        return slowConsumerActions[tcp][SlowConsumerPolicy.disconnect].sum();
+    }
+
+    /**
+     * Returns the number of UDP clients disconnected for falling too far behind
+     *
+     * @return the number of clients disconnected
+     */
+    public long getUdpSlowConsumerDisconnects(){
+
+        return slowConsumerActions[udp][SlowConsumerPolicy.disconnect].sum();
+    }
+
+    /**
+     * Returns the number of messages from TCP/IP clients that waited for the rate limit of their client
+     *
+     * @return the number of messages throttled
+     */
+    public long getTcpThrottled(){
+
+        return throttled[tcp].sum();
+    }
+
+    /**
+     * Returns the number of messages from UDP clients that waited for the rate limit of their client
+     *
+     * @return the number of messages throttled
+     */
+    public long getUdpThrottled(){
+
+        return throttled[udp].sum();
+    }
+
+    /**
+     * Returns the number of messages from TCP/IP clients dropped by the rate limit of their client
+     *
+     * @return the number of messages dropped
+     */
+    public long getTcpRateLimitDrops(){
+
+        return rateLimitDrops[tcp].sum();
+    }
+
+    /**
+     * Returns the number of messages from UDP clients dropped by the rate limit of their client
+     *
+     * @return the number of messages dropped
+     */
+    public long getUdpRateLimitDrops(){
+
+        return rateLimitDrops[udp].sum();
+    }
+
+    /**
+     * Returns the number of TCP/IP clients disconnected because nothing arrived from them for the idle timeout
+     *
+     * @return the number of clients disconnected
+     */
+    public long getTcpIdleReaped(){
+
+        return idleReaped[tcp].sum();
+    }
+
+    /**
+     * Returns the number of UDP clients disconnected because nothing arrived from them for the idle timeout
+     *
+     * @return the number of clients disconnected
+     */
+    public long getUdpIdleReaped(){
+
+        return idleReaped[udp].sum();
+    }
+
+    /**
+     * Returns the number of UDP fragments thrown away because they were not valid
+     *
+     * @return the number of fragments thrown away
+     */
+    public long getUdpInvalidFragments(){
+
+        return invalidFragments.sum();
+    }
+
+    /**
+     * Returns the number of UDP fragments thrown away because the reassembly budgets or reassemblers were used up
+     *
+     * @return the number of fragments thrown away
+     */
+    public long getUdpReassemblyDrops(){
+
+        return reassemblyDrops.sum();
+    }
+
+    /**
+     * A helper method that adds up the messages dropped for the slow clients of a protocol
+     *
+     * @param protocol tcp or udp
+     * @return the number of messages dropped
+     */
+    private long slowDrops(int protocol){
+        LongAdder[] actions = slowConsumerActions[protocol];
+        return actions[SlowConsumerPolicy.dropNewest].sum() + actions[SlowConsumerPolicy.dropOldest].sum();
+    }
+
+    /**
+     * Returns the number of messages forwarded to all of the clients
+     *
+     * @return the number of fan-outs
+     */
+    public long getFanOutCount(){
+
+        return getFanOutLatency().getCount();
+    }
+
+    /**
+     * Returns the mean time taken to hand a message to every client
+     *
+     * @return the mean fan-out latency in microseconds
+     */
+    public double getFanOutMeanMicros(){
+
+        return getFanOutLatency().getMean() / 1000;
+    }
+
+    /**
+     * Returns the time under which half of the messages were handed to every client
+     *
+     * @return the median fan-out latency in microseconds
+     */
+    public double getFanOutP50Micros(){
+
+        return micros(getFanOutLatency().valueAtPercentile(50));
+    }
+
+    /**
+     * Returns the time under which 99% of the messages were handed to every client
+     *
+     * @return the 99th percentile fan-out latency in microseconds
+     */
+    public double getFanOutP99Micros(){
+
+        return micros(getFanOutLatency().valueAtPercentile(99));
+    }
+
+    /**
+     * Returns the time under which 99.9% of the messages were handed to every client
+     *
+     * @return the 99.9th percentile fan-out latency in microseconds
+     */
+    public double getFanOutP999Micros(){
+
+        return micros(getFanOutLatency().valueAtPercentile(99.9));
+    }
+
+    /**
+     * Returns the longest time taken to hand a message to every client
+     *
+     * @return the longest fan-out latency in microseconds
+     */
+    public double getFanOutMaxMicros(){
+
+        return micros(getFanOutLatency().getMax());
+    }
+}
@@ -0,0 +1,252 @@
+package chatservice;
+
+/**
+ * The numbers of the server that are shown through JMX, for example in JConsole or VisualVM under
+ * chatservice:type=ServerMetrics.  See ServerMetrics for what each number counts.
+ *
+ */
+public interface ServerMetricsMBean {
+
+    /**
+     * Returns the number of seconds since the server started
+     *
+     * @return the uptime in seconds
+     */
+    long getUptimeSeconds();
+
+    /**
+     * Returns the number of TCP/IP clients connected
+     *
+     * @return the number of TCP/IP sessions
+     */
+    int getActiveTcpSessions();
+
+    /**
+     * Returns the number of UDP clients connected
+     *
+     * @return the number of UDP sessions
+     */
+    int getActiveUdpSessions();
+
+    /**
+     * Returns the number of messages received from TCP/IP clients
+     *
+     * @return the number of messages
+     */
+    long getTcpMessagesIn();
+
+    /**
+     * Returns the number of messages received from UDP clients
+     *
+     * @return the number of messages
+     */
+    long getUdpMessagesIn();
+
+    /**
+     * Returns the number of messages written to TCP/IP clients
+     *
+     * @return the number of messages
+     */
+    long getTcpMessagesOut();
+
+    /**
+     * Returns the number of messages sent to UDP clients
+     *
+     * @return the number of messages
+     */
+    long getUdpMessagesOut();
+
+    /**
+     * Returns the number of messages received from TCP/IP clients in the last second
+     *
+     * @return the messages per second
+     */
+    long getTcpMessagesInPerSecond();
+
+    /**
+     * Returns the number of messages received from UDP clients in the last second
+     *
+     * @return the messages per second
+     */
+    long getUdpMessagesInPerSecond();
+
+    /**
+     * Returns the number of messages written to TCP/IP clients in the last second
+     *
+     * @return the messages per second
+     */
+    long getTcpMessagesOutPerSecond();
+
+    /**
+     * Returns the number of messages sent to UDP clients in the last second
+     *
+     * @return the messages per second
+     */
+    long getUdpMessagesOutPerSecond();
+
+    /**
+     * Returns the number of bytes read from TCP/IP clients
+     *
+     * @return the number of bytes
+     */
+    long getTcpBytesIn();
+
+    /**
+     * Returns the number of bytes received from UDP clients
+     *
+     * @return the number of bytes
+     */
+    long getUdpBytesIn();
+
+    /**
+     * Returns the number of bytes written to TCP/IP clients
+     *
+     * @return the number of bytes
+     */
+    long getTcpBytesOut();
+
+    /**
+     * Returns the number of bytes sent to UDP clients
+     *
+     * @return the number of bytes
+     */
+    long getUdpBytesOut();
+
+    /**
+     * Returns the number of messages not sent to slow TCP/IP clients, new ones dropped and old ones thrown away
+     *
+     * @return the number of messages dropped
+     */
+    long getTcpSlowConsumerDrops();
+
+    /**
+     * Returns the number of messages not sent to slow UDP clients, new ones dropped and old ones thrown away
+     *
+     * @return the number of messages dropped
+     */
+    long getUdpSlowConsumerDrops();
+
+    /**
+     * Returns the number of TCP/IP clients disconnected for falling too far behind
+     *
+     * @return the number of clients disconnected
+     */
+    long getTcpSlowConsumerDisconnects();
+
+    /**
+     * Returns the number of UDP clients disconnected for falling too far behind
+     *
+     * @return the number of clients disconnected
+     */
+    long getUdpSlowConsumerDisconnects();
+
+    /**
+     * Returns the number of messages from TCP/IP clients that waited for the rate limit of their client
+     *
+     * @return the number of messages throttled
+     */
+    long getTcpThrottled();
+
+    /**
+     * Returns the number of messages from UDP clients that waited for the rate limit of their client
+     *
+     * @return the number of messages throttled
+     */
+    long getUdpThrottled();
+
+    /**
+     * Returns the number of messages from TCP/IP clients dropped by the rate limit of their client
+     *
+     * @return the number of messages dropped
+     */
+    long getTcpRateLimitDrops();
+
+    /**
+     * Returns the number of messages from UDP clients dropped by the rate limit of their client
+     *
+     * @return the number of messages dropped
+     */
+    long getUdpRateLimitDrops();
+
+    /**
+     * Returns the number of TCP/IP clients disconnected because nothing arrived from them for the idle timeout
+     *
+     * @return the number of clients disconnected
+     */
+    long getTcpIdleReaped();
+
+    /**
+     * Returns the number of UDP clients disconnected because nothing arrived from them for the idle timeout
+     *
+     * @return the number of clients disconnected
+     */
+    long getUdpIdleReaped();
+
+    /**
+     * Returns the number of UDP fragments thrown away because they were not valid
+     *
+     * @return the number of fragments thrown away
+     */
+    long getUdpInvalidFragments();
+
+    /**
+     * Returns the number of UDP fragments thrown away because the reassembly budgets or reassemblers were used up
+     *
+     * @return the number of fragments thrown away
+     */
+    long getUdpReassemblyDrops();
+
+    /**
+     * Returns the number of messages forwarded to all of the clients
+     *
+     * @return the number of fan-outs
+     */
+    long getFanOutCount();
+
+    /**
+     * Returns the mean time taken to hand a message to every client
+     *
+     * @return the mean fan-out latency in microseconds
+     */
+    double getFanOutMeanMicros();
+
+    /**
+     * Returns the time under which half of the messages were handed to every client
+     *
+     * @return the median fan-out latency in microseconds
+     */
+    double getFanOutP50Micros();
+
+    /**
+     * Returns the time under which 99% of the messages were handed to every client
+     *
+     * @return the 99th percentile fan-out latency in microseconds
+     */
+    double getFanOutP99Micros();
+
+    /**
+     * Returns the time under which 99.9% of the messages were handed to every client
+     *
+     * @return the 99.9th percentile fan-out latency in microseconds
+     */
+    double getFanOutP999Micros();
+
+    /**
+     * Returns the longest time taken to hand a message to every client
+     *
+     * @return the longest fan-out latency in microseconds
+     */
+    double getFanOutMaxMicros();
+
+    /**
+     * Forgets the fan-out latencies recorded so far, the counters are kept
+     */
+    void resetFanOutLatency();
+
+    /**
+     * Returns every number as text, one line for each protocol
+     *
+     * @return the snapshot of the numbers as text
+     */
+    String dump();
+}
@@ -0,0 +1,523 @@
+package chatservice;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *The ServerThread class is the task that handles one TCP/IP client.  A ServerThread
+ * is created by the TCP server every time a client connects, and is run on
+ * its own thread by the client executor of the main server.  UDP clients are
+ * handled by the UDP server itself.
+ *
+ */
+public class ServerThread implements Runnable, ClientSession {
+
+    /**
+     * the socket this thread is using to communicate through TCP
+     */
+    private Socket socketTCP;
+
+    /**
+     * the channel to send messages to a TCP client, it is only used by the writer of this client
+     */
+    private WritableByteChannel outChannel = null;
+
+    /**
+     * the size of the buffer the writer of a TCP client copies waiting messages into
+     */
+    private static final int writeBufferSize = 16 * 1024;
+
+    /**
+     * the messages waiting to be written to the client by the writer of this client
+     */
+    private OutboundQueue outbound;
+
+    /**
+     * the chat room the client is in
+     */
+    private volatile Room room = null;
+
+    /**
+     * object to access the main server class
+     */
+    private MainServer mainServer;
+
+    /**
+     * the numbers of the server, the messages and bytes of the client are counted in it
+     */
+    private ServerMetrics metrics;
+
+    /**
+     * how fast the clients can send messages, the throttled messages are counted in it
+     */
+    private RateLimit rateLimit;
+
+    /**
+     * the tokens the client has to send messages with, only used by the reader, or null if it is not limited
+     */
+    private TokenBucket bucket;
+
+    /**
+     * marked every time something arrives from the client, the client is disconnected once it runs out
+     */
+    private IdleTimer idle;
+
+    /**
+     * the unique identifier for the client
+     */
+    private int clientID;
+
+    /**
+     * the name of the client as the bytes put in front of its messages
+     */
+    private byte[] namePrefix;
+
+    /**
+     * the event log of the server, errors are logged to it
+     */
+    ServerEvents events;
+
+    /**
+     * the constructor for a TCP thread
+     *
+     * @param socketTCP the socket to connect by TCP/IP
+     * @param mainServer the object to access the server
+     * @param events the event log of the server
+     */
+    public ServerThread(Socket socketTCP, MainServer mainServer, ServerEvents events){
+        //store the tcp socket to communicate to client
+        this.socketTCP = socketTCP;
+        //store reference to server class
+        this.mainServer = mainServer;
+        metrics = mainServer.getMetrics();
+        //store the GUI server
+        this.events = events;
+        //create the queue of messages waiting to be sent
+        outbound = new OutboundQueue(mainServer.getConfig().getQueueSize(),
+                mainServer.getSlowConsumerPolicy(ServerMetrics.tcp), this);
+        rateLimit = mainServer.getRateLimit(ServerMetrics.tcp);
+        bucket = rateLimit.newBucket();
+        idle = mainServer.getIdleReaper().watch(this);
+        //create the channel to write to the client
+        try {
+            outChannel = Channels.newChannel(socketTCP.getOutputStream());
+        } catch (IOException e) {
+            System.err.println("I/O error getting OutputStream");
+        } catch (Exception e){
+            events.log("Error: There is an issue with your connection. Please restart the program.");
+        }
+        //get the clientID
+        clientID = mainServer.getClientID();
+        namePrefix = MessageFormatter.namePrefix(clientID);
+        //send a confirmation message, it comes before the history the client is sent when it is added
+        send("Receiving communication from server using IP address " +
+                socketTCP.getInetAddress().getHostAddress() + " and Port " + socketTCP.getLocalPort() + ".");
+        //Add new client to client list
+        mainServer.addClient(this);
+    }
+
+    /**
+     * Waits for the client to send a message and then forwards it to all of the clients.
+     * The writer for the client is started on its own thread first.
+     */
+    public void run(){
+        mainServer.getClientExecutor().execute(this::runWriter);
+        runTCP();
+    }//end run
+
+    /**
+     * This method is called to communicate with a TCP/IP client
+     * It looks at the first byte the client sends to see whether it asks
+     * for the framed protocol.  It then infinitely waits to receive messages from the client.
+     */
+    private void runTCP(){
+        //create a stream to read from the client,
+        //the channel to write to the client was created with this thread
+        BufferedInputStream in = null;
+
+        //Try to create objects to send and receive from the socket
+        try {
+            in = new BufferedInputStream(new CountingInputStream(socketTCP.getInputStream()));
+            //a client asking for frames starts with the preface, which starts with a byte no line of text starts with
+            in.mark(1);
+            int first = in.read();
+            in.reset();
+            if(first == FrameProtocol.marker){
+                runFrames(new DataInputStream(in));
+            }else if(first >= 0){
+                runLines(new BufferedReader(new InputStreamReader(in)));
+            }
+        } catch(IOException e){
+            //the connection failed, stop sending to the client
+        } catch (Exception e){
+            events.log("Error: There is an issue with your connection. Please restart the program.");
+        }
+        idle.cancel();
+        mainServer.removeClient(this);
+        outbound.close();
+        try {
+            socketTCP.close();
+        } catch (IOException e) {
+            System.err.println("Error closing TCP client socket");
+        }
+    }
+
+    /**
+     * A helper method for runTCP that reads lines of text from a client until it asks to disconnect
+     *
+     * @param in the reader for the client
+     * @throws IOException if the client could not be read
+     */
+    private void runLines(BufferedReader in) throws IOException {
+        //Infinitely wait for clients to send a message and then distribute it to all clients
+        while(true){
+            try {
+                //read the message from client. If it is a request to disconnect, stop reading.
+                // A null message means the client closed the connection without asking.
+                String message = readLine(in);
+                if (message == null || message.equals(MainServer.removeMe)) {
+                    return;
+                }
+                idle.touch();
+                if (message.equals(MainServer.heartbeat)) {
+                    //the client only showed it is still there
+                } else {
+                    //Forward the message to the other clients in the room
+                    byte[] bytes = message.getBytes();
+                    forward(bytes, 0, bytes.length);
+                }//end else
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e){
+                events.log("Error: There is an issue with your connection. Please restart the program.");
+            }//end catch
+        }//end while
+    }
+
+    /**
+     * A helper method for runLines that reads one line of text from a client.  A line longer than the decoder of the
+     * event loop keeps is handed on in pieces of that size, the same as the event loop does, so a client that never
+     * ends its line cannot fill the memory of the server.
+     *
+     * @param in the reader for the client
+     * @return the line without its line ending, or null if the client closed the connection
+     * @throws IOException if the client could not be read
+     */
+    private static String readLine(BufferedReader in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) >= 0 && c != '\n'){
+            line.append((char) c);
+            if(line.length() >= MessageDecoder.maxLineSize){
+                return line.toString();
+            }
+        }
+        if(c < 0 && line.length() == 0){
+            return null;
+        }
+        //drop the carriage return of a windows line ending like readLine does
+        int length = line.length();
+        if(length > 0 && line.charAt(length - 1) == '\r'){
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+
+    /**
+     * A helper method for runTCP that reads the preface of a framed client, answers it with an ack frame and then
+     * reads frames from the client until it leaves.  The client ID in each frame is ignored, the ID the server gave
+     * the client is used instead.
+     *
+     * @param in the stream for the client
+     * @throws IOException if the client could not be read or sent a frame that is not valid
+     */
+    private void runFrames(DataInputStream in) throws IOException {
+        byte[] preface = new byte[FrameProtocol.prefaceSize];
+        in.readFully(preface);
+        int version = FrameProtocol.readPreface(preface, 0);
+        if(version < 1){
+            return;
+        }
+        Payload ack = Payload.encode(FrameProtocol.ack, clientID,
+                Integer.toString(Math.min(version, FrameProtocol.version)));
+        send(ack);
+        ack.release();
+
+        while(true){
+            FrameProtocol.Frame frame = FrameProtocol.readFrame(in);
+            idle.touch();
+            switch (frame.type) {
+                case FrameProtocol.chat:
+                case FrameProtocol.join:
+                    forward(frame.body, 0, frame.body.length);
+                    break;
+                case FrameProtocol.leave:
+                    if(frame.body.length > 0){
+                        forward(frame.body, 0, frame.body.length);
+                    }
+                    return;
+                case FrameProtocol.heartbeat:
+                    //the client only showed it is still there
+                    break;
+                default:
+                    //acks and control frames are only sent by the server
+                    break;
+            }
+        }
+    }
+
+    /**
+     * This method is run on its own thread to write the messages waiting in the outbound queue to the client, as
+     * frames or as lines of text.  The
+     * bytes of each message are shared by every client, so the writer copies them into a buffer of its own that is
+     * reused for every write.  Every message is written as a line of text until the writer reaches the ack of a framed
+     * client, and as a frame from the ack on, so the client sees the switch exactly where the ack is.  It returns once
+     * the client disconnects and the queue is closed.
+     */
+    private void runWriter(){
+        if(outChannel == null){
+            return;
+        }
+        //All the messages that are waiting are copied into the write buffer and written together,
+        //instead of one write for every message
+        ByteBuffer writeBuffer = ByteBuffer.allocateDirect(writeBufferSize);
+        boolean framed = false;
+        Payload message;
+        try {
+            while((message = outbound.take()) != null){
+                int messages = 0;
+                long bytes = 0;
+                do {
+                    if(!framed && message.type() == FrameProtocol.ack){
+                        framed = true;
+                    }
+                    messages++;
+                    bytes += message.length(framed);
+                    if(message.length(framed) > writeBuffer.remaining()){
+                        writeFully(writeBuffer);
+                    }
+                    if(message.length(framed) > writeBuffer.capacity()){
+                        //too big for the write buffer, so write it straight from the shared bytes
+                        ByteBuffer view = message.view(framed);
+                        //the bytes are shared, so the reference is kept until they are written
+                        try {
+                            while(view.hasRemaining()){
+                                outChannel.write(view);
+                            }
+                        } finally {
+                            message.release();
+                        }
+                        continue;
+                    }
+                    message.copyTo(writeBuffer, framed);
+                    message.release();
+                } while((message = outbound.poll()) != null);
+                writeFully(writeBuffer);
+                metrics.sent(ServerMetrics.tcp, messages, bytes);
+            }
+        } catch (IOException e) {
+            System.err.println("Error forwarding message to TCP client.");
+            outbound.close();
+        } catch (InterruptedException e) {
+            //the server is shutting down
+        }
+    }
+
+    /**
+     * A helper method for runWriter to write everything in the write buffer to the client
+     *
+     * @param writeBuffer the buffer holding the bytes to write, it is cleared afterwards
+     * @throws IOException if the client could not be written to
+     */
+    private void writeFully(ByteBuffer writeBuffer) throws IOException {
+        writeBuffer.flip();
+        while(writeBuffer.hasRemaining()){
+            outChannel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * A helper method that hands a message from the client to the server, which formats it and forwards it to the
+     * clients in the room of the client, or carries it out if it is a room command.  A client sending faster than
+     * its rate limit is not read until it has the tokens for the message, so its socket fills up and slows it down.
+     *
+     * @param message   the array holding the bytes of the message
+     * @param offset    the index of the first byte of the message
+     * @param length    the number of bytes of the message
+     */
+    private void forward(byte[] message, int offset, int length){
+        if(bucket != null){
+            long wait = bucket.acquire(length, System.nanoTime());
+            if(wait > 0){
+                rateLimit.throttled();
+                do {
+                    LockSupport.parkNanos(wait);
+                } while((wait = bucket.acquire(length, System.nanoTime())) > 0);
+            }
+        }
+        metrics.messageReceived(ServerMetrics.tcp);
+        mainServer.receive(this, namePrefix, message, offset, length);
+    }
+
+    /**
+     * Sends a message to the client.  The message is added to the outbound queue of the client and written by the
+     * writer of the client, so the thread forwarding the message never waits for the client.
+     *
+     * @param message the message being sent
+     */
+    public void send(Payload message){
+
+        outbound.offer(message);
+    }
+
+    /**
+     * Sends a message from the history of a room to the client, it is not held to the slow consumer policy
+     *
+     * @param message the message from the history
+     */
+    public void sendHistory(Payload message){
+
+        outbound.offerHistory(message);
+    }
+
+    /**
+     * Disconnects the client.  The writer of the client may be stuck writing to it, so the reason is only logged, and
+     * closing the socket makes the reader of the client take it out of the client list.
+     *
+     * @param reason why the client is disconnected
+     */
+    public void disconnect(String reason){
+        events.log(socketTCP.getInetAddress().getHostAddress() + " was disconnected: " + reason);
+        outbound.close();
+        try {
+            socketTCP.close();
+        } catch (IOException e) {
+            System.err.println("Error closing TCP client socket");
+        }
+    }
+
+    /**
+     * Returns the chat room the client is in
+     *
+     * @return the room, or null if the client is not in a room
+     */
+    public Room getRoom(){
+
+        return room;
+    }
+
+    /**
+     * Sets the chat room the client is in
+     *
+     * @param room the room, or null once the client has left
+     */
+    public void setRoom(Room room){
+
+        this.room = room;
+    }
+
+    /**
+     * Returns the queue of messages waiting to be written to the client
+     *
+     * @return the outbound queue of the client
+     */
+    public OutboundQueue getOutboundQueue(){
+
+        return outbound;
+    }
+
+    /**
+     * Returns the unique identifier of the client
+     *
+     * @return the client ID
+     */
+    public int getClientID(){
+
+        return clientID;
+    }
+
+    /**
+     * Returns the address of the client
+     *
+     * @return the address of the client
+     */
+    public InetAddress getInetAddress(){
+
+        return socketTCP.getInetAddress();
+    }
+
+    /**
+     * Returns false, a ServerThread only handles TCP/IP clients
+     *
+     * @return  false
+     */
+    public boolean isProtocolUDP(){
+
+        return false;
+    }
+
+    /**
+     * Returns the socket for TCP/IP clients
+     *
+     * @return  the socket
+     */
+    public Socket getTCPSocket(){
+
+        return socketTCP;
+    }
+
+    /**
+     * The stream of the client socket, it counts the bytes read from the client in the metrics.  The buffered stream
+     * on top of it reads in large pieces, so the bytes are counted once for each piece.
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        /**
+         * Wraps the stream of the client socket
+         *
+         * @param in the stream of the client socket
+         */
+        CountingInputStream(InputStream in){
+
+            super(in);
+        }
+
+        /**
+         * Reads one byte and counts it
+         *
+         * @return the byte, or -1 at the end of the stream
+         * @throws IOException if the client could not be read
+         */
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b >= 0){
+                metrics.bytesReceived(ServerMetrics.tcp, 1);
+            }
+            return b;
+        }
+
+        /**
+         * Reads bytes into an array and counts them
+         *
+         * @param b     the array the bytes are read into
+         * @param off   the index the first byte is put at
+         * @param len   the most bytes to read
+         * @return the number of bytes read, or -1 at the end of the stream
+         * @throws IOException if the client could not be read
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if(count > 0){
+                metrics.bytesReceived(ServerMetrics.tcp, count);
+            }
+            return count;
+        }
+    }
+
+}//end class
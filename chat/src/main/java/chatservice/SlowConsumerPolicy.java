@@ -0,0 +1,141 @@
+package chatservice;
+
+/**
+ * What the outbound queue of a client does once too many messages are waiting for the client, because the client is
+ * reading slower than the messages arrive or has stopped reading.  The queue never makes the thread forwarding a
+ * message wait, so one stalled client cannot hold up the others; the policy only decides which messages the stalled
+ * client loses:
+ *
+ *   dropNewest     the new message is dropped, the client gets the older messages it has not read yet
+ *   dropOldest     the oldest waiting message is dropped to make room, the client catches up with the latest messages
+ *   disconnect     the client is disconnected with the reason, the messages waiting for it are thrown away
+ *
+ * One policy is made for each protocol from the launch options and shared by the queues of its clients.  Every
+ * action taken is counted in the server metrics.
+ *
+ */
+public class SlowConsumerPolicy {
+
+    /**
+     * drop the new message once the queue passes the threshold
+     */
+    public static final int dropNewest = 0;
+
+    /**
+     * drop the oldest waiting message once the queue passes the threshold
+     */
+    public static final int dropOldest = 1;
+
+    /**
+     * disconnect the client once the queue passes the threshold
+     */
+    public static final int disconnect = 2;
+
+    /**
+     * the names of the actions, by action, as they are given in the launch options
+     */
+    private static final String[] actionNames = {"dropNewest", "dropOldest", "disconnect"};
+
+    /**
+     * what is done once the queue passes the threshold, one of dropNewest, dropOldest or disconnect
+     */
+    private final int action;
+
+    /**
+     * the most messages that can be waiting before the action is taken, 0 to use the size of the queue
+     */
+    private final int threshold;
+
+    /**
+     * the numbers of the server the actions are counted in, or null if they are not counted
+     */
+    private final ServerMetrics metrics;
+
+    /**
+     * the protocol the actions are counted under, ServerMetrics.tcp or ServerMetrics.udp
+     */
+    private final int protocol;
+
+    /**
+     * Creates a policy
+     *
+     * @param action    one of dropNewest, dropOldest or disconnect
+     * @param threshold the most messages that can be waiting before the action is taken, 0 to use the queue size
+     * @param metrics   the numbers of the server the actions are counted in, or null to not count them
+     * @param protocol  the protocol the actions are counted under, ServerMetrics.tcp or ServerMetrics.udp
+     */
+    public SlowConsumerPolicy(int action, int threshold, ServerMetrics metrics, int protocol){
+        this.action = action;
+        this.threshold = threshold;
+        this.metrics = metrics;
+        this.protocol = protocol;
+    }
+
+    /**
+     * Turns the name of an action, as it is given in the launch options, into the action
+     *
+     * @param name the name, such as dropOldest
+     * @return the action, or -1 if there is no action with that name
+     */
+    public static int parse(String name){
+        for(int i = 0; i < actionNames.length; i++){
+            if(actionNames[i].equalsIgnoreCase(name)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name of an action
+     *
+     * @param action one of dropNewest, dropOldest or disconnect
+     * @return the name of the action
+     */
+    public static String name(int action){
+
+        return actionNames[action];
+    }
+
+    /**
+     * Returns the number of messages that can be waiting in a queue before the action is taken
+     *
+     * @param capacity the size of the queue
+     * @return the threshold, never more than the size of the queue
+     */
+    public int thresholdFor(int capacity){
+
+        return threshold > 0 ? Math.min(threshold, capacity) : capacity;
+    }
+
+    /**
+     * Returns what is done once a queue passes the threshold
+     *
+     * @return one of dropNewest, dropOldest or disconnect
+     */
+    public int getAction(){
+
+        return action;
+    }
+
+    /**
+     * Counts an action taken by a queue
+     *
+     * @param taken the action that was taken
+     */
+    public void taken(int taken){
+        if(metrics != null){
+            metrics.slowConsumer(protocol, taken);
+        }
+    }
+
+    /**
+     * Returns the policy as text
+     *
+     * @return the action and the threshold
+     */
+    public String toString(){
+
+        return name(action) + (threshold > 0 ? " after " + threshold + " messages" : " when the queue is full");
+    }
+}
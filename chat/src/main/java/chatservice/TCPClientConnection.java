@@ -0,0 +1,333 @@
+package chatservice;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The connection of the chat client to the server over TCP/IP.  The client asks for the framed protocol and joins as
+ * soon as it connects.  The server sends lines of text until it answers with an ack frame, and frames after that.
+ *
+ * The socket and its streams are kept for the whole session.  Sending a message only adds it to the outbound queue,
+ * and the writer of the connection writes every message that is waiting with one write.  The flush delay of the
+ * launch options lets the writer wait a little for more messages before it writes, and TCP_NODELAY decides whether
+ * the socket may hold back small packets on top of that.
+ *
+ */
+public class TCPClientConnection extends ClientConnection {
+
+    /**
+     * the socket connected to the server
+     */
+    private Socket socketTCP;
+
+    /**
+     * the size of the buffer the waiting frames are copied into to be written
+     */
+    private static final int writeBufferSize = 16 * 1024;
+
+    /**
+     * the time in milliseconds close waits for the writer to send the leave frame
+     */
+    private static final int leaveWait = 1000;
+
+    /**
+     * the channel the writer sends frames to the TCP/IP server through
+     */
+    private WritableByteChannel outChannel;
+
+    /**
+     * the frames waiting to be written to the server
+     */
+    private OutboundQueue outbound;
+
+    /**
+     * the time in nanoseconds the writer waits for more frames before it writes what it has
+     */
+    private long flushDelay;
+
+    /**
+     * the time in nanoseconds the writer waits for a frame before it sends a heartbeat, 0 to never send one
+     */
+    private long heartbeatInterval;
+
+    /**
+     * true once the leave frame has been queued, the writer stops once it has written it
+     */
+    private volatile boolean leaving = false;
+
+    /**
+     * counted down when the writer stops
+     */
+    private CountDownLatch writerDone = new CountDownLatch(1);
+
+    /**
+     * the stream to read lines and frames from the TCP/IP server
+     */
+    private DataInputStream in;
+
+    /**
+     * the ID the server gave this client, it is sent in the ack frame
+     */
+    private volatile int clientID = 0;
+
+    /**
+     * the bytes of the line of text being read from the TCP/IP server, it is reused for every line
+     */
+    private ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+
+    /**
+     * Connects to the server, asks for the framed protocol and queues the join message
+     *
+     * @param server    the address of the server
+     * @param port      the port of the server
+     * @param listener  is told about everything that happens on the connection
+     * @param config    the launch options that set TCP_NODELAY, the flush delay, the size of the outbound queue and
+     *                  the heartbeat interval
+     * @throws IOException if the client could not connect
+     */
+    public TCPClientConnection(InetAddress server, int port, Listener listener, ClientConfig config)
+            throws IOException {
+        super(listener);
+        socketTCP = new Socket(server, port);
+        socketTCP.setTcpNoDelay(config.isTcpNoDelay());
+        flushDelay = TimeUnit.MILLISECONDS.toNanos(config.getFlushDelay());
+        heartbeatInterval = TimeUnit.SECONDS.toNanos(config.getHeartbeatInterval());
+        outbound = new OutboundQueue(config.getSendQueueSize());
+        OutputStream out = socketTCP.getOutputStream();
+        outChannel = Channels.newChannel(out);
+        in = new DataInputStream(new BufferedInputStream(socketTCP.getInputStream()));
+        //ask the server for the framed protocol and join the chat
+        FrameProtocol.writePreface(out);
+        sendFrame(FrameProtocol.join, joinMessage);
+    }
+
+    /**
+     * Starts the reader and the writer of the connection
+     */
+    public void start(){
+        super.start();
+        threads.execute(this::runWriter);
+    }
+
+    /**
+     * Reads messages from the server until the connection is closed or lost
+     */
+    protected void receive(){
+        try {
+            while(receiveTCP()){
+                //keep reading until the server closes the connection
+            }
+        } catch (IOException e) {
+            //the connection failed, or was closed by close
+        }
+        if(!closed){
+            listener.connectionLost(false);
+        }
+    }
+
+    /**
+     * A helper method for receive that reads one message from the TCP/IP server and hands it to the listener.  A frame
+     * always starts with a zero byte, which no line does.
+     *
+     * @return false if the server closed the connection
+     * @throws IOException if the server could not be read
+     */
+    private boolean receiveTCP() throws IOException {
+        in.mark(1);
+        int first = in.read();
+        if(first < 0){
+            return false;
+        }
+        in.reset();
+        if(first != FrameProtocol.marker){
+            String line = readLine();
+            if(line == null){
+                return false;
+            }
+            listener.messageReceived(line);
+            return true;
+        }
+        FrameProtocol.Frame frame = FrameProtocol.readFrame(in);
+        if(frame.type == FrameProtocol.ack){
+            //the server has switched to frames and says which ID it gave this client
+            clientID = frame.senderID;
+            listener.joined();
+        }else{
+            listener.messageReceived(frame.message(charset));
+        }
+        return true;
+    }
+
+    /**
+     * A helper method for receiveTCP that reads one line of text from the TCP/IP server
+     *
+     * @return the line without its line ending, or null if the server closed the connection
+     * @throws IOException if the server could not be read
+     */
+    private String readLine() throws IOException {
+        lineBytes.reset();
+        int b;
+        while((b = in.read()) != '\n'){
+            if(b < 0){
+                return null;
+            }
+            lineBytes.write(b);
+        }
+        String line = lineBytes.toString(charset);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    /**
+     * Sends a chat message to the server
+     *
+     * @param message the message being sent
+     * @throws IOException if the message could not be sent
+     */
+    public void send(String message) throws IOException {
+
+        sendFrame(FrameProtocol.chat, message);
+    }
+
+    /**
+     * Sends the leave frame, the server tells the other clients and removes this client
+     *
+     * @throws IOException if the frame could not be sent
+     */
+    public void leave() throws IOException {
+        //the server closes the connection once it has the leave frame
+        closed = true;
+        leaving = true;
+        sendFrame(FrameProtocol.leave, leaveMessage);
+    }
+
+    /**
+     * A helper method that adds one frame to the outbound queue
+     *
+     * @param type      the type of the frame
+     * @param message   the message being sent
+     * @throws IOException if too many frames are already waiting to be written
+     */
+    private void sendFrame(byte type, String message) throws IOException {
+        Payload frame = Payload.encode(type, clientID, message);
+        boolean queued = outbound.offer(frame);
+        frame.release();
+        if(!queued){
+            throw new IOException("Too many messages are waiting to be sent to the server.");
+        }
+    }
+
+    /**
+     * This method is run on its own thread to write the frames waiting in the outbound queue to the server.  All the
+     * frames that are waiting, and any that arrive within the flush delay, are copied into one buffer and written
+     * together.  A heartbeat frame is written whenever nothing was sent for the heartbeat interval.  It returns once
+     * the leave frame has been written or the connection is closed.
+     */
+    private void runWriter(){
+        ByteBuffer writeBuffer = ByteBuffer.allocate(writeBufferSize);
+        Payload message;
+        try {
+            while((message = nextFrame()) != null){
+                long flushAt = System.nanoTime() + flushDelay;
+                do {
+                    if(message.length(true) > writeBuffer.remaining()){
+                        writeFully(writeBuffer);
+                    }
+                    if(message.length(true) > writeBuffer.capacity()){
+                        //too big for the write buffer, so write it straight from the payload
+                        ByteBuffer view = message.view(true);
+                        while(view.hasRemaining()){
+                            outChannel.write(view);
+                        }
+                    }else{
+                        message.copyTo(writeBuffer, true);
+                    }
+                    message.release();
+                    message = outbound.poll();
+                    if(message == null && flushDelay > 0){
+                        message = outbound.poll(flushAt - System.nanoTime());
+                    }
+                } while(message != null);
+                writeFully(writeBuffer);
+                if(leaving && outbound.isEmpty()){
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error sending message to the TCP/IP server.");
+            outbound.close();
+        } catch (InterruptedException e) {
+            //the client is shutting down
+        } finally {
+            writerDone.countDown();
+        }
+    }
+
+    /**
+     * A helper method for runWriter that waits for the next frame to write.  If no frame is queued within the
+     * heartbeat interval, a heartbeat frame is written instead.
+     *
+     * @return the frame, or null once the connection is closed
+     * @throws InterruptedException if the writer is interrupted while waiting
+     */
+    private Payload nextFrame() throws InterruptedException {
+        if(heartbeatInterval == 0){
+            return outbound.take();
+        }
+        Payload message = outbound.poll(heartbeatInterval);
+        if(message == null && !closed){
+            message = Payload.encode(FrameProtocol.heartbeat, clientID, "");
+        }
+        return message;
+    }
+
+    /**
+     * A helper method for runWriter to write everything in the write buffer to the server
+     *
+     * @param writeBuffer the buffer holding the bytes to write, it is cleared afterwards
+     * @throws IOException if the server could not be written to
+     */
+    private void writeFully(ByteBuffer writeBuffer) throws IOException {
+        writeBuffer.flip();
+        while(writeBuffer.hasRemaining()){
+            outChannel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Closes the socket, which wakes up the reader.  If the client is leaving, the writer is given a moment to send
+     * the leave frame first.
+     */
+    public void close(){
+        closed = true;
+        if(leaving){
+            try {
+                writerDone.await(leaveWait, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        outbound.close();
+        try {
+            socketTCP.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the TCP/IP socket.");
+        }
+    }
+
+    /**
+     * Returns the address of the server
+     *
+     * @return the IP address of the server as text
+     */
+    public String getServerAddress(){
+
+        return socketTCP.getInetAddress().getHostAddress();
+    }
+}
@@ -0,0 +1,82 @@
+package chatservice;
+
+import java.io.IOException;
+import java.nio.channels.*;
+
+/**
+ * This class is the selector based version of the TCPServer.  Instead of starting a new thread for every TCP client it
+ * accepts the client connections and hands them to a small fixed group of I/O threads.  Each I/O thread waits on a
+ * selector for all of its clients at once, so the number of threads does not grow with the number of clients.
+ *
+ */
+public class TCPSelectorServer extends Thread {
+
+    /**
+     * The channel to accept client connections
+     */
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * The object to access the main server
+     */
+    private MainServer mainServer;
+
+    /**
+     * the event log of the server, errors are logged to it
+     */
+    private ServerEvents events;
+
+    /**
+     * the I/O threads that read from and write to the connected clients
+     */
+    private SelectorWorker[] workers;
+
+    /**
+     * the index of the I/O thread the next client is given to
+     */
+    private int nextWorker = 0;
+
+    /**
+     * The constructor which is storing the channel the clients connect through and the object to access the
+     * main web server.  It also starts the I/O threads.
+     *
+     * @param serverChannel The channel new clients will connect to
+     * @param mainServer    Object to access the main server
+     * @param events        The event log of the server
+     * @param ioThreads     The number of I/O threads to start
+     * @throws IOException if a selector for the I/O threads could not be opened
+     */
+    public TCPSelectorServer(ServerSocketChannel serverChannel, MainServer mainServer, ServerEvents events,
+                             int ioThreads) throws IOException {
+        this.serverChannel = serverChannel;
+        this.mainServer = mainServer;
+        this.events = events;
+        workers = new SelectorWorker[ioThreads];
+        for(int i = 0; i < ioThreads; i++){
+            workers[i] = new SelectorWorker(mainServer, events, i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * This method is called when the thread is started in the constructor of the main server class.  It waits for TCP
+     * clients to connect and gives each new client to the next I/O thread in turn.
+     */
+    public void run(){
+        while(true) {
+            SocketChannel channel;
+            try {
+                //the server channel is left in blocking mode, so this waits for the next client
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                events.log("Error: There is an issue with the socket connection. Please restart the program.");
+                return;
+            } catch (Exception e) {
+                events.log("Error: There is an issue with your connection. Please restart the program.");
+                return;
+            }
+            workers[nextWorker].addChannel(channel);
+            nextWorker = (nextWorker + 1) % workers.length;
+        }
+    }
+}
@@ -1,3 +1,5 @@
+package chatservice;
+
 import java.io.IOException;
 import java.net.*;
 
@@ -19,9 +21,9 @@ public class TCPServer extends Thread{
     private MainServer mainServer;
 
     /**
-     * the object to access the GUI for the server to update the client list
+     * the event log of the server, errors are logged to it
      */
-    private ServerGUI serverGUI;
+    private ServerEvents events;
 
     /**
      * The constructor which is storing the socket the client is communicating through and the object to access the
@@ -29,11 +31,12 @@ public class TCPServer extends Thread{
      *
      * @param serverSocket  The socket new clients will connect to
      * @param mainServer    Object to access the main server
+     * @param events        The event log of the server
      */
-    public TCPServer(ServerSocket serverSocket, MainServer mainServer, ServerGUI serverGUI){
+    public TCPServer(ServerSocket serverSocket, MainServer mainServer, ServerEvents events){
         this.serverSocket = serverSocket;
         this.mainServer = mainServer;
-        this.serverGUI = serverGUI;
+        this.events = events;
     }
 
     /**
@@ -49,14 +52,14 @@ public class TCPServer extends Thread{
             try {
                 socket = serverSocket.accept();
             } catch (IOException e) {
-                serverGUI.displayText("Error: There is an issue with the socket connection. Please restart the program.");
+                events.log("Error: There is an issue with the socket connection. Please restart the program.");
                 return;
             } catch (Exception e) {
-                serverGUI.displayText("Error: There is an issue with your connection. Please restart the program.");
+                events.log("Error: There is an issue with your connection. Please restart the program.");
                 return;
             }
-            ServerThread servant = new ServerThread(socket, mainServer, serverGUI);
-            servant.start();
+            ServerThread servant = new ServerThread(socket, mainServer, events);
+            mainServer.getClientExecutor().execute(servant);
         }
     }
 }
@@ -0,0 +1,99 @@
+package chatservice;
+
+/**
+ * The token buckets that limit how fast one client can send messages to the server, one bucket for messages and one
+ * for bytes.  Each bucket fills up at its rate per second and holds at most one second of tokens, so a client can
+ * send a short burst after being quiet.  A message takes one message token and a token for each of its bytes.  The
+ * byte bucket is allowed to go below empty, so a message longer than a second of bytes still gets through once the
+ * bucket is full, and the client then waits for the bucket to fill up again.
+ *
+ * A bucket is only used by the thread that reads the client, so it is not thread safe.
+ *
+ */
+public class TokenBucket {
+
+    /**
+     * the number of nanoseconds in a second
+     */
+    private static final double nanosPerSecond = 1_000_000_000.0;
+
+    /**
+     * the most messages the client can send each second, 0 if they are not limited
+     */
+    private final int messageRate;
+
+    /**
+     * the most bytes the client can send each second, 0 if they are not limited
+     */
+    private final int byteRate;
+
+    /**
+     * the message tokens in the bucket
+     */
+    private double messageTokens;
+
+    /**
+     * the byte tokens in the bucket, below 0 after a message longer than the bucket
+     */
+    private double byteTokens;
+
+    /**
+     * the time the buckets were last filled up, in the units of System.nanoTime
+     */
+    private long lastFill;
+
+    /**
+     * Creates full buckets
+     *
+     * @param messageRate   the most messages the client can send each second, 0 to not limit them
+     * @param byteRate      the most bytes the client can send each second, 0 to not limit them
+     * @param now           the time now, in the units of System.nanoTime
+     */
+    public TokenBucket(int messageRate, int byteRate, long now){
+        this.messageRate = messageRate;
+        this.byteRate = byteRate;
+        messageTokens = messageRate;
+        byteTokens = byteRate;
+        lastFill = now;
+    }
+
+    /**
+     * Takes the tokens for a message if there are enough of them
+     *
+     * @param bytes the number of bytes of the message
+     * @param now   the time now, in the units of System.nanoTime
+     * @return 0 if the tokens were taken, otherwise the nanoseconds until there are enough of them
+     */
+    public long acquire(int bytes, long now){
+        fill(now);
+        double wait = 0;
+        if(messageRate > 0 && messageTokens < 1){
+            wait = (1 - messageTokens) / messageRate;
+        }
+        if(byteRate > 0 && byteTokens < 0){
+            wait = Math.max(wait, -byteTokens / byteRate);
+        }
+        if(wait > 0){
+            //never 0, which would mean the tokens were taken
+            return Math.max(1, (long) Math.ceil(wait * nanosPerSecond));
+        }
+        messageTokens--;
+        byteTokens -= bytes;
+        return 0;
+    }
+
+    /**
+     * A helper method for acquire that adds the tokens earned since the buckets were last filled up
+     *
+     * @param now the time now, in the units of System.nanoTime
+     */
+    private void fill(long now){
+        double seconds = (now - lastFill) / nanosPerSecond;
+        if(seconds <= 0){
+            return;
+        }
+        lastFill = now;
+        messageTokens = Math.min(messageRate, messageTokens + seconds * messageRate);
+        byteTokens = Math.min(byteRate, byteTokens + seconds * byteRate);
+    }
+}
@@ -0,0 +1,291 @@
+package chatservice;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The connection of the chat client to the server over UDP.  The client joins by sending the join message to the
+ * server's UDP port, and the server shows it is there by forwarding the join message back.  Every message after that
+ * comes from the same port.
+ *
+ * UDP has no connection that breaks, so both sides send heartbeats.  The client sends one whenever it has sent nothing
+ * for the heartbeat interval, the server answers it with one of its own, and the server is thought to be gone once
+ * nothing has been heard from it for a few heartbeat intervals.
+ *
+ */
+public class UDPClientConnection extends ClientConnection {
+
+    /**
+     * the message that asks the server to remove this client from the client list, the one the server looks for
+     */
+    private static final String removeMe = MainServer.removeMe;
+
+    /**
+     * the time in milliseconds to wait for the server to answer the join
+     */
+    private static final int shortWait = 2000;
+
+    /**
+     * the time in milliseconds to wait for a message before the server is thought to be gone, when no heartbeats
+     * are sent
+     */
+    private static final int longWait = 3600000;
+
+    /**
+     * the number of heartbeat intervals without hearing from the server before it is thought to be gone
+     */
+    private static final int missedHeartbeats = 3;
+
+    /**
+     * the most bytes sent in one UDP packet, longer messages are split into fragments
+     */
+    private static final int packetSize = 1400;
+
+    /**
+     * the size of the buf for received datagram packets, big enough for the largest UDP packet so a batch of
+     * messages from the server is never cut off
+     */
+    private static final int receiveBufSize = 65507;
+
+    /**
+     * the address the server was given as
+     */
+    private String serverName;
+
+    /**
+     * the socket the client sends and receives on
+     */
+    private DatagramSocket socketUDP;
+
+    /**
+     * the buf each fragment of a long UDP message is built in, it is reused for every fragment
+     */
+    private byte[] sendBuf = new byte[packetSize];
+
+    /**
+     * the packet every UDP message is sent in, it is reused for every message
+     */
+    private DatagramPacket sendPacket;
+
+    /**
+     * the time in milliseconds without sending anything before a heartbeat is sent, 0 to never send one
+     */
+    private int heartbeatInterval;
+
+    /**
+     * the time the last packet was sent to the server, in the units of System.nanoTime
+     */
+    private volatile long lastSent = System.nanoTime();
+
+    /**
+     * the ID given to the next long UDP message that is split into fragments
+     */
+    private int nextMessageID = 0;
+
+    /**
+     * puts the fragments of long UDP messages from the server back together, only used by the reader
+     */
+    private FragmentReassembler reassembler = new FragmentReassembler(PayloadPool.receiving());
+
+    /**
+     * Opens the socket the client talks to the server on.  Nothing is sent until the connection is started.
+     *
+     * @param serverName    the address the server was given as
+     * @param port          the UDP port of the server
+     * @param listener      is told about everything that happens on the connection
+     * @param config        the launch options that set the heartbeat interval
+     * @throws IOException if the socket could not be opened or the server name is not known
+     */
+    public UDPClientConnection(String serverName, int port, Listener listener, ClientConfig config)
+            throws IOException {
+        super(listener);
+        heartbeatInterval = (int) TimeUnit.SECONDS.toMillis(config.getHeartbeatInterval());
+        this.serverName = serverName;
+        socketUDP = new DatagramSocket();
+        sendPacket = new DatagramPacket(sendBuf, 0, InetAddress.getByName(serverName), port);
+    }
+
+    /**
+     * Sends the join message and starts the reader, which waits for the server to answer it
+     */
+    public void start(){
+        try {
+            sendUDP(joinMessage);
+        } catch (IOException e) {
+            System.err.println("Error sending the join message to the UDP server.");
+        }
+        super.start();
+    }
+
+    /**
+     * Waits for the server to answer the join, then reads packets until the connection is closed or lost
+     */
+    protected void receive(){
+        DatagramPacket packet = new DatagramPacket(new byte[receiveBufSize], receiveBufSize);
+        try {
+            socketUDP.setSoTimeout(shortWait);
+            try {
+                socketUDP.receive(packet);
+            } catch (SocketTimeoutException e) {
+                close();
+                listener.joinTimedOut();
+                return;
+            }
+            listener.joined();
+            handlePacket(packet);
+            if(heartbeatInterval == 0){
+                socketUDP.setSoTimeout(longWait);
+                while(true){
+                    packet.setLength(receiveBufSize);
+                    socketUDP.receive(packet);
+                    handlePacket(packet);
+                }
+            }
+            receiveWithHeartbeats(packet);
+        } catch (SocketTimeoutException e) {
+            if(!closed){
+                listener.connectionLost(true);
+            }
+        } catch (IOException e) {
+            if(!closed){
+                listener.connectionLost(false);
+            }
+        } finally {
+            reassembler.release();
+        }
+    }
+
+    /**
+     * A helper method for receive that reads packets while sending heartbeats.  The socket wakes up the reader once
+     * every heartbeat interval, so no thread is needed to send them.
+     *
+     * @param packet the packet every UDP packet is received into
+     * @throws SocketTimeoutException if nothing was heard from the server for too long
+     * @throws IOException if the socket failed or was closed
+     */
+    private void receiveWithHeartbeats(DatagramPacket packet) throws IOException {
+        long interval = TimeUnit.MILLISECONDS.toNanos(heartbeatInterval);
+        long lastHeard = System.nanoTime();
+        socketUDP.setSoTimeout(heartbeatInterval);
+        while(true){
+            packet.setLength(receiveBufSize);
+            try {
+                socketUDP.receive(packet);
+                lastHeard = System.nanoTime();
+                handlePacket(packet);
+            } catch (SocketTimeoutException e) {
+                if(System.nanoTime() - lastHeard >= missedHeartbeats * interval){
+                    throw e;
+                }
+            }
+            //a client that only listens still has to show it is there
+            if(System.nanoTime() - lastSent >= interval){
+                sendUDP(heartbeat);
+            }
+        }
+    }
+
+    /**
+     * A helper method for receive that hands every message in a UDP packet to the listener.  The server may pack
+     * several messages into one packet, or split a long message into fragments that are handed on once the last one
+     * arrives.
+     *
+     * @param packet the packet that was received
+     */
+    private void handlePacket(DatagramPacket packet){
+        ByteBuffer received = ByteBuffer.wrap(packet.getData(), 0, packet.getLength()).slice();
+        if(DatagramFragment.isFragment(received)){
+            if(reassembler.add(received)){
+                listener.messageReceived(reassembler.take(charset));
+            }
+            return;
+        }
+        for(String message : DatagramBatch.unpack(packet.getData(), packet.getLength(), charset)){
+            //the answer to a heartbeat only shows the server is still there
+            if(!message.equals(heartbeat)){
+                listener.messageReceived(message);
+            }
+        }
+    }
+
+    /**
+     * Sends a chat message to the server
+     *
+     * @param message the message being sent
+     * @throws IOException if the message could not be sent
+     */
+    public void send(String message) throws IOException {
+
+        sendUDP(message);
+    }
+
+    /**
+     * Tells the other clients this client is leaving, then asks the server to remove it.  The leave message is sent
+     * first, the server would take anything sent after the remove message as a new client joining.
+     *
+     * @throws IOException if a message could not be sent
+     */
+    public void leave() throws IOException {
+        closed = true;
+        sendUDP(leaveMessage);
+        sendUDP(removeMe);
+    }
+
+    /**
+     * A helper method that sends one message to the UDP server.  A message longer than the packet size is split into
+     * fragments.
+     *
+     * @param message the message being sent
+     * @throws IOException if a packet could not be sent
+     */
+    private synchronized void sendUDP(String message) throws IOException {
+        byte[] bytes = message.getBytes(charset);
+        lastSent = System.nanoTime();
+        if(bytes.length <= packetSize){
+            sendPacket.setData(bytes, 0, bytes.length);
+            socketUDP.send(sendPacket);
+            return;
+        }
+        ByteBuffer fragment = ByteBuffer.wrap(sendBuf);
+        int messageID = nextMessageID++;
+        int pieceSize = packetSize - DatagramFragment.headerSize;
+        for(int offset = 0; offset < bytes.length; offset += pieceSize){
+            int length = Math.min(pieceSize, bytes.length - offset);
+            fragment.clear();
+            DatagramFragment.putHeader(fragment, messageID, bytes.length, offset);
+            fragment.put(bytes, offset, length);
+            sendPacket.setData(sendBuf, 0, fragment.position());
+            socketUDP.send(sendPacket);
+        }
+    }
+
+    /**
+     * Closes the socket, which wakes up the reader
+     */
+    public void close(){
+        closed = true;
+        socketUDP.close();
+    }
+
+    /**
+     * Returns the address the server was given as
+     *
+     * @return the server name
+     */
+    public String getServerAddress(){
+
+        return serverName;
+    }
+
+    /**
+     * Returns the port the client receives on
+     *
+     * @return the local port of the socket
+     */
+    public int getLocalPort(){
+
+        return socketUDP.getLocalPort();
+    }
+}
@@ -0,0 +1,319 @@
+package chatservice;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The thread that sends messages to every UDP client.  Forwarding a message to a UDP client only adds it to the
+ * client's outbound queue and puts the client in line for this thread.  This thread takes the clients in turn and
+ * sends their waiting messages from the server's one UDP socket.  A message longer than the packet size is split
+ * into fragments (see DatagramFragment).
+ *
+ * When batching is turned on, a client's messages are held for a short time after the first one arrives, and then
+ * as many as fit are packed into each packet (see DatagramBatch).  A client is sent a full packet right away instead
+ * of waiting if enough messages for one are already waiting.  Every client waits the same time, so the clients are
+ * kept in the order they are due in and no timer is needed for each client.
+ *
+ */
+public class UDPSender extends Thread {
+
+    /**
+     * the size of the buffer each packet is built in
+     */
+    private static final int sendBufferSize = 64 * 1024;
+
+    /**
+     * the smallest packet size allowed, so a fragment always has room for part of the message
+     */
+    private static final int minPacketSize = 64;
+
+    /**
+     * the UDP socket of the server
+     */
+    private DatagramChannel channel;
+
+    /**
+     * the event log of the server, errors are logged to it
+     */
+    private ServerEvents events;
+
+    /**
+     * the numbers of the server, the messages and bytes sent are counted in it
+     */
+    private ServerMetrics metrics;
+
+    /**
+     * true if the messages waiting for a client are packed into as few packets as possible
+     */
+    private boolean batching;
+
+    /**
+     * the most bytes put in one packet when batching or splitting a long message
+     */
+    private int packetSize;
+
+    /**
+     * the time in nanoseconds a client's messages are held for more to arrive, zero when not batching
+     */
+    private long batchDelay;
+
+    /**
+     * the UDP clients that have messages waiting, in the order they were put in line
+     */
+    private ConcurrentLinkedQueue<UDPSession> scheduled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the UDP clients that have a full packet of messages waiting
+     */
+    private ConcurrentLinkedQueue<UDPSession> full = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the UDP clients waiting for their messages to be due, only used by this thread
+     */
+    private ArrayDeque<UDPSession> waiting = new ArrayDeque<>();
+
+    /**
+     * the ID given to the next message that is split into fragments
+     */
+    private int nextMessageID = 0;
+
+    /**
+     * the buffer every packet is built in, it is reused for every packet
+     */
+    private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(sendBufferSize);
+
+    /**
+     * the number of packets sent
+     */
+    private volatile long packetsSent = 0;
+
+    /**
+     * the number of messages sent
+     */
+    private volatile long messagesSent = 0;
+
+    /**
+     * Creates the sender thread
+     *
+     * @param channel   the UDP socket of the server
+     * @param events    the event log of the server
+     * @param config    the launch options that say whether and how to batch messages
+     * @param metrics   the numbers of the server, the messages and bytes sent are counted in it
+     */
+    public UDPSender(DatagramChannel channel, ServerEvents events, ServerConfig config, ServerMetrics metrics){
+        super("udp-sender");
+        this.channel = channel;
+        this.events = events;
+        this.metrics = metrics;
+        batching = config.isUdpBatch();
+        packetSize = Math.max(minPacketSize, Math.min(config.getUdpPacketSize(), sendBufferSize));
+        batchDelay = batching ? config.getUdpBatchDelay() * 1000000L : 0;
+        setDaemon(true);
+    }
+
+    /**
+     * Puts a client with waiting messages in line to be sent to
+     *
+     * @param session the client with waiting messages
+     */
+    public void schedule(UDPSession session){
+        scheduled.add(session);
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Asks for a full packet of a client's messages to be sent without waiting for the batch delay
+     *
+     * @param session the client with a full packet of messages waiting
+     */
+    public void flushFull(UDPSession session){
+        full.add(session);
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Returns the time a client put in line now is due to be sent to
+     *
+     * @return the time, in the units of System.nanoTime
+     */
+    public long deadlineFromNow(){
+
+        return System.nanoTime() + batchDelay;
+    }
+
+    /**
+     * Returns true if messages are packed into batch packets
+     *
+     * @return true if batching is turned on
+     */
+    public boolean isBatching(){
+
+        return batching;
+    }
+
+    /**
+     * Returns the most bytes put in one packet when batching or splitting a long message
+     *
+     * @return the packet size
+     */
+    public int getPacketSize(){
+
+        return packetSize;
+    }
+
+    /**
+     * Sends the waiting messages of each client once they are due.  The thread sleeps until the next client is due
+     * or a client is put in line.
+     */
+    public void run(){
+        while(!isInterrupted()){
+            try {
+                UDPSession session;
+                while((session = full.poll()) != null){
+                    session.sendFullPackets();
+                }
+                while((session = scheduled.poll()) != null){
+                    waiting.add(session);
+                }
+                long now = System.nanoTime();
+                while(!waiting.isEmpty() && waiting.peek().getDeadline() - now <= 0){
+                    waiting.poll().drain();
+                }
+                if(!full.isEmpty() || !scheduled.isEmpty()){
+                    continue;
+                }
+                if(waiting.isEmpty()){
+                    LockSupport.park(this);
+                }else{
+                    LockSupport.parkNanos(this, waiting.peek().getDeadline() - now);
+                }
+            } catch (Exception e){
+                events.log("Error: There is an issue with your connection. Please restart the program.");
+            }
+        }
+    }
+
+    /**
+     * Sends one packet of a client's waiting messages.  When batching, as many messages as fit in the packet size are
+     * packed into the packet.  A packet that would only hold one message is sent as a plain message, and a message
+     * longer than the packet size is sent as fragments.  This is only called by this thread.
+     *
+     * @param session the client to send to
+     * @return true if a packet was sent, false if no messages were waiting
+     */
+    public boolean sendPacket(UDPSession session){
+        Payload first = session.nextMessage();
+        if(first == null){
+            return false;
+        }
+        int entrySize = DatagramBatch.entryHeaderSize + first.datagramLength();
+        if(!batching || DatagramBatch.headerSize + entrySize > packetSize){
+            sendDatagram(first, session.getSocketAddress());
+            session.sent(first);
+            return true;
+        }
+        Payload second = session.nextMessage();
+        if(second == null || DatagramBatch.headerSize + entrySize + DatagramBatch.entryHeaderSize
+                + second.datagramLength() > packetSize){
+            if(second != null){
+                session.putBack(second);
+            }
+            sendDatagram(first, session.getSocketAddress());
+            session.sent(first);
+            return true;
+        }
+
+        //pack the messages into one packet until the next one does not fit
+        sendBuffer.clear();
+        DatagramBatch.putHeader(sendBuffer);
+        DatagramBatch.putEntry(sendBuffer, first);
+        session.sent(first);
+        DatagramBatch.putEntry(sendBuffer, second);
+        session.sent(second);
+        int count = 2;
+        Payload message;
+        while((message = session.nextMessage()) != null){
+            if(sendBuffer.position() + DatagramBatch.entryHeaderSize + message.datagramLength() > packetSize){
+                session.putBack(message);
+                break;
+            }
+            DatagramBatch.putEntry(sendBuffer, message);
+            session.sent(message);
+            count++;
+        }
+        sendBuffer.flip();
+        send(session.getSocketAddress(), count);
+        return true;
+    }
+
+    /**
+     * Sends one message to a UDP client as a plain packet.  This is only called by this thread.
+     *
+     * @param message   the message being sent
+     * @param address   the address of the client
+     */
+    private void sendDatagram(Payload message, SocketAddress address){
+        if(message.datagramLength() > packetSize){
+            sendFragments(message, address);
+            return;
+        }
+        sendBuffer.clear();
+        message.copyDatagramTo(sendBuffer);
+        sendBuffer.flip();
+        send(address, 1);
+    }
+
+    /**
+     * A helper method for sendDatagram that splits a long message into fragments and sends each of them
+     *
+     * @param message   the message being sent
+     * @param address   the address of the client
+     */
+    private void sendFragments(Payload message, SocketAddress address){
+        int messageID = nextMessageID++;
+        int total = message.datagramLength();
+        int pieceSize = packetSize - DatagramFragment.headerSize;
+        for(int offset = 0; offset < total; offset += pieceSize){
+            int length = Math.min(pieceSize, total - offset);
+            sendBuffer.clear();
+            DatagramFragment.putHeader(sendBuffer, messageID, total, offset);
+            message.copyDatagramTo(sendBuffer, offset, length);
+            sendBuffer.flip();
+            //the message is counted once, with its last fragment
+            send(address, offset + length == total ? 1 : 0);
+        }
+    }
+
+    /**
+     * A helper method that sends the packet in the send buffer
+     *
+     * @param address   the address of the client
+     * @param messages  the number of messages in the packet
+     */
+    private void send(SocketAddress address, int messages){
+        try {
+            int bytes = channel.send(sendBuffer, address);
+            packetsSent++;
+            messagesSent += messages;
+            metrics.sent(ServerMetrics.udp, messages, bytes);
+        } catch (IOException e) {
+            System.err.println("Error forwarding message to UDP client.");
+        }
+    }
+
+    /**
+     * Returns one line describing how many packets have been sent for how many messages
+     *
+     * @return the sender numbers as text
+     */
+    public String describe(){
+        String mode = batching ? "batching up to " + packetSize + " bytes for " + (batchDelay / 1000000) + " ms"
+                : "not batching";
+        return "UDP sender (" + mode + "): " + packetsSent + " packets for " + messagesSent + " messages";
+    }
+}
@@ -0,0 +1,337 @@
+package chatservice;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * This class is waiting to receive a message from a client using UDP protocol and handling it.  Every UDP client
+ * talks to this one socket, and the server tells the clients apart by the address their packets come from.  The first
+ * packet from an address adds a new client to the client list, after that its packets are forwarded to all of the
+ * clients until it asks to be disconnected.
+ *
+ */
+public class UDPServer extends Thread {
+
+    /**
+     * The socket every UDP client sends to and is sent from
+     */
+    private DatagramChannel channel;
+
+    /**
+     * The object to access the main server class
+     */
+    private MainServer mainServer;
+
+    /**
+     * the event log of the server, errors are logged to it
+     */
+    private ServerEvents events;
+
+    /**
+     * the thread that sends the waiting messages of every UDP client
+     */
+    private UDPSender sender;
+
+    /**
+     * how fast the UDP clients can send messages, the dropped messages are counted in it
+     */
+    private RateLimit rateLimit;
+
+    /**
+     * the UDP clients connected to the server, keyed by the address their packets come from
+     */
+    private ConcurrentHashMap<SocketAddress, UDPSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * the pieces of long messages being put back together, keyed by the address they come from.  It is only used by
+     * this thread.
+     */
+    private HashMap<SocketAddress, FragmentReassembler> reassemblers = new HashMap<>();
+
+    /**
+     * the addresses of clients disconnected by other threads, their reassemblers are released by this thread
+     */
+    private ConcurrentLinkedQueue<SocketAddress> departed = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the most senders that can have a long message being put back together at once, fragments from more senders
+     * are dropped
+     */
+    private static final int maxReassemblers = 1024;
+
+    /**
+     * the most senders one host can have with a long message being put back together at once, so one host cannot
+     * take every reassembler by sending from many ports
+     */
+    private static final int maxReassemblersPerHost = 8;
+
+    /**
+     * the most bytes the messages being put back together can hold at once, for every sender together
+     */
+    private static final long reassemblyBytes = 64L * 1024 * 1024;
+
+    /**
+     * the most bytes the messages being put back together can hold at once for the senders of one host, two of the
+     * longest messages
+     */
+    private static final long hostReassemblyBytes = 2L * DatagramFragment.maxMessageSize;
+
+    /**
+     * the budget the buffers of every reassembler are taken from
+     */
+    private FragmentReassembler.Budget reassemblyBudget = new FragmentReassembler.Budget(reassemblyBytes, null);
+
+    /**
+     * the budgets of the hosts that have reassemblers, each taking its bytes from the budget of every sender.  It is
+     * only used by this thread.
+     */
+    private HashMap<InetAddress, FragmentReassembler.Budget> hostBudgets = new HashMap<>();
+
+    /**
+     * the time in nanoseconds without a fragment before a message being put back together is thrown away
+     */
+    private static final long fragmentTimeout = 10_000_000_000L;
+
+    /**
+     * the time the reassemblers were last looked through for stale ones, in the units of System.nanoTime
+     */
+    private long lastSweep = System.nanoTime();
+
+    /**
+     * the size of the buf for datagram packets, big enough for the largest UDP packet so no message is cut off
+     */
+    private static final int bufSize = 65507;
+
+    /**
+     * The constructor which is storing the socket the client is communicating through and the object to access the
+     * main web server.  It also starts the thread that sends to the UDP clients.
+     *
+     * @param channel       The socket UDP clients will connect to
+     * @param mainServer    Object to access the main server
+     * @param events        The event log of the server
+     */
+    public UDPServer(DatagramChannel channel, MainServer mainServer, ServerEvents events){
+        this.channel = channel;
+        this.mainServer = mainServer;
+        this.events = events;
+        rateLimit = mainServer.getRateLimit(ServerMetrics.udp);
+        sender = new UDPSender(channel, events, mainServer.getConfig(), mainServer.getMetrics());
+        sender.start();
+    }
+
+    /**
+     * This method is called when the thread is started in the constructor of the main server class.  It waits to
+     * receive a message from a UDP client and then adds the client, disconnects the client or forwards the clients
+     * message.  One buffer is reused for every packet, and the fragments of long messages are put back together in
+     * buffers from the receiving pool.
+     */
+    public void run(){
+        ByteBuffer buf = ByteBuffer.allocate(bufSize);
+        while(true) {
+            SocketAddress address;
+            try {
+                //receive a message from a client
+                buf.clear();
+                address = channel.receive(buf);
+            } catch (ClosedChannelException e) {
+                //the server is shutting down
+                return;
+            } catch (IOException e) {
+                System.err.println("Error receiving datagram packet");
+                continue;
+            } catch (Exception e){
+                events.log("Error: There is an issue with your connection. Please restart the program.");
+                continue;
+            }
+            mainServer.getMetrics().bytesReceived(ServerMetrics.udp, buf.position());
+            releaseDeparted();
+            buf.flip();
+            if(DatagramFragment.isFragment(buf)){
+                FragmentReassembler reassembler = reassembler(address);
+                if(reassembler == null){
+                    //too many senders are in the middle of a long message
+                    mainServer.getMetrics().reassemblyDropped();
+                    continue;
+                }
+                if(reassembler.add(buf)){
+                    handle((InetSocketAddress) address, reassembler.array(), reassembler.length());
+                    reassembler.release();
+                }
+                continue;
+            }
+            //the message the client sent
+            handle((InetSocketAddress) address, buf.array(), buf.limit());
+        }
+    }
+
+    /**
+     * A helper method for run that returns the reassembler for the fragments from an address.  Once a second the
+     * reassemblers are looked through, and those of senders that sent no fragment for the fragment timeout are
+     * thrown away, so senders that vanished or were never there do not keep their buffers.
+     *
+     * The buffers of the reassemblers are taken from the budget of their host, which takes them from the budget of
+     * every sender, so senders that start long messages they never finish cannot take more than the budgets.
+     *
+     * @param address the address the fragment came from
+     * @return the reassembler, or null if too many senders, or too many senders of its host, already have one
+     */
+    private FragmentReassembler reassembler(SocketAddress address){
+        long now = System.nanoTime();
+        if(now - lastSweep >= 1_000_000_000L){
+            lastSweep = now;
+            Iterator<Map.Entry<SocketAddress, FragmentReassembler>> it = reassemblers.entrySet().iterator();
+            while(it.hasNext()){
+                Map.Entry<SocketAddress, FragmentReassembler> entry = it.next();
+                if(now - entry.getValue().getLastAdded() >= fragmentTimeout){
+                    it.remove();
+                    closeReassembler(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        FragmentReassembler reassembler = reassemblers.get(address);
+        if(reassembler == null && reassemblers.size() < maxReassemblers){
+            InetAddress host = ((InetSocketAddress) address).getAddress();
+            FragmentReassembler.Budget budget = hostBudgets.get(host);
+            if(budget == null){
+                budget = new FragmentReassembler.Budget(hostReassemblyBytes, reassemblyBudget);
+                hostBudgets.put(host, budget);
+            }else if(budget.getUsers() >= maxReassemblersPerHost){
+                return null;
+            }
+            reassembler = new FragmentReassembler(PayloadPool.receiving(), budget, mainServer.getMetrics());
+            reassemblers.put(address, reassembler);
+        }
+        return reassembler;
+    }
+
+    /**
+     * A helper method for run that handles one message from a client.  A message from a new address adds a new
+     * client, the disconnect message removes the client, and anything else is forwarded to the clients in its room.
+     * A message sent faster than the rate limit of the client is dropped before it is formatted.  A heartbeat is
+     * answered with a heartbeat, so the client knows the server is still there.
+     *
+     * @param address   the address the message came from
+     * @param message   the array holding the bytes the client sent, starting at index 0
+     * @param length    the number of bytes of the message
+     */
+    private void handle(InetSocketAddress address, byte[] message, int length){
+        UDPSession session = sessions.get(address);
+        //If client requested to disconnect, disconnect him
+        if(MainServer.isRemoveMe(message, 0, length)){
+            releaseReassembler(address);
+            if(session != null){
+                sessions.remove(address);
+                mainServer.removeClient(session);
+                session.close();
+            }
+            return;
+        }
+        //the first message from an address is a new client joining
+        if(session == null){
+            session = new UDPSession(address, mainServer.getClientID(), this,
+                    mainServer.getConfig().getQueueSize(), mainServer.getSlowConsumerPolicy(ServerMetrics.udp),
+                    rateLimit);
+            sessions.put(address, session);
+            mainServer.addClient(session);
+        }
+        session.getIdleTimer().touch();
+        if(MainServer.isHeartbeat(message, 0, length)){
+            Payload heartbeat = Payload.encode(MainServer.getHeartbeat());
+            session.send(heartbeat);
+            heartbeat.release();
+            return;
+        }
+        TokenBucket bucket = session.getBucket();
+        if(bucket != null && bucket.acquire(length, System.nanoTime()) > 0){
+            rateLimit.dropped();
+            return;
+        }
+        //Forward the message to the other clients in the room, the bytes are copied as they were received
+        mainServer.getMetrics().messageReceived(ServerMetrics.udp);
+        mainServer.receive(session, session.getNamePrefix(), message, 0, length);
+    }
+
+    /**
+     * Removes a client that is being disconnected and throws away the messages waiting for it.  This can be called
+     * from any thread, a client that was already removed is left alone.  The reassembler of the client is only used
+     * by this thread, so it is released the next time a packet arrives.
+     *
+     * @param session   the client
+     * @param reason    why the client is disconnected
+     */
+    public void disconnect(UDPSession session, String reason){
+        if(!sessions.remove(session.getSocketAddress(), session)){
+            return;
+        }
+        events.log(session.getInetAddress().getHostAddress() + " was disconnected: " + reason);
+        mainServer.removeClient(session);
+        session.close();
+        departed.add(session.getSocketAddress());
+    }
+
+    /**
+     * A helper method for run that releases the reassemblers of the clients disconnected by other threads
+     */
+    private void releaseDeparted(){
+        SocketAddress address;
+        while((address = departed.poll()) != null){
+            releaseReassembler(address);
+        }
+    }
+
+    /**
+     * A helper method that throws away the message being put back together for an address, if there is one
+     *
+     * @param address the address the fragments came from
+     */
+    private void releaseReassembler(SocketAddress address){
+        FragmentReassembler reassembler = reassemblers.remove(address);
+        if(reassembler != null){
+            closeReassembler(address, reassembler);
+        }
+    }
+
+    /**
+     * A helper method that closes a reassembler taken out of the reassemblers, and forgets the budget of its host
+     * once the host has no reassemblers left
+     *
+     * @param address       the address the fragments came from
+     * @param reassembler   the reassembler
+     */
+    private void closeReassembler(SocketAddress address, FragmentReassembler reassembler){
+        reassembler.close();
+        InetAddress host = ((InetSocketAddress) address).getAddress();
+        FragmentReassembler.Budget budget = hostBudgets.get(host);
+        if(budget != null && budget.getUsers() == 0){
+            hostBudgets.remove(host);
+        }
+    }
+
+    /**
+     * Returns the reaper that disconnects idle clients
+     *
+     * @return the idle reaper of the main server
+     */
+    public IdleReaper getIdleReaper(){
+
+        return mainServer.getIdleReaper();
+    }
+
+    /**
+     * Returns the thread that sends to the UDP clients
+     *
+     * @return the UDP sender
+     */
+    public UDPSender getSender(){
+
+        return sender;
+    }
+}
@@ -0,0 +1,354 @@
+package chatservice;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A UDP client of the server.  UDP clients have no socket or thread of their own: every UDP client talks to the one
+ * UDP socket of the server, and is known by the address its packets come from.  Messages for the client wait in its
+ * outbound queue until the UDP sender thread sends them.
+ *
+ */
+public class UDPSession implements ClientSession {
+
+    /**
+     * the address and port the client's packets come from and are sent to
+     */
+    private InetSocketAddress address;
+
+    /**
+     * the thread that sends the waiting messages of every UDP client
+     */
+    private UDPSender sender;
+
+    /**
+     * the UDP server the client talks to, it removes the client when it is disconnected
+     */
+    private UDPServer server;
+
+    /**
+     * the unique identifier for the client
+     */
+    private int clientID;
+
+    /**
+     * the name of the client as the bytes put in front of its messages
+     */
+    private byte[] namePrefix;
+
+    /**
+     * the messages waiting to be sent to the client
+     */
+    private OutboundQueue outbound;
+
+    /**
+     * the chat room the client is in
+     */
+    private volatile Room room = null;
+
+    /**
+     * the tokens the client has to send messages with, only used by the UDP server thread, or null if it is not
+     * limited
+     */
+    private TokenBucket bucket;
+
+    /**
+     * marked every time something arrives from the client, the client is disconnected once it runs out
+     */
+    private IdleTimer idle;
+
+    /**
+     * true while the client is in line with the sender
+     */
+    private AtomicBoolean sendScheduled = new AtomicBoolean(false);
+
+    /**
+     * true while the sender has been asked to send a full packet of messages
+     */
+    private AtomicBoolean fullScheduled = new AtomicBoolean(false);
+
+    /**
+     * the time the waiting messages are due to be sent, in the units of System.nanoTime
+     */
+    private volatile long deadline;
+
+    /**
+     * the number of bytes the waiting messages take up in a batch, only counted when batching
+     */
+    private AtomicInteger queuedBytes = new AtomicInteger();
+
+    /**
+     * a message taken off the queue that did not fit in the last packet, only used by the sender thread
+     */
+    private Payload carry = null;
+
+    /**
+     * Creates a UDP client
+     *
+     * @param address       the address the client's packets come from
+     * @param clientID      the unique identifier for the client
+     * @param server        the UDP server the client talks to
+     * @param queueSize     the most messages that can be waiting for the client
+     * @param policy        what is done once too many messages are waiting for the client
+     * @param rateLimit     how fast the client can send messages
+     */
+    public UDPSession(InetSocketAddress address, int clientID, UDPServer server, int queueSize,
+                      SlowConsumerPolicy policy, RateLimit rateLimit){
+        this.address = address;
+        this.clientID = clientID;
+        namePrefix = MessageFormatter.namePrefix(clientID);
+        this.server = server;
+        sender = server.getSender();
+        outbound = new OutboundQueue(queueSize, policy, this);
+        bucket = rateLimit.newBucket();
+        idle = server.getIdleReaper().watch(this);
+    }
+
+    /**
+     * Adds a message to the messages waiting to be sent to the client.  This can be called from any thread, the
+     * message is sent by the UDP sender thread.
+     *
+     * @param message the message being sent
+     */
+    public void send(Payload message){
+        if(outbound.offer(message)){
+            queued(message);
+        }
+    }
+
+    /**
+     * Adds a message from the history of a room to the messages waiting to be sent, it is not held to the slow
+     * consumer policy
+     *
+     * @param message the message from the history
+     */
+    public void sendHistory(Payload message){
+        if(outbound.offerHistory(message)){
+            queued(message);
+        }
+    }
+
+    /**
+     * A helper method for send and sendHistory that has the sender send a message that was added to the queue
+     *
+     * @param message the message that was added
+     */
+    private void queued(Payload message){
+        if(sendScheduled.compareAndSet(false, true)){
+            deadline = sender.deadlineFromNow();
+            sender.schedule(this);
+        }
+        if(sender.isBatching()){
+            int bytes = queuedBytes.addAndGet(DatagramBatch.entryHeaderSize + message.datagramLength());
+            if(bytes >= sender.getPacketSize() && fullScheduled.compareAndSet(false, true)){
+                sender.flushFull(this);
+            }
+        }
+    }
+
+    /**
+     * Sends every message that is waiting.  This is only called by the UDP sender thread, once the messages are due.
+     */
+    public void drain(){
+        while(sender.sendPacket(this)){
+            //keep sending until the queue is empty
+        }
+        sendScheduled.set(false);
+        //a message may have been added after the queue was found empty
+        if(!outbound.isEmpty() && sendScheduled.compareAndSet(false, true)){
+            deadline = sender.deadlineFromNow();
+            sender.schedule(this);
+        }
+    }
+
+    /**
+     * Sends the waiting messages that fill whole packets, the rest keep waiting until they are due.  This is only
+     * called by the UDP sender thread.
+     */
+    public void sendFullPackets(){
+        fullScheduled.set(false);
+        while(queuedBytes.get() >= sender.getPacketSize() && sender.sendPacket(this)){
+            //keep sending while there is a full packet waiting
+        }
+    }
+
+    /**
+     * Returns the next message to send.  This is only called by the UDP sender thread.
+     *
+     * @return the message that did not fit in the last packet, or the next message in the queue
+     */
+    public Payload nextMessage(){
+        Payload message = carry;
+        if(message != null){
+            carry = null;
+            return message;
+        }
+        return outbound.poll();
+    }
+
+    /**
+     * Keeps a message that did not fit in a packet so it is sent first in the next one.  This is only called by the
+     * UDP sender thread.
+     *
+     * @param message the message that did not fit
+     */
+    public void putBack(Payload message){
+
+        carry = message;
+    }
+
+    /**
+     * Releases a message once it has been sent.  This is only called by the UDP sender thread.
+     *
+     * @param message the message that was sent
+     */
+    public void sent(Payload message){
+        if(sender.isBatching()){
+            queuedBytes.addAndGet(-(DatagramBatch.entryHeaderSize + message.datagramLength()));
+        }
+        message.release();
+    }
+
+    /**
+     * Takes the bytes of a message dropped from the queue to make room off the bytes waiting.  This is called by the
+     * queue.
+     *
+     * @param message the message that was dropped
+     */
+    public void evicted(Payload message){
+        if(sender.isBatching()){
+            queuedBytes.addAndGet(-(DatagramBatch.entryHeaderSize + message.datagramLength()));
+        }
+    }
+
+    /**
+     * Disconnects the client, it is removed by the UDP server.  A message the client sends afterwards joins it again
+     * as a new client.
+     *
+     * @param reason why the client is disconnected
+     */
+    public void disconnect(String reason){
+
+        server.disconnect(this, reason);
+    }
+
+    /**
+     * Returns the time the waiting messages are due to be sent
+     *
+     * @return the time, in the units of System.nanoTime
+     */
+    public long getDeadline(){
+
+        return deadline;
+    }
+
+    /**
+     * Stops sending to the client, the messages still waiting are thrown away
+     */
+    public void close(){
+        idle.cancel();
+        outbound.close();
+    }
+
+    /**
+     * Returns the unique identifier of the client
+     *
+     * @return the client ID
+     */
+    public int getClientID(){
+
+        return clientID;
+    }
+
+    /**
+     * Returns the name of the client as the bytes put in front of its messages
+     *
+     * @return the bytes of "ClientN: "
+     */
+    public byte[] getNamePrefix(){
+
+        return namePrefix;
+    }
+
+    /**
+     * Returns true, this is a UDP client
+     *
+     * @return true
+     */
+    public boolean isProtocolUDP(){
+
+        return true;
+    }
+
+    /**
+     * Returns the address of the client
+     *
+     * @return the address of the client
+     */
+    public InetAddress getInetAddress(){
+
+        return address.getAddress();
+    }
+
+    /**
+     * Returns the address and port the client's packets come from
+     *
+     * @return the socket address of the client
+     */
+    public InetSocketAddress getSocketAddress(){
+
+        return address;
+    }
+
+    /**
+     * Returns the chat room the client is in
+     *
+     * @return the room, or null if the client is not in a room
+     */
+    public Room getRoom(){
+
+        return room;
+    }
+
+    /**
+     * Sets the chat room the client is in
+     *
+     * @param room the room, or null once the client has left
+     */
+    public void setRoom(Room room){
+
+        this.room = room;
+    }
+
+    /**
+     * Returns the idle timer of the client, it is marked for every packet from the client
+     *
+     * @return the idle timer
+     */
+    public IdleTimer getIdleTimer(){
+
+        return idle;
+    }
+
+    /**
+     * Returns the tokens the client has to send messages with
+     *
+     * @return the token bucket of the client, or null if it is not limited
+     */
+    public TokenBucket getBucket(){
+
+        return bucket;
+    }
+
+    /**
+     * Returns the queue of messages waiting to be sent to the client
+     *
+     * @return the outbound queue of the client
+     */
+    public OutboundQueue getOutboundQueue(){
+
+        return outbound;
+    }
+}
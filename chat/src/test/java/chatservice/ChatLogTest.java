@@ -0,0 +1,136 @@
+package chatservice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the chat log carries on where it stopped, and throws away a message that was only partly written
+ *
+ */
+public class ChatLogTest {
+
+    /**
+     * the size of each segment in bytes
+     */
+    private static final int segmentSize = 64 * 1024;
+
+    /**
+     * the directory the log is kept in, a new one for each test
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * the event log of the server
+     */
+    private final ServerEvents events = new ServerEvents(16);
+
+    /**
+     * Opening the log again carries on numbering the messages after the last one
+     */
+    @Test
+    void reopenContinuesTheSequence() throws IOException {
+        ChatLog log = open();
+        append(log, "one", "two");
+        assertEquals(2, log.getLastSequence());
+
+        log = open();
+        assertEquals(2, log.getLastSequence());
+        append(log, "three");
+        assertEquals(3, log.getLastSequence());
+
+        assertEquals(List.of("one", "two", "three"), readAll(1));
+        assertEquals(List.of("three"), readAll(3));
+    }
+
+    /**
+     * A message that was only partly written when the server stopped is wiped, and the next message takes its place
+     */
+    @Test
+    void tornRecordIsRecovered() throws IOException {
+        ChatLog log = open();
+        append(log, "one", "two");
+
+        //a record header with a length but a body that never made it to the disk
+        int end = LogSegment.open(dir, 1, false).findEnd();
+        try(RandomAccessFile file = new RandomAccessFile(segmentFile().toFile(), "rw")){
+            file.seek(end);
+            file.writeInt(200);
+            file.writeInt(0x12345678);
+            file.writeLong(3);
+            file.write(new byte[]{1, 2, 3, 4, 5});
+        }
+
+        log = open();
+        assertEquals(2, log.getLastSequence());
+        append(log, "three");
+        assertEquals(List.of("one", "two", "three"), readAll(1));
+    }
+
+    /**
+     * A helper method that opens the log in the test directory and starts its thread
+     *
+     * @return the log
+     * @throws IOException if the log could not be opened
+     */
+    private ChatLog open() throws IOException {
+        ChatLog log = new ChatLog(dir, segmentSize, 10, events);
+        log.start();
+        return log;
+    }
+
+    /**
+     * A helper method that logs messages and closes the log once they are written
+     *
+     * @param log       the log
+     * @param messages  the messages to log
+     */
+    private static void append(ChatLog log, String... messages){
+        for(String message : messages){
+            Payload payload = Payload.encode(FrameProtocol.chat, 1, message);
+            assertTrue(log.append(payload));
+            payload.release();
+        }
+        log.close();
+    }
+
+    /**
+     * A helper method that reads the messages in the log from a sequence number on
+     *
+     * @param from the sequence number of the first message to read
+     * @return the text of the messages
+     * @throws IOException if the log could not be read
+     */
+    private List<String> readAll(long from) throws IOException {
+        List<String> messages = new ArrayList<>();
+        try(ChatLogReader reader = new ChatLogReader(dir)){
+            reader.seekSequence(from);
+            ChatLogReader.Record record;
+            while((record = reader.next()) != null){
+                messages.add(record.getMessage());
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * A helper method that returns the file of the only segment
+     *
+     * @return the path of the segment
+     * @throws IOException if the directory could not be listed
+     */
+    private Path segmentFile() throws IOException {
+        try(var files = Files.list(dir)){
+            return files.filter(file -> file.toString().endsWith(".log")).findFirst().orElseThrow();
+        }
+    }
+}
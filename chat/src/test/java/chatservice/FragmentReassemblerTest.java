@@ -0,0 +1,198 @@
+package chatservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests putting the fragments of long UDP messages back together
+ *
+ */
+public class FragmentReassemblerTest {
+
+    /**
+     * the number of bytes of the message in each fragment
+     */
+    private static final int pieceSize = 1000;
+
+    /**
+     * the numbers the fragments thrown away are counted in
+     */
+    private final ServerMetrics metrics = new ServerMetrics(new ClientRegistry(), new ServerEvents(16), 0);
+
+    /**
+     * Pieces arriving in order are put back together
+     */
+    @Test
+    void inOrder(){
+        byte[] message = message(5500);
+        FragmentReassembler reassembler = new FragmentReassembler(PayloadPool.receiving());
+        for(int offset = 0; offset < message.length; offset += pieceSize){
+            boolean done = reassembler.add(fragment(1, message, offset));
+            assertEquals(offset + pieceSize >= message.length, done);
+        }
+        assertArrayEquals(message, taken(reassembler));
+    }
+
+    /**
+     * Pieces arriving backwards are put back together
+     */
+    @Test
+    void outOfOrder(){
+        byte[] message = message(5500);
+        FragmentReassembler reassembler = new FragmentReassembler(PayloadPool.receiving());
+        boolean done = false;
+        for(int offset = 5000; offset >= 0; offset -= pieceSize){
+            done = reassembler.add(fragment(1, message, offset));
+        }
+        assertTrue(done);
+        assertArrayEquals(message, taken(reassembler));
+    }
+
+    /**
+     * A piece delivered twice is only counted once, so the message is not finished while a piece is missing
+     */
+    @Test
+    void duplicatesDoNotFinishTheMessage(){
+        byte[] message = message(3000);
+        FragmentReassembler reassembler = new FragmentReassembler(PayloadPool.receiving());
+        assertFalse(reassembler.add(fragment(1, message, 0)));
+        assertFalse(reassembler.add(fragment(1, message, 0)));
+        assertFalse(reassembler.add(fragment(1, message, 1000)));
+        assertFalse(reassembler.add(fragment(1, message, 1000)));
+        assertTrue(reassembler.add(fragment(1, message, 2000)));
+        assertArrayEquals(message, taken(reassembler));
+    }
+
+    /**
+     * Fragments with an offset or length outside the message are thrown away and counted
+     */
+    @Test
+    void badOffsetsAreCounted(){
+        FragmentReassembler reassembler = new FragmentReassembler(PayloadPool.receiving(), null, metrics);
+        assertFalse(reassembler.add(header(1, 100, -1, 10)));
+        assertFalse(reassembler.add(header(1, 100, 95, 10)));
+        assertFalse(reassembler.add(header(1, 0, 0, 0)));
+        assertFalse(reassembler.add(header(1, DatagramFragment.maxMessageSize + 1, 0, 10)));
+
+        assertEquals(4, metrics.getUdpInvalidFragments());
+    }
+
+    /**
+     * A piece of a new message throws away the message that was being put together
+     */
+    @Test
+    void newMessageReplacesTheOld(){
+        byte[] first = message(2000);
+        byte[] second = message(2000);
+        second[0] = 'Z';
+        FragmentReassembler reassembler = new FragmentReassembler(PayloadPool.receiving());
+        assertFalse(reassembler.add(fragment(1, first, 0)));
+        assertFalse(reassembler.add(fragment(2, second, 1000)));
+        assertTrue(reassembler.add(fragment(2, second, 0)));
+        assertArrayEquals(second, taken(reassembler));
+    }
+
+    /**
+     * The time of the last fragment is kept, it is what the server times out a message being put together by
+     */
+    @Test
+    void lastAddedMovesWithEachFragment(){
+        byte[] message = message(2000);
+        FragmentReassembler reassembler = new FragmentReassembler(PayloadPool.receiving());
+        long before = System.nanoTime();
+        reassembler.add(fragment(1, message, 0));
+        assertTrue(reassembler.getLastAdded() - before >= 0);
+    }
+
+    /**
+     * The buffer only grows as far as the pieces reach, a message that would go over the budget is thrown away, and
+     * every byte goes back to the budget once the messages are gone
+     */
+    @Test
+    void budgetLimitsTheBuffers(){
+        FragmentReassembler.Budget all = new FragmentReassembler.Budget(1024 * 1024, null);
+        FragmentReassembler.Budget host = new FragmentReassembler.Budget(600 * 1024, all);
+        byte[] message = message(500 * 1024);
+
+        FragmentReassembler first = new FragmentReassembler(PayloadPool.receiving(), host, metrics);
+        assertFalse(first.add(fragment(1, message, 0)));
+        assertTrue(host.getUsed() < 2 * pieceSize * 2);
+
+        //the last piece of a message needs a buffer for all of it
+        FragmentReassembler second = new FragmentReassembler(PayloadPool.receiving(), host, metrics);
+        assertFalse(second.add(fragment(2, message, message.length - pieceSize)));
+        assertTrue(host.getUsed() >= message.length);
+        FragmentReassembler third = new FragmentReassembler(PayloadPool.receiving(), host, metrics);
+        assertFalse(third.add(fragment(3, message, message.length - pieceSize)));
+        assertEquals(1, metrics.getUdpReassemblyDrops());
+        assertEquals(3, host.getUsers());
+
+        first.close();
+        second.close();
+        third.close();
+        assertEquals(0, host.getUsed());
+        assertEquals(0, all.getUsed());
+        assertEquals(0, host.getUsers());
+    }
+
+    /**
+     * A helper method that returns a message of a length, with bytes that tell its pieces apart
+     *
+     * @param length the length of the message
+     * @return the bytes of the message
+     */
+    private static byte[] message(int length){
+        byte[] message = new byte[length];
+        for(int i = 0; i < length; i++){
+            message[i] = (byte) ('a' + i % 26);
+        }
+        return message;
+    }
+
+    /**
+     * A helper method that makes the fragment holding the piece of a message at an offset
+     *
+     * @param messageID the ID of the message
+     * @param message   the whole message
+     * @param offset    the index of the first byte of the piece
+     * @return the fragment, from index 0 to the limit
+     */
+    private static ByteBuffer fragment(int messageID, byte[] message, int offset){
+        int length = Math.min(pieceSize, message.length - offset);
+        ByteBuffer packet = ByteBuffer.allocate(DatagramFragment.headerSize + length);
+        DatagramFragment.putHeader(packet, messageID, message.length, offset);
+        packet.put(message, offset, length).flip();
+        return packet;
+    }
+
+    /**
+     * A helper method that makes a fragment with any header and a piece of zeros
+     *
+     * @param messageID     the ID of the message
+     * @param totalLength   the length the fragment says the message has
+     * @param offset        the offset the fragment says the piece goes at
+     * @param length        the length of the piece
+     * @return the fragment, from index 0 to the limit
+     */
+    private static ByteBuffer header(int messageID, int totalLength, int offset, int length){
+        ByteBuffer packet = ByteBuffer.allocate(DatagramFragment.headerSize + length);
+        DatagramFragment.putHeader(packet, messageID, totalLength, offset);
+        packet.position(packet.capacity()).flip();
+        return packet;
+    }
+
+    /**
+     * A helper method that takes the finished message out of a reassembler
+     *
+     * @param reassembler the reassembler holding the finished message
+     * @return the bytes of the message
+     */
+    private static byte[] taken(FragmentReassembler reassembler){
+
+        return reassembler.take(StandardCharsets.ISO_8859_1).getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
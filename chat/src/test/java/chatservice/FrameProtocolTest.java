@@ -0,0 +1,112 @@
+package chatservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests writing and reading the frames and preface of the framed protocol
+ *
+ */
+public class FrameProtocolTest {
+
+    /**
+     * A frame written to a stream is read back with the same type, sender and message
+     */
+    @Test
+    void frameRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FrameProtocol.writeFrame(new DataOutputStream(bytes), FrameProtocol.chat, 42,
+                "hello".getBytes(StandardCharsets.UTF_8));
+
+        FrameProtocol.Frame frame = FrameProtocol.readFrame(read(bytes.toByteArray()));
+        assertEquals(FrameProtocol.chat, frame.type);
+        assertEquals(42, frame.senderID);
+        assertEquals("hello", frame.message(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The header written into a buffer is the same as the one written to a stream
+     */
+    @Test
+    void putHeaderMatchesWriteFrame() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(FrameProtocol.headerSize + 3);
+        FrameProtocol.putHeader(buf, FrameProtocol.control, 7, 3);
+        buf.put(new byte[]{'a', 'b', 'c'});
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FrameProtocol.writeFrame(new DataOutputStream(bytes), FrameProtocol.control, 7, new byte[]{'a', 'b', 'c'});
+        assertArrayEquals(bytes.toByteArray(), buf.array());
+    }
+
+    /**
+     * Frame lengths shorter than the header or longer than the longest frame are not valid
+     */
+    @Test
+    void validLengths(){
+        assertFalse(FrameProtocol.isValidLength(FrameProtocol.headerSize - FrameProtocol.lengthSize - 1));
+        assertTrue(FrameProtocol.isValidLength(FrameProtocol.headerSize - FrameProtocol.lengthSize));
+        assertTrue(FrameProtocol.isValidLength(FrameProtocol.maxFrameSize));
+        assertFalse(FrameProtocol.isValidLength(FrameProtocol.maxFrameSize + 1));
+        assertFalse(FrameProtocol.isValidLength(-1));
+    }
+
+    /**
+     * A frame claiming to be longer than the longest frame is refused before its body is read
+     */
+    @Test
+    void oversizedFrameIsRefused(){
+        ByteBuffer header = ByteBuffer.allocate(FrameProtocol.headerSize);
+        header.putInt(FrameProtocol.maxFrameSize + 1).put(FrameProtocol.chat).putInt(1);
+
+        IOException e = assertThrows(IOException.class, () -> FrameProtocol.readFrame(read(header.array())));
+        assertTrue(e.getMessage().contains("not valid"));
+    }
+
+    /**
+     * A frame cut off part way through its body ends the stream
+     */
+    @Test
+    void truncatedFrameEndsTheStream() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FrameProtocol.writeFrame(new DataOutputStream(bytes), FrameProtocol.chat, 1, new byte[10]);
+        byte[] cut = new byte[bytes.size() - 1];
+        System.arraycopy(bytes.toByteArray(), 0, cut, 0, cut.length);
+
+        assertThrows(EOFException.class, () -> FrameProtocol.readFrame(read(cut)));
+    }
+
+    /**
+     * The preface carries the version, and anything else is not a preface
+     */
+    @Test
+    void preface() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FrameProtocol.writePreface(bytes);
+        byte[] preface = bytes.toByteArray();
+        assertEquals(FrameProtocol.prefaceSize, preface.length);
+        assertEquals(FrameProtocol.version, FrameProtocol.readPreface(preface, 0));
+
+        assertEquals(-1, FrameProtocol.readPreface("chat".getBytes(StandardCharsets.UTF_8), 0));
+    }
+
+    /**
+     * A helper method that reads from an array
+     *
+     * @param bytes the bytes to read
+     * @return the stream reading them
+     */
+    private static DataInputStream read(byte[] bytes){
+
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,89 @@
+package chatservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests sharing the rooms out between the servers of a cluster
+ *
+ */
+public class HashRingTest {
+
+    /**
+     * the number of room names the tests share out
+     */
+    private static final int rooms = 10_000;
+
+    /**
+     * Every server works out the same owners whatever order it lists the servers in
+     */
+    @Test
+    void ownersDoNotDependOnOrder(){
+        HashRing ring = new HashRing(List.of(1, 2, 3));
+        HashRing other = new HashRing(List.of(3, 1, 2, 1));
+        assertTrue(ring.hasSameNodes(other));
+        assertEquals(3, other.size());
+        for(int i = 0; i < rooms; i++){
+            assertEquals(ring.owner("room" + i), other.owner("room" + i));
+        }
+    }
+
+    /**
+     * A server joining only takes rooms for itself, about its share of them, and every other room stays put
+     */
+    @Test
+    void joiningMovesRoomsOnlyToTheNewServer(){
+        HashRing before = new HashRing(List.of(1, 2, 3));
+        HashRing after = new HashRing(List.of(1, 2, 3, 4));
+        assertTrue(after.contains(4));
+        assertFalse(before.contains(4));
+        int moved = 0;
+        for(int i = 0; i < rooms; i++){
+            int was = before.owner("room" + i);
+            int is = after.owner("room" + i);
+            if(was != is){
+                assertEquals(4, is);
+                moved++;
+            }
+        }
+        assertTrue(moved > rooms / 8 && moved < rooms * 3 / 8, moved + " rooms moved");
+    }
+
+    /**
+     * A server leaving only hands on its own rooms
+     */
+    @Test
+    void leavingMovesOnlyTheRoomsOfThatServer(){
+        HashRing before = new HashRing(List.of(1, 2, 3, 4));
+        HashRing after = new HashRing(List.of(1, 2, 4));
+        for(int i = 0; i < rooms; i++){
+            int was = before.owner("room" + i);
+            if(was != 3){
+                assertEquals(was, after.owner("room" + i));
+            }else{
+                assertNotEquals(3, after.owner("room" + i));
+            }
+        }
+    }
+
+    /**
+     * Each server owns about an equal share of the rooms
+     */
+    @Test
+    void roomsAreSharedEvenly(){
+        HashRing ring = new HashRing(List.of(1, 2, 3, 4, 5));
+        Map<Integer, Integer> counts = new HashMap<>();
+        for(int i = 0; i < rooms; i++){
+            counts.merge(ring.owner("room" + i), 1, Integer::sum);
+        }
+        assertEquals(5, counts.size());
+        for(int count : counts.values()){
+            assertTrue(count > rooms / 5 / 2 && count < rooms / 5 * 2, count + " rooms on one server");
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package chatservice;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the messages a headless server forwards between framed TCP/IP clients
+ *
+ */
+public class MainServerTest {
+
+    /**
+     * the time in milliseconds a client waits for a frame before the test fails
+     */
+    private static final int readTimeout = 10000;
+
+    /**
+     * the server the clients connect to
+     */
+    private MainServer server;
+
+    /**
+     * Starts a headless server on a free port
+     */
+    @BeforeEach
+    void startServer(){
+
+        server = new MainServer(ServerConfig.fromArgs(new String[]{"-headless"}));
+    }
+
+    /**
+     * Closes the server socket, so no more clients connect
+     */
+    @AfterEach
+    void stopServer(){
+
+        server.closeSocket();
+    }
+
+    /**
+     * A frame as long as the protocol allows is turned away with a message to its sender, and neither its sender
+     * nor the other clients in the room are disconnected by a frame longer than they can read
+     */
+    @Test
+    void maxSizeFrameIsNotForwarded() throws IOException {
+        try (Client sender = new Client(); Client other = new Client()) {
+            byte[] message = new byte[FrameProtocol.maxFrameSize
+                    - (FrameProtocol.headerSize - FrameProtocol.lengthSize)];
+            Arrays.fill(message, (byte) 'a');
+            sender.send(FrameProtocol.chat, message);
+            sender.send(FrameProtocol.chat, "after".getBytes());
+
+            String rejected = sender.next().message(Charset.defaultCharset());
+            assertTrue(rejected.contains("was not sent"), rejected);
+            String after = "Client" + sender.clientID + ": after";
+            assertTrue(sender.next().message(Charset.defaultCharset()).endsWith(after));
+            assertTrue(other.next().message(Charset.defaultCharset()).endsWith(after));
+        }
+    }
+
+    /**
+     * The longest message that is forwarded still fits in a frame once the timestamp and name are put in front of it
+     */
+    @Test
+    void longestMessageIsForwarded() throws IOException {
+        try (Client sender = new Client(); Client other = new Client()) {
+            byte[] message = new byte[MessageFormatter.maxMessageLength];
+            Arrays.fill(message, (byte) 'b');
+            sender.send(FrameProtocol.chat, message);
+
+            FrameProtocol.Frame frame = other.next();
+            assertEquals(FrameProtocol.chat, frame.type);
+            assertEquals(sender.clientID, frame.senderID);
+            assertArrayEquals(message, Arrays.copyOfRange(frame.body, frame.body.length - message.length,
+                    frame.body.length));
+        }
+    }
+
+    /**
+     * A framed client of the test, it skips the lines of text the server sends before the ack
+     */
+    private class Client implements AutoCloseable {
+
+        /**
+         * the socket connected to the server
+         */
+        private final Socket socket;
+
+        /**
+         * the stream the frames are read from
+         */
+        private final DataInputStream in;
+
+        /**
+         * the stream the frames are written to
+         */
+        private final DataOutputStream out;
+
+        /**
+         * the ID the server gave the client in its ack
+         */
+        final int clientID;
+
+        /**
+         * Connects to the server and waits for the ack to the preface
+         *
+         * @throws IOException if the client could not connect
+         */
+        Client() throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+            socket.setSoTimeout(readTimeout);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(socket.getOutputStream());
+            FrameProtocol.writePreface(out);
+            FrameProtocol.Frame ack = next();
+            assertEquals(FrameProtocol.ack, ack.type);
+            clientID = ack.senderID;
+        }
+
+        /**
+         * Sends a frame to the server
+         *
+         * @param type  the type of the frame
+         * @param body  the bytes of the message
+         * @throws IOException if the frame could not be written
+         */
+        void send(byte type, byte[] body) throws IOException {
+            FrameProtocol.writeFrame(out, type, clientID, body);
+            out.flush();
+        }
+
+        /**
+         * Reads the next frame from the server, skipping any lines of text
+         *
+         * @return the frame
+         * @throws IOException if the server could not be read or sent a frame that is not valid
+         */
+        FrameProtocol.Frame next() throws IOException {
+            while(true){
+                in.mark(1);
+                int first = in.read();
+                if(first < 0){
+                    throw new IOException("The server closed the connection.");
+                }
+                in.reset();
+                if(first == FrameProtocol.marker){
+                    return FrameProtocol.readFrame(in);
+                }
+                int b;
+                while((b = in.read()) != '\n' && b >= 0){
+                    //skip the line
+                }
+            }
+        }
+
+        /**
+         * Closes the socket
+         *
+         * @throws IOException if the socket could not be closed
+         */
+        public void close() throws IOException {
+
+            socket.close();
+        }
+    }
+}
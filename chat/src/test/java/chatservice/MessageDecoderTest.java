@@ -0,0 +1,195 @@
+package chatservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests splitting the bytes read from a client into lines and frames, however the bytes are split up by the reads
+ *
+ */
+public class MessageDecoderTest {
+
+    /**
+     * Keeps everything the decoder hands on
+     */
+    private static class Recorder implements MessageDecoder.Listener {
+
+        /**
+         * the versions of the prefaces received
+         */
+        final List<Integer> prefaces = new ArrayList<>();
+
+        /**
+         * the types of the messages received
+         */
+        final List<Byte> types = new ArrayList<>();
+
+        /**
+         * the messages received, as text
+         */
+        final List<String> messages = new ArrayList<>();
+
+        /**
+         * the reasons input was not valid
+         */
+        final List<String> invalid = new ArrayList<>();
+
+        public void prefaceReceived(int version){
+
+            prefaces.add(version);
+        }
+
+        public void messageReceived(byte type, byte[] message, int offset, int length){
+            types.add(type);
+            messages.add(new String(message, offset, length, StandardCharsets.UTF_8));
+        }
+
+        public void invalidInput(String reason){
+
+            invalid.add(reason);
+        }
+    }
+
+    /**
+     * Lines split across reads are put back together, and a windows line ending is dropped
+     */
+    @Test
+    void linesSplitAcrossReads(){
+        Recorder recorder = new Recorder();
+        MessageDecoder decoder = new MessageDecoder(recorder);
+        decoder.decode(bytes("hel"));
+        decoder.decode(bytes("lo\nwor"));
+        assertEquals(List.of("hello"), recorder.messages);
+        decoder.decode(bytes("ld\r\n"));
+
+        assertEquals(List.of("hello", "world"), recorder.messages);
+        assertEquals(List.of(FrameProtocol.chat, FrameProtocol.chat), recorder.types);
+        assertFalse(decoder.isFramed());
+    }
+
+    /**
+     * The disconnect and heartbeat messages are handed on as empty leave and heartbeat messages
+     */
+    @Test
+    void specialLines(){
+        Recorder recorder = new Recorder();
+        MessageDecoder decoder = new MessageDecoder(recorder);
+        decoder.decode(bytes(MainServer.heartbeat + "\n" + MainServer.removeMe + "\n"));
+
+        assertEquals(List.of(FrameProtocol.heartbeat, FrameProtocol.leave), recorder.types);
+        assertEquals(List.of("", ""), recorder.messages);
+    }
+
+    /**
+     * A line longer than the decoder keeps is handed on in pieces of the longest line
+     */
+    @Test
+    void longLineIsHandedOnInPieces(){
+        Recorder recorder = new Recorder();
+        MessageDecoder decoder = new MessageDecoder(recorder);
+        char[] line = new char[MessageDecoder.maxLineSize + 10];
+        Arrays.fill(line, 'x');
+        decoder.decode(bytes(new String(line) + "\n"));
+
+        assertEquals(2, recorder.messages.size());
+        assertEquals(MessageDecoder.maxLineSize, recorder.messages.get(0).length());
+        assertEquals(10, recorder.messages.get(1).length());
+    }
+
+    /**
+     * Frames are put back together when every byte arrives in a read of its own
+     */
+    @Test
+    void framesSplitIntoSingleBytes() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        FrameProtocol.writePreface(stream);
+        DataOutputStream out = new DataOutputStream(stream);
+        FrameProtocol.writeFrame(out, FrameProtocol.join, 0, bytes("has joined").array());
+        FrameProtocol.writeFrame(out, FrameProtocol.chat, 0, new byte[0]);
+        FrameProtocol.writeFrame(out, FrameProtocol.chat, 0, bytes("second").array());
+
+        Recorder recorder = new Recorder();
+        MessageDecoder decoder = new MessageDecoder(recorder);
+        for(byte b : stream.toByteArray()){
+            decoder.decode(ByteBuffer.wrap(new byte[]{b}));
+        }
+
+        assertEquals(List.of((int) FrameProtocol.version), recorder.prefaces);
+        assertTrue(decoder.isFramed());
+        assertEquals(List.of(FrameProtocol.join, FrameProtocol.chat, FrameProtocol.chat), recorder.types);
+        assertEquals(List.of("has joined", "", "second"), recorder.messages);
+        assertTrue(recorder.invalid.isEmpty());
+    }
+
+    /**
+     * A frame longer than the longest frame stops the decoder before its body is read
+     */
+    @Test
+    void oversizedFrameStopsTheDecoder() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        FrameProtocol.writePreface(stream);
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(FrameProtocol.maxFrameSize + 1);
+        FrameProtocol.writeFrame(out, FrameProtocol.chat, 0, bytes("never read").array());
+
+        Recorder recorder = new Recorder();
+        MessageDecoder decoder = new MessageDecoder(recorder);
+        decoder.decode(ByteBuffer.wrap(stream.toByteArray()));
+
+        assertEquals(1, recorder.invalid.size());
+        assertTrue(recorder.messages.isEmpty());
+    }
+
+    /**
+     * A preface with a version that is not valid stops the decoder
+     */
+    @Test
+    void badPrefaceStopsTheDecoder(){
+        Recorder recorder = new Recorder();
+        MessageDecoder decoder = new MessageDecoder(recorder);
+        decoder.decode(ByteBuffer.wrap(new byte[]{FrameProtocol.marker, 'C', 'H', 0}));
+
+        assertEquals(1, recorder.invalid.size());
+        assertTrue(recorder.prefaces.isEmpty());
+    }
+
+    /**
+     * A decoder for the bytes from the server switches from lines to frames part way through a read
+     */
+    @Test
+    void serverSwitchesToFramesAtTheAck() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(bytes("greeting\n").array());
+        DataOutputStream out = new DataOutputStream(stream);
+        FrameProtocol.writeFrame(out, FrameProtocol.ack, 3, bytes("1").array());
+        FrameProtocol.writeFrame(out, FrameProtocol.chat, 3, bytes("framed").array());
+
+        Recorder recorder = new Recorder();
+        MessageDecoder decoder = new MessageDecoder(recorder, true);
+        decoder.decode(ByteBuffer.wrap(stream.toByteArray()));
+
+        assertEquals(List.of(FrameProtocol.chat, FrameProtocol.ack, FrameProtocol.chat), recorder.types);
+        assertEquals(List.of("greeting", "1", "framed"), recorder.messages);
+    }
+
+    /**
+     * A helper method that turns text into bytes to decode
+     *
+     * @param text the text
+     * @return the bytes of the text
+     */
+    private static ByteBuffer bytes(String text){
+
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,242 @@
+package chatservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the outbound queue of a client with each slow consumer policy
+ *
+ */
+public class OutboundQueueTest {
+
+    /**
+     * the number of messages waiting before the policy is applied
+     */
+    private static final int threshold = 3;
+
+    /**
+     * the size of the queues
+     */
+    private static final int capacity = 8;
+
+    /**
+     * A client that keeps the reasons it was disconnected and the messages thrown away
+     */
+    private static class Client implements ClientSession {
+
+        /**
+         * the reasons the client was told to disconnect
+         */
+        final List<String> disconnects = new ArrayList<>();
+
+        /**
+         * the messages thrown away to make room for newer ones
+         */
+        final List<Payload> evicted = new ArrayList<>();
+
+        public int getClientID(){
+
+            return 1;
+        }
+
+        public boolean isProtocolUDP(){
+
+            return false;
+        }
+
+        public InetAddress getInetAddress(){
+
+            return InetAddress.getLoopbackAddress();
+        }
+
+        public void send(Payload message){
+            //the test adds to the queue itself
+        }
+
+        public void disconnect(String reason){
+
+            disconnects.add(reason);
+        }
+
+        public void evicted(Payload message){
+
+            evicted.add(message);
+        }
+
+        public Room getRoom(){
+
+            return null;
+        }
+
+        public void setRoom(Room room){
+            //the client is in no room
+        }
+
+        public OutboundQueue getOutboundQueue(){
+
+            return null;
+        }
+    }
+
+    /**
+     * the client of the queue under test
+     */
+    private final Client client = new Client();
+
+    /**
+     * the numbers the actions of the policies are counted in
+     */
+    private final ServerMetrics metrics = new ServerMetrics(new ClientRegistry(), new ServerEvents(16), 0);
+
+    /**
+     * Messages come off the queue in the order they were added
+     */
+    @Test
+    void firstInFirstOut(){
+        OutboundQueue queue = new OutboundQueue(capacity);
+        for(int i = 0; i < 5; i++){
+            offer(queue, "m" + i);
+        }
+        for(int i = 0; i < 5; i++){
+            assertEquals("m" + i, text(queue.poll()));
+        }
+        assertNull(queue.poll());
+    }
+
+    /**
+     * dropNewest drops messages past the threshold and keeps the ones waiting
+     */
+    @Test
+    void dropNewest(){
+        OutboundQueue queue = queue(SlowConsumerPolicy.dropNewest);
+        for(int i = 0; i < 5; i++){
+            assertEquals(i < threshold, offer(queue, "m" + i));
+        }
+        assertEquals(threshold, queue.depth());
+        assertEquals(2, queue.getDropped());
+        assertEquals(2, metrics.getTcpSlowConsumerDrops());
+        assertEquals("m0", text(queue.poll()));
+        assertTrue(client.disconnects.isEmpty());
+    }
+
+    /**
+     * dropOldest throws away the oldest message to make room, and tells the client before it is released
+     */
+    @Test
+    void dropOldest(){
+        OutboundQueue queue = queue(SlowConsumerPolicy.dropOldest);
+        for(int i = 0; i < 5; i++){
+            assertTrue(offer(queue, "m" + i));
+        }
+        assertEquals(threshold, queue.depth());
+        assertEquals(2, queue.getEvicted());
+        assertEquals(2, client.evicted.size());
+        assertEquals(2, metrics.getTcpSlowConsumerDrops());
+        assertEquals("m2", text(queue.poll()));
+        assertEquals("m3", text(queue.poll()));
+        assertEquals("m4", text(queue.poll()));
+    }
+
+    /**
+     * disconnect tells the client to go once, however many messages arrive after the threshold
+     */
+    @Test
+    void disconnect(){
+        OutboundQueue queue = queue(SlowConsumerPolicy.disconnect);
+        for(int i = 0; i < 6; i++){
+            assertEquals(i < threshold, offer(queue, "m" + i));
+        }
+        assertEquals(1, client.disconnects.size());
+        assertEquals(1, metrics.getTcpSlowConsumerDisconnects());
+    }
+
+    /**
+     * The history sent on joining does not count towards the threshold, only the live messages after it do
+     */
+    @Test
+    void historyIsExempt(){
+        OutboundQueue queue = queue(SlowConsumerPolicy.disconnect);
+        for(int i = 0; i < capacity - 1; i++){
+            Payload message = Payload.encode("h" + i);
+            assertTrue(queue.offerHistory(message));
+            message.release();
+        }
+        assertTrue(offer(queue, "live"));
+        assertTrue(client.disconnects.isEmpty());
+
+        //the queue is only full of history, the new message is dropped but the client stays
+        assertFalse(offer(queue, "full"));
+        assertTrue(client.disconnects.isEmpty());
+
+        for(int i = 0; i < capacity; i++){
+            queue.poll().release();
+        }
+        for(int i = 0; i <= threshold; i++){
+            offer(queue, "m" + i);
+        }
+        assertEquals(1, client.disconnects.size());
+    }
+
+    /**
+     * Closing the queue wakes up a writer waiting in take
+     */
+    @Test
+    void closeWakesTheWriter() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(capacity);
+        Thread closer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.close();
+        });
+        closer.start();
+        assertNull(queue.take());
+        closer.join();
+        assertFalse(offer(queue, "after"));
+    }
+
+    /**
+     * A helper method that makes a queue of the client with a policy
+     *
+     * @param action the action of the policy
+     * @return the empty queue
+     */
+    private OutboundQueue queue(int action){
+
+        return new OutboundQueue(capacity, new SlowConsumerPolicy(action, threshold, metrics, ServerMetrics.tcp), client);
+    }
+
+    /**
+     * A helper method that adds a message from the server to a queue
+     *
+     * @param queue     the queue
+     * @param message   the message
+     * @return true if the message was added
+     */
+    private static boolean offer(OutboundQueue queue, String message){
+        Payload payload = Payload.encode(message);
+        boolean added = queue.offer(payload);
+        payload.release();
+        return added;
+    }
+
+    /**
+     * A helper method that returns the text of a message taken off a queue and releases it
+     *
+     * @param message the message
+     * @return the text, without its newline
+     */
+    private static String text(Payload message){
+        byte[] bytes = new byte[message.datagramLength()];
+        message.view(false).get(bytes);
+        message.release();
+        return new String(bytes);
+    }
+}
@@ -0,0 +1,69 @@
+package chatservice;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the message and byte rate limits of a client
+ *
+ */
+public class TokenBucketTest {
+
+    /**
+     * the nanoseconds in a second
+     */
+    private static final long second = 1_000_000_000L;
+
+    /**
+     * A full bucket lets a burst of messages through, then makes the client wait for the next token
+     */
+    @Test
+    void burstThenWait(){
+        TokenBucket bucket = new TokenBucket(5, 0, 0);
+        for(int i = 0; i < 5; i++){
+            assertEquals(0, bucket.acquire(10, 0));
+        }
+        long wait = bucket.acquire(10, 0);
+        assertEquals(second / 5, wait);
+
+        //a refused message takes no tokens, so it goes through once the wait is over
+        assertTrue(bucket.acquire(10, wait - 1) > 0);
+        assertEquals(0, bucket.acquire(10, wait));
+    }
+
+    /**
+     * Tokens earned while the client is quiet never fill the bucket past one second of messages
+     */
+    @Test
+    void bucketDoesNotOverfill(){
+        TokenBucket bucket = new TokenBucket(2, 0, 0);
+        long now = 60 * second;
+        assertEquals(0, bucket.acquire(1, now));
+        assertEquals(0, bucket.acquire(1, now));
+        assertTrue(bucket.acquire(1, now) > 0);
+    }
+
+    /**
+     * A message longer than the byte bucket goes through, and the next one waits until the debt is paid off
+     */
+    @Test
+    void byteBucketGoesNegative(){
+        TokenBucket bucket = new TokenBucket(0, 1000, 0);
+        assertEquals(0, bucket.acquire(3000, 0));
+        assertEquals(2 * second, bucket.acquire(1, 0));
+        assertEquals(second, bucket.acquire(1, second));
+        assertEquals(0, bucket.acquire(1, 2 * second));
+    }
+
+    /**
+     * Rates of 0 do not limit the client
+     */
+    @Test
+    void zeroRatesAreUnlimited(){
+        TokenBucket bucket = new TokenBucket(0, 0, 0);
+        for(int i = 0; i < 10_000; i++){
+            assertEquals(0, bucket.acquire(FrameProtocol.maxFrameSize, 0));
+        }
+    }
+}